@@ -0,0 +1,467 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * DataProfile.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.preprocessing;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import weka.core.Instances;
+
+/**
+ * Characteristics of a dataset that drive the generation of preprocessing
+ * pipelines. Profiles are either computed exactly from a dataset or estimated
+ * from a sample of a CSV file, in which case they come with 95% confidence
+ * intervals.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class DataProfile {
+
+  /** the z value for 95% confidence intervals. */
+  public final static double Z = 1.96;
+
+  /** the size of the blocks to sample. */
+  public final static int BLOCK_SIZE = 64 * 1024;
+
+  /** the (estimated) number of rows. */
+  protected long m_NumRows;
+
+  /** the half-width of the confidence interval for the number of rows. */
+  protected double m_NumRowsHalfWidth;
+
+  /** the number of columns. */
+  protected int m_NumColumns;
+
+  /** the (estimated) fraction of missing values per column. */
+  protected double[] m_MissingFraction;
+
+  /** the half-widths of the confidence intervals of the fractions. */
+  protected double[] m_MissingHalfWidth;
+
+  /** the number of missing values per row (exact profiles only). */
+  protected int[] m_MissingByRow;
+
+  /** the index of the missing values (exact profiles only). */
+  protected MissingValueIndex m_MissingIndex;
+
+  /** the number of rows the profile is based on. */
+  protected int m_SampleSize;
+
+  /** whether the profile is exact. */
+  protected boolean m_Exact;
+
+  /**
+   * Returns the (estimated) number of rows.
+   *
+   * @return		the rows
+   */
+  public long getNumRows() {
+    return m_NumRows;
+  }
+
+  /**
+   * Returns the half-width of the confidence interval for the number of rows.
+   *
+   * @return		the half-width, 0 for exact profiles
+   */
+  public double getNumRowsHalfWidth() {
+    return m_NumRowsHalfWidth;
+  }
+
+  /**
+   * Returns the number of columns.
+   *
+   * @return		the columns
+   */
+  public int getNumColumns() {
+    return m_NumColumns;
+  }
+
+  /**
+   * Returns the (estimated) fraction of missing values per column.
+   *
+   * @return		the fractions
+   */
+  public double[] getMissingFraction() {
+    return m_MissingFraction;
+  }
+
+  /**
+   * Returns the half-widths of the confidence intervals of the missing value
+   * fractions.
+   *
+   * @return		the half-widths, all 0 for exact profiles
+   */
+  public double[] getMissingHalfWidth() {
+    return m_MissingHalfWidth;
+  }
+
+  /**
+   * Returns the number of missing values per row.
+   *
+   * @return		the counts, null for sampled profiles
+   */
+  public int[] getMissingByRow() {
+    return m_MissingByRow;
+  }
+
+  /**
+   * Returns the index of the missing values.
+   *
+   * @return		the index, null for sampled profiles
+   */
+  public MissingValueIndex getMissingIndex() {
+    return m_MissingIndex;
+  }
+
+  /**
+   * Returns the number of rows the profile is based on.
+   *
+   * @return		the number of rows
+   */
+  public int getSampleSize() {
+    return m_SampleSize;
+  }
+
+  /**
+   * Returns whether the profile is exact or estimated from a sample.
+   *
+   * @return		true if exact
+   */
+  public boolean isExact() {
+    return m_Exact;
+  }
+
+  /**
+   * Returns the largest half-width of the missing value fractions.
+   *
+   * @return		the largest half-width
+   */
+  public double getMaxMissingHalfWidth() {
+    double	result;
+
+    result = 0;
+    for (double hw: m_MissingHalfWidth)
+      result = Math.max(result, hw);
+
+    return result;
+  }
+
+  /**
+   * Returns the characteristics as strings.
+   *
+   * @return		the characteristics
+   */
+  public String[] toStrings() {
+    List<String>	result;
+
+    result = new ArrayList<String>();
+    if (m_Exact) {
+      result.add("rows = " + m_NumRows);
+    }
+    else {
+      result.add("rows = " + m_NumRows + " +/- " + Math.round(m_NumRowsHalfWidth));
+      result.add("sampleSize = " + m_SampleSize);
+    }
+    result.add("columns = " + m_NumColumns);
+    if (m_MissingByRow != null)
+      result.add("missingValuesByRow = " + Arrays.toString(m_MissingByRow));
+    result.add("missingFractionByColumn = " + Arrays.toString(m_MissingFraction));
+    if (!m_Exact)
+      result.add("missingFractionHalfWidthByColumn = " + Arrays.toString(m_MissingHalfWidth));
+
+    return result.toArray(new String[result.size()]);
+  }
+
+  /**
+   * Computes the exact profile of the dataset.
+   *
+   * @param data	the dataset to profile
+   * @return		the profile
+   */
+  public static DataProfile compute(Instances data) {
+    DataProfile		result;
+    MissingValueIndex	index;
+    int			j;
+
+    index                     = new MissingValueIndex(data);
+    result                    = new DataProfile();
+    result.m_Exact            = true;
+    result.m_MissingIndex     = index;
+    result.m_NumRows          = data.numInstances();
+    result.m_SampleSize       = data.numInstances();
+    result.m_NumColumns       = data.numAttributes();
+    result.m_MissingByRow     = index.getCountsByRow();
+    result.m_MissingFraction  = new double[data.numAttributes()];
+    result.m_MissingHalfWidth = new double[data.numAttributes()];
+    for (j = 0; j < data.numAttributes(); j++)
+      result.m_MissingFraction[j] = index.getFraction(j);
+
+    return result;
+  }
+
+  /**
+   * Checks whether the cell is a missing value.
+   *
+   * @param cell	the (trimmed) cell content
+   * @param missing	the string representing missing values
+   * @return		true if missing
+   */
+  protected static boolean isMissing(String cell, String missing) {
+    return (cell.length() == 0) || cell.equals(missing);
+  }
+
+  /**
+   * Splits the CSV line into cells, honoring quotes.
+   *
+   * @param line	the line to split
+   * @param separator	the cell separator
+   * @param quote	the quote character, 0 for none
+   * @return		the cells
+   */
+  protected static List<String> split(String line, char separator, char quote) {
+    List<String>	result;
+    StringBuilder	cell;
+    boolean		quoted;
+    char		c;
+    int			i;
+
+    result = new ArrayList<String>();
+    cell   = new StringBuilder();
+    quoted = false;
+    for (i = 0; i < line.length(); i++) {
+      c = line.charAt(i);
+      if ((quote != 0) && (c == quote)) {
+	quoted = !quoted;
+      }
+      else if ((c == separator) && !quoted) {
+	result.add(cell.toString().trim());
+	cell.setLength(0);
+      }
+      else {
+	cell.append(c);
+      }
+    }
+    result.add(cell.toString().trim());
+
+    return result;
+  }
+
+  /**
+   * Reads the lines starting in the block, i.e., skips the partial line at
+   * the start (unless at the start of the data) and reads past the end of
+   * the block to complete the last line.
+   *
+   * @param channel	the file channel
+   * @param offset	the start of the block
+   * @param dataStart	the start of the data, i.e., after the header
+   * @param size	the size of the file
+   * @param lines	for storing the lines
+   * @param lengths	for storing the lengths of the lines in bytes
+   * @param max		the maximum number of lines to read
+   * @throws IOException	if reading fails
+   */
+  protected static void readBlock(FileChannel channel, long offset, long dataStart, long size, List<String> lines, List<Integer> lengths, int max) throws IOException {
+    MappedByteBuffer	buffer;
+    Charset		charset;
+    byte[]		bytes;
+    int			start;
+    int			i;
+    int			len;
+    boolean		last;
+
+    len     = (int) Math.min((long) BLOCK_SIZE * 2, size - offset);
+    buffer  = channel.map(FileChannel.MapMode.READ_ONLY, offset, len);
+    bytes   = new byte[len];
+    buffer.get(bytes);
+    charset = Charset.forName("UTF-8");
+
+    start = 0;
+    if (offset > dataStart) {
+      while ((start < len) && (bytes[start] != '\n'))
+	start++;
+      start++;
+    }
+    last = (offset + len == size);
+    for (i = start; (i < len) && (lines.size() < max); i++) {
+      // lines starting in the second half belong to the next block
+      if ((start >= BLOCK_SIZE) && !last)
+	break;
+      if (bytes[i] == '\n') {
+	if (i > start) {
+	  lines.add(new String(bytes, start, i - start, charset).trim());
+	  lengths.add(i - start + 1);
+	}
+	start = i + 1;
+      }
+    }
+    // last line of file without trailing newline
+    if (last && (start < len) && (lines.size() < max)) {
+      lines.add(new String(bytes, start, len - start, charset).trim());
+      lengths.add(len - start);
+    }
+  }
+
+  /**
+   * Returns the length of the first line, including the line break.
+   *
+   * @param channel	the file channel
+   * @param size	the size of the file
+   * @return		the length
+   * @throws IOException	if reading fails
+   */
+  protected static long headerLength(FileChannel channel, long size) throws IOException {
+    MappedByteBuffer	buffer;
+    long		result;
+
+    result = 0;
+    while (result < size) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, result, Math.min(BLOCK_SIZE, size - result));
+      while (buffer.hasRemaining()) {
+	result++;
+	if (buffer.get() == '\n')
+	  return result;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Estimates the profile of a CSV file from a sample of lines taken from
+   * randomly chosen blocks of the memory-mapped file. Returns null if the
+   * confidence intervals of the missing value fractions are too wide, in
+   * which case a full scan is required.
+   *
+   * @param file		the CSV file
+   * @param separator		the cell separator
+   * @param quote		the quote character, 0 for none
+   * @param missing		the string representing missing values (in
+   * 				addition to empty cells)
+   * @param header		whether the file has a header row
+   * @param sampleSize		the number of lines to sample
+   * @param maxHalfWidth	the maximum half-width of the confidence intervals
+   * @param seed		the seed for choosing the blocks
+   * @return		the profile, null if the intervals are too wide
+   * @throws IOException	if reading fails
+   */
+  public static DataProfile sample(File file, char separator, char quote, String missing, boolean header, int sampleSize, double maxHalfWidth, long seed) throws IOException {
+    DataProfile		result;
+    RandomAccessFile	raf;
+    FileChannel		channel;
+    long		size;
+    long		dataStart;
+    long		numBlocks;
+    int			perBlock;
+    List<String>	lines;
+    List<Integer>	lengths;
+    List<Long>		offsets;
+    Random		random;
+    List<String>	cells;
+    int[]		counts;
+    double		mean;
+    double		var;
+    double		p;
+    int			n;
+    int			i;
+    int			j;
+
+    raf = new RandomAccessFile(file, "r");
+    try {
+      channel   = raf.getChannel();
+      size      = channel.size();
+      dataStart = header ? headerLength(channel, size) : 0;
+      numBlocks = Math.max(1, (size - dataStart) / BLOCK_SIZE);
+      lines     = new ArrayList<String>();
+      lengths   = new ArrayList<Integer>();
+      // sample blocks without replacement, spreading the sample over at
+      // least sampleSize/100 blocks
+      perBlock  = (int) Math.max(100, (sampleSize + numBlocks - 1) / numBlocks);
+      random    = new Random(seed);
+      offsets   = new ArrayList<Long>();
+      for (i = 0; i < numBlocks; i++)
+	offsets.add(dataStart + (long) i * BLOCK_SIZE);
+      Collections.shuffle(offsets, random);
+      for (i = 0; (i < offsets.size()) && (lines.size() < sampleSize); i++)
+	readBlock(channel, offsets.get(i), dataStart, size, lines, lengths, Math.min(sampleSize, lines.size() + perBlock));
+    }
+    finally {
+      raf.close();
+    }
+
+    n = lines.size();
+    if (n == 0)
+      return null;
+
+    result              = new DataProfile();
+    result.m_Exact      = false;
+    result.m_SampleSize = n;
+
+    // rows: file size divided by the mean line length
+    mean = 0;
+    for (int l: lengths)
+      mean += l;
+    mean /= lengths.size();
+    var = 0;
+    for (int l: lengths)
+      var += (l - mean) * (l - mean);
+    var /= Math.max(1, lengths.size() - 1);
+    result.m_NumRows          = Math.round((size - dataStart) / mean);
+    result.m_NumRowsHalfWidth = result.m_NumRows * Z * (Math.sqrt(var) / mean) / Math.sqrt(lengths.size());
+
+    // missing values
+    result.m_NumColumns = 0;
+    counts = new int[0];
+    for (String line: lines) {
+      cells = split(line, separator, quote);
+      if (cells.size() > counts.length)
+	counts = Arrays.copyOf(counts, cells.size());
+      for (j = 0; j < cells.size(); j++) {
+	if (isMissing(cells.get(j), missing))
+	  counts[j]++;
+      }
+    }
+    result.m_NumColumns       = counts.length;
+    result.m_MissingFraction  = new double[counts.length];
+    result.m_MissingHalfWidth = new double[counts.length];
+    for (j = 0; j < counts.length; j++) {
+      p = (double) counts[j] / n;
+      result.m_MissingFraction[j]  = p;
+      // normal approximation, with continuity correction for p close to 0/1
+      result.m_MissingHalfWidth[j] = Z * Math.sqrt(p * (1 - p) / n) + 0.5 / n;
+    }
+
+    if (result.getMaxMissingHalfWidth() > maxHalfWidth)
+      return null;
+
+    return result;
+  }
+}
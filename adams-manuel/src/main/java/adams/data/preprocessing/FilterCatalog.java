@@ -0,0 +1,414 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * FilterCatalog.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.preprocessing;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import weka.filters.Filter;
+
+/**
+ * Catalog of the Weka filters available in the Weka jar, i.e., the
+ * non-abstract, public filters with a default constructor. Filters are
+ * referenced by their index in the catalog.
+ * <p/>
+ * The catalog gets read from the index that is generated at build time
+ * (see {@link FilterIndexGenerator}); filter classes only get loaded (without
+ * initialization) once they are actually used. Without index, the jar gets
+ * scanned once per JVM, which loads and initializes all filter classes.
+ * <p/>
+ * The default constructor of each filter is resolved once as method handle,
+ * instantiating filters does not involve any reflective access checks.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class FilterCatalog {
+
+  /**
+   * Factory that invokes the method handle of a default constructor.
+   */
+  protected static class HandleFactory
+    implements FilterFactory {
+
+    /** the constructor, adapted to return a Filter. */
+    protected final MethodHandle m_Handle;
+
+    /**
+     * Initializes the factory.
+     *
+     * @param handle	the handle of the default constructor
+     */
+    public HandleFactory(MethodHandle handle) {
+      m_Handle = handle.asType(MethodType.methodType(Filter.class));
+    }
+
+    /**
+     * Returns a new instance of the filter.
+     *
+     * @return		the filter
+     * @throws Exception	if instantiation fails
+     */
+    @Override
+    public Filter newFilter() throws Exception {
+      try {
+	return (Filter) m_Handle.invokeExact();
+      }
+      catch (Exception e) {
+	throw e;
+      }
+      catch (Error e) {
+	throw e;
+      }
+      catch (Throwable t) {
+	throw new IllegalStateException(t);
+      }
+    }
+  }
+
+  /** the singleton. */
+  protected static FilterCatalog m_Singleton;
+
+  /** the logger. */
+  protected static Logger m_Logger;
+
+  /** the resource with the index generated at build time. */
+  public final static String INDEX_RESOURCE = "adams/data/preprocessing/filters.idx";
+
+  /** the classnames of the filters. */
+  protected List<String> m_Classnames;
+
+  /** the filter classes (loaded on demand). */
+  protected Class<?>[] m_Classes;
+
+  /** the factories of the filters (resolved on demand). */
+  protected FilterFactory[] m_Factories;
+
+  /** the lookup for classname to index. */
+  protected HashMap<String, Integer> m_Indices;
+
+  /**
+   * Initializes the catalog with the scanned classes.
+   *
+   * @param classes	the available filter classes
+   * @param constructors	the handles of their default constructors
+   */
+  protected FilterCatalog(List<Class<?>> classes, List<MethodHandle> constructors) {
+    this(getNames(classes));
+
+    int		i;
+
+    for (i = 0; i < classes.size(); i++) {
+      m_Classes[i]   = classes.get(i);
+      m_Factories[i] = new HandleFactory(constructors.get(i));
+    }
+  }
+
+  /**
+   * Initializes the catalog with the classnames from the index, the classes
+   * get loaded on demand.
+   *
+   * @param classnames	the classnames of the available filters
+   */
+  protected FilterCatalog(List<String> classnames) {
+    int		i;
+
+    m_Classnames   = Collections.unmodifiableList(classnames);
+    m_Classes      = new Class<?>[classnames.size()];
+    m_Factories    = new FilterFactory[classnames.size()];
+    m_Indices      = new HashMap<String, Integer>();
+    for (i = 0; i < classnames.size(); i++)
+      m_Indices.put(classnames.get(i), i);
+  }
+
+  /**
+   * Returns the names of the classes.
+   *
+   * @param classes	the classes
+   * @return		the classnames
+   */
+  protected static List<String> getNames(List<Class<?>> classes) {
+    List<String>	result;
+
+    result = new ArrayList<String>();
+    for (Class<?> cls: classes)
+      result.add(cls.getName());
+
+    return result;
+  }
+
+  /**
+   * Returns the number of filters in the catalog.
+   *
+   * @return		the number of filters
+   */
+  public int size() {
+    return m_Classnames.size();
+  }
+
+  /**
+   * Returns the filter class at the specified index. Classes from the index
+   * get loaded, but not initialized, the first time.
+   *
+   * @param index	the index of the filter
+   * @return		the class
+   * @throws IllegalStateException	if the class is not available
+   */
+  public synchronized Class<?> getClass(int index) {
+    if (m_Classes[index] == null) {
+      try {
+	m_Classes[index] = Class.forName(m_Classnames.get(index), false, FilterCatalog.class.getClassLoader());
+      }
+      catch (ClassNotFoundException e) {
+	throw new IllegalStateException("Filter not available (outdated index?): " + m_Classnames.get(index), e);
+      }
+    }
+    return m_Classes[index];
+  }
+
+  /**
+   * Returns the classname of the filter at the specified index.
+   *
+   * @param index	the index of the filter
+   * @return		the classname
+   */
+  public String getClassname(int index) {
+    return m_Classnames.get(index);
+  }
+
+  /**
+   * Returns the index of the filter class.
+   *
+   * @param classname	the classname of the filter
+   * @return		the index, -1 if not in the catalog
+   */
+  public int indexOf(String classname) {
+    Integer	result;
+
+    result = m_Indices.get(classname);
+    if (result == null)
+      return -1;
+    else
+      return result;
+  }
+
+  /**
+   * Returns all the filter classes, loading them if necessary.
+   *
+   * @return		the classes
+   */
+  public List<Class<?>> getClasses() {
+    List<Class<?>>	result;
+    int			i;
+
+    result = new ArrayList<Class<?>>();
+    for (i = 0; i < size(); i++)
+      result.add(getClass(i));
+
+    return Collections.unmodifiableList(result);
+  }
+
+  /**
+   * Instantiates the filter at the specified index, using default options.
+   *
+   * @param index	the index of the filter
+   * @return		the new filter
+   * @throws Exception	if instantiation fails
+   */
+  public Filter newFilter(int index) throws Exception {
+    return getFactory(index).newFilter();
+  }
+
+  /**
+   * Returns the factory for the filter at the specified index, resolving
+   * the constructor the first time.
+   *
+   * @param index	the index of the filter
+   * @return		the factory
+   * @throws IllegalStateException	if the filter has no public default
+   * 					constructor
+   */
+  public synchronized FilterFactory getFactory(int index) {
+    MethodHandle	constructor;
+
+    if (m_Factories[index] == null) {
+      constructor = findDefaultConstructor(getClass(index));
+      if (constructor == null)
+	throw new IllegalStateException("No public default constructor: " + m_Classnames.get(index));
+      m_Factories[index] = new HandleFactory(constructor);
+    }
+    return m_Factories[index];
+  }
+
+  /**
+   * Loads the catalog from the index generated at build time.
+   *
+   * @return		the catalog, null if no index available
+   * @throws IOException	if reading the index fails
+   * @see		FilterIndexGenerator
+   */
+  protected static FilterCatalog loadIndex() throws IOException {
+    InputStream		stream;
+    BufferedReader	reader;
+    List<String>	classnames;
+    String		line;
+
+    stream = FilterCatalog.class.getClassLoader().getResourceAsStream(INDEX_RESOURCE);
+    if (stream == null)
+      return null;
+
+    classnames   = new ArrayList<String>();
+    reader       = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+    try {
+      while ((line = reader.readLine()) != null) {
+	line = line.trim();
+	if ((line.length() == 0) || line.startsWith("#"))
+	  continue;
+	classnames.add(line);
+      }
+    }
+    finally {
+      reader.close();
+    }
+
+    return new FilterCatalog(classnames);
+  }
+
+  /**
+   * Find the available Weka filters in the jar file
+   *
+   * @param constructors	for storing the handles of the default
+   * 				constructors
+   * @return list wit the available Weka filters
+   * @throws IOException
+   * @throws ClassNotFoundException
+   */
+  protected static List<Class<?>> findWekaClasses(List<MethodHandle> constructors) throws IOException,
+      ClassNotFoundException {
+    String wekaJarPath = weka.filters.Filter.class.getProtectionDomain()
+	.getCodeSource().getLocation().toString();
+    wekaJarPath = URLDecoder.decode(wekaJarPath, "UTF-8").replace("file:", "");
+    JarFile wekaJar = new JarFile(wekaJarPath);
+    Enumeration<JarEntry> contents = wekaJar.entries();
+    List<Class<?>> wekaClasses = new ArrayList<Class<?>>(50);
+    int badModifiers = Modifier.ABSTRACT | Modifier.INTERFACE
+	| Modifier.PRIVATE | Modifier.PROTECTED;
+    while (contents.hasMoreElements()) {
+      JarEntry entry = contents.nextElement();
+      String name = entry.getName();
+      if (validClassFile(name)) {
+	String className = name.substring(0, name.length() - 6).replaceAll("/",
+	    ".");
+	Class<?> wekaClass = Class.forName(className);
+	if (((wekaClass.getModifiers() & badModifiers) == 0)
+	    && weka.filters.Filter.class.isAssignableFrom(wekaClass)) {
+	  MethodHandle constructor = findDefaultConstructor(wekaClass);
+	  if (constructor != null) {
+	    wekaClasses.add(wekaClass);
+	    constructors.add(constructor);
+	  }
+	}
+      }
+    }
+    wekaJar.close();
+    return wekaClasses;
+  }
+
+  /**
+   * Resolves the public default constructor of the class.
+   *
+   * @param wekaClass	the class to inspect
+   * @return		the handle, null if no public default constructor
+   */
+  protected static MethodHandle findDefaultConstructor(Class<?> wekaClass) {
+    try {
+      return MethodHandles.publicLookup().findConstructor(wekaClass,
+	  MethodType.methodType(void.class));
+    }
+    catch (NoSuchMethodException e) {
+      return null;
+    }
+    catch (IllegalAccessException e) {
+      return null;
+    }
+  }
+
+  protected static boolean validClassFile(String name) {
+    return name.startsWith("weka/filters/") && name.endsWith(".class")
+	&& !name.contains("$");
+  }
+
+  /**
+   * Returns the logger.
+   *
+   * @return		the logger
+   */
+  protected static synchronized Logger getLogger() {
+    if (m_Logger == null)
+      m_Logger = Logger.getLogger(FilterCatalog.class.getName());
+    return m_Logger;
+  }
+
+  /**
+   * Returns the singleton, loading the index or (if not available) scanning
+   * the Weka jar the first time.
+   *
+   * @return		the catalog
+   * @throws IllegalStateException	if scanning the jar fails
+   */
+  public static synchronized FilterCatalog getSingleton() {
+    if (m_Singleton == null) {
+      try {
+	m_Singleton = loadIndex();
+      }
+      catch (Exception e) {
+	getLogger().log(Level.WARNING, "Failed to load filter index, scanning Weka jar instead!", e);
+      }
+    }
+    if (m_Singleton == null) {
+      try {
+	List<MethodHandle> constructors = new ArrayList<MethodHandle>();
+	List<Class<?>> classes = findWekaClasses(constructors);
+	m_Singleton = new FilterCatalog(classes, constructors);
+      }
+      catch (Exception e) {
+	throw new IllegalStateException("Failed to scan Weka jar for filters!", e);
+      }
+    }
+    return m_Singleton;
+  }
+}
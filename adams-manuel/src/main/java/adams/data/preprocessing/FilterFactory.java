@@ -0,0 +1,41 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * FilterFactory.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.preprocessing;
+
+import weka.filters.Filter;
+
+/**
+ * Creates new instances of a specific filter class, using default options.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ * @see FilterCatalog#getFactory(int)
+ */
+public interface FilterFactory {
+
+  /**
+   * Returns a new instance of the filter.
+   *
+   * @return		the filter
+   * @throws Exception	if instantiation fails
+   */
+  public Filter newFilter() throws Exception;
+}
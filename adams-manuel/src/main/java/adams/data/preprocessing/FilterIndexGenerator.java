@@ -0,0 +1,90 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * FilterIndexGenerator.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.preprocessing;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates the index of the available Weka filters, which gets read by
+ * {@link FilterCatalog} instead of scanning the Weka jar. Executed at build
+ * time, see the pom.xml of this module.
+ * <p/>
+ * One classname per line. Only filters with a public default constructor
+ * are part of the catalog, hence listed.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class FilterIndexGenerator {
+
+  /**
+   * Writes the index to the specified file.
+   *
+   * @param file	the file to write to
+   * @throws Exception	if scanning or writing fails
+   */
+  public static void generate(File file) throws Exception {
+    List<MethodHandle>	constructors;
+    List<Class<?>>	classes;
+    BufferedWriter	writer;
+    FilterCatalog	catalog;
+    int			i;
+
+    constructors = new ArrayList<MethodHandle>();
+    classes      = FilterCatalog.findWekaClasses(constructors);
+    catalog      = new FilterCatalog(classes, constructors);
+
+    if (file.getParentFile() != null)
+      file.getParentFile().mkdirs();
+    writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+    try {
+      writer.write("# classname");
+      writer.newLine();
+      for (i = 0; i < catalog.size(); i++) {
+	writer.write(catalog.getClassname(i));
+	writer.newLine();
+      }
+    }
+    finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Generates the index.
+   *
+   * @param args	the file to write the index to
+   * @throws Exception	if generation fails
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length != 1) {
+      System.err.println("Usage: " + FilterIndexGenerator.class.getName() + " <output file>");
+      System.exit(1);
+    }
+    generate(new File(args[0]));
+  }
+}
@@ -0,0 +1,482 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * FilterOptionSchema.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.preprocessing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import weka.core.Option;
+import weka.core.OptionHandler;
+
+/**
+ * Describes the options of a filter class (types, ranges, choices) for
+ * sampling random configurations. The schema is extracted only once per class
+ * via {@link #forClass(Class)}, sampling itself does not involve any
+ * reflection or option parsing.
+ * <p/>
+ * The types and ranges are derived from the default options: flags get
+ * toggled, numeric options get sampled around their default value, options
+ * with a list of values in their synopsis (e.g., "&lt;0|1|2&gt;") pick one of
+ * them. Any other options keep their default value.
+ * <p/>
+ * When the schema gets built, each option is checked on its own against the
+ * filter: choices the filter rejects get dropped, numeric options whose
+ * bounds get rejected keep their default value and rejected flags get
+ * ignored. As options can depend on each other, combinations of valid values
+ * can still be rejected; this only surfaces once the configuration gets
+ * applied to the filter (e.g., when a {@link PipelineDescriptor} gets
+ * materialized).
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class FilterOptionSchema {
+
+  /**
+   * The type of an option.
+   */
+  public enum OptionType {
+    FLAG,
+    INTEGER,
+    DOUBLE,
+    CHOICE,
+    FIXED
+  }
+
+  /**
+   * Describes a single option.
+   */
+  public static class OptionSpec {
+
+    /** the flag, including the dash. */
+    protected String flag;
+
+    /** the type. */
+    protected OptionType type;
+
+    /** the default value (flags: "true" if set by default). */
+    protected String defValue;
+
+    /** the lower bound for numeric options. */
+    protected double min;
+
+    /** the upper bound for numeric options. */
+    protected double max;
+
+    /** the choices. */
+    protected String[] choices;
+
+    /**
+     * Returns the flag, including the dash.
+     *
+     * @return		the flag
+     */
+    public String getFlag() {
+      return flag;
+    }
+
+    /**
+     * Returns the type.
+     *
+     * @return		the type
+     */
+    public OptionType getType() {
+      return type;
+    }
+
+    /**
+     * Returns the default value.
+     *
+     * @return		the default, null if none
+     */
+    public String getDefault() {
+      return defValue;
+    }
+
+    /**
+     * Returns a short description.
+     *
+     * @return		the description
+     */
+    @Override
+    public String toString() {
+      switch (type) {
+	case INTEGER:
+	case DOUBLE:
+	  return flag + " " + type + " [" + min + ", " + max + "]";
+	case CHOICE:
+	  return flag + " " + type + " " + java.util.Arrays.toString(choices);
+	default:
+	  return flag + " " + type + " (" + defValue + ")";
+      }
+    }
+  }
+
+  /** the cached schemas. */
+  protected static Map<Class<?>, FilterOptionSchema> m_Cache = new HashMap<Class<?>, FilterOptionSchema>();
+
+  /** for extracting choices from the synopsis. */
+  protected static Pattern m_ChoicesPattern = Pattern.compile("<([^<>|]+(\\|[^<>|]+)+)>");
+
+  /** the filter class. */
+  protected Class<?> m_FilterClass;
+
+  /** the options. */
+  protected List<OptionSpec> m_Options;
+
+  /**
+   * Initializes the schema.
+   *
+   * @param filterClass	the filter class
+   * @param options	the options
+   */
+  protected FilterOptionSchema(Class<?> filterClass, List<OptionSpec> options) {
+    m_FilterClass = filterClass;
+    m_Options     = Collections.unmodifiableList(options);
+  }
+
+  /**
+   * Checks the values of each option on its own against the filter, removing
+   * the ones that get rejected.
+   *
+   * @param filterClass	the filter class
+   * @param options	the options to check
+   * @return		the checked options
+   */
+  protected static List<OptionSpec> check(Class<?> filterClass, List<OptionSpec> options) {
+    List<OptionSpec>	result;
+    List<String>	choices;
+
+    result = new ArrayList<OptionSpec>();
+    for (OptionSpec spec: options) {
+      switch (spec.type) {
+	case FLAG:
+	  if (!isValid(filterClass, new String[]{spec.flag}))
+	    continue;
+	  break;
+	case INTEGER:
+	case DOUBLE:
+	  if (!isValid(filterClass, new String[]{spec.flag, format(spec, spec.min)}) || !isValid(filterClass, new String[]{spec.flag, format(spec, spec.max)}))
+	    spec.type = OptionType.FIXED;
+	  break;
+	case CHOICE:
+	  choices = new ArrayList<String>();
+	  for (String choice: spec.choices) {
+	    if (isValid(filterClass, new String[]{spec.flag, choice}))
+	      choices.add(choice);
+	  }
+	  if (choices.isEmpty())
+	    continue;
+	  spec.choices = choices.toArray(new String[choices.size()]);
+	  break;
+	default:
+	  break;
+      }
+      result.add(spec);
+    }
+
+    return result;
+  }
+
+  /**
+   * Turns the value of the numeric option into a string.
+   *
+   * @param spec	the option
+   * @param value	the value
+   * @return		the string
+   */
+  protected static String format(OptionSpec spec, double value) {
+    if (spec.type == OptionType.INTEGER)
+      return "" + (int) value;
+    else
+      return "" + value;
+  }
+
+  /**
+   * Returns the filter class.
+   *
+   * @return		the class
+   */
+  public Class<?> getFilterClass() {
+    return m_FilterClass;
+  }
+
+  /**
+   * Returns the options.
+   *
+   * @return		the options (unmodifiable)
+   */
+  public List<OptionSpec> getOptions() {
+    return m_Options;
+  }
+
+  /**
+   * Returns a random configuration of the filter.
+   *
+   * @param random	the random number generator to use
+   * @return		the options
+   */
+  public String[] sample(Random random) {
+    List<String>	result;
+    double		value;
+
+    result = new ArrayList<String>(m_Options.size() * 2);
+    for (OptionSpec spec: m_Options) {
+      switch (spec.type) {
+	case FLAG:
+	  if (random.nextBoolean())
+	    result.add(spec.flag);
+	  break;
+	case INTEGER:
+	  result.add(spec.flag);
+	  result.add(format(spec, (int) spec.min + random.nextInt((int) spec.max - (int) spec.min + 1)));
+	  break;
+	case DOUBLE:
+	  value = spec.min + random.nextDouble() * (spec.max - spec.min);
+	  result.add(spec.flag);
+	  result.add(format(spec, value));
+	  break;
+	case CHOICE:
+	  result.add(spec.flag);
+	  result.add(spec.choices[random.nextInt(spec.choices.length)]);
+	  break;
+	case FIXED:
+	  if (spec.defValue != null) {
+	    result.add(spec.flag);
+	    result.add(spec.defValue);
+	  }
+	  break;
+	default:
+	  throw new IllegalStateException("Unhandled option type: " + spec.type);
+      }
+    }
+
+    return result.toArray(new String[result.size()]);
+  }
+
+  /**
+   * Checks whether the filter accepts the options. Instantiates the filter,
+   * hence only used when building the schema.
+   *
+   * @param options	the options to check
+   * @return		true if the options can be set
+   */
+  public boolean isValid(String[] options) {
+    return isValid(m_FilterClass, options);
+  }
+
+  /**
+   * Checks whether the filter accepts the options.
+   *
+   * @param filterClass	the filter class
+   * @param options	the options to check
+   * @return		true if the options can be set
+   */
+  protected static boolean isValid(Class<?> filterClass, String[] options) {
+    OptionHandler	handler;
+    int			index;
+
+    if (!OptionHandler.class.isAssignableFrom(filterClass))
+      return (options.length == 0);
+
+    try {
+      index = FilterCatalog.getSingleton().indexOf(filterClass.getName());
+      if (index == -1)
+	handler = (OptionHandler) filterClass.getConstructor().newInstance();
+      else
+	handler = (OptionHandler) FilterCatalog.getSingleton().newFilter(index);
+      handler.setOptions(options.clone());
+      return true;
+    }
+    catch (Exception e) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns the default value of the option.
+   *
+   * @param defaults	the default options of the filter
+   * @param flag	the flag to look for, including the dash
+   * @param numArgs	the number of arguments of the option
+   * @return		the value ("true" for set flags), null if not present
+   */
+  protected static String getDefault(String[] defaults, String flag, int numArgs) {
+    int		i;
+
+    for (i = 0; i < defaults.length; i++) {
+      if (defaults[i].equals(flag)) {
+	if (numArgs == 0)
+	  return "true";
+	else if (i < defaults.length - 1)
+	  return defaults[i + 1];
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Creates the specification for the option.
+   *
+   * @param option	the option to analyze
+   * @param defaults	the default options of the filter
+   * @return		the specification, null if to ignore option
+   */
+  protected static OptionSpec createSpec(Option option, String[] defaults) {
+    OptionSpec	result;
+    Matcher	matcher;
+    double	value;
+    String	desc;
+
+    if ((option.name() == null) || (option.name().length() == 0))
+      return null;
+    desc = (option.description() == null) ? "" : option.description().toLowerCase();
+    // don't touch debugging/housekeeping options
+    if (desc.contains("debug") || desc.contains("capabilities"))
+      return null;
+    if (option.numArguments() > 1)
+      return null;
+
+    result          = new OptionSpec();
+    result.flag     = "-" + option.name();
+    result.defValue = getDefault(defaults, result.flag, option.numArguments());
+
+    if (option.numArguments() == 0) {
+      result.type = OptionType.FLAG;
+      return result;
+    }
+
+    matcher = m_ChoicesPattern.matcher((option.synopsis() == null) ? "" : option.synopsis());
+    if (matcher.find()) {
+      result.type    = OptionType.CHOICE;
+      result.choices = matcher.group(1).split("\\|");
+      return result;
+    }
+
+    result.type = OptionType.FIXED;
+    if (result.defValue == null)
+      return result;
+
+    try {
+      value = Integer.parseInt(result.defValue);
+      result.type = OptionType.INTEGER;
+      if (value > 0) {
+	result.min = Math.max(1, Math.floor(value / 2));
+	result.max = Math.max(2, value * 2);
+      }
+      else {
+	result.min = value;
+	result.max = value + 10;
+      }
+      return result;
+    }
+    catch (NumberFormatException e) {
+      // not an integer
+    }
+
+    try {
+      value = Double.parseDouble(result.defValue);
+      result.type = OptionType.DOUBLE;
+      if (value > 0) {
+	result.min = value / 2;
+	result.max = value * 2;
+      }
+      else if (value < 0) {
+	result.min = value * 2;
+	result.max = value / 2;
+      }
+      else {
+	result.min = 0;
+	result.max = 1;
+      }
+    }
+    catch (NumberFormatException e) {
+      // neither numeric
+    }
+
+    return result;
+  }
+
+  /**
+   * Extracts the schema from the filter class.
+   *
+   * @param filterClass	the class to analyze
+   * @return		the schema
+   * @throws Exception	if instantiation fails
+   */
+  protected static FilterOptionSchema extract(Class<?> filterClass) throws Exception {
+    List<OptionSpec>	options;
+    OptionHandler	handler;
+    Enumeration<Option>	enm;
+    String[]		defaults;
+    OptionSpec		spec;
+    int			index;
+
+    options = new ArrayList<OptionSpec>();
+    if (OptionHandler.class.isAssignableFrom(filterClass)) {
+      index = FilterCatalog.getSingleton().indexOf(filterClass.getName());
+      if (index == -1)
+	handler = (OptionHandler) filterClass.getConstructor().newInstance();
+      else
+	handler = (OptionHandler) FilterCatalog.getSingleton().newFilter(index);
+      defaults = handler.getOptions();
+      enm      = handler.listOptions();
+      while (enm.hasMoreElements()) {
+	spec = createSpec(enm.nextElement(), defaults);
+	if (spec != null)
+	  options.add(spec);
+      }
+    }
+
+    return new FilterOptionSchema(filterClass, check(filterClass, options));
+  }
+
+  /**
+   * Returns the schema for the filter class, extracting it the first time.
+   *
+   * @param filterClass	the filter class
+   * @return		the schema
+   * @throws Exception	if extraction fails
+   */
+  public static FilterOptionSchema forClass(Class<?> filterClass) throws Exception {
+    FilterOptionSchema	result;
+
+    synchronized(m_Cache) {
+      result = m_Cache.get(filterClass);
+    }
+    if (result == null) {
+      result = extract(filterClass);
+      synchronized(m_Cache) {
+	m_Cache.put(filterClass, result);
+      }
+    }
+
+    return result;
+  }
+}
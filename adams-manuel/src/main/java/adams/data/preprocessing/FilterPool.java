@@ -0,0 +1,301 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * FilterPool.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.preprocessing;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import weka.core.OptionHandler;
+import weka.filters.Filter;
+import adams.flow.control.SubProcess;
+import adams.flow.core.AbstractActor;
+import adams.flow.transformer.ParallelWekaFilter;
+import adams.flow.transformer.WekaFilter;
+
+/**
+ * Pool of filters and filter actors for pipelines that get regenerated
+ * frequently. Released filters get reconfigured and reused by later pipelines
+ * (re-initializing the input format resets their state), which is only
+ * supported for filters that implement <code>OptionHandler</code>; all other
+ * filters are instantiated fresh every time, using the factories of the
+ * {@link FilterCatalog}.
+ * <p/>
+ * Filters and actors must only be released once they are no longer used.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class FilterPool {
+
+  /** the default number of idle instances to keep per filter class. */
+  public final static int DEFAULT_MAX_IDLE = 4;
+
+  /** the singleton. */
+  protected static FilterPool m_Singleton;
+
+  /** the default options per filter class. */
+  protected Map<Class<?>, String[]> m_Defaults;
+
+  /** the idle filters per class. */
+  protected Map<Class<?>, ArrayDeque<Filter>> m_Filters;
+
+  /** the idle filter actors. */
+  protected ArrayDeque<ParallelWekaFilter> m_Actors;
+
+  /** the number of idle instances to keep per filter class. */
+  protected int m_MaxIdle;
+
+  /** the number of filters created. */
+  protected long m_Created;
+
+  /** the number of filters reused. */
+  protected long m_Reused;
+
+  /**
+   * Initializes the pool.
+   */
+  public FilterPool() {
+    m_Defaults = new HashMap<Class<?>, String[]>();
+    m_Filters  = new HashMap<Class<?>, ArrayDeque<Filter>>();
+    m_Actors   = new ArrayDeque<ParallelWekaFilter>();
+    m_MaxIdle  = DEFAULT_MAX_IDLE;
+  }
+
+  /**
+   * Sets the number of idle instances to keep per filter class.
+   *
+   * @param value	the number of instances
+   */
+  public synchronized void setMaxIdle(int value) {
+    m_MaxIdle = value;
+  }
+
+  /**
+   * Returns the number of idle instances to keep per filter class.
+   *
+   * @return		the number of instances
+   */
+  public synchronized int getMaxIdle() {
+    return m_MaxIdle;
+  }
+
+  /**
+   * Returns the number of filters created so far.
+   *
+   * @return		the number of filters
+   */
+  public synchronized long getCreated() {
+    return m_Created;
+  }
+
+  /**
+   * Returns the number of filters reused so far.
+   *
+   * @return		the number of filters
+   */
+  public synchronized long getReused() {
+    return m_Reused;
+  }
+
+  /**
+   * Instantiates the filter class via its factory in the catalog, without
+   * counting it as created.
+   *
+   * @param cls		the filter class
+   * @return		the new filter
+   * @throws Exception	if instantiation fails
+   */
+  protected Filter instantiate(Class<?> cls) throws Exception {
+    FilterCatalog	catalog;
+    int			index;
+
+    catalog = FilterCatalog.getSingleton();
+    index   = catalog.indexOf(cls.getName());
+    if (index == -1)
+      return (Filter) cls.getConstructor().newInstance();
+    else
+      return catalog.newFilter(index);
+  }
+
+  /**
+   * Instantiates the filter class for use in a pipeline and records its
+   * default options, if not known yet.
+   *
+   * @param cls		the filter class
+   * @return		the new filter
+   * @throws Exception	if instantiation fails
+   */
+  protected Filter newInstance(Class<?> cls) throws Exception {
+    Filter	result;
+    boolean	known;
+
+    synchronized(this) {
+      m_Created++;
+      known = m_Defaults.containsKey(cls);
+    }
+    result = instantiate(cls);
+    if (!known && (result instanceof OptionHandler)) {
+      synchronized(this) {
+	m_Defaults.put(cls, ((OptionHandler) result).getOptions());
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns a configured filter, reusing an idle one if available.
+   *
+   * @param index	the catalog index of the filter
+   * @param options	the options, empty for default options
+   * @return		the filter
+   * @throws Exception	if instantiation or setting the options fails
+   */
+  public Filter acquire(int index, String[] options) throws Exception {
+    Class<?>		cls;
+    Filter		result;
+    ArrayDeque<Filter>	idle;
+    String[]		defaults;
+
+    cls      = FilterCatalog.getSingleton().getClass(index);
+    result   = null;
+    defaults = null;
+    synchronized(this) {
+      idle = m_Filters.get(cls);
+      if ((idle != null) && (idle.size() > 0)) {
+	result   = idle.pop();
+	defaults = m_Defaults.get(cls);
+	m_Reused++;
+      }
+    }
+
+    if (result == null) {
+      result = newInstance(cls);
+    }
+    else {
+      // restore the defaults, in case the filter does not reset options
+      // that are absent
+      ((OptionHandler) result).setOptions(defaults.clone());
+    }
+    if ((options.length > 0) && (result instanceof OptionHandler))
+      ((OptionHandler) result).setOptions(options.clone());
+
+    return result;
+  }
+
+  /**
+   * Returns the filter to the pool. Filters that don't implement
+   * <code>OptionHandler</code> get discarded. The default options are
+   * usually known from instantiating the filter, otherwise they get
+   * determined once per class.
+   *
+   * @param filter	the filter that is no longer used
+   */
+  public void release(Filter filter) {
+    Class<?>		cls;
+    ArrayDeque<Filter>	idle;
+    String[]		defaults;
+
+    if (!(filter instanceof OptionHandler))
+      return;
+
+    cls = filter.getClass();
+    synchronized(this) {
+      defaults = m_Defaults.get(cls);
+    }
+    if (defaults == null) {
+      try {
+	defaults = ((OptionHandler) instantiate(cls)).getOptions();
+      }
+      catch (Exception e) {
+	return;
+      }
+    }
+
+    synchronized(this) {
+      m_Defaults.put(cls, defaults);
+      idle = m_Filters.get(cls);
+      if (idle == null) {
+	idle = new ArrayDeque<Filter>();
+	m_Filters.put(cls, idle);
+      }
+      if (idle.size() < m_MaxIdle)
+	idle.push(filter);
+    }
+  }
+
+  /**
+   * Returns a filter actor, reusing an idle one if available.
+   *
+   * @return		the actor
+   */
+  public synchronized ParallelWekaFilter acquireActor() {
+    if (m_Actors.size() > 0)
+      return m_Actors.pop();
+    else
+      return new ParallelWekaFilter();
+  }
+
+  /**
+   * Returns the filters and filter actors of a (wrapped up) pipeline to the
+   * pool. The filter actors get cleaned up and removed from their sequence,
+   * the remaining actors still need to be cleaned up.
+   *
+   * @param actor	the pipeline that is no longer used
+   */
+  public void release(AbstractActor actor) {
+    SubProcess	seq;
+    WekaFilter	filter;
+    int		i;
+
+    if (actor instanceof SubProcess) {
+      seq = (SubProcess) actor;
+      for (i = seq.size() - 1; i >= 0; i--) {
+	if (seq.get(i) instanceof WekaFilter)
+	  release(seq.remove(i));
+	else
+	  release(seq.get(i));
+      }
+    }
+    else if (actor instanceof WekaFilter) {
+      filter = (WekaFilter) actor;
+      release(filter.getFilter());
+      filter.cleanUp();
+      filter.setParent(null);
+      synchronized(this) {
+	if ((filter instanceof ParallelWekaFilter) && (m_Actors.size() < m_MaxIdle * 4))
+	  m_Actors.push((ParallelWekaFilter) filter);
+      }
+    }
+  }
+
+  /**
+   * Returns the singleton.
+   *
+   * @return		the pool
+   */
+  public static synchronized FilterPool getSingleton() {
+    if (m_Singleton == null)
+      m_Singleton = new FilterPool();
+    return m_Singleton;
+  }
+}
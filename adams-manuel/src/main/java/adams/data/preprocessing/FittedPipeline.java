@@ -0,0 +1,1615 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * FittedPipeline.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.preprocessing;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Range;
+import weka.core.SparseInstance;
+import weka.core.Utils;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.Normalize;
+import weka.filters.unsupervised.attribute.NumericTransform;
+
+/**
+ * A chain of fitted filters compiled into a single kernel that transforms a
+ * row of values in place, without creating instances or tokens. The
+ * following filters get compiled:
+ * <ul>
+ *   <li>Standardize, Normalize and Center, as affine transformation per
+ *   attribute with the same arithmetic as the filters</li>
+ *   <li>ReplaceMissingValues, as replacement value per attribute</li>
+ *   <li>Remove, as selection of attributes</li>
+ *   <li>NumericTransform with a unary method of java.lang.Math</li>
+ * </ul>
+ * The parameters of the filters are obtained from their fitted state or by
+ * running probe rows through them. Each compiled stage gets checked against
+ * its filter (on probes and on rows of the dataset) and is only used if the
+ * results are identical, bit for bit. For the same reason, consecutive affine
+ * transformations don't get fused.
+ * All other filters (e.g., MathExpression) and stages that fail the check are
+ * run through the filter itself. Such filters may remove rows (e.g.,
+ * RemoveWithValues): single rows then result in no output and datasets get
+ * run through these filters as a whole, like with
+ * {@link Filter#useFilter(Instances, Filter)}.
+ * <p/>
+ * Datasets of dense rows get transformed column by column on primitive
+ * arrays, using tight loops per attribute that the JIT can vectorize. Large
+ * datasets can be split into partitions that get transformed in parallel
+ * (see {@link #apply(Instances, ForkJoinPool, int)}).
+ * <p/>
+ * The kernel can be written to a versioned binary snapshot and read back
+ * without refitting any filters (see {@link #write(DataOutputStream)}).
+ * <p/>
+ * Not thread-safe, since the kernel works on a buffer that gets reused.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class FittedPipeline {
+
+  /** NumericTransform. */
+  public final static String NUMERIC_TRANSFORM = PipelineOptimizer.UNSUPERVISED + "NumericTransform";
+
+  /** AddExpression. */
+  public final static String ADD_EXPRESSION = PipelineOptimizer.UNSUPERVISED + "AddExpression";
+
+  /** MathExpression. */
+  public final static String MATH_EXPRESSION = PipelineOptimizer.UNSUPERVISED + "MathExpression";
+
+  /** filters that transform each row on its own once fitted. */
+  protected final static Set<String> ROW_LOCAL = PipelineOptimizer.set(
+      PipelineOptimizer.REPLACE_MISSING, PipelineOptimizer.NORMALIZE,
+      PipelineOptimizer.STANDARDIZE, PipelineOptimizer.CENTER,
+      PipelineOptimizer.REMOVE, PipelineOptimizer.REMOVE_TYPE,
+      PipelineOptimizer.REMOVE_USELESS, PipelineOptimizer.NOMINAL_TO_BINARY,
+      PipelineOptimizer.DISCRETIZE, PipelineOptimizer.SUPERVISED_DISCRETIZE,
+      PipelineOptimizer.NUMERIC_TO_NOMINAL, NUMERIC_TRANSFORM,
+      ADD_EXPRESSION, MATH_EXPRESSION);
+
+  /** the maximum number of rows of the dataset to check the stages on. */
+  public final static int MAX_CHECK_ROWS = 10;
+
+  /** the magic number of snapshots ("FPS1"). */
+  public final static int MAGIC = 0x46505331;
+
+  /** the version of the snapshot format. */
+  public final static int VERSION = 2;
+
+  /** snapshot tag of affine stages. */
+  protected final static int STAGE_AFFINE = 1;
+
+  /** snapshot tag of stages replacing missing values. */
+  protected final static int STAGE_REPLACE = 2;
+
+  /** snapshot tag of stages selecting attributes. */
+  protected final static int STAGE_SELECT = 3;
+
+  /** snapshot tag of stages applying a Math method. */
+  protected final static int STAGE_MATH = 4;
+
+  /** snapshot tag of stages running a filter. */
+  protected final static int STAGE_FILTER = 5;
+
+  /** the packages of the classes that make up the state of filters. */
+  protected final static String[] FILTER_PACKAGES = {
+    "weka.", "java.lang.", "java.util.", "java.text.", "java.math."};
+
+  /**
+   * Object input stream for the fitted state of filters: only resolves
+   * classes from Weka and the basic JDK packages, no proxies.
+   */
+  protected static class FilterObjectInputStream
+    extends PipelineCoordinator.RestrictedObjectInputStream {
+
+    /**
+     * Initializes the stream.
+     *
+     * @param in		the underlying stream
+     * @throws IOException	if reading the stream header fails
+     */
+    public FilterObjectInputStream(InputStream in) throws IOException {
+      super(in, Filter.class);
+    }
+
+    /**
+     * Checks whether the class can be deserialized: classes from the allowed
+     * packages and arrays of them or of primitives.
+     *
+     * @param name	the name of the class
+     * @return		true if allowed
+     */
+    @Override
+    protected boolean isAllowed(String name) {
+      while (name.startsWith("["))
+	name = name.substring(1);
+      // primitive component type
+      if (name.length() == 1)
+	return true;
+      if (name.startsWith("L") && name.endsWith(";"))
+	name = name.substring(1, name.length() - 1);
+      for (String pkg: FILTER_PACKAGES) {
+	if (name.startsWith(pkg))
+	  return true;
+      }
+      return super.isAllowed(name);
+    }
+  }
+
+  /**
+   * A step of the kernel, working on rows.
+   */
+  protected static abstract class Stage {
+
+    /** the number of attributes after the stage. */
+    public int width;
+
+    /**
+     * Transforms the row.
+     *
+     * @param buffer	the row, gets modified
+     * @return		false if the row got removed
+     * @throws Exception	if the transformation fails
+     */
+    public abstract boolean apply(double[] buffer) throws Exception;
+
+    /**
+     * Returns a short description of the stage.
+     *
+     * @return		the description
+     */
+    @Override
+    public abstract String toString();
+  }
+
+  /**
+   * A compiled step of the kernel, which keeps all rows and can work on
+   * columns as well.
+   */
+  protected static abstract class CompiledStage
+    extends Stage {
+
+    /**
+     * Transforms the rows of the columns.
+     *
+     * @param columns	the columns, the references may get rearranged
+     * @param from	the first row
+     * @param to		the row after the last one
+     */
+    public abstract void apply(double[][] columns, int from, int to);
+  }
+
+  /**
+   * Shifts and scales the values of the selected attributes like Normalize,
+   * Standardize and Center do: (value - shift) / divisor * scale + translation.
+   */
+  protected static class AffineStage
+    extends CompiledStage {
+
+    /** whether to transform the attribute. */
+    public boolean[] selected;
+
+    /** the values to subtract (minimum or mean). */
+    public double[] shift;
+
+    /** the divisors (range or standard deviation), null for no division;
+     * a range of 0 or NaN results in 0, like with Normalize. */
+    public double[] divisor;
+
+    /** whether to scale and translate after dividing (Normalize). */
+    public boolean rescale;
+
+    /** the scale factor. */
+    public double scale;
+
+    /** the translation. */
+    public double translation;
+
+    /**
+     * Transforms the value of the attribute.
+     *
+     * @param index	the attribute
+     * @param value	the value, not missing
+     * @return		the transformed value
+     */
+    protected double compute(int index, double value) {
+      if (divisor == null)
+	return value - shift[index];
+      if ((divisor[index] == 0) || Double.isNaN(divisor[index]))
+	return 0;
+      value = (value - shift[index]) / divisor[index];
+      if (rescale)
+	value = value * scale + translation;
+
+      return value;
+    }
+
+    /**
+     * Transforms the row.
+     *
+     * @param buffer	the row, gets modified
+     * @return		always true
+     */
+    @Override
+    public boolean apply(double[] buffer) {
+      int	i;
+
+      for (i = 0; i < width; i++) {
+	if (selected[i] && !Double.isNaN(buffer[i]))
+	  buffer[i] = compute(i, buffer[i]);
+      }
+
+      return true;
+    }
+
+    /**
+     * Transforms the rows of the columns.
+     *
+     * @param columns	the columns, the references may get rearranged
+     * @param from	the first row
+     * @param to		the row after the last one
+     */
+    @Override
+    public void apply(double[][] columns, int from, int to) {
+      double[]	column;
+      int	i;
+      int	n;
+
+      for (i = 0; i < width; i++) {
+	if (!selected[i])
+	  continue;
+	column = columns[i];
+	for (n = from; n < to; n++) {
+	  if (!Double.isNaN(column[n]))
+	    column[n] = compute(i, column[n]);
+	}
+      }
+    }
+
+    /**
+     * Returns a short description of the stage.
+     *
+     * @return		the description
+     */
+    @Override
+    public String toString() {
+      return "affine";
+    }
+  }
+
+  /**
+   * Replaces missing values.
+   */
+  protected static class ReplaceStage
+    extends CompiledStage {
+
+    /** the replacement values, NaN if none. */
+    public double[] replacement;
+
+    /**
+     * Transforms the row.
+     *
+     * @param buffer	the row, gets modified
+     * @return		always true
+     */
+    @Override
+    public boolean apply(double[] buffer) {
+      int	i;
+
+      for (i = 0; i < width; i++) {
+	if (Double.isNaN(buffer[i]))
+	  buffer[i] = replacement[i];
+      }
+
+      return true;
+    }
+
+    /**
+     * Transforms the rows of the columns.
+     *
+     * @param columns	the columns, the references may get rearranged
+     * @param from	the first row
+     * @param to		the row after the last one
+     */
+    @Override
+    public void apply(double[][] columns, int from, int to) {
+      double[]	column;
+      double	value;
+      int	i;
+      int	n;
+
+      for (i = 0; i < width; i++) {
+	if (Double.isNaN(replacement[i]))
+	  continue;
+	column = columns[i];
+	value  = replacement[i];
+	for (n = from; n < to; n++) {
+	  if (Double.isNaN(column[n]))
+	    column[n] = value;
+	}
+      }
+    }
+
+    /**
+     * Returns a short description of the stage.
+     *
+     * @return		the description
+     */
+    @Override
+    public String toString() {
+      return "replace-missing";
+    }
+  }
+
+  /**
+   * Keeps a subset of the attributes, in their original order.
+   */
+  protected static class SelectStage
+    extends CompiledStage {
+
+    /** the attributes to keep, ascending. */
+    public int[] indices;
+
+    /**
+     * Transforms the row.
+     *
+     * @param buffer	the row, gets modified
+     * @return		always true
+     */
+    @Override
+    public boolean apply(double[] buffer) {
+      int	i;
+
+      // indices[i] >= i, no value gets overwritten before it is moved
+      for (i = 0; i < width; i++)
+	buffer[i] = buffer[indices[i]];
+
+      return true;
+    }
+
+    /**
+     * Transforms the rows of the columns, by rearranging the references.
+     *
+     * @param columns	the columns, the references get rearranged
+     * @param from	the first row
+     * @param to		the row after the last one
+     */
+    @Override
+    public void apply(double[][] columns, int from, int to) {
+      int	i;
+
+      for (i = 0; i < width; i++)
+	columns[i] = columns[indices[i]];
+    }
+
+    /**
+     * Returns a short description of the stage.
+     *
+     * @return		the description
+     */
+    @Override
+    public String toString() {
+      return "select";
+    }
+  }
+
+  /**
+   * Applies a method of java.lang.Math to selected attributes, turning NaN
+   * and infinite results into missing values.
+   */
+  protected static class MathStage
+    extends CompiledStage {
+
+    /** abs. */
+    public final static int ABS = 0;
+
+    /** sqrt. */
+    public final static int SQRT = 1;
+
+    /** cbrt. */
+    public final static int CBRT = 2;
+
+    /** log. */
+    public final static int LOG = 3;
+
+    /** log10. */
+    public final static int LOG10 = 4;
+
+    /** log1p. */
+    public final static int LOG1P = 5;
+
+    /** exp. */
+    public final static int EXP = 6;
+
+    /** floor. */
+    public final static int FLOOR = 7;
+
+    /** ceil. */
+    public final static int CEIL = 8;
+
+    /** rint. */
+    public final static int RINT = 9;
+
+    /** signum. */
+    public final static int SIGNUM = 10;
+
+    /** the method names, indexed by the constants. */
+    public final static String[] METHODS = {
+      "abs", "sqrt", "cbrt", "log", "log10", "log1p", "exp", "floor", "ceil", "rint", "signum"};
+
+    /** the method. */
+    public int method;
+
+    /** whether to transform the attribute. */
+    public boolean[] selected;
+
+    /**
+     * Applies the method to the value.
+     *
+     * @param value	the value, not missing
+     * @return		the result, missing if NaN or infinite
+     */
+    protected double compute(double value) {
+      switch (method) {
+	case ABS:    value = Math.abs(value);    break;
+	case SQRT:   value = Math.sqrt(value);   break;
+	case CBRT:   value = Math.cbrt(value);   break;
+	case LOG:    value = Math.log(value);    break;
+	case LOG10:  value = Math.log10(value);  break;
+	case LOG1P:  value = Math.log1p(value);  break;
+	case EXP:    value = Math.exp(value);    break;
+	case FLOOR:  value = Math.floor(value);  break;
+	case CEIL:   value = Math.ceil(value);   break;
+	case RINT:   value = Math.rint(value);   break;
+	case SIGNUM: value = Math.signum(value); break;
+      }
+      if (Double.isNaN(value) || Double.isInfinite(value))
+	value = Utils.missingValue();
+
+      return value;
+    }
+
+    /**
+     * Transforms the row.
+     *
+     * @param buffer	the row, gets modified
+     * @return		always true
+     */
+    @Override
+    public boolean apply(double[] buffer) {
+      int	i;
+
+      for (i = 0; i < width; i++) {
+	if (selected[i] && !Double.isNaN(buffer[i]))
+	  buffer[i] = compute(buffer[i]);
+      }
+
+      return true;
+    }
+
+    /**
+     * Transforms the rows of the columns.
+     *
+     * @param columns	the columns, the references may get rearranged
+     * @param from	the first row
+     * @param to		the row after the last one
+     */
+    @Override
+    public void apply(double[][] columns, int from, int to) {
+      double[]	column;
+      int	i;
+      int	n;
+
+      for (i = 0; i < width; i++) {
+	if (!selected[i])
+	  continue;
+	column = columns[i];
+	for (n = from; n < to; n++) {
+	  if (!Double.isNaN(column[n]))
+	    column[n] = compute(column[n]);
+	}
+      }
+    }
+
+    /**
+     * Returns a short description of the stage.
+     *
+     * @return		the description
+     */
+    @Override
+    public String toString() {
+      return "Math." + METHODS[method];
+    }
+  }
+
+  /**
+   * Runs the row through the filter itself.
+   */
+  protected static class FilterStage
+    extends Stage {
+
+    /** the filter. */
+    public Filter filter;
+
+    /** the input format of the filter. */
+    public Instances header;
+
+    /**
+     * Transforms the row.
+     *
+     * @param buffer	the row, gets modified
+     * @return		false if the filter removed the row
+     * @throws Exception	if the filter fails
+     */
+    @Override
+    public boolean apply(double[] buffer) throws Exception {
+      Instance	inst;
+      Instance	output;
+
+      inst = new DenseInstance(1.0, Arrays.copyOf(buffer, header.numAttributes()));
+      inst.setDataset(header);
+      filter.input(inst);
+      output = filter.output();
+      if (output == null)
+	return false;
+      System.arraycopy(output.toDoubleArray(), 0, buffer, 0, width);
+
+      return true;
+    }
+
+    /**
+     * Transforms the rows, as a batch.
+     *
+     * @param rows	the rows, in the input format of the filter
+     * @return		the remaining rows
+     * @throws Exception	if the filter fails
+     */
+    public Instances apply(Instances rows) throws Exception {
+      return Filter.useFilter(rows, filter);
+    }
+
+    /**
+     * Returns a short description of the stage.
+     *
+     * @return		the description
+     */
+    @Override
+    public String toString() {
+      return filter.getClass().getName();
+    }
+  }
+
+  /** the stages. */
+  protected Stage[] m_Stages;
+
+  /** the input format. */
+  protected Instances m_InputFormat;
+
+  /** the output format. */
+  protected Instances m_OutputFormat;
+
+  /** the buffer the rows get transformed in. */
+  protected double[] m_Buffer;
+
+  /**
+   * Initializes the kernel.
+   *
+   * @param stages	the stages
+   * @param input	the input format
+   * @param output	the output format
+   * @param capacity	the maximum number of attributes of all stages
+   */
+  protected FittedPipeline(Stage[] stages, Instances input, Instances output, int capacity) {
+    m_Stages       = stages;
+    m_InputFormat  = input;
+    m_OutputFormat = output;
+    m_Buffer       = new double[capacity];
+  }
+
+  /**
+   * Runs the row through the fitted filter.
+   *
+   * @param filter	the filter
+   * @param header	the input format of the filter
+   * @param values	the row
+   * @return		the filtered row
+   * @throws Exception	if the filter fails or doesn't output a row
+   */
+  protected static double[] filter(Filter filter, Instances header, double[] values) throws Exception {
+    Instance	inst;
+    Instance	output;
+
+    inst = new DenseInstance(1.0, values);
+    inst.setDataset(header);
+    filter.input(inst);
+    output = filter.output();
+    if (output == null)
+      throw new IllegalStateException("No output from filter: " + filter.getClass().getName());
+
+    return output.toDoubleArray();
+  }
+
+  /**
+   * Returns a row with the value for all attributes, 0 for non-numeric ones.
+   *
+   * @param header	the format of the row
+   * @param value	the value
+   * @return		the row
+   */
+  protected static double[] probe(Instances header, double value) {
+    double[]	result;
+    int		i;
+
+    result = new double[header.numAttributes()];
+    for (i = 0; i < result.length; i++) {
+      if (header.attribute(i).isNumeric() || Double.isNaN(value))
+	result[i] = value;
+    }
+
+    return result;
+  }
+
+  /**
+   * Checks whether the values are identical, bit for bit (any NaN counts as
+   * missing value).
+   *
+   * @param expected	the values of the filter
+   * @param actual	the values of the stage
+   * @return		true if identical
+   */
+  protected static boolean agree(double[] expected, double[] actual) {
+    int		i;
+
+    for (i = 0; i < expected.length; i++) {
+      if (Double.isNaN(expected[i]) != Double.isNaN(actual[i]))
+	return false;
+      if (Double.isNaN(expected[i]))
+	continue;
+      if (Double.doubleToLongBits(expected[i]) != Double.doubleToLongBits(actual[i]))
+	return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Checks the stage against the filter on the rows.
+   *
+   * @param stage	the compiled stage
+   * @param filter	the filter
+   * @param header	the input format of the filter
+   * @param rows	the rows to check with
+   * @return		true if the stage agrees with the filter on all rows
+   * @throws Exception	if the filter fails
+   */
+  protected static boolean check(CompiledStage stage, Filter filter, Instances header, List<double[]> rows) throws Exception {
+    double[]	buffer;
+
+    for (double[] row: rows) {
+      buffer = Arrays.copyOf(row, Math.max(row.length, stage.width));
+      stage.apply(buffer);
+      if (!agree(filter(filter, header, row.clone()), Arrays.copyOf(buffer, stage.width)))
+	return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns the value of the (protected) field of the fitted filter.
+   *
+   * @param filter	the filter
+   * @param name	the name of the field
+   * @return		the value
+   * @throws Exception	if the field is not available
+   */
+  protected static Object getField(Filter filter, String name) throws Exception {
+    Class<?>	cls;
+    Field	field;
+
+    cls = filter.getClass();
+    while (true) {
+      try {
+	field = cls.getDeclaredField(name);
+	break;
+      }
+      catch (NoSuchFieldException e) {
+	cls = cls.getSuperclass();
+	if (cls == null)
+	  throw e;
+      }
+    }
+    field.setAccessible(true);
+
+    return field.get(filter);
+  }
+
+  /**
+   * Compiles an affine transformation from the statistics of the fitted
+   * Normalize, Standardize or Center filter.
+   *
+   * @param filter	the filter
+   * @param input	the input format of the filter
+   * @return		the stage, null if the statistics are not available
+   */
+  protected static CompiledStage compileAffine(Filter filter, Instances input) {
+    AffineStage	result;
+    String	classname;
+    double[]	min;
+    double[]	max;
+    double[]	stdDevs;
+    int		i;
+
+    classname       = filter.getClass().getName();
+    result          = new AffineStage();
+    result.width    = input.numAttributes();
+    result.selected = new boolean[result.width];
+    for (i = 0; i < result.width; i++)
+      result.selected[i] = input.attribute(i).isNumeric() && (i != input.classIndex());
+
+    try {
+      if (classname.equals(PipelineOptimizer.NORMALIZE)) {
+	min = (double[]) getField(filter, "m_MinArray");
+	max = (double[]) getField(filter, "m_MaxArray");
+	result.shift   = min.clone();
+	result.divisor = new double[result.width];
+	for (i = 0; i < result.width; i++)
+	  result.divisor[i] = max[i] - min[i];
+	result.rescale     = true;
+	result.scale       = ((Normalize) filter).getScale();
+	result.translation = ((Normalize) filter).getTranslation();
+      }
+      else {
+	result.shift = ((double[]) getField(filter, "m_Means")).clone();
+	if (classname.equals(PipelineOptimizer.STANDARDIZE)) {
+	  stdDevs        = (double[]) getField(filter, "m_StdDevs");
+	  result.divisor = new double[result.width];
+	  // Standardize only subtracts the mean without any spread
+	  for (i = 0; i < result.width; i++)
+	    result.divisor[i] = (stdDevs[i] > 0) ? stdDevs[i] : 1.0;
+	}
+      }
+    }
+    catch (Exception e) {
+      // not fitted or different implementation, run the filter itself
+      return null;
+    }
+
+    return result;
+  }
+
+  /**
+   * Compiles the replacement of missing values, derived from the output for a
+   * row of missing values.
+   *
+   * @param filter	the filter
+   * @param input	the input format of the filter
+   * @return		the stage
+   * @throws Exception	if the filter fails
+   */
+  protected static CompiledStage compileReplace(Filter filter, Instances input) throws Exception {
+    ReplaceStage	result;
+
+    result             = new ReplaceStage();
+    result.width       = input.numAttributes();
+    result.replacement = filter(filter, input, probe(input, Utils.missingValue()));
+
+    return result;
+  }
+
+  /**
+   * Compiles the selection of attributes, derived from the attribute names.
+   *
+   * @param input	the input format of the filter
+   * @param output	the output format of the filter
+   * @return		the stage, null if the output isn't a subset of the input
+   */
+  protected static CompiledStage compileSelect(Instances input, Instances output) {
+    SelectStage		result;
+    Attribute		att;
+    int			i;
+    int			last;
+
+    result         = new SelectStage();
+    result.width   = output.numAttributes();
+    result.indices = new int[result.width];
+    last           = -1;
+    for (i = 0; i < result.width; i++) {
+      att = input.attribute(output.attribute(i).name());
+      if ((att == null) || (att.index() <= last) || (att.type() != output.attribute(i).type()))
+	return null;
+      result.indices[i] = att.index();
+      last              = att.index();
+    }
+
+    return result;
+  }
+
+  /**
+   * Compiles NumericTransform with a unary method of java.lang.Math.
+   *
+   * @param filter	the filter
+   * @param input	the input format of the filter
+   * @return		the stage, null if the method isn't supported
+   */
+  protected static CompiledStage compileMath(NumericTransform filter, Instances input) {
+    MathStage	result;
+    Range	range;
+    int		i;
+
+    if (!Math.class.getName().equals(filter.getClassName()))
+      return null;
+
+    result        = new MathStage();
+    result.method = Arrays.asList(MathStage.METHODS).indexOf(filter.getMethodName());
+    if (result.method == -1)
+      return null;
+
+    range = new Range(filter.getAttributeIndices());
+    range.setInvert(filter.getInvertSelection());
+    range.setUpper(input.numAttributes() - 1);
+    result.width    = input.numAttributes();
+    result.selected = new boolean[result.width];
+    for (i = 0; i < result.width; i++)
+      result.selected[i] = range.isInRange(i) && input.attribute(i).isNumeric();
+
+    return result;
+  }
+
+  /**
+   * Compiles the filter, if supported.
+   *
+   * @param filter	the fitted filter
+   * @param input	the input format of the filter
+   * @param output	the output format of the filter
+   * @return		the stage, null if not supported
+   * @throws Exception	if the filter fails
+   */
+  protected static CompiledStage compile(Filter filter, Instances input, Instances output) throws Exception {
+    String	classname;
+
+    classname = filter.getClass().getName();
+    if (classname.equals(PipelineOptimizer.REMOVE))
+      return compileSelect(input, output);
+    if (output.numAttributes() != input.numAttributes())
+      return null;
+    if (PipelineOptimizer.SCALERS.contains(classname))
+      return compileAffine(filter, input);
+    if (classname.equals(PipelineOptimizer.REPLACE_MISSING))
+      return compileReplace(filter, input);
+    if (classname.equals(NUMERIC_TRANSFORM))
+      return compileMath((NumericTransform) filter, input);
+
+    return null;
+  }
+
+  /**
+   * Checks whether the format can be represented as an array of doubles.
+   *
+   * @param format	the format to check
+   * @throws IllegalArgumentException	if the format has string or relational attributes
+   */
+  protected static void checkFormat(Instances format) {
+    int		i;
+
+    for (i = 0; i < format.numAttributes(); i++) {
+      if (format.attribute(i).isString() || format.attribute(i).isRelational())
+	throw new IllegalArgumentException(
+	    "String and relational attributes not supported: " + format.attribute(i).name());
+    }
+  }
+
+  /**
+   * Compiles the fitted filters into a kernel.
+   *
+   * @param data	the data the first filter processes; up to
+   * 			{@link #MAX_CHECK_ROWS} rows get used for checking the
+   * 			compiled stages
+   * @param filters	the fitted filters, in order
+   * @return		the kernel
+   * @throws IllegalArgumentException	if a format has string or relational attributes
+   * @throws Exception	if a filter fails
+   */
+  public static FittedPipeline compile(Instances data, Filter[] filters) throws Exception {
+    List<Stage>		stages;
+    CompiledStage	compiled;
+    FilterStage		fallback;
+    Instances		input;
+    Instances		output;
+    List<double[]>	rows;
+    List<double[]>	next;
+    int			capacity;
+    int			i;
+
+    checkFormat(data);
+    stages   = new ArrayList<Stage>();
+    input    = new Instances(data, 0);
+    capacity = input.numAttributes();
+    rows     = new ArrayList<double[]>();
+    for (i = 0; (i < data.numInstances()) && (i < MAX_CHECK_ROWS); i++)
+      rows.add(data.instance(i).toDoubleArray());
+
+    for (Filter filter: filters) {
+      output = filter.getOutputFormat();
+      checkFormat(output);
+      capacity = Math.max(capacity, output.numAttributes());
+
+      compiled = compile(filter, input, output);
+      if (compiled != null) {
+	rows.add(probe(input, 0.0));
+	rows.add(probe(input, 1.0));
+	rows.add(probe(input, -2.5));
+	rows.add(probe(input, Utils.missingValue()));
+	if (!check(compiled, filter, input, rows))
+	  compiled = null;
+	// keep the rows of the dataset only
+	rows = new ArrayList<double[]>(rows.subList(0, rows.size() - 4));
+      }
+
+      if (compiled == null) {
+	fallback        = new FilterStage();
+	fallback.filter = filter;
+	fallback.header = input;
+	fallback.width  = output.numAttributes();
+	stages.add(fallback);
+	// rows aren't run through filters that may not be stateless
+	rows = new ArrayList<double[]>();
+      }
+      else {
+	next = new ArrayList<double[]>();
+	for (double[] row: rows)
+	  next.add(filter(filter, input, row.clone()));
+	rows = next;
+	stages.add(compiled);
+      }
+
+      input = new Instances(output, 0);
+    }
+
+    return new FittedPipeline(stages.toArray(new Stage[0]), new Instances(data, 0), input, capacity);
+  }
+
+  /**
+   * Returns the format of the rows the kernel processes.
+   *
+   * @return		the format
+   */
+  public Instances getInputFormat() {
+    return m_InputFormat;
+  }
+
+  /**
+   * Returns the format of the transformed rows.
+   *
+   * @return		the format
+   */
+  public Instances getOutputFormat() {
+    return m_OutputFormat;
+  }
+
+  /**
+   * Returns the number of stages that get run through the filter itself.
+   *
+   * @return		the number of stages
+   */
+  public int getNumFallbacks() {
+    int		result;
+
+    result = 0;
+    for (Stage stage: m_Stages) {
+      if (stage instanceof FilterStage)
+	result++;
+    }
+
+    return result;
+  }
+
+  /**
+   * Transforms the row. The returned buffer gets reused by the next call;
+   * only the first {@link Instances#numAttributes()} values of the output
+   * format are valid.
+   *
+   * @param values	the row, in the input format
+   * @return		the buffer with the transformed row, null if a filter
+   * 			removed the row
+   * @throws Exception	if a filter fails
+   */
+  public double[] apply(double[] values) throws Exception {
+    System.arraycopy(values, 0, m_Buffer, 0, values.length);
+    for (Stage stage: m_Stages) {
+      if (!stage.apply(m_Buffer))
+	return null;
+    }
+
+    return m_Buffer;
+  }
+
+  /**
+   * Transforms the row into a new instance.
+   *
+   * @param inst	the row, in the input format
+   * @return		the transformed row, null if a filter removed the row
+   * @throws Exception	if a filter fails
+   */
+  public Instance apply(Instance inst) throws Exception {
+    Instance	result;
+
+    if (apply(inst.toDoubleArray()) == null)
+      return null;
+    result = new DenseInstance(inst.weight(), Arrays.copyOf(m_Buffer, m_OutputFormat.numAttributes()));
+    result.setDataset(m_OutputFormat);
+
+    return result;
+  }
+
+  /**
+   * Transforms the dataset. Rows get removed if filters that aren't
+   * compiled remove them.
+   *
+   * @param data	the dataset, in the input format
+   * @return		the transformed dataset
+   * @throws Exception	if a filter fails
+   */
+  public Instances apply(Instances data) throws Exception {
+    Instances	result;
+    int		i;
+
+    if (isColumnar(data))
+      return applyColumns(data);
+    if (getNumFallbacks() > 0)
+      return applyBatch(data);
+
+    result = new Instances(m_OutputFormat, data.numInstances());
+    for (i = 0; i < data.numInstances(); i++)
+      result.add(apply(data.instance(i)));
+
+    return result;
+  }
+
+  /**
+   * Transforms the dataset stage by stage, running the rows through the
+   * filters that aren't compiled as a whole.
+   *
+   * @param data	the dataset, in the input format
+   * @return		the transformed dataset
+   * @throws Exception	if a filter fails
+   */
+  protected Instances applyBatch(Instances data) throws Exception {
+    Instances		result;
+    Instances		batch;
+    List<Instance>	rows;
+    List<Instance>	next;
+    double[]		buffer;
+    int			i;
+
+    rows = new ArrayList<Instance>();
+    for (i = 0; i < data.numInstances(); i++)
+      rows.add(data.instance(i));
+
+    for (Stage stage: m_Stages) {
+      next = new ArrayList<Instance>();
+      if (stage instanceof FilterStage) {
+	batch = new Instances(((FilterStage) stage).header, rows.size());
+	for (Instance row: rows)
+	  batch.add(new DenseInstance(row.weight(), row.toDoubleArray()));
+	batch = ((FilterStage) stage).apply(batch);
+	for (i = 0; i < batch.numInstances(); i++)
+	  next.add(batch.instance(i));
+      }
+      else {
+	for (Instance row: rows) {
+	  buffer = Arrays.copyOf(row.toDoubleArray(), m_Buffer.length);
+	  stage.apply(buffer);
+	  next.add(new DenseInstance(row.weight(), Arrays.copyOf(buffer, stage.width)));
+	}
+      }
+      rows = next;
+    }
+
+    result = new Instances(m_OutputFormat, rows.size());
+    for (Instance row: rows)
+      result.add(new DenseInstance(row.weight(), row.toDoubleArray()));
+
+    return result;
+  }
+
+  /**
+   * Checks whether the dataset can be transformed column by column: all
+   * stages are compiled and all rows are dense.
+   *
+   * @param data	the dataset to check
+   * @return		true if columnar
+   */
+  public boolean isColumnar(Instances data) {
+    int		i;
+
+    if (getNumFallbacks() > 0)
+      return false;
+    for (i = 0; i < data.numInstances(); i++) {
+      if (data.instance(i) instanceof SparseInstance)
+	return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns the columns of the dataset.
+   *
+   * @param data	the dataset, in the input format
+   * @return		the columns
+   */
+  protected double[][] toColumns(Instances data) {
+    double[][]	result;
+    int		i;
+
+    result = new double[m_Buffer.length][];
+    for (i = 0; i < m_InputFormat.numAttributes(); i++)
+      result[i] = data.attributeToDoubleArray(i);
+
+    return result;
+  }
+
+  /**
+   * Runs the rows of the columns through all stages.
+   *
+   * @param columns	the columns, the references may get rearranged
+   * @param from	the first row
+   * @param to		the row after the last one
+   */
+  protected void applyColumns(double[][] columns, int from, int to) {
+    for (Stage stage: m_Stages)
+      ((CompiledStage) stage).apply(columns, from, to);
+  }
+
+  /**
+   * Turns the transformed columns back into rows.
+   *
+   * @param data	the original dataset, for the weights
+   * @param columns	the transformed columns
+   * @return		the transformed dataset
+   */
+  protected Instances fromColumns(Instances data, double[][] columns) {
+    Instances	result;
+    Instance	inst;
+    double[]	values;
+    int		i;
+    int		n;
+
+    result = new Instances(m_OutputFormat, data.numInstances());
+    for (i = 0; i < data.numInstances(); i++) {
+      values = new double[m_OutputFormat.numAttributes()];
+      for (n = 0; n < values.length; n++)
+	values[n] = columns[n][i];
+      inst = new DenseInstance(data.instance(i).weight(), values);
+      result.add(inst);
+    }
+
+    return result;
+  }
+
+  /**
+   * Transforms the dataset column by column, all stages must be compiled.
+   *
+   * @param data	the dataset, in the input format
+   * @return		the transformed dataset
+   * @see		#isColumnar(Instances)
+   */
+  protected Instances applyColumns(Instances data) {
+    double[][]	columns;
+
+    columns = toColumns(data);
+    applyColumns(columns, 0, data.numInstances());
+
+    return fromColumns(data, columns);
+  }
+
+  /**
+   * Checks whether the rows can be transformed independently of each other,
+   * i.e., all filters that aren't compiled are known to be row-local.
+   *
+   * @return		true if partitions can be transformed in parallel
+   */
+  public boolean isRowLocal() {
+    for (Stage stage: m_Stages) {
+      if ((stage instanceof FilterStage) && !ROW_LOCAL.contains(((FilterStage) stage).filter.getClass().getName()))
+	return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns a copy that can be used by another thread: compiled stages are
+   * shared, filters get copied with their fitted state.
+   *
+   * @return		the copy
+   * @throws Exception	if copying a filter fails
+   */
+  public FittedPipeline copy() throws Exception {
+    Stage[]	stages;
+    FilterStage	stage;
+    int		i;
+
+    stages = new Stage[m_Stages.length];
+    for (i = 0; i < stages.length; i++) {
+      if (m_Stages[i] instanceof FilterStage) {
+	stage        = new FilterStage();
+	stage.width  = m_Stages[i].width;
+	stage.header = ((FilterStage) m_Stages[i]).header;
+	stage.filter = Filter.makeCopy(((FilterStage) m_Stages[i]).filter);
+	stages[i]    = stage;
+      }
+      else {
+	stages[i] = m_Stages[i];
+      }
+    }
+
+    return new FittedPipeline(stages, m_InputFormat, m_OutputFormat, m_Buffer.length);
+  }
+
+  /**
+   * Transforms the dataset in partitions of consecutive rows on the pool.
+   * Datasets with fewer rows than the threshold and pipelines that aren't
+   * row-local get transformed serially. The order of the rows is kept.
+   *
+   * @param data	the dataset, in the input format
+   * @param pool	the pool to use
+   * @param minRows	the minimum number of rows for transforming in parallel
+   * @return		the transformed dataset
+   * @throws Exception	if a filter fails
+   */
+  public Instances apply(final Instances data, ForkJoinPool pool, int minRows) throws Exception {
+    Instances				result;
+    List<Callable<Instance[]>>		jobs;
+    List<Future<Instance[]>>		parts;
+    final double[][]			columns;
+    final boolean			columnar;
+    int					partitions;
+    int					i;
+
+    if ((pool == null) || (data.numInstances() < minRows) || (data.numInstances() < 2) || !isRowLocal())
+      return apply(data);
+
+    columnar   = isColumnar(data);
+    columns    = columnar ? toColumns(data) : null;
+    partitions = Math.min(pool.getParallelism(), data.numInstances());
+    jobs       = new ArrayList<Callable<Instance[]>>();
+    for (i = 0; i < partitions; i++) {
+      final int from = (int) ((long) data.numInstances() * i / partitions);
+      final int to   = (int) ((long) data.numInstances() * (i + 1) / partitions);
+      final FittedPipeline kernel = columnar ? this : copy();
+      jobs.add(new Callable<Instance[]>() {
+	public Instance[] call() throws Exception {
+	  Instance[]	rows;
+	  double[][]	view;
+	  double[]	values;
+	  int		n;
+	  int		m;
+
+	  rows = new Instance[to - from];
+	  if (columnar) {
+	    // the column arrays are shared, each partition only touches its rows
+	    view = columns.clone();
+	    kernel.applyColumns(view, from, to);
+	    for (n = from; n < to; n++) {
+	      values = new double[m_OutputFormat.numAttributes()];
+	      for (m = 0; m < values.length; m++)
+		values[m] = view[m][n];
+	      rows[n - from] = new DenseInstance(data.instance(n).weight(), values);
+	    }
+	  }
+	  else {
+	    for (n = from; n < to; n++)
+	      rows[n - from] = kernel.apply(data.instance(n));
+	  }
+
+	  return rows;
+	}
+      });
+    }
+
+    parts  = pool.invokeAll(jobs);
+    result = new Instances(m_OutputFormat, data.numInstances());
+    for (Future<Instance[]> part: parts) {
+      for (Instance row: part.get())
+	result.add(row);
+    }
+
+    return result;
+  }
+
+  /**
+   * Writes the array.
+   *
+   * @param out		the stream to write to
+   * @param values	the array
+   * @throws IOException	if writing fails
+   */
+  protected static void writeArray(DataOutputStream out, double[] values) throws IOException {
+    out.writeInt(values.length);
+    for (double value: values)
+      out.writeDouble(value);
+  }
+
+  /**
+   * Reads an array.
+   *
+   * @param in		the stream to read from
+   * @return		the array
+   * @throws IOException	if reading fails
+   */
+  protected static double[] readArray(DataInputStream in) throws IOException {
+    double[]	result;
+    int		i;
+
+    result = new double[in.readInt()];
+    for (i = 0; i < result.length; i++)
+      result[i] = in.readDouble();
+
+    return result;
+  }
+
+  /**
+   * Writes the format as ARFF header, followed by the class index.
+   *
+   * @param out		the stream to write to
+   * @param format	the format
+   * @throws IOException	if writing fails
+   */
+  protected static void writeFormat(DataOutputStream out, Instances format) throws IOException {
+    byte[]	arff;
+
+    arff = new Instances(format, 0).toString().getBytes("UTF-8");
+    out.writeInt(arff.length);
+    out.write(arff);
+    out.writeInt(format.classIndex());
+  }
+
+  /**
+   * Reads a format.
+   *
+   * @param in		the stream to read from
+   * @return		the format
+   * @throws IOException	if reading fails
+   */
+  protected static Instances readFormat(DataInputStream in) throws IOException {
+    Instances	result;
+    byte[]	arff;
+
+    arff = new byte[in.readInt()];
+    in.readFully(arff);
+    result = new Instances(new StringReader(new String(arff, "UTF-8")));
+    result.setClassIndex(in.readInt());
+
+    return result;
+  }
+
+  /**
+   * Writes the stage.
+   *
+   * @param out		the stream to write to
+   * @param stage	the stage
+   * @throws IOException	if writing fails
+   */
+  protected static void writeStage(DataOutputStream out, Stage stage) throws IOException {
+    ObjectOutputStream	oos;
+    int			i;
+
+    if (stage instanceof AffineStage) {
+      out.writeByte(STAGE_AFFINE);
+      out.writeInt(stage.width);
+      for (i = 0; i < stage.width; i++)
+	out.writeBoolean(((AffineStage) stage).selected[i]);
+      writeArray(out, ((AffineStage) stage).shift);
+      out.writeBoolean(((AffineStage) stage).divisor != null);
+      if (((AffineStage) stage).divisor != null)
+	writeArray(out, ((AffineStage) stage).divisor);
+      out.writeBoolean(((AffineStage) stage).rescale);
+      out.writeDouble(((AffineStage) stage).scale);
+      out.writeDouble(((AffineStage) stage).translation);
+    }
+    else if (stage instanceof ReplaceStage) {
+      out.writeByte(STAGE_REPLACE);
+      out.writeInt(stage.width);
+      writeArray(out, ((ReplaceStage) stage).replacement);
+    }
+    else if (stage instanceof SelectStage) {
+      out.writeByte(STAGE_SELECT);
+      out.writeInt(stage.width);
+      for (i = 0; i < stage.width; i++)
+	out.writeInt(((SelectStage) stage).indices[i]);
+    }
+    else if (stage instanceof MathStage) {
+      out.writeByte(STAGE_MATH);
+      out.writeInt(stage.width);
+      out.writeUTF(MathStage.METHODS[((MathStage) stage).method]);
+      for (i = 0; i < stage.width; i++)
+	out.writeBoolean(((MathStage) stage).selected[i]);
+    }
+    else {
+      out.writeByte(STAGE_FILTER);
+      out.writeInt(stage.width);
+      writeFormat(out, ((FilterStage) stage).header);
+      // fitted state of arbitrary filters is only available via serialization
+      oos = new ObjectOutputStream(out);
+      oos.writeObject(((FilterStage) stage).filter);
+      oos.flush();
+    }
+  }
+
+  /**
+   * Reads a stage.
+   *
+   * @param in		the stream to read from
+   * @return		the stage
+   * @throws IOException	if reading fails
+   * @throws ClassNotFoundException	if a filter class is not available
+   */
+  protected static Stage readStage(DataInputStream in) throws IOException, ClassNotFoundException {
+    Stage	result;
+    Object	obj;
+    int		type;
+    int		width;
+    int		i;
+
+    type  = in.readByte();
+    width = in.readInt();
+    switch (type) {
+      case STAGE_AFFINE:
+	result = new AffineStage();
+	((AffineStage) result).selected = new boolean[width];
+	for (i = 0; i < width; i++)
+	  ((AffineStage) result).selected[i] = in.readBoolean();
+	((AffineStage) result).shift = readArray(in);
+	if (in.readBoolean())
+	  ((AffineStage) result).divisor = readArray(in);
+	((AffineStage) result).rescale     = in.readBoolean();
+	((AffineStage) result).scale       = in.readDouble();
+	((AffineStage) result).translation = in.readDouble();
+	break;
+      case STAGE_REPLACE:
+	result = new ReplaceStage();
+	((ReplaceStage) result).replacement = readArray(in);
+	break;
+      case STAGE_SELECT:
+	result = new SelectStage();
+	((SelectStage) result).indices = new int[width];
+	for (i = 0; i < width; i++)
+	  ((SelectStage) result).indices[i] = in.readInt();
+	break;
+      case STAGE_MATH:
+	result = new MathStage();
+	((MathStage) result).method = Arrays.asList(MathStage.METHODS).indexOf(in.readUTF());
+	if (((MathStage) result).method == -1)
+	  throw new IOException("Unknown Math method!");
+	((MathStage) result).selected = new boolean[width];
+	for (i = 0; i < width; i++)
+	  ((MathStage) result).selected[i] = in.readBoolean();
+	break;
+      case STAGE_FILTER:
+	result = new FilterStage();
+	((FilterStage) result).header = readFormat(in);
+	obj = new FilterObjectInputStream(in).readObject();
+	if (!(obj instanceof Filter))
+	  throw new IOException("Expected filter, read: " + ((obj == null) ? "null" : obj.getClass().getName()));
+	((FilterStage) result).filter = (Filter) obj;
+	break;
+      default:
+	throw new IOException("Unknown stage type: " + type);
+    }
+    result.width = width;
+
+    return result;
+  }
+
+  /**
+   * Writes the kernel as versioned binary snapshot: the input and output
+   * format, followed by the parameters of the stages. Stages that run a
+   * filter store the serialized fitted filter.
+   *
+   * @param out		the stream to write to
+   * @throws IOException	if writing fails
+   * @see		#read(DataInputStream)
+   */
+  public void write(DataOutputStream out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeByte(VERSION);
+    writeFormat(out, m_InputFormat);
+    writeFormat(out, m_OutputFormat);
+    out.writeInt(m_Buffer.length);
+    out.writeShort(m_Stages.length);
+    for (Stage stage: m_Stages)
+      writeStage(out, stage);
+    out.flush();
+  }
+
+  /**
+   * Reads a snapshot of a kernel. Filters only get deserialized if they
+   * consist of Weka and basic JDK classes.
+   *
+   * @param in		the stream to read from
+   * @return		the kernel, ready to use
+   * @throws IOException	if reading fails or not a snapshot
+   * @see		#write(DataOutputStream)
+   */
+  public static FittedPipeline read(DataInputStream in) throws IOException {
+    Stage[]	stages;
+    Instances	input;
+    Instances	output;
+    int		capacity;
+    int		i;
+
+    if (in.readInt() != MAGIC)
+      throw new IOException("Not a fitted pipeline snapshot!");
+    if (in.readByte() != VERSION)
+      throw new IOException("Unsupported fitted pipeline snapshot version!");
+    input    = readFormat(in);
+    output   = readFormat(in);
+    capacity = in.readInt();
+    stages   = new Stage[in.readShort()];
+    try {
+      for (i = 0; i < stages.length; i++)
+	stages[i] = readStage(in);
+    }
+    catch (ClassNotFoundException e) {
+      throw new IOException("Filter not available: " + e.getMessage());
+    }
+
+    return new FittedPipeline(stages, input, output, capacity);
+  }
+
+  /**
+   * Returns the stages of the kernel.
+   *
+   * @return		the stages
+   */
+  @Override
+  public String toString() {
+    StringBuilder	result;
+
+    result = new StringBuilder();
+    for (Stage stage: m_Stages) {
+      if (result.length() > 0)
+	result.append(" -> ");
+      result.append(stage.toString());
+    }
+
+    return result.toString();
+  }
+}
@@ -0,0 +1,508 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Leaderboard.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.preprocessing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+/**
+ * Aggregates the results of a pipeline search in memory: running statistics
+ * of accuracy and RMSE per pipeline and per dataset, plus the best individual
+ * results. The statistics are updated incrementally (Welford's algorithm), the
+ * results themselves are not kept.
+ * <p/>
+ * The pipelines and datasets are kept ranked by mean accuracy (then mean
+ * RMSE), hence snapshots need no sorting. Their number is capped: once the
+ * maximum is exceeded, the lowest ranked one gets dropped. The statistics of
+ * dropped entries are retained (up to the same maximum, the ones dropped
+ * longest ago get discarded first), so that an entry that gets results again continues
+ * with its previous statistics. Only entries that got dropped from both are
+ * ranked by their later results alone, hence the ranking is approximate once
+ * more than twice the maximum of pipelines or datasets occur.
+ * <p/>
+ * Thread-safe.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class Leaderboard {
+
+  /**
+   * Running mean and variance of a value, ignoring missing values (NaN).
+   */
+  public static class RunningStatistics {
+
+    /** the number of values. */
+    protected long m_Count;
+
+    /** the mean. */
+    protected double m_Mean;
+
+    /** the sum of squared differences from the mean. */
+    protected double m_M2;
+
+    /**
+     * Adds the value.
+     *
+     * @param value	the value, NaN gets ignored
+     */
+    public void add(double value) {
+      double	delta;
+
+      if (Double.isNaN(value))
+	return;
+
+      m_Count++;
+      delta   = value - m_Mean;
+      m_Mean += delta / m_Count;
+      m_M2   += delta * (value - m_Mean);
+    }
+
+    /**
+     * Returns the number of values.
+     *
+     * @return		the count
+     */
+    public long getCount() {
+      return m_Count;
+    }
+
+    /**
+     * Returns the mean.
+     *
+     * @return		the mean, NaN if no values
+     */
+    public double getMean() {
+      if (m_Count == 0)
+	return Double.NaN;
+      return m_Mean;
+    }
+
+    /**
+     * Returns the sample variance.
+     *
+     * @return		the variance, NaN if less than two values
+     */
+    public double getVariance() {
+      if (m_Count < 2)
+	return Double.NaN;
+      return m_M2 / (m_Count - 1);
+    }
+  }
+
+  /**
+   * The statistics of a pipeline or dataset.
+   */
+  public static class Statistics {
+
+    /** the accuracy. */
+    protected RunningStatistics m_Accuracy;
+
+    /** the RMSE. */
+    protected RunningStatistics m_RMSE;
+
+    /**
+     * Initializes the statistics.
+     */
+    public Statistics() {
+      m_Accuracy = new RunningStatistics();
+      m_RMSE     = new RunningStatistics();
+    }
+
+    /**
+     * Returns the statistics of the accuracy.
+     *
+     * @return		the statistics
+     */
+    public RunningStatistics getAccuracy() {
+      return m_Accuracy;
+    }
+
+    /**
+     * Returns the statistics of the RMSE.
+     *
+     * @return		the statistics
+     */
+    public RunningStatistics getRMSE() {
+      return m_RMSE;
+    }
+  }
+
+  /**
+   * A single result.
+   */
+  public static class Result {
+
+    /** the pipeline. */
+    protected String m_Pipeline;
+
+    /** the dataset. */
+    protected String m_Dataset;
+
+    /** the accuracy. */
+    protected double m_Accuracy;
+
+    /** the RMSE. */
+    protected double m_RMSE;
+
+    /**
+     * Initializes the result.
+     *
+     * @param pipeline	the pipeline
+     * @param dataset	the dataset
+     * @param accuracy	the accuracy, NaN for a numeric class
+     * @param rmse	the RMSE
+     */
+    public Result(String pipeline, String dataset, double accuracy, double rmse) {
+      m_Pipeline = pipeline;
+      m_Dataset  = dataset;
+      m_Accuracy = accuracy;
+      m_RMSE     = rmse;
+    }
+
+    /**
+     * Returns the pipeline.
+     *
+     * @return		the pipeline
+     */
+    public String getPipeline() {
+      return m_Pipeline;
+    }
+
+    /**
+     * Returns the dataset.
+     *
+     * @return		the dataset
+     */
+    public String getDataset() {
+      return m_Dataset;
+    }
+
+    /**
+     * Returns the accuracy.
+     *
+     * @return		the accuracy, NaN for a numeric class
+     */
+    public double getAccuracy() {
+      return m_Accuracy;
+    }
+
+    /**
+     * Returns the RMSE.
+     *
+     * @return		the RMSE
+     */
+    public double getRMSE() {
+      return m_RMSE;
+    }
+  }
+
+  /**
+   * Statistics per pipeline or dataset, ranked best first.
+   */
+  protected static class Ranking {
+
+    /** the maximum number of entries (0 = unlimited). */
+    protected int m_MaxEntries;
+
+    /** the statistics. */
+    protected Map<String, Statistics> m_Statistics;
+
+    /** the keys, best first. */
+    protected TreeSet<String> m_Ranked;
+
+    /** the statistics of dropped keys, least recently dropped first. */
+    protected Map<String, Statistics> m_Dropped;
+
+    /**
+     * Initializes the ranking.
+     *
+     * @param maxEntries	the maximum number of entries, 0 for unlimited
+     */
+    public Ranking(int maxEntries) {
+      m_MaxEntries = maxEntries;
+      m_Statistics = new HashMap<String, Statistics>();
+      m_Dropped    = new LinkedHashMap<String, Statistics>() {
+	private static final long serialVersionUID = 4301766012577458427L;
+	@Override
+	protected boolean removeEldestEntry(Map.Entry<String, Statistics> eldest) {
+	  return size() > m_MaxEntries;
+	}
+      };
+      m_Ranked     = new TreeSet<String>(new Comparator<String>() {
+	public int compare(String o1, String o2) {
+	  Statistics	s1;
+	  Statistics	s2;
+	  int		result;
+
+	  s1     = m_Statistics.get(o1);
+	  s2     = m_Statistics.get(o2);
+	  result = compareValues(s2.getAccuracy().getMean(), s1.getAccuracy().getMean());
+	  if (result == 0)
+	    result = compareValues(-s2.getRMSE().getMean(), -s1.getRMSE().getMean());
+	  if (result == 0)
+	    result = o1.compareTo(o2);
+
+	  return result;
+	}
+      });
+    }
+
+    /**
+     * Updates the statistics of the key and drops the lowest ranked entry
+     * if there are too many. The statistics of a dropped key are restored,
+     * if still available.
+     *
+     * @param key		the pipeline or dataset
+     * @param result	the result to add
+     */
+    public void update(String key, Result result) {
+      Statistics	stats;
+      String		dropped;
+
+      stats = m_Statistics.get(key);
+      if (stats == null) {
+	stats = m_Dropped.remove(key);
+	if (stats == null)
+	  stats = new Statistics();
+	m_Statistics.put(key, stats);
+      }
+      else {
+	// the position depends on the statistics, remove before updating
+	m_Ranked.remove(key);
+      }
+      stats.getAccuracy().add(result.getAccuracy());
+      stats.getRMSE().add(result.getRMSE());
+      m_Ranked.add(key);
+
+      if ((m_MaxEntries > 0) && (m_Ranked.size() > m_MaxEntries)) {
+	dropped = m_Ranked.pollLast();
+	m_Dropped.put(dropped, m_Statistics.remove(dropped));
+      }
+    }
+
+    /**
+     * Returns the statistics of the key.
+     *
+     * @param key		the pipeline or dataset
+     * @return		the statistics, null if not available
+     */
+    public Statistics get(String key) {
+      return m_Statistics.get(key);
+    }
+
+    /**
+     * Returns the keys, best first.
+     *
+     * @return		the keys
+     */
+    public Iterable<String> keys() {
+      return m_Ranked;
+    }
+  }
+
+  /** the default maximum number of pipelines/datasets to keep statistics for. */
+  public final static int DEFAULT_MAX_ENTRIES = 10000;
+
+  /** orders results from worst to best: higher accuracy, then lower RMSE. */
+  public final static Comparator<Result> WORST_FIRST = new Comparator<Result>() {
+    public int compare(Result o1, Result o2) {
+      int	result;
+
+      result = compareValues(o1.getAccuracy(), o2.getAccuracy());
+      if (result == 0)
+	result = -compareValues(o1.getRMSE(), o2.getRMSE());
+
+      return result;
+    }
+  };
+
+  /** the number of best results to keep. */
+  protected int m_TopK;
+
+  /** the number of results added. */
+  protected long m_Count;
+
+  /** the statistics per pipeline. */
+  protected Ranking m_Pipelines;
+
+  /** the statistics per dataset. */
+  protected Ranking m_Datasets;
+
+  /** the best results, worst at the head. */
+  protected PriorityQueue<Result> m_Top;
+
+  /**
+   * Initializes the leaderboard, keeping statistics for at most
+   * {@link #DEFAULT_MAX_ENTRIES} pipelines and datasets.
+   *
+   * @param topK	the number of best results to keep
+   */
+  public Leaderboard(int topK) {
+    this(topK, DEFAULT_MAX_ENTRIES);
+  }
+
+  /**
+   * Initializes the leaderboard.
+   *
+   * @param topK	the number of best results to keep
+   * @param maxEntries	the maximum number of pipelines and of datasets to
+   * 			keep statistics for, 0 for unlimited
+   */
+  public Leaderboard(int topK, int maxEntries) {
+    m_TopK      = topK;
+    m_Pipelines = new Ranking(maxEntries);
+    m_Datasets  = new Ranking(maxEntries);
+    m_Top       = new PriorityQueue<Result>(Math.max(1, topK + 1), WORST_FIRST);
+  }
+
+  /**
+   * Compares two values, with NaN being the smallest value.
+   *
+   * @param v1		the first value
+   * @param v2		the second value
+   * @return		the comparison
+   */
+  protected static int compareValues(double v1, double v2) {
+    if (Double.isNaN(v1) && Double.isNaN(v2))
+      return 0;
+    else if (Double.isNaN(v1))
+      return -1;
+    else if (Double.isNaN(v2))
+      return 1;
+    else
+      return Double.compare(v1, v2);
+  }
+
+  /**
+   * Adds the result.
+   *
+   * @param result	the result to add
+   */
+  public synchronized void add(Result result) {
+    m_Count++;
+    m_Pipelines.update(result.getPipeline(), result);
+    m_Datasets.update(result.getDataset(), result);
+
+    if (m_TopK > 0) {
+      m_Top.add(result);
+      if (m_Top.size() > m_TopK)
+	m_Top.poll();
+    }
+  }
+
+  /**
+   * Returns the number of results added so far.
+   *
+   * @return		the number of results
+   */
+  public synchronized long getCount() {
+    return m_Count;
+  }
+
+  /**
+   * Returns the statistics of the pipeline.
+   *
+   * @param pipeline	the pipeline
+   * @return		the statistics, null if no results (or dropped)
+   */
+  public synchronized Statistics getPipeline(String pipeline) {
+    return m_Pipelines.get(pipeline);
+  }
+
+  /**
+   * Returns the statistics of the dataset.
+   *
+   * @param dataset	the dataset
+   * @return		the statistics, null if no results (or dropped)
+   */
+  public synchronized Statistics getDataset(String dataset) {
+    return m_Datasets.get(dataset);
+  }
+
+  /**
+   * Returns the best results.
+   *
+   * @return		the results, best first
+   */
+  public synchronized List<Result> getTop() {
+    List<Result>	result;
+
+    result = new ArrayList<Result>(m_Top);
+    Collections.sort(result, Collections.reverseOrder(WORST_FIRST));
+
+    return result;
+  }
+
+  /**
+   * Appends one line per pipeline or dataset, best mean accuracy first.
+   *
+   * @param ranking	the statistics
+   * @param output	the output to append to
+   */
+  protected void append(Ranking ranking, StringBuilder output) {
+    Statistics		stats;
+
+    for (String key: ranking.keys()) {
+      stats = ranking.get(key);
+      output.append(stats.getAccuracy().getCount() + "\t"
+	  + stats.getAccuracy().getMean() + "\t" + stats.getAccuracy().getVariance() + "\t"
+	  + stats.getRMSE().getCount() + "\t"
+	  + stats.getRMSE().getMean() + "\t" + stats.getRMSE().getVariance() + "\t"
+	  + key + "\n");
+    }
+  }
+
+  /**
+   * Returns a tab-separated snapshot of the leaderboard: the best results,
+   * followed by the statistics per pipeline and per dataset.
+   *
+   * @return		the snapshot
+   */
+  public synchronized String toSnapshot() {
+    StringBuilder	result;
+
+    result = new StringBuilder();
+    result.append("# results: " + m_Count + "\n");
+
+    result.append("\n# top " + m_TopK + "\n");
+    result.append("# accuracy\trmse\tdataset\tpipeline\n");
+    for (Result res: getTop())
+      result.append(res.getAccuracy() + "\t" + res.getRMSE() + "\t" + res.getDataset() + "\t" + res.getPipeline() + "\n");
+
+    result.append("\n# pipelines\n");
+    result.append("# count\tmean accuracy\tvariance accuracy\tcount\tmean rmse\tvariance rmse\tpipeline\n");
+    append(m_Pipelines, result);
+
+    result.append("\n# datasets\n");
+    result.append("# count\tmean accuracy\tvariance accuracy\tcount\tmean rmse\tvariance rmse\tdataset\n");
+    append(m_Datasets, result);
+
+    return result.toString();
+  }
+}
@@ -0,0 +1,489 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * MetaKnowledgeBase.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.preprocessing;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Maps the meta-features of datasets to the best-performing pipelines found
+ * in past evaluations. Lookups of the nearest datasets are performed on a
+ * KD-tree over the meta-features, normalized to [0, 1]; the tree is rebuilt
+ * lazily after modifications.
+ * <p/>
+ * The knowledge base is stored as text file, one entry per line with the
+ * comma-separated meta-features, the score and the text encoding of the
+ * pipeline, separated by tabs.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class MetaKnowledgeBase {
+
+  /** the number of meta-features. */
+  public final static int NUM_FEATURES = 5;
+
+  /**
+   * An entry of the knowledge base.
+   */
+  public static class Entry {
+
+    /** the meta-features. */
+    protected double[] features;
+
+    /** the score of the pipeline (higher is better). */
+    protected double score;
+
+    /** the pipeline. */
+    protected PipelineDescriptor pipeline;
+
+    /**
+     * Initializes the entry.
+     *
+     * @param features	the meta-features
+     * @param score	the score of the pipeline
+     * @param pipeline	the pipeline
+     */
+    public Entry(double[] features, double score, PipelineDescriptor pipeline) {
+      this.features = features.clone();
+      this.score    = score;
+      this.pipeline = pipeline;
+    }
+
+    /**
+     * Returns the meta-features.
+     *
+     * @return		the features
+     */
+    public double[] getFeatures() {
+      return features.clone();
+    }
+
+    /**
+     * Returns the score.
+     *
+     * @return		the score
+     */
+    public double getScore() {
+      return score;
+    }
+
+    /**
+     * Returns the pipeline.
+     *
+     * @return		the pipeline
+     */
+    public PipelineDescriptor getPipeline() {
+      return pipeline;
+    }
+  }
+
+  /**
+   * A node of the KD-tree.
+   */
+  protected static class Node {
+
+    /** the index of the entry. */
+    protected int entry;
+
+    /** the split dimension. */
+    protected int dim;
+
+    /** the left subtree (smaller values). */
+    protected Node left;
+
+    /** the right subtree (larger or equal values). */
+    protected Node right;
+  }
+
+  /** the entries. */
+  protected List<Entry> m_Entries;
+
+  /** the normalized features (built with the tree). */
+  protected double[][] m_Normalized;
+
+  /** the minimum per feature. */
+  protected double[] m_Min;
+
+  /** the range per feature. */
+  protected double[] m_Range;
+
+  /** the root of the KD-tree, null if needs rebuilding. */
+  protected Node m_Root;
+
+  /**
+   * Initializes an empty knowledge base.
+   */
+  public MetaKnowledgeBase() {
+    m_Entries = new ArrayList<Entry>();
+  }
+
+  /**
+   * Computes the meta-features from the data characteristics.
+   *
+   * @param profile	the characteristics
+   * @return		the meta-features
+   */
+  public static double[] getFeatures(DataProfile profile) {
+    double[]	result;
+    double[]	fractions;
+    int		withMissing;
+
+    fractions = profile.getMissingFraction();
+    result    = new double[NUM_FEATURES];
+    result[0] = Math.log10(profile.getNumRows() + 1);
+    result[1] = Math.log10(profile.getNumColumns() + 1);
+    withMissing = 0;
+    for (double fraction: fractions) {
+      result[2] += fraction;
+      result[3]  = Math.max(result[3], fraction);
+      if (fraction > 0)
+	withMissing++;
+    }
+    if (fractions.length > 0) {
+      result[2] /= fractions.length;
+      result[4]  = (double) withMissing / fractions.length;
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the number of entries.
+   *
+   * @return		the number of entries
+   */
+  public synchronized int size() {
+    return m_Entries.size();
+  }
+
+  /**
+   * Returns the entry at the specified position.
+   *
+   * @param index	the position
+   * @return		the entry
+   */
+  public synchronized Entry get(int index) {
+    return m_Entries.get(index);
+  }
+
+  /**
+   * Adds the evaluation of a pipeline.
+   *
+   * @param features	the meta-features of the dataset
+   * @param score	the score of the pipeline (higher is better)
+   * @param pipeline	the pipeline
+   */
+  public synchronized void add(double[] features, double score, PipelineDescriptor pipeline) {
+    if (features.length != NUM_FEATURES)
+      throw new IllegalArgumentException("Expected " + NUM_FEATURES + " meta-features, got " + features.length);
+    m_Entries.add(new Entry(features, score, pipeline));
+    m_Root = null;
+  }
+
+  /**
+   * Builds the KD-tree over the normalized meta-features.
+   */
+  protected void build() {
+    int[]	indices;
+    int		i;
+    int		d;
+
+    m_Min        = new double[NUM_FEATURES];
+    m_Range      = new double[NUM_FEATURES];
+    m_Normalized = new double[m_Entries.size()][NUM_FEATURES];
+    Arrays.fill(m_Min, Double.POSITIVE_INFINITY);
+    for (Entry entry: m_Entries) {
+      for (d = 0; d < NUM_FEATURES; d++) {
+	m_Min[d]   = Math.min(m_Min[d], entry.features[d]);
+	m_Range[d] = Math.max(m_Range[d], entry.features[d]);
+      }
+    }
+    for (d = 0; d < NUM_FEATURES; d++)
+      m_Range[d] -= m_Min[d];
+    for (i = 0; i < m_Entries.size(); i++)
+      m_Normalized[i] = normalize(m_Entries.get(i).features);
+
+    indices = new int[m_Entries.size()];
+    for (i = 0; i < indices.length; i++)
+      indices[i] = i;
+    m_Root = build(indices, 0, indices.length, 0);
+  }
+
+  /**
+   * Builds the subtree for the specified range of entries.
+   *
+   * @param indices	the entry indices
+   * @param from	the start of the range
+   * @param to		the end of the range (exclusive)
+   * @param depth	the depth of the subtree
+   * @return		the root of the subtree, null if empty range
+   */
+  protected Node build(int[] indices, int from, int to, int depth) {
+    Node		result;
+    Integer[]		sorted;
+    final int		dim;
+    int			mid;
+    int			i;
+
+    if (from >= to)
+      return null;
+
+    dim    = depth % NUM_FEATURES;
+    sorted = new Integer[to - from];
+    for (i = from; i < to; i++)
+      sorted[i - from] = indices[i];
+    Arrays.sort(sorted, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer o1, Integer o2) {
+	return Double.compare(m_Normalized[o1][dim], m_Normalized[o2][dim]);
+      }
+    });
+    for (i = from; i < to; i++)
+      indices[i] = sorted[i - from];
+    mid = (from + to) / 2;
+    // all entries with the same value as the median go to the right
+    while ((mid > from) && (m_Normalized[indices[mid - 1]][dim] == m_Normalized[indices[mid]][dim]))
+      mid--;
+
+    result       = new Node();
+    result.entry = indices[mid];
+    result.dim   = dim;
+    result.left  = build(indices, from, mid, depth + 1);
+    result.right = build(indices, mid + 1, to, depth + 1);
+
+    return result;
+  }
+
+  /**
+   * Normalizes the meta-features, using the ranges of the knowledge base.
+   *
+   * @param features	the features to normalize
+   * @return		the normalized features
+   */
+  protected double[] normalize(double[] features) {
+    double[]	result;
+    int		d;
+
+    result = new double[NUM_FEATURES];
+    for (d = 0; d < NUM_FEATURES; d++) {
+      if (m_Range[d] > 0)
+	result[d] = (features[d] - m_Min[d]) / m_Range[d];
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the squared euclidean distance.
+   *
+   * @param a		the first vector
+   * @param b		the second vector
+   * @return		the squared distance
+   */
+  protected static double distance(double[] a, double[] b) {
+    double	result;
+    int		d;
+
+    result = 0;
+    for (d = 0; d < a.length; d++)
+      result += (a[d] - b[d]) * (a[d] - b[d]);
+
+    return result;
+  }
+
+  /**
+   * Searches the subtree for the nearest neighbours.
+   *
+   * @param node	the root of the subtree
+   * @param query	the normalized query
+   * @param k		the number of neighbours
+   * @param heap	the current neighbours, farthest first
+   */
+  protected void search(Node node, double[] query, int k, PriorityQueue<double[]> heap) {
+    double	dist;
+    double	diff;
+    Node	near;
+    Node	far;
+
+    if (node == null)
+      return;
+
+    dist = distance(query, m_Normalized[node.entry]);
+    if (heap.size() < k) {
+      heap.add(new double[]{dist, node.entry});
+    }
+    else if (dist < heap.peek()[0]) {
+      heap.poll();
+      heap.add(new double[]{dist, node.entry});
+    }
+
+    diff = query[node.dim] - m_Normalized[node.entry][node.dim];
+    near = (diff < 0) ? node.left : node.right;
+    far  = (diff < 0) ? node.right : node.left;
+    search(near, query, k, heap);
+    if ((heap.size() < k) || (diff * diff < heap.peek()[0]))
+      search(far, query, k, heap);
+  }
+
+  /**
+   * Returns the k entries with the most similar meta-features.
+   *
+   * @param features	the meta-features of the dataset
+   * @param k		the number of neighbours
+   * @return		the entries, nearest first
+   */
+  public synchronized List<Entry> getNeighbours(double[] features, int k) {
+    List<Entry>			result;
+    PriorityQueue<double[]>	heap;
+
+    result = new ArrayList<Entry>();
+    if (m_Entries.size() == 0)
+      return result;
+    if (m_Root == null)
+      build();
+
+    heap = new PriorityQueue<double[]>(k, new Comparator<double[]>() {
+      @Override
+      public int compare(double[] o1, double[] o2) {
+	return Double.compare(o2[0], o1[0]);
+      }
+    });
+    search(m_Root, normalize(features), k, heap);
+    while (heap.size() > 0)
+      result.add(0, m_Entries.get((int) heap.poll()[1]));
+
+    return result;
+  }
+
+  /**
+   * Recommends the pipeline with the highest score among the k entries with
+   * the most similar meta-features.
+   *
+   * @param features	the meta-features of the dataset
+   * @param k		the number of neighbours to consider
+   * @return		the pipeline, null if the knowledge base is empty
+   */
+  public PipelineDescriptor recommend(double[] features, int k) {
+    Entry	best;
+
+    best = null;
+    for (Entry entry: getNeighbours(features, k)) {
+      if ((best == null) || (entry.score > best.score))
+	best = entry;
+    }
+
+    if (best == null)
+      return null;
+    else
+      return best.pipeline;
+  }
+
+  /**
+   * Loads the knowledge base from the file. Entries with pipelines that are
+   * no longer available get skipped.
+   *
+   * @param file	the file to load
+   * @return		the knowledge base
+   * @throws IOException	if reading fails
+   */
+  public static MetaKnowledgeBase load(File file) throws IOException {
+    MetaKnowledgeBase	result;
+    BufferedReader	reader;
+    String		line;
+    String[]		parts;
+    String[]		values;
+    double[]		features;
+    int			d;
+
+    result = new MetaKnowledgeBase();
+    reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    try {
+      while ((line = reader.readLine()) != null) {
+	if ((line.trim().length() == 0) || line.startsWith("#"))
+	  continue;
+	parts = line.split("\t");
+	if (parts.length != 3)
+	  throw new IOException("Invalid entry: " + line);
+	values = parts[0].split(",");
+	if (values.length != NUM_FEATURES)
+	  throw new IOException("Invalid meta-features: " + line);
+	features = new double[NUM_FEATURES];
+	for (d = 0; d < NUM_FEATURES; d++)
+	  features[d] = Double.parseDouble(values[d]);
+	try {
+	  result.add(features, Double.parseDouble(parts[1]), PipelineDescriptor.parse(parts[2]));
+	}
+	catch (IllegalArgumentException e) {
+	  // filter not available
+	}
+	catch (Exception e) {
+	  throw new IOException("Invalid pipeline: " + line, e);
+	}
+      }
+    }
+    finally {
+      reader.close();
+    }
+
+    return result;
+  }
+
+  /**
+   * Saves the knowledge base to the file.
+   *
+   * @param file	the file to save to
+   * @throws IOException	if writing fails
+   */
+  public synchronized void save(File file) throws IOException {
+    BufferedWriter	writer;
+    int			d;
+
+    writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+    try {
+      writer.write("# meta-features\tscore\tpipeline");
+      writer.newLine();
+      for (Entry entry: m_Entries) {
+	for (d = 0; d < NUM_FEATURES; d++) {
+	  if (d > 0)
+	    writer.write(",");
+	  writer.write("" + entry.features[d]);
+	}
+	writer.write("\t" + entry.score + "\t" + entry.pipeline.toText());
+	writer.newLine();
+      }
+    }
+    finally {
+      writer.close();
+    }
+  }
+}
@@ -0,0 +1,359 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * MissingValueIndex.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.preprocessing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Index of the missing values of a dataset, with one set of row indices per
+ * column. Like in Roaring bitmaps, each set is stored either as sorted array
+ * of row indices (few missing values) or as bitmap (many missing values),
+ * whichever is smaller. The index is built in a single pass over the data.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class MissingValueIndex {
+
+  /** the number of rows. */
+  protected int m_NumRows;
+
+  /** the number of missing values per column. */
+  protected int[] m_Counts;
+
+  /** the bitmaps per column (null if stored as array). */
+  protected long[][] m_Bitmaps;
+
+  /** the sorted row indices per column (null if stored as bitmap). */
+  protected int[][] m_Arrays;
+
+  /**
+   * Builds the index for the dataset.
+   *
+   * @param data	the dataset to index
+   */
+  public MissingValueIndex(Instances data) {
+    long[][]	bitmaps;
+    Instance	inst;
+    int		numCols;
+    int		words;
+    int		i;
+    int		p;
+    int		c;
+
+    m_NumRows = data.numInstances();
+    numCols   = data.numAttributes();
+    words     = (m_NumRows + 63) >>> 6;
+    bitmaps   = new long[numCols][];
+    m_Counts  = new int[numCols];
+
+    for (i = 0; i < m_NumRows; i++) {
+      inst = data.instance(i);
+      // iterating the stored values works for dense and sparse instances
+      for (p = 0; p < inst.numValues(); p++) {
+	if (Double.isNaN(inst.valueSparse(p))) {
+	  c = inst.index(p);
+	  if (bitmaps[c] == null)
+	    bitmaps[c] = new long[words];
+	  bitmaps[c][i >>> 6] |= 1L << i;
+	  m_Counts[c]++;
+	}
+      }
+    }
+
+    m_Bitmaps = new long[numCols][];
+    m_Arrays  = new int[numCols][];
+    for (c = 0; c < numCols; c++) {
+      // array container: 32 bits per entry, bitmap container: 1 bit per row
+      // (columns without missing values, e.g., in empty datasets, never
+      // have a bitmap)
+      if ((m_Counts[c] == 0) || ((long) m_Counts[c] * 32 < m_NumRows))
+	m_Arrays[c] = toArray(bitmaps[c], m_Counts[c]);
+      else
+	m_Bitmaps[c] = bitmaps[c];
+    }
+  }
+
+  /**
+   * Turns the bitmap into a sorted array of row indices.
+   *
+   * @param bitmap	the bitmap, can be null
+   * @param count	the number of bits set
+   * @return		the row indices
+   */
+  protected static int[] toArray(long[] bitmap, int count) {
+    int[]	result;
+    long	word;
+    int		w;
+    int		n;
+
+    result = new int[count];
+    if (bitmap == null)
+      return result;
+    n = 0;
+    for (w = 0; w < bitmap.length; w++) {
+      word = bitmap[w];
+      while (word != 0) {
+	result[n++] = (w << 6) + Long.numberOfTrailingZeros(word);
+	word &= word - 1;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the number of rows.
+   *
+   * @return		the rows
+   */
+  public int getNumRows() {
+    return m_NumRows;
+  }
+
+  /**
+   * Returns the number of columns.
+   *
+   * @return		the columns
+   */
+  public int getNumColumns() {
+    return m_Counts.length;
+  }
+
+  /**
+   * Returns whether the cell is missing.
+   *
+   * @param row		the row
+   * @param col		the column
+   * @return		true if missing
+   */
+  public boolean isMissing(int row, int col) {
+    if (m_Bitmaps[col] != null)
+      return (m_Bitmaps[col][row >>> 6] & (1L << row)) != 0;
+    else
+      return Arrays.binarySearch(m_Arrays[col], row) >= 0;
+  }
+
+  /**
+   * Returns the number of missing values in the column.
+   *
+   * @param col		the column
+   * @return		the number of missing values
+   */
+  public int getCount(int col) {
+    return m_Counts[col];
+  }
+
+  /**
+   * Returns the fraction of missing values in the column.
+   *
+   * @param col		the column
+   * @return		the fraction
+   */
+  public double getFraction(int col) {
+    if (m_NumRows == 0)
+      return 0.0;
+    return (double) m_Counts[col] / m_NumRows;
+  }
+
+  /**
+   * Returns whether the dataset contains any missing values.
+   *
+   * @return		true if missing values present
+   */
+  public boolean hasMissing() {
+    for (int count: m_Counts) {
+      if (count > 0)
+	return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the rows that have at least one missing value.
+   *
+   * @return		the sorted row indices
+   */
+  public int[] getRowsWithMissing() {
+    long[]	union;
+    int		c;
+    int		w;
+    int		count;
+
+    if (m_NumRows == 0)
+      return new int[0];
+
+    union = new long[(m_NumRows + 63) >>> 6];
+    for (c = 0; c < m_Counts.length; c++) {
+      if (m_Bitmaps[c] != null) {
+	for (w = 0; w < union.length; w++)
+	  union[w] |= m_Bitmaps[c][w];
+      }
+      else {
+	for (int row: m_Arrays[c])
+	  union[row >>> 6] |= 1L << row;
+      }
+    }
+    count = 0;
+    for (w = 0; w < union.length; w++)
+      count += Long.bitCount(union[w]);
+
+    return toArray(union, count);
+  }
+
+  /**
+   * Returns the number of missing values per row.
+   *
+   * @return		the counts
+   */
+  public int[] getCountsByRow() {
+    int[]	result;
+    int		c;
+
+    result = new int[m_NumRows];
+    for (c = 0; c < m_Counts.length; c++) {
+      if (m_Counts[c] == 0)
+	continue;
+      for (int row: (m_Arrays[c] != null) ? m_Arrays[c] : toArray(m_Bitmaps[c], m_Counts[c]))
+	result[row]++;
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the columns with a fraction of missing values above the
+   * threshold.
+   *
+   * @param fraction	the threshold (0-1)
+   * @return		the column indices
+   */
+  public int[] getColumnsAbove(double fraction) {
+    List<Integer>	result;
+    int[]		cols;
+    int			c;
+
+    result = new ArrayList<Integer>();
+    for (c = 0; c < m_Counts.length; c++) {
+      if ((m_Counts[c] > 0) && (getFraction(c) > fraction))
+	result.add(c);
+    }
+    cols = new int[result.size()];
+    for (c = 0; c < cols.length; c++)
+      cols[c] = result.get(c);
+
+    return cols;
+  }
+
+  /**
+   * Returns the number of rows in which both columns are missing.
+   *
+   * @param col1	the first column
+   * @param col2	the second column
+   * @return		the number of rows
+   */
+  public int getCoMissingCount(int col1, int col2) {
+    long[]	b1;
+    long[]	b2;
+    int		result;
+    int		i;
+    int		j;
+    int		w;
+
+    if ((m_Counts[col1] == 0) || (m_Counts[col2] == 0))
+      return 0;
+
+    result = 0;
+    // array & array: merge
+    if ((m_Arrays[col1] != null) && (m_Arrays[col2] != null)) {
+      i = 0;
+      j = 0;
+      while ((i < m_Arrays[col1].length) && (j < m_Arrays[col2].length)) {
+	if (m_Arrays[col1][i] < m_Arrays[col2][j]) {
+	  i++;
+	}
+	else if (m_Arrays[col1][i] > m_Arrays[col2][j]) {
+	  j++;
+	}
+	else {
+	  result++;
+	  i++;
+	  j++;
+	}
+      }
+    }
+    // array & bitmap: lookups
+    else if ((m_Arrays[col1] != null) || (m_Arrays[col2] != null)) {
+      b1 = (m_Bitmaps[col1] != null) ? m_Bitmaps[col1] : m_Bitmaps[col2];
+      for (int row: (m_Arrays[col1] != null) ? m_Arrays[col1] : m_Arrays[col2]) {
+	if ((b1[row >>> 6] & (1L << row)) != 0)
+	  result++;
+      }
+    }
+    // bitmap & bitmap: popcount
+    else {
+      b1 = m_Bitmaps[col1];
+      b2 = m_Bitmaps[col2];
+      for (w = 0; w < b1.length; w++)
+	result += Long.bitCount(b1[w] & b2[w]);
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the pairs of columns whose missing values co-occur, i.e., the
+   * Jaccard similarity of their sets of missing rows is at least the
+   * specified threshold.
+   *
+   * @param minJaccard	the minimum similarity (0-1)
+   * @return		the column pairs
+   */
+  public List<int[]> getCoMissingPairs(double minJaccard) {
+    List<int[]>	result;
+    int		both;
+    int		c1;
+    int		c2;
+
+    result = new ArrayList<int[]>();
+    for (c1 = 0; c1 < m_Counts.length; c1++) {
+      if (m_Counts[c1] == 0)
+	continue;
+      for (c2 = c1 + 1; c2 < m_Counts.length; c2++) {
+	if (m_Counts[c2] == 0)
+	  continue;
+	// upper bound of the similarity, avoids the intersection
+	if ((double) Math.min(m_Counts[c1], m_Counts[c2]) / Math.max(m_Counts[c1], m_Counts[c2]) < minJaccard)
+	  continue;
+	both = getCoMissingCount(c1, c2);
+	if ((double) both / (m_Counts[c1] + m_Counts[c2] - both) >= minJaccard)
+	  result.add(new int[]{c1, c2});
+      }
+    }
+
+    return result;
+  }
+}
@@ -0,0 +1,645 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * PipelineCoordinator.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.preprocessing;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Distributes {@link PipelineTask}s to {@link PipelineWorker} JVMs over
+ * sockets and collects their {@link PipelineResult}s. Local workers get forked
+ * automatically, workers on other nodes can connect to the coordinator's port
+ * at any time, if a bind address other than loopback is used.
+ * <p/>
+ * Both ends prove knowledge of a shared secret before any object is
+ * exchanged (HMAC-SHA256 challenge/response in both directions). Without an
+ * explicit secret, a random one is generated and handed to the forked workers
+ * via the {@link #ENV_SECRET} environment variable. Only tasks and results
+ * get deserialized.
+ * <p/>
+ * If a worker dies or exceeds the timeout while evaluating a task, the task
+ * gets re-queued (up to the maximum number of attempts). Local workers get
+ * killed and replaced by a newly forked one, for remote workers only the
+ * connection gets closed.
+ * <p/>
+ * After authenticating, workers send their ID ({@link #ENV_WORKER_ID} for
+ * forked workers, -1 for remote ones), which links the connection to its
+ * process.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class PipelineCoordinator {
+
+  /** the environment variable holding the shared secret for the workers. */
+  public final static String ENV_SECRET = "ADAMS_PIPELINE_SECRET";
+
+  /** the environment variable holding the ID of a forked worker. */
+  public final static String ENV_WORKER_ID = "ADAMS_PIPELINE_WORKER_ID";
+
+  /** the timeout in msec for the handshake. */
+  public final static int HANDSHAKE_TIMEOUT = 10000;
+
+  /** the length of the challenges. */
+  protected final static int CHALLENGE_LENGTH = 32;
+
+  /**
+   * Object input stream that only resolves the specified classes. Derived
+   * classes can allow further classes via {@link #isAllowed(String)}.
+   */
+  protected static class RestrictedObjectInputStream
+    extends ObjectInputStream {
+
+    /** the classes that can be deserialized. */
+    protected Class[] m_Allowed;
+
+    /**
+     * Initializes the stream.
+     *
+     * @param in		the underlying stream
+     * @param allowed	the classes that can be deserialized
+     * @throws IOException	if reading the stream header fails
+     */
+    public RestrictedObjectInputStream(InputStream in, Class... allowed) throws IOException {
+      super(in);
+      m_Allowed = allowed;
+    }
+
+    /**
+     * Checks whether the class can be deserialized.
+     *
+     * @param name	the name of the class
+     * @return		true if allowed
+     */
+    protected boolean isAllowed(String name) {
+      for (Class cls: m_Allowed) {
+	if (cls.getName().equals(name))
+	  return true;
+      }
+      return false;
+    }
+
+    /**
+     * Resolves the class, if it is one of the allowed ones.
+     *
+     * @param desc	the class description
+     * @return		the class
+     * @throws IOException	if the class is not allowed
+     * @throws ClassNotFoundException	if the class cannot be found
+     */
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+      if (isAllowed(desc.getName()))
+	return super.resolveClass(desc);
+      throw new InvalidClassException(desc.getName(), "Class not allowed");
+    }
+
+    /**
+     * Proxies are never allowed.
+     *
+     * @param interfaces	the interfaces
+     * @return		nothing
+     * @throws IOException	always
+     */
+    @Override
+    protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+      throw new InvalidClassException("Proxy classes not allowed");
+    }
+  }
+
+  /**
+   * Serves a single worker connection.
+   */
+  protected class Connection
+    extends Thread {
+
+    /** the socket of the worker. */
+    protected Socket m_Socket;
+
+    /** the process of the worker, null if remote. */
+    protected Process m_Process;
+
+    /**
+     * Initializes the connection.
+     *
+     * @param socket	the socket of the worker
+     */
+    public Connection(Socket socket) {
+      super("PipelineCoordinator-" + socket.getRemoteSocketAddress());
+      m_Socket = socket;
+      setDaemon(true);
+    }
+
+    /**
+     * Sends tasks to the worker and collects the results.
+     */
+    @Override
+    public void run() {
+      ObjectOutputStream	out;
+      ObjectInputStream		in;
+      PipelineTask		task;
+      Object			obj;
+      boolean			authenticated;
+
+      task          = null;
+      authenticated = false;
+      try {
+	m_Socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+	authenticate(m_Socket, m_Secret, true);
+	m_Process     = getProcess(new DataInputStream(m_Socket.getInputStream()).readInt());
+	authenticated = true;
+	m_Connections.incrementAndGet();
+	// only applies while waiting for a result
+	m_Socket.setSoTimeout(m_Timeout);
+	out = new ObjectOutputStream(m_Socket.getOutputStream());
+	out.flush();
+	in = new RestrictedObjectInputStream(m_Socket.getInputStream(), PipelineResult.class, PipelineTask.class);
+	while (!m_Shutdown) {
+	  task = m_Tasks.poll(100, TimeUnit.MILLISECONDS);
+	  if (task == null)
+	    continue;
+	  out.writeObject(task);
+	  out.flush();
+	  out.reset();
+	  obj = in.readObject();
+	  if (!(obj instanceof PipelineResult))
+	    throw new IOException("Expected result, received: " + obj);
+	  m_Results.put((PipelineResult) obj);
+	  task = null;
+	}
+	out.writeObject(null);
+	out.flush();
+      }
+      catch (SocketTimeoutException e) {
+	if (!authenticated)
+	  getLogger().warning("Handshake with " + m_Socket.getRemoteSocketAddress() + " timed out");
+	else if (!m_Shutdown)
+	  getLogger().warning("Worker " + m_Socket.getRemoteSocketAddress() + " timed out on task " + task);
+      }
+      catch (Exception e) {
+	if (!authenticated)
+	  getLogger().warning("Rejected connection from " + m_Socket.getRemoteSocketAddress() + ": " + e);
+	else if (!m_Shutdown)
+	  getLogger().log(Level.WARNING, "Worker " + m_Socket.getRemoteSocketAddress() + " failed", e);
+      }
+      finally {
+	if (authenticated)
+	  m_Connections.decrementAndGet();
+	try {
+	  m_Socket.close();
+	}
+	catch (IOException e) {
+	  // ignored
+	}
+      }
+
+      if (authenticated && !m_Shutdown) {
+	// a hung or broken local worker must not linger
+	if (m_Process != null)
+	  destroyProcess(m_Process);
+	workerDied(task, (m_Process != null));
+      }
+    }
+  }
+
+  /** the logger. */
+  protected static Logger m_Logger;
+
+  /** the number of local workers to fork. */
+  protected int m_NumWorkers;
+
+  /** the port to listen on (0 = any free port). */
+  protected int m_Port;
+
+  /** the maximum number of attempts per task. */
+  protected int m_MaxAttempts;
+
+  /** the address to bind to (null or empty = loopback). */
+  protected String m_BindAddress;
+
+  /** the shared secret. */
+  protected String m_Secret;
+
+  /** the timeout in msec for evaluating a task (0 = none). */
+  protected int m_Timeout;
+
+  /** the host the local workers connect to. */
+  protected String m_Host;
+
+  /** the server socket. */
+  protected ServerSocket m_Server;
+
+  /** the forked worker processes, with their ID. */
+  protected Map<Integer,Process> m_Processes;
+
+  /** the ID for the next forked worker. */
+  protected int m_NextWorkerID;
+
+  /** the pending tasks. */
+  protected LinkedBlockingDeque<PipelineTask> m_Tasks;
+
+  /** the collected results. */
+  protected BlockingQueue<PipelineResult> m_Results;
+
+  /** the number of active worker connections. */
+  protected AtomicInteger m_Connections;
+
+  /** whether the coordinator is shutting down. */
+  protected volatile boolean m_Shutdown;
+
+  /**
+   * Initializes the coordinator.
+   *
+   * @param numWorkers	the number of local workers to fork
+   * @param port	the port to listen on, 0 for any free port
+   * @param maxAttempts	the maximum number of attempts per task
+   */
+  public PipelineCoordinator(int numWorkers, int port, int maxAttempts) {
+    m_NumWorkers  = numWorkers;
+    m_Port        = port;
+    m_MaxAttempts = maxAttempts;
+    m_BindAddress = null;
+    m_Secret      = null;
+    m_Timeout     = 0;
+    m_Processes   = new HashMap<Integer,Process>();
+    m_Tasks       = new LinkedBlockingDeque<PipelineTask>();
+    m_Results     = new LinkedBlockingQueue<PipelineResult>();
+    m_Connections = new AtomicInteger();
+    m_Shutdown    = false;
+  }
+
+  /**
+   * Returns the logger.
+   *
+   * @return		the logger
+   */
+  protected static synchronized Logger getLogger() {
+    if (m_Logger == null)
+      m_Logger = Logger.getLogger(PipelineCoordinator.class.getName());
+    return m_Logger;
+  }
+
+  /**
+   * Sets the address to bind to. Must be called before {@link #start()}.
+   *
+   * @param value	the address, null or empty for loopback
+   */
+  public void setBindAddress(String value) {
+    m_BindAddress = value;
+  }
+
+  /**
+   * Returns the address to bind to.
+   *
+   * @return		the address, null or empty for loopback
+   */
+  public String getBindAddress() {
+    return m_BindAddress;
+  }
+
+  /**
+   * Sets the shared secret. Must be called before {@link #start()}.
+   *
+   * @param value	the secret, null or empty to generate a random one
+   * 			(local workers only)
+   */
+  public void setSecret(String value) {
+    m_Secret = value;
+  }
+
+  /**
+   * Sets the maximum time for evaluating a task, before the worker is
+   * considered hung.
+   *
+   * @param value	the timeout in msec, 0 for none
+   */
+  public void setTimeout(int value) {
+    m_Timeout = value;
+  }
+
+  /**
+   * Returns the maximum time for evaluating a task.
+   *
+   * @return		the timeout in msec, 0 for none
+   */
+  public int getTimeout() {
+    return m_Timeout;
+  }
+
+  /**
+   * Returns the port the coordinator is listening on.
+   *
+   * @return		the port, -1 if not started
+   */
+  public int getPort() {
+    if (m_Server == null)
+      return -1;
+    return m_Server.getLocalPort();
+  }
+
+  /**
+   * Computes the response for the challenge.
+   *
+   * @param secret	the shared secret
+   * @param coordinator	whether the response is sent by the coordinator
+   * @param challenge	the challenge
+   * @return		the response
+   * @throws IOException	if the HMAC is not available
+   */
+  protected static byte[] respond(String secret, boolean coordinator, byte[] challenge) throws IOException {
+    Mac		mac;
+
+    try {
+      mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(secret.getBytes("UTF-8"), "HmacSHA256"));
+      mac.update((byte) (coordinator ? 'C' : 'W'));
+      return mac.doFinal(challenge);
+    }
+    catch (GeneralSecurityException e) {
+      throw new IOException("Failed to compute response", e);
+    }
+  }
+
+  /**
+   * Performs the mutual challenge/response handshake: both ends send a
+   * random challenge and must answer the other end's challenge with an HMAC
+   * keyed with the shared secret.
+   *
+   * @param socket	the connection
+   * @param secret	the shared secret
+   * @param coordinator	whether this end is the coordinator
+   * @throws IOException	if the other end fails to authenticate
+   */
+  public static void authenticate(Socket socket, String secret, boolean coordinator) throws IOException {
+    DataOutputStream	out;
+    DataInputStream	in;
+    byte[]		challenge;
+    byte[]		other;
+    byte[]		response;
+
+    if ((secret == null) || secret.isEmpty())
+      throw new IOException("No secret provided");
+
+    out       = new DataOutputStream(socket.getOutputStream());
+    in        = new DataInputStream(socket.getInputStream());
+    challenge = new byte[CHALLENGE_LENGTH];
+    new SecureRandom().nextBytes(challenge);
+    out.write(challenge);
+    out.flush();
+
+    other = new byte[CHALLENGE_LENGTH];
+    in.readFully(other);
+    out.write(respond(secret, coordinator, other));
+    out.flush();
+
+    response = new byte[respond(secret, !coordinator, challenge).length];
+    in.readFully(response);
+    if (!MessageDigest.isEqual(response, respond(secret, !coordinator, challenge)))
+      throw new IOException("Authentication failed");
+  }
+
+  /**
+   * Starts listening for workers and forks the local ones.
+   *
+   * @throws IOException	if starting fails
+   */
+  public void start() throws IOException {
+    Thread	acceptor;
+    byte[]	random;
+    int		i;
+
+    if ((m_Secret == null) || m_Secret.isEmpty()) {
+      random = new byte[CHALLENGE_LENGTH];
+      new SecureRandom().nextBytes(random);
+      m_Secret = new BigInteger(1, random).toString(16);
+    }
+
+    // loopback unless explicitly told otherwise, i.e., no remote workers
+    if ((m_BindAddress == null) || m_BindAddress.isEmpty())
+      m_Server = new ServerSocket(m_Port, 50, InetAddress.getByName(null));
+    else
+      m_Server = new ServerSocket(m_Port, 50, InetAddress.getByName(m_BindAddress));
+    if (m_Server.getInetAddress().isAnyLocalAddress())
+      m_Host = InetAddress.getByName(null).getHostAddress();
+    else
+      m_Host = m_Server.getInetAddress().getHostAddress();
+
+    acceptor = new Thread("PipelineCoordinator-acceptor") {
+      @Override
+      public void run() {
+	while (!m_Shutdown) {
+	  try {
+	    new Connection(m_Server.accept()).start();
+	  }
+	  catch (SocketException e) {
+	    // server socket got closed
+	    break;
+	  }
+	  catch (IOException e) {
+	    getLogger().log(Level.WARNING, "Failed to accept worker", e);
+	  }
+	}
+      }
+    };
+    acceptor.setDaemon(true);
+    acceptor.start();
+
+    for (i = 0; i < m_NumWorkers; i++)
+      forkWorker();
+  }
+
+  /**
+   * Removes the processes of workers that have exited.
+   */
+  protected synchronized void pruneProcesses() {
+    Iterator<Process>	iter;
+
+    iter = m_Processes.values().iterator();
+    while (iter.hasNext()) {
+      try {
+	iter.next().exitValue();
+	iter.remove();
+      }
+      catch (IllegalThreadStateException e) {
+	// still running
+      }
+    }
+  }
+
+  /**
+   * Forks a local worker JVM using the classpath of this JVM.
+   *
+   * @throws IOException	if forking fails
+   */
+  protected synchronized void forkWorker() throws IOException {
+    ProcessBuilder	builder;
+
+    pruneProcesses();
+    builder = new ProcessBuilder(
+	System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+	"-cp", System.getProperty("java.class.path"),
+	PipelineWorker.class.getName(),
+	m_Host, "" + getPort());
+    // not on the command-line, which is visible to other users
+    builder.environment().put(ENV_SECRET, m_Secret);
+    builder.environment().put(ENV_WORKER_ID, "" + m_NextWorkerID);
+    builder.inheritIO();
+    m_Processes.put(m_NextWorkerID, builder.start());
+    m_NextWorkerID++;
+  }
+
+  /**
+   * Returns the process of the forked worker.
+   *
+   * @param id		the ID the worker sent
+   * @return		the process, null if not a forked worker
+   */
+  protected synchronized Process getProcess(int id) {
+    return m_Processes.get(id);
+  }
+
+  /**
+   * Kills the forked worker.
+   *
+   * @param process	the process of the worker
+   */
+  protected synchronized void destroyProcess(Process process) {
+    process.destroy();
+    m_Processes.values().remove(process);
+  }
+
+  /**
+   * Gets called when a worker connection dies. Re-queues the task it was
+   * working on and forks a replacement for local workers.
+   *
+   * @param task	the task the worker was evaluating, null if none
+   * @param local	whether the worker was forked by the coordinator
+   */
+  protected void workerDied(PipelineTask task, boolean local) {
+    if (task != null) {
+      if (task.incAttempts() < m_MaxAttempts) {
+	getLogger().warning("Re-queuing task " + task);
+	m_Tasks.addFirst(task);
+      }
+      else {
+	m_Results.add(new PipelineResult(task, "Giving up after " + task.getAttempts() + " attempts"));
+      }
+    }
+
+    try {
+      if (local && !m_Shutdown)
+	forkWorker();
+    }
+    catch (IOException e) {
+      getLogger().log(Level.SEVERE, "Failed to fork replacement worker", e);
+    }
+  }
+
+  /**
+   * Queues the task for evaluation.
+   *
+   * @param task	the task
+   */
+  public void submit(PipelineTask task) {
+    m_Tasks.add(task);
+  }
+
+  /**
+   * Returns the number of forked workers that are still running.
+   *
+   * @return		the number of running workers
+   */
+  protected synchronized int getNumAliveWorkers() {
+    pruneProcesses();
+    return m_Processes.size();
+  }
+
+  /**
+   * Waits for the next result.
+   *
+   * @return		the result, null if the coordinator got shut down
+   * @throws InterruptedException	if interrupted while waiting
+   * @throws IllegalStateException	if no workers are left to wait for
+   */
+  public PipelineResult take() throws InterruptedException {
+    PipelineResult	result;
+
+    while (true) {
+      result = m_Results.poll(100, TimeUnit.MILLISECONDS);
+      if (result != null)
+	return result;
+      if (m_Shutdown)
+	return null;
+      if ((m_NumWorkers > 0) && (m_Connections.get() == 0) && (getNumAliveWorkers() == 0))
+	throw new IllegalStateException("No workers alive!");
+    }
+  }
+
+  /**
+   * Stops the workers and closes the server socket.
+   */
+  public void shutdown() {
+    m_Shutdown = true;
+    try {
+      if (m_Server != null)
+	m_Server.close();
+    }
+    catch (IOException e) {
+      // ignored
+    }
+    m_Server = null;
+    // workers are stateless, no need to wait for them
+    synchronized(this) {
+      for (Process process: m_Processes.values())
+	process.destroy();
+      m_Processes.clear();
+    }
+  }
+}
@@ -0,0 +1,575 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * PipelineDescriptor.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.preprocessing;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+import weka.core.OptionHandler;
+import weka.core.Utils;
+import weka.filters.Filter;
+import adams.core.VariableName;
+import adams.core.base.BaseText;
+import adams.flow.control.SubProcess;
+import adams.flow.transformer.SetVariable;
+import adams.flow.transformer.ParallelWekaFilter;
+
+/**
+ * Immutable, lightweight description of a generated preprocessing pipeline:
+ * the {@link FilterCatalog} indices of the filters plus their options.
+ * Creating a descriptor does not instantiate any filters or actors, this only
+ * happens when the pipeline gets materialized.
+ * <p/>
+ * Descriptors have a canonical text and binary encoding, both based on the
+ * classnames (not the catalog indices) and therefore stable across runs.
+ * The 64-bit hash is computed from the binary encoding. Serialization uses
+ * the binary encoding as well, as catalog indices differ between JVMs.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class PipelineDescriptor
+  implements Serializable {
+
+  /** for serialization. */
+  private static final long serialVersionUID = 2993404998474458103L;
+
+  /** the name of the variable holding the filters. */
+  public final static String VARIABLE_FILTERS = "filters";
+
+  /** the magic number of the binary encoding. */
+  public final static int MAGIC = 0x50504431;
+
+  /** the version of the binary encoding. */
+  public final static int VERSION = 1;
+
+  /** the FNV-1a 64-bit offset basis. */
+  protected final static long FNV_OFFSET = 0xcbf29ce484222325L;
+
+  /** the FNV-1a 64-bit prime. */
+  protected final static long FNV_PRIME = 0x100000001b3L;
+
+  /** the catalog indices of the filters. */
+  protected final int[] m_Filters;
+
+  /** the options of the filters. */
+  protected final String[][] m_Options;
+
+  /**
+   * The serialized form of a descriptor: its binary encoding.
+   */
+  protected static class SerializedForm
+    implements Serializable {
+
+    /** for serialization. */
+    private static final long serialVersionUID = -4183006129337290718L;
+
+    /** the binary encoding. */
+    protected byte[] m_Data;
+
+    /**
+     * Initializes the serialized form.
+     *
+     * @param data	the binary encoding
+     */
+    public SerializedForm(byte[] data) {
+      m_Data = data;
+    }
+
+    /**
+     * Decodes the descriptor, looking up the filters in the local catalog.
+     *
+     * @return		the descriptor
+     * @throws ObjectStreamException	if decoding fails
+     */
+    protected Object readResolve() throws ObjectStreamException {
+      try {
+	return decode(m_Data);
+      }
+      catch (IOException e) {
+	throw new InvalidObjectException(e.getMessage());
+      }
+    }
+  }
+
+  /** the 64-bit hash (lazily computed, only valid if m_HashComputed). */
+  protected transient volatile long m_Hash;
+
+  /** whether the hash has been computed (written after m_Hash). */
+  protected transient volatile boolean m_HashComputed;
+
+  /**
+   * Initializes the descriptor with filters using default options.
+   *
+   * @param filters	the catalog indices of the filters
+   */
+  public PipelineDescriptor(int[] filters) {
+    this(filters, null);
+  }
+
+  /**
+   * Initializes the descriptor.
+   *
+   * @param filters	the catalog indices of the filters
+   * @param options	the options per filter, null or empty arrays for
+   * 			default options
+   */
+  public PipelineDescriptor(int[] filters, String[][] options) {
+    int		i;
+
+    m_Filters = filters.clone();
+    m_Options = new String[filters.length][];
+    for (i = 0; i < filters.length; i++) {
+      if ((options == null) || (options[i] == null))
+	m_Options[i] = new String[0];
+      else
+	m_Options[i] = options[i].clone();
+    }
+  }
+
+  /**
+   * Returns the number of filters in the pipeline.
+   *
+   * @return		the number of filters
+   */
+  public int size() {
+    return m_Filters.length;
+  }
+
+  /**
+   * Returns the catalog index of the filter at the specified position.
+   *
+   * @param index	the position in the pipeline
+   * @return		the catalog index
+   */
+  public int getFilterIndex(int index) {
+    return m_Filters[index];
+  }
+
+  /**
+   * Returns the classname of the filter at the specified position.
+   *
+   * @param index	the position in the pipeline
+   * @return		the classname
+   */
+  public String getClassname(int index) {
+    return FilterCatalog.getSingleton().getClassname(m_Filters[index]);
+  }
+
+  /**
+   * Returns the options of the filter at the specified position.
+   *
+   * @param index	the position in the pipeline
+   * @return		a copy of the options
+   */
+  public String[] getOptions(int index) {
+    return m_Options[index].clone();
+  }
+
+  /**
+   * Instantiates and configures the filter at the specified position.
+   *
+   * @param index	the position in the pipeline
+   * @return		the filter
+   * @throws Exception	if instantiation or setting the options fails
+   */
+  public Filter newFilter(int index) throws Exception {
+    Filter	result;
+
+    result = FilterCatalog.getSingleton().newFilter(m_Filters[index]);
+    if ((m_Options[index].length > 0) && (result instanceof OptionHandler))
+      ((OptionHandler) result).setOptions(m_Options[index].clone());
+
+    return result;
+  }
+
+  /**
+   * Obtains the configured filter at the specified position from the pool.
+   *
+   * @param index	the position in the pipeline
+   * @param pool	the pool to obtain the filter from, null to instantiate
+   * 			a new filter
+   * @return		the filter
+   * @throws Exception	if instantiation or setting the options fails
+   */
+  public Filter newFilter(int index, FilterPool pool) throws Exception {
+    if (pool == null)
+      return newFilter(index);
+    else
+      return pool.acquire(m_Filters[index], m_Options[index]);
+  }
+
+  /**
+   * Instantiates and configures all the filters of the pipeline.
+   *
+   * @return		the filters
+   * @throws Exception	if instantiation or setting the options fails
+   */
+  public Filter[] newFilters() throws Exception {
+    Filter[]	result;
+    int		i;
+
+    result = new Filter[m_Filters.length];
+    for (i = 0; i < m_Filters.length; i++)
+      result[i] = newFilter(i);
+
+    return result;
+  }
+
+  /**
+   * Materializes the pipeline as sequence of filter actors that get
+   * initialized only with the first batch, preceded by the actor that stores
+   * the filters in the "filters" variable.
+   *
+   * @return		the sequence
+   * @throws Exception	if instantiation of the filters fails
+   */
+  public SubProcess materialize() throws Exception {
+    return materialize(VARIABLE_FILTERS, true);
+  }
+
+  /**
+   * Materializes the pipeline as sequence of filter actors.
+   *
+   * @param variable	the variable to store the filters in, null if not
+   * 			to store them
+   * @param initializeOnce	whether to initialize the filters only with
+   * 				the first batch
+   * @return		the sequence
+   * @throws Exception	if instantiation of the filters fails
+   */
+  public SubProcess materialize(String variable, boolean initializeOnce) throws Exception {
+    return materialize(variable, initializeOnce, null);
+  }
+
+  /**
+   * Materializes the pipeline as sequence of filter actors, obtaining filters
+   * and actors from the pool. The sequence should be returned to the pool
+   * once it is no longer used.
+   *
+   * @param variable	the variable to store the filters in, null if not
+   * 			to store them
+   * @param initializeOnce	whether to initialize the filters only with
+   * 				the first batch
+   * @param pool	the pool to obtain filters and actors from, null to
+   * 			instantiate new ones
+   * @return		the sequence
+   * @throws Exception	if instantiation of the filters fails
+   * @see		FilterPool#release(adams.flow.core.AbstractActor)
+   */
+  public SubProcess materialize(String variable, boolean initializeOnce, FilterPool pool) throws Exception {
+    return materialize(variable, initializeOnce, pool, 1);
+  }
+
+  /**
+   * Materializes the pipeline as sequence of filter actors, obtaining filters
+   * and actors from the pool. The sequence should be returned to the pool
+   * once it is no longer used.
+   *
+   * @param variable	the variable to store the filters in, null if not
+   * 			to store them
+   * @param initializeOnce	whether to initialize the filters only with
+   * 				the first batch
+   * @param pool	the pool to obtain filters and actors from, null to
+   * 			instantiate new ones
+   * @param numThreads	the number of threads for transforming large
+   * 			datasets, 0 for one per processor, 1 for serial
+   * @return		the sequence
+   * @throws Exception	if instantiation of the filters fails
+   * @see		FilterPool#release(adams.flow.core.AbstractActor)
+   * @see		ParallelWekaFilter
+   */
+  public SubProcess materialize(String variable, boolean initializeOnce, FilterPool pool, int numThreads) throws Exception {
+    SubProcess		result;
+    SetVariable		names;
+    ParallelWekaFilter	filter;
+    int			i;
+
+    result = new SubProcess();
+
+    // Create variable with the name of filters for log purposes
+    if (variable != null) {
+      names = new SetVariable();
+      names.setVariableName(new VariableName(variable));
+      names.setVariableValue(new BaseText(toText()));
+      result.add(names);
+    }
+
+    for (i = 0; i < m_Filters.length; i++) {
+      filter = (pool == null) ? new ParallelWekaFilter() : pool.acquireActor();
+      filter.setFilter(newFilter(i, pool));
+      filter.setInitializeOnce(initializeOnce);
+      filter.setNumThreads(numThreads);
+      result.add(filter);
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the canonical text encoding of the pipeline: one quoted
+   * command-line per filter.
+   *
+   * @return		the encoding
+   * @see		#parse(String)
+   */
+  public String toText() {
+    String[]	cmds;
+    String[]	cmd;
+    int		i;
+
+    cmds = new String[m_Filters.length];
+    for (i = 0; i < m_Filters.length; i++) {
+      cmd    = new String[m_Options[i].length + 1];
+      cmd[0] = getClassname(i);
+      System.arraycopy(m_Options[i], 0, cmd, 1, m_Options[i].length);
+      cmds[i] = Utils.joinOptions(cmd);
+    }
+
+    return Utils.joinOptions(cmds);
+  }
+
+  /**
+   * Returns the canonical binary encoding of the pipeline.
+   *
+   * @return		the encoding
+   * @see		#decode(byte[])
+   */
+  public byte[] toBytes() {
+    ByteArrayOutputStream	bytes;
+    DataOutputStream		out;
+    int				i;
+
+    bytes = new ByteArrayOutputStream(32 * m_Filters.length + 16);
+    out   = new DataOutputStream(bytes);
+    try {
+      out.writeInt(MAGIC);
+      out.writeByte(VERSION);
+      out.writeShort(m_Filters.length);
+      for (i = 0; i < m_Filters.length; i++) {
+	out.writeUTF(getClassname(i));
+	out.writeShort(m_Options[i].length);
+	for (String option: m_Options[i])
+	  out.writeUTF(option);
+      }
+      out.flush();
+    }
+    catch (IOException e) {
+      // cannot happen with in-memory streams
+      throw new IllegalStateException(e);
+    }
+
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Returns the stable 64-bit hash (FNV-1a) of the binary encoding.
+   *
+   * @return		the hash
+   */
+  public long hash64() {
+    long	hash;
+
+    if (!m_HashComputed) {
+      hash = FNV_OFFSET;
+      for (byte b: toBytes()) {
+	hash ^= (b & 0xff);
+	hash *= FNV_PRIME;
+      }
+      m_Hash         = hash;
+      m_HashComputed = true;
+    }
+
+    return m_Hash;
+  }
+
+  /**
+   * Returns the hash code, derived from the 64-bit hash.
+   *
+   * @return		the hash code
+   */
+  @Override
+  public int hashCode() {
+    long	hash;
+
+    hash = hash64();
+    return (int) (hash ^ (hash >>> 32));
+  }
+
+  /**
+   * Checks whether the object describes the same pipeline.
+   *
+   * @param obj		the object to compare with
+   * @return		true if the same pipeline
+   */
+  @Override
+  public boolean equals(Object obj) {
+    PipelineDescriptor	other;
+    int			i;
+
+    if (obj == this)
+      return true;
+    if (!(obj instanceof PipelineDescriptor))
+      return false;
+
+    other = (PipelineDescriptor) obj;
+    if (hash64() != other.hash64())
+      return false;
+    if (!Arrays.equals(m_Filters, other.m_Filters))
+      return false;
+    for (i = 0; i < m_Options.length; i++) {
+      if (!Arrays.equals(m_Options[i], other.m_Options[i]))
+	return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Looks up the catalog index of the filter.
+   *
+   * @param classname	the classname of the filter
+   * @return		the catalog index
+   * @throws IllegalArgumentException	if the filter is not in the catalog
+   */
+  protected static int lookUp(String classname) {
+    int		result;
+
+    result = FilterCatalog.getSingleton().indexOf(classname);
+    if (result == -1)
+      throw new IllegalArgumentException("Filter not available: " + classname);
+
+    return result;
+  }
+
+  /**
+   * Parses the text encoding of a pipeline.
+   *
+   * @param text	the encoding
+   * @return		the descriptor
+   * @throws Exception	if parsing fails or filters are not available
+   * @see		#toText()
+   */
+  public static PipelineDescriptor parse(String text) throws Exception {
+    String[]	cmds;
+    String[]	cmd;
+    int[]	filters;
+    String[][]	options;
+    int		i;
+
+    cmds    = Utils.splitOptions(text);
+    filters = new int[cmds.length];
+    options = new String[cmds.length][];
+    for (i = 0; i < cmds.length; i++) {
+      cmd        = Utils.splitOptions(cmds[i]);
+      filters[i] = lookUp(cmd[0]);
+      options[i] = Arrays.copyOfRange(cmd, 1, cmd.length);
+    }
+
+    return new PipelineDescriptor(filters, options);
+  }
+
+  /**
+   * Decodes the binary encoding of a pipeline.
+   *
+   * @param data	the encoding
+   * @return		the descriptor
+   * @throws IOException	if decoding fails or filters are not available
+   * @see		#toBytes()
+   */
+  public static PipelineDescriptor decode(byte[] data) throws IOException {
+    DataInputStream	in;
+    int[]		filters;
+    String[][]		options;
+    int			i;
+    int			n;
+
+    in = new DataInputStream(new ByteArrayInputStream(data));
+    if (in.readInt() != MAGIC)
+      throw new IOException("Not a pipeline descriptor!");
+    if (in.readByte() != VERSION)
+      throw new IOException("Unsupported pipeline descriptor version!");
+    filters = new int[in.readShort()];
+    options = new String[filters.length][];
+    for (i = 0; i < filters.length; i++) {
+      try {
+	filters[i] = lookUp(in.readUTF());
+      }
+      catch (IllegalArgumentException e) {
+	throw new IOException(e.getMessage());
+      }
+      options[i] = new String[in.readShort()];
+      for (n = 0; n < options[i].length; n++)
+	options[i][n] = in.readUTF();
+    }
+
+    return new PipelineDescriptor(filters, options);
+  }
+
+  /**
+   * Serializes the binary encoding instead of the catalog indices.
+   *
+   * @return		the serialized form
+   */
+  protected Object writeReplace() {
+    return new SerializedForm(toBytes());
+  }
+
+  /**
+   * Descriptors can only be deserialized from their serialized form.
+   *
+   * @param in		the stream
+   * @throws InvalidObjectException	always
+   */
+  private void readObject(ObjectInputStream in) throws InvalidObjectException {
+    throw new InvalidObjectException("Serialized form required");
+  }
+
+  /**
+   * Returns a short description of the pipeline.
+   *
+   * @return		the description
+   */
+  @Override
+  public String toString() {
+    StringBuilder	result;
+    int			i;
+
+    result = new StringBuilder();
+    for (i = 0; i < m_Filters.length; i++) {
+      if (i > 0)
+	result.append(",");
+      result.append(getClassname(i));
+      if (m_Options[i].length > 0)
+	result.append(" ").append(weka.core.Utils.joinOptions(m_Options[i]));
+    }
+
+    return result.toString();
+  }
+}
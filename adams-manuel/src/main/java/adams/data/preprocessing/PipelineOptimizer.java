@@ -0,0 +1,518 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * PipelineOptimizer.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.preprocessing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.OptionHandler;
+import weka.core.Utils;
+
+/**
+ * Simplifies pipelines with rules that don't change the output of the
+ * pipeline, repeated until none applies anymore:
+ * <ul>
+ *   <li>filters that have nothing to work on, e.g., Normalize without numeric
+ *   attributes (only with a dataset to check against); ReplaceMissingValues
+ *   without missing values only if explicitly requested, as the pipeline
+ *   may get applied to other rows later on</li>
+ *   <li>consecutive duplicates of idempotent filters, scalers that get
+ *   overridden by the next one (e.g., Standardize followed by Normalize) and
+ *   Center after Standardize</li>
+ *   <li>attribute and instance reducers get moved in front of filters they
+ *   commute with, e.g., Remove in front of Normalize</li>
+ *   <li>commuting filters (e.g., ReplaceMissingValues and Normalize) are put
+ *   in a canonical order, so that equivalent pipelines have equal
+ *   descriptors</li>
+ * </ul>
+ * The rules only cover filters with known semantics and, apart from the
+ * reducers, only when they use their default options (e.g., Normalize with
+ * -unset-class-temporarily also scales the class). All other filters stay
+ * where they are and act as barriers.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class PipelineOptimizer {
+
+  /** the package of the unsupervised attribute filters. */
+  protected final static String UNSUPERVISED = "weka.filters.unsupervised.attribute.";
+
+  /** ReplaceMissingValues. */
+  public final static String REPLACE_MISSING = UNSUPERVISED + "ReplaceMissingValues";
+
+  /** Normalize. */
+  public final static String NORMALIZE = UNSUPERVISED + "Normalize";
+
+  /** Standardize. */
+  public final static String STANDARDIZE = UNSUPERVISED + "Standardize";
+
+  /** Center. */
+  public final static String CENTER = UNSUPERVISED + "Center";
+
+  /** Remove. */
+  public final static String REMOVE = UNSUPERVISED + "Remove";
+
+  /** RemoveType. */
+  public final static String REMOVE_TYPE = UNSUPERVISED + "RemoveType";
+
+  /** RemoveUseless. */
+  public final static String REMOVE_USELESS = UNSUPERVISED + "RemoveUseless";
+
+  /** NominalToBinary. */
+  public final static String NOMINAL_TO_BINARY = UNSUPERVISED + "NominalToBinary";
+
+  /** Discretize. */
+  public final static String DISCRETIZE = UNSUPERVISED + "Discretize";
+
+  /** supervised Discretize. */
+  public final static String SUPERVISED_DISCRETIZE = "weka.filters.supervised.attribute.Discretize";
+
+  /** NumericToNominal. */
+  public final static String NUMERIC_TO_NOMINAL = UNSUPERVISED + "NumericToNominal";
+
+  /** StringToNominal. */
+  public final static String STRING_TO_NOMINAL = UNSUPERVISED + "StringToNominal";
+
+  /** StringToWordVector. */
+  public final static String STRING_TO_WORD_VECTOR = UNSUPERVISED + "StringToWordVector";
+
+  /** Resample. */
+  public final static String RESAMPLE = "weka.filters.unsupervised.instance.Resample";
+
+  /** filters that don't change the output when applied a second time. */
+  protected final static Set<String> IDEMPOTENT = set(
+      REPLACE_MISSING, NORMALIZE, STANDARDIZE, CENTER, REMOVE_USELESS,
+      NOMINAL_TO_BINARY, DISCRETIZE, NUMERIC_TO_NOMINAL, STRING_TO_NOMINAL);
+
+  /** affine transformations of the numeric attributes. */
+  protected final static Set<String> SCALERS = set(NORMALIZE, STANDARDIZE, CENTER);
+
+  /** filters whose output doesn't depend on a preceding affine transformation. */
+  protected final static Set<String> SCALE_INVARIANT = set(NORMALIZE, STANDARDIZE);
+
+  /** filters that keep rows, attributes and their types and only change
+   * values, column by column. */
+  protected final static Set<String> COLUMNWISE = set(REPLACE_MISSING, NORMALIZE, STANDARDIZE, CENTER);
+
+  /** filters that only remove attributes or rows. */
+  protected final static Set<String> REDUCERS = set(REMOVE, REMOVE_TYPE, REMOVE_USELESS, RESAMPLE);
+
+  /** filters that only process numeric attributes. */
+  protected final static Set<String> NUMERIC_ONLY = set(
+      NORMALIZE, STANDARDIZE, CENTER, DISCRETIZE, SUPERVISED_DISCRETIZE, NUMERIC_TO_NOMINAL);
+
+  /** filters that only process string attributes. */
+  protected final static Set<String> STRING_ONLY = set(STRING_TO_NOMINAL, STRING_TO_WORD_VECTOR);
+
+  /** the default options per catalog index. */
+  protected static Map<Integer,String[]> m_DefaultOptions = new HashMap<Integer,String[]>();
+
+  /**
+   * A filter of the pipeline.
+   */
+  protected static class Stage {
+
+    /** the catalog index. */
+    public int index;
+
+    /** the classname. */
+    public String classname;
+
+    /** the options. */
+    public String[] options;
+
+    /** whether the filter uses its default options. */
+    public boolean defaults;
+
+    /**
+     * Returns the key for ordering commuting filters.
+     *
+     * @return		the key
+     */
+    public String getKey() {
+      return classname + " " + Utils.joinOptions(options);
+    }
+
+    /**
+     * Checks whether the filter is the same as the other one.
+     *
+     * @param other	the filter to compare with
+     * @return		true if same class and options
+     */
+    public boolean isSame(Stage other) {
+      return classname.equals(other.classname) && Arrays.equals(options, other.options);
+    }
+
+    /**
+     * Checks whether the filter has known semantics, i.e., whether it is
+     * one of the specified filters and uses its default options.
+     *
+     * @param classnames	the filters to check against
+     * @return		true if known
+     */
+    public boolean is(Set<String> classnames) {
+      return defaults && classnames.contains(classname);
+    }
+
+    /**
+     * Checks whether the filter has known semantics, i.e., whether it is
+     * the specified filter and uses its default options.
+     *
+     * @param classname	the filter to check against
+     * @return		true if known
+     */
+    public boolean is(String classname) {
+      return defaults && this.classname.equals(classname);
+    }
+  }
+
+  /**
+   * Creates a set of the classnames.
+   *
+   * @param classnames	the classnames
+   * @return		the set
+   */
+  protected static Set<String> set(String... classnames) {
+    return Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(classnames)));
+  }
+
+  /**
+   * Returns the options of the filter when instantiated with its default
+   * constructor.
+   *
+   * @param index	the catalog index of the filter
+   * @return		the options, null if not available
+   */
+  protected static synchronized String[] getDefaultOptions(int index) {
+    Object	filter;
+
+    if (!m_DefaultOptions.containsKey(index)) {
+      try {
+	filter = FilterCatalog.getSingleton().newFilter(index);
+	if (filter instanceof OptionHandler)
+	  m_DefaultOptions.put(index, ((OptionHandler) filter).getOptions());
+	else
+	  m_DefaultOptions.put(index, new String[0]);
+      }
+      catch (Exception e) {
+	m_DefaultOptions.put(index, null);
+      }
+    }
+
+    return m_DefaultOptions.get(index);
+  }
+
+  /**
+   * Checks whether the options are the default ones of the filter.
+   *
+   * @param index	the catalog index of the filter
+   * @param options	the options to check
+   * @return		true if no options or the default ones
+   */
+  protected static boolean isDefault(int index, String[] options) {
+    return (options.length == 0) || Arrays.equals(options, getDefaultOptions(index));
+  }
+
+  /**
+   * Checks whether the reducer can be moved in front of the filter without
+   * changing the output.
+   *
+   * @param reducer	the reducer
+   * @param filter	the filter preceding the reducer
+   * @return		true if they commute
+   */
+  protected static boolean canMoveBefore(Stage reducer, Stage filter) {
+    if (reducer.classname.equals(REMOVE) || reducer.classname.equals(REMOVE_TYPE))
+      return filter.is(COLUMNWISE);
+    if (reducer.classname.equals(REMOVE_USELESS))
+      return filter.is(SCALERS);
+    if (reducer.classname.equals(RESAMPLE))
+      return filter.classname.equals(REMOVE) || filter.classname.equals(REMOVE_TYPE)
+	  || filter.is(NOMINAL_TO_BINARY);
+    return false;
+  }
+
+  /**
+   * Checks whether the two filters commute (and aren't covered by moving
+   * reducers).
+   *
+   * @param first	the first filter
+   * @param second	the second filter
+   * @return		true if they commute
+   */
+  protected static boolean commute(Stage first, Stage second) {
+    Stage	other;
+
+    if (first.is(REPLACE_MISSING))
+      other = second;
+    else if (second.is(REPLACE_MISSING))
+      other = first;
+    else
+      return false;
+
+    // replacing with the mean doesn't change range or mean
+    return other.is(NORMALIZE) || other.is(CENTER);
+  }
+
+  /**
+   * Removes filters that have nothing to work on. Types of attributes that
+   * are absent stay absent through column-wise filters and reducers; the
+   * first other filter ends the check.
+   *
+   * @param stages	the filters
+   * @param data	the dataset, null to skip
+   * @param checkRows	whether to check the rows for missing values as well
+   * @return		true if modified
+   */
+  protected static boolean removeNoOps(List<Stage> stages, Instances data, boolean checkRows) {
+    boolean	result;
+    boolean	noNumeric;
+    boolean	noNominal;
+    boolean	noString;
+    boolean	noMissing;
+    boolean	noOp;
+    Attribute	att;
+    Stage	stage;
+    int		i;
+
+    if (data == null)
+      return false;
+
+    noNumeric = true;
+    noNominal = true;
+    noString  = true;
+    for (i = 0; i < data.numAttributes(); i++) {
+      if (i == data.classIndex())
+	continue;
+      att = data.attribute(i);
+      if (att.isNumeric())
+	noNumeric = false;
+      else if (att.isNominal())
+	noNominal = false;
+      else if (att.isString())
+	noString = false;
+    }
+    noMissing = checkRows && (data.numInstances() > 0) && !hasMissing(data);
+
+    result = false;
+    for (i = 0; i < stages.size(); i++) {
+      stage = stages.get(i);
+      if (stage.is(NUMERIC_ONLY))
+	noOp = noNumeric;
+      else if (stage.is(NOMINAL_TO_BINARY))
+	noOp = noNominal;
+      else if (stage.is(STRING_ONLY))
+	noOp = noString;
+      else if (stage.is(REPLACE_MISSING))
+	noOp = noMissing;
+      else
+	noOp = false;
+
+      if (noOp) {
+	stages.remove(i);
+	i--;
+	result = true;
+      }
+      else if (stage.is(REPLACE_MISSING)) {
+	noMissing = true;
+      }
+      else if (!stage.is(COLUMNWISE) && !REDUCERS.contains(stage.classname)) {
+	break;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Checks whether the dataset contains missing values.
+   *
+   * @param data	the dataset
+   * @return		true if missing values present
+   */
+  protected static boolean hasMissing(Instances data) {
+    Instance	row;
+    int		i;
+    int		n;
+
+    for (i = 0; i < data.numInstances(); i++) {
+      row = data.instance(i);
+      for (n = 0; n < row.numValues(); n++) {
+	if (Utils.isMissingValue(row.valueSparse(n)))
+	  return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Removes duplicates of idempotent filters and overridden scalers.
+   *
+   * @param stages	the filters
+   * @return		true if modified
+   */
+  protected static boolean removeRedundant(List<Stage> stages) {
+    boolean	result;
+    Stage	first;
+    Stage	second;
+    int		i;
+
+    result = false;
+    for (i = 0; i < stages.size() - 1; i++) {
+      first  = stages.get(i);
+      second = stages.get(i + 1);
+      if (first.is(IDEMPOTENT) && first.isSame(second)) {
+	stages.remove(i + 1);
+      }
+      else if (first.is(SCALERS) && second.is(SCALE_INVARIANT)) {
+	stages.remove(i);
+      }
+      else if (first.is(STANDARDIZE) && second.is(CENTER)) {
+	stages.remove(i + 1);
+      }
+      else {
+	continue;
+      }
+      result = true;
+      i--;
+    }
+
+    return result;
+  }
+
+  /**
+   * Moves reducers in front of the filters they commute with.
+   *
+   * @param stages	the filters
+   * @return		true if modified
+   */
+  protected static boolean pushReducers(List<Stage> stages) {
+    boolean	result;
+    int		i;
+    int		n;
+
+    result = false;
+    for (i = 1; i < stages.size(); i++) {
+      for (n = i; (n > 0) && canMoveBefore(stages.get(n), stages.get(n - 1)); n--) {
+	Collections.swap(stages, n, n - 1);
+	result = true;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Puts commuting filters in canonical order.
+   *
+   * @param stages	the filters
+   * @return		true if modified
+   */
+  protected static boolean canonicalize(List<Stage> stages) {
+    boolean	result;
+    Stage	first;
+    Stage	second;
+    int		i;
+
+    result = false;
+    for (i = 0; i < stages.size() - 1; i++) {
+      first  = stages.get(i);
+      second = stages.get(i + 1);
+      if (commute(first, second) && (first.getKey().compareTo(second.getKey()) > 0)) {
+	Collections.swap(stages, i, i + 1);
+	result = true;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Simplifies the pipeline. Only the attributes of the dataset are taken
+   * into account, not its rows.
+   *
+   * @param pipeline	the pipeline to simplify
+   * @param data	the dataset that the pipeline is for, null if unknown
+   * @return		the simplified pipeline
+   * @see		#optimize(PipelineDescriptor, Instances, boolean)
+   */
+  public static PipelineDescriptor optimize(PipelineDescriptor pipeline, Instances data) {
+    return optimize(pipeline, data, false);
+  }
+
+  /**
+   * Simplifies the pipeline. Checking the rows for missing values is only
+   * safe if the pipeline never gets applied to any other rows than the ones
+   * of the dataset.
+   *
+   * @param pipeline	the pipeline to simplify
+   * @param data	the dataset that the pipeline is for, null if unknown
+   * @param checkRows	whether to remove ReplaceMissingValues if the rows
+   * 			of the dataset have no missing values
+   * @return		the simplified pipeline
+   */
+  public static PipelineDescriptor optimize(PipelineDescriptor pipeline, Instances data, boolean checkRows) {
+    List<Stage>		stages;
+    Stage		stage;
+    boolean		modified;
+    int[]		filters;
+    String[][]		options;
+    int			i;
+
+    stages = new ArrayList<Stage>();
+    for (i = 0; i < pipeline.size(); i++) {
+      stage           = new Stage();
+      stage.index     = pipeline.getFilterIndex(i);
+      stage.classname = pipeline.getClassname(i);
+      stage.options   = pipeline.getOptions(i);
+      stage.defaults  = isDefault(stage.index, stage.options);
+      stages.add(stage);
+    }
+
+    do {
+      modified = removeNoOps(stages, data, checkRows);
+      modified = removeRedundant(stages) || modified;
+      modified = pushReducers(stages) || modified;
+      modified = canonicalize(stages) || modified;
+    }
+    while (modified);
+
+    filters = new int[stages.size()];
+    options = new String[stages.size()][];
+    for (i = 0; i < stages.size(); i++) {
+      filters[i] = stages.get(i).index;
+      options[i] = stages.get(i).options;
+    }
+
+    return new PipelineDescriptor(filters, options);
+  }
+}
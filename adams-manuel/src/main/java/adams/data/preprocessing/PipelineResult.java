@@ -0,0 +1,157 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * PipelineResult.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.preprocessing;
+
+import java.io.Serializable;
+
+/**
+ * The outcome of evaluating a {@link PipelineTask}.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class PipelineResult
+  implements Serializable {
+
+  /** for serialization. */
+  private static final long serialVersionUID = -2409731406396587170L;
+
+  /** the task this result belongs to. */
+  protected PipelineTask m_Task;
+
+  /** the filters of the generated pipeline. */
+  protected String m_Filters;
+
+  /** the accuracy (percent correct). */
+  protected double m_Accuracy;
+
+  /** the root mean squared error. */
+  protected double m_RMSE;
+
+  /** the error message, null if successful. */
+  protected String m_Error;
+
+  /**
+   * Initializes a successful result.
+   *
+   * @param task	the task
+   * @param filters	the filters of the pipeline
+   * @param accuracy	the accuracy
+   * @param rmse	the root mean squared error
+   */
+  public PipelineResult(PipelineTask task, String filters, double accuracy, double rmse) {
+    m_Task     = task;
+    m_Filters  = filters;
+    m_Accuracy = accuracy;
+    m_RMSE     = rmse;
+    m_Error    = null;
+  }
+
+  /**
+   * Initializes a failed result.
+   *
+   * @param task	the task
+   * @param error	the error message
+   */
+  public PipelineResult(PipelineTask task, String error) {
+    m_Task     = task;
+    m_Filters  = "";
+    m_Accuracy = Double.NaN;
+    m_RMSE     = Double.NaN;
+    m_Error    = error;
+  }
+
+  /**
+   * Returns the task.
+   *
+   * @return		the task
+   */
+  public PipelineTask getTask() {
+    return m_Task;
+  }
+
+  /**
+   * Returns the dataset file the pipeline was evaluated on.
+   *
+   * @return		the file
+   */
+  public String getDataset() {
+    return m_Task.getDataset();
+  }
+
+  /**
+   * Returns the filters of the pipeline.
+   *
+   * @return		the filters
+   */
+  public String getFilters() {
+    return m_Filters;
+  }
+
+  /**
+   * Returns the accuracy.
+   *
+   * @return		the accuracy, NaN if failed
+   */
+  public double getAccuracy() {
+    return m_Accuracy;
+  }
+
+  /**
+   * Returns the root mean squared error.
+   *
+   * @return		the error, NaN if failed
+   */
+  public double getRMSE() {
+    return m_RMSE;
+  }
+
+  /**
+   * Returns whether the evaluation failed.
+   *
+   * @return		true if failed
+   */
+  public boolean hasError() {
+    return (m_Error != null);
+  }
+
+  /**
+   * Returns the error message.
+   *
+   * @return		the error, null if successful
+   */
+  public String getError() {
+    return m_Error;
+  }
+
+  /**
+   * Returns the result as summary line.
+   *
+   * @return		the line
+   */
+  @Override
+  public String toString() {
+    if (hasError())
+      return m_Task + ": " + m_Error;
+    else
+      return m_Filters + ", " + m_Accuracy + ", " + m_RMSE;
+  }
+}
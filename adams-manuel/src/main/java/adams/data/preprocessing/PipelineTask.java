@@ -0,0 +1,161 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * PipelineTask.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.preprocessing;
+
+import java.io.Serializable;
+
+/**
+ * A candidate pipeline setup to be evaluated by a {@link PipelineWorker}:
+ * the command-line of the generator template plus a reference to the dataset.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class PipelineTask
+  implements Serializable {
+
+  /** for serialization. */
+  private static final long serialVersionUID = 6387260224337166447L;
+
+  /** the ID of the task. */
+  protected int m_ID;
+
+  /** the command-line of the template that generates the pipeline. */
+  protected String m_Generator;
+
+  /** the dataset file. */
+  protected String m_Dataset;
+
+  /** the command-line of the classifier to evaluate the pipeline with. */
+  protected String m_Classifier;
+
+  /** the number of cross-validation folds. */
+  protected int m_Folds;
+
+  /** the seed for the cross-validation. */
+  protected long m_Seed;
+
+  /** the number of failed attempts so far. */
+  protected int m_Attempts;
+
+  /**
+   * Initializes the task.
+   *
+   * @param id		the ID of the task
+   * @param generator	the command-line of the template
+   * @param dataset	the dataset file
+   * @param classifier	the command-line of the classifier
+   * @param folds	the number of folds
+   * @param seed	the seed for the cross-validation
+   */
+  public PipelineTask(int id, String generator, String dataset, String classifier, int folds, long seed) {
+    m_ID         = id;
+    m_Generator  = generator;
+    m_Dataset    = dataset;
+    m_Classifier = classifier;
+    m_Folds      = folds;
+    m_Seed       = seed;
+    m_Attempts   = 0;
+  }
+
+  /**
+   * Returns the ID of the task.
+   *
+   * @return		the ID
+   */
+  public int getID() {
+    return m_ID;
+  }
+
+  /**
+   * Returns the command-line of the template.
+   *
+   * @return		the command-line
+   */
+  public String getGenerator() {
+    return m_Generator;
+  }
+
+  /**
+   * Returns the dataset file.
+   *
+   * @return		the file
+   */
+  public String getDataset() {
+    return m_Dataset;
+  }
+
+  /**
+   * Returns the command-line of the classifier.
+   *
+   * @return		the command-line
+   */
+  public String getClassifier() {
+    return m_Classifier;
+  }
+
+  /**
+   * Returns the number of cross-validation folds.
+   *
+   * @return		the folds
+   */
+  public int getFolds() {
+    return m_Folds;
+  }
+
+  /**
+   * Returns the seed for the cross-validation.
+   *
+   * @return		the seed
+   */
+  public long getSeed() {
+    return m_Seed;
+  }
+
+  /**
+   * Returns the number of failed attempts.
+   *
+   * @return		the attempts
+   */
+  public int getAttempts() {
+    return m_Attempts;
+  }
+
+  /**
+   * Increments the number of failed attempts.
+   *
+   * @return		the updated number of attempts
+   */
+  public int incAttempts() {
+    m_Attempts++;
+    return m_Attempts;
+  }
+
+  /**
+   * Returns a short description of the task.
+   *
+   * @return		the description
+   */
+  @Override
+  public String toString() {
+    return "#" + m_ID + ": " + m_Generator + " on " + m_Dataset;
+  }
+}
@@ -0,0 +1,238 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * PipelineWorker.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.preprocessing;
+
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.filters.Filter;
+import adams.core.option.OptionUtils;
+import adams.data.weka.DatasetCache;
+import adams.env.Environment;
+import adams.flow.control.SubProcess;
+import adams.flow.core.AbstractActor;
+import adams.flow.template.AbstractActorTemplate;
+import adams.flow.template.PipelineDescriptorGenerator;
+import adams.flow.transformer.WekaFilter;
+
+/**
+ * Worker that evaluates {@link PipelineTask}s sent by a
+ * {@link PipelineCoordinator}. Connects to the coordinator and processes tasks
+ * until the coordinator closes the connection.
+ * <p/>
+ * Usage: PipelineWorker &lt;host&gt; &lt;port&gt;
+ * <p/>
+ * The secret shared with the coordinator must be provided via the
+ * ADAMS_PIPELINE_SECRET environment variable. Workers forked by the
+ * coordinator get their ID via the ADAMS_PIPELINE_WORKER_ID environment
+ * variable.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class PipelineWorker {
+
+  /**
+   * Extracts the Weka filters from the generated pipeline.
+   *
+   * @param actor	the generated actor
+   * @return		the filters, in order
+   */
+  public static List<Filter> getFilters(AbstractActor actor) {
+    List<Filter>	result;
+    SubProcess		seq;
+    int			i;
+
+    result = new ArrayList<Filter>();
+    if (actor instanceof WekaFilter) {
+      result.add(((WekaFilter) actor).getFilter());
+    }
+    else if (actor instanceof SubProcess) {
+      seq = (SubProcess) actor;
+      for (i = 0; i < seq.size(); i++)
+	result.addAll(getFilters(seq.get(i)));
+    }
+
+    return result;
+  }
+
+  /**
+   * Generates the pipeline of the task, applies it to the dataset and
+   * cross-validates the classifier on the preprocessed data.
+   *
+   * @param task	the task to evaluate
+   * @return		the result
+   */
+  public static PipelineResult evaluate(PipelineTask task) {
+    AbstractActorTemplate	template;
+    PipelineDescriptor		descriptor;
+    List<Filter>		filters;
+    StringBuilder		names;
+    Instances			source;
+    Instances			data;
+    Classifier			cls;
+    String[]			options;
+    String[]			cmds;
+    String			classname;
+    Evaluation			eval;
+    double			accuracy;
+    int				i;
+
+    source = null;
+    try {
+      template = (AbstractActorTemplate) OptionUtils.forAnyCommandLine(AbstractActorTemplate.class, task.getGenerator());
+      // no need to materialize any actors if the template can describe the pipeline
+      names = new StringBuilder();
+      if (template instanceof PipelineDescriptorGenerator) {
+	descriptor = ((PipelineDescriptorGenerator) template).generateDescriptor();
+	filters    = Arrays.asList(descriptor.newFilters());
+	names.append(descriptor.toText());
+      }
+      else {
+	filters = getFilters(template.generate());
+	// same format as the text encoding of descriptors
+	cmds = new String[filters.size()];
+	for (i = 0; i < cmds.length; i++)
+	  cmds[i] = Utils.toCommandLine(filters.get(i));
+	names.append(Utils.joinOptions(cmds));
+      }
+
+      // the cached dataset is shared, work on a copy
+      source = DatasetCache.getSingleton().acquire(new File(task.getDataset()));
+      data   = new Instances(source);
+      if (data.classIndex() == -1)
+	data.setClassIndex(data.numAttributes() - 1);
+      for (Filter filter: filters) {
+	filter.setInputFormat(data);
+	data = Filter.useFilter(data, filter);
+      }
+
+      options    = Utils.splitOptions(task.getClassifier());
+      classname  = options[0];
+      options[0] = "";
+      cls        = AbstractClassifier.forName(classname, options);
+      eval = new Evaluation(data);
+      eval.crossValidateModel(cls, data, task.getFolds(), new Random(task.getSeed()));
+      if (data.classAttribute().isNominal())
+	accuracy = eval.pctCorrect();
+      else
+	accuracy = Double.NaN;
+
+      return new PipelineResult(task, names.toString(), accuracy, eval.rootMeanSquaredError());
+    }
+    catch (Throwable t) {
+      return new PipelineResult(task, t.toString());
+    }
+    finally {
+      if (source != null)
+	DatasetCache.getSingleton().release(source);
+    }
+  }
+
+  /**
+   * Connects to the coordinator and processes tasks until the connection
+   * gets closed.
+   *
+   * @param host	the host of the coordinator
+   * @param port	the port of the coordinator
+   * @param secret	the secret shared with the coordinator
+   * @param id		the ID of a forked worker, -1 for remote ones
+   * @throws Exception	if communication fails
+   */
+  public static void work(String host, int port, String secret, int id) throws Exception {
+    Socket		socket;
+    DataOutputStream	data;
+    ObjectOutputStream	out;
+    ObjectInputStream	in;
+    Object		obj;
+
+    socket = new Socket(host, port);
+    try {
+      socket.setSoTimeout(PipelineCoordinator.HANDSHAKE_TIMEOUT);
+      PipelineCoordinator.authenticate(socket, secret, false);
+      data = new DataOutputStream(socket.getOutputStream());
+      data.writeInt(id);
+      data.flush();
+      socket.setSoTimeout(0);
+      // output stream first, otherwise both ends block reading the headers
+      out = new ObjectOutputStream(socket.getOutputStream());
+      out.flush();
+      in = new PipelineCoordinator.RestrictedObjectInputStream(socket.getInputStream(), PipelineTask.class);
+      while (true) {
+	try {
+	  obj = in.readObject();
+	}
+	catch (EOFException e) {
+	  break;
+	}
+	if (obj == null)
+	  break;
+	if (!(obj instanceof PipelineTask))
+	  throw new IOException("Expected task, received: " + obj);
+	out.writeObject(evaluate((PipelineTask) obj));
+	out.flush();
+	out.reset();
+      }
+    }
+    finally {
+      socket.close();
+    }
+  }
+
+  /**
+   * Starts a worker.
+   *
+   * @param args	the host and port of the coordinator
+   * @throws Exception	if communication fails
+   */
+  public static void main(String[] args) throws Exception {
+    String	secret;
+    String	id;
+
+    if (args.length != 2) {
+      System.err.println("Usage: " + PipelineWorker.class.getName() + " <host> <port>");
+      System.exit(1);
+    }
+    secret = System.getenv(PipelineCoordinator.ENV_SECRET);
+    if ((secret == null) || secret.isEmpty()) {
+      System.err.println("Environment variable " + PipelineCoordinator.ENV_SECRET + " not set!");
+      System.exit(1);
+    }
+    id = System.getenv(PipelineCoordinator.ENV_WORKER_ID);
+    Environment.setEnvironmentClass(Environment.class);
+    work(args[0], Integer.parseInt(args[1]), secret, ((id == null) || id.isEmpty()) ? -1 : Integer.parseInt(id));
+    System.exit(0);
+  }
+}
@@ -0,0 +1,378 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * CompactDataset.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.weka;
+
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Lossless, column-wise representation of a dataset that uses a fraction of
+ * the memory of <code>Instances</code>:
+ * <ul>
+ *   <li>numeric and date attributes as float columns if all values can be
+ *   represented exactly, otherwise as double columns</li>
+ *   <li>nominal attributes as byte, short or int codes, depending on the
+ *   number of labels</li>
+ *   <li>missing values as bitsets, only for columns that have any</li>
+ *   <li>weights only if not all 1</li>
+ * </ul>
+ * String and relational attributes are not supported. Converting back via
+ * {@link #toInstances()} results in the same values, but as dense rows:
+ * sparse rows lose their type.
+ * <p/>
+ * Immutable once created, hence thread-safe.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class CompactDataset {
+
+  /** the header. */
+  protected Instances m_Header;
+
+  /** the number of rows. */
+  protected int m_NumRows;
+
+  /** the columns (float[], double[], byte[], short[] or int[]). */
+  protected Object[] m_Columns;
+
+  /** the missing values per column, null if none. */
+  protected long[][] m_Missing;
+
+  /** the weights, null if all 1. */
+  protected double[] m_Weights;
+
+  /**
+   * Initializes the dataset.
+   *
+   * @param header	the header
+   * @param numRows	the number of rows
+   * @param columns	the columns
+   * @param missing	the missing values per column
+   * @param weights	the weights, null if all 1
+   */
+  protected CompactDataset(Instances header, int numRows, Object[] columns, long[][] missing, double[] weights) {
+    m_Header  = header;
+    m_NumRows = numRows;
+    m_Columns = columns;
+    m_Missing = missing;
+    m_Weights = weights;
+  }
+
+  /**
+   * Checks whether the dataset can be represented.
+   *
+   * @param data	the dataset to check
+   * @return		true if no string or relational attributes
+   */
+  public static boolean isSupported(Instances data) {
+    int		i;
+
+    for (i = 0; i < data.numAttributes(); i++) {
+      if (data.attribute(i).isString() || data.attribute(i).isRelational())
+	return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns the column for the values of the attribute, without missing
+   * values.
+   *
+   * @param data	the dataset
+   * @param col		the attribute
+   * @param missing	the missing values of the attribute
+   * @return		the column
+   */
+  protected static Object compress(Instances data, int col, long[] missing) {
+    double[]	values;
+    float[]	floats;
+    byte[]	bytes;
+    short[]	shorts;
+    int[]	ints;
+    boolean	exact;
+    int		numValues;
+    int		i;
+
+    values = new double[data.numInstances()];
+    for (i = 0; i < values.length; i++) {
+      if ((missing[i >> 6] & (1L << i)) == 0)
+	values[i] = data.instance(i).value(col);
+    }
+
+    if (data.attribute(col).isNominal()) {
+      numValues = data.attribute(col).numValues();
+      if (numValues <= 256) {
+	bytes = new byte[values.length];
+	for (i = 0; i < values.length; i++)
+	  bytes[i] = (byte) values[i];
+	return bytes;
+      }
+      else if (numValues <= 65536) {
+	shorts = new short[values.length];
+	for (i = 0; i < values.length; i++)
+	  shorts[i] = (short) values[i];
+	return shorts;
+      }
+      else {
+	ints = new int[values.length];
+	for (i = 0; i < values.length; i++)
+	  ints[i] = (int) values[i];
+	return ints;
+      }
+    }
+
+    exact  = true;
+    floats = new float[values.length];
+    for (i = 0; i < values.length; i++) {
+      floats[i] = (float) values[i];
+      if ((double) floats[i] != values[i]) {
+	exact = false;
+	break;
+      }
+    }
+
+    if (exact)
+      return floats;
+    else
+      return values;
+  }
+
+  /**
+   * Converts the dataset.
+   *
+   * @param data	the dataset to convert
+   * @return		the compact dataset
+   * @throws IllegalArgumentException	if the dataset has string or relational attributes
+   */
+  public static CompactDataset compress(Instances data) {
+    Object[]	columns;
+    long[][]	missing;
+    long[]	bits;
+    double[]	weights;
+    boolean	any;
+    int		i;
+    int		n;
+
+    if (!isSupported(data))
+      throw new IllegalArgumentException("String and relational attributes not supported: " + data.relationName());
+
+    columns = new Object[data.numAttributes()];
+    missing = new long[data.numAttributes()][];
+    for (n = 0; n < data.numAttributes(); n++) {
+      bits = new long[(data.numInstances() + 63) >> 6];
+      any  = false;
+      for (i = 0; i < data.numInstances(); i++) {
+	if (data.instance(i).isMissing(n)) {
+	  bits[i >> 6] |= 1L << i;
+	  any = true;
+	}
+      }
+      columns[n] = compress(data, n, bits);
+      if (any)
+	missing[n] = bits;
+    }
+
+    weights = null;
+    for (i = 0; i < data.numInstances(); i++) {
+      if (data.instance(i).weight() != 1.0) {
+	weights = new double[data.numInstances()];
+	for (n = 0; n < weights.length; n++)
+	  weights[n] = data.instance(n).weight();
+	break;
+      }
+    }
+
+    return new CompactDataset(new Instances(data, 0), data.numInstances(), columns, missing, weights);
+  }
+
+  /**
+   * Returns the header.
+   *
+   * @return		the header, must not be modified
+   */
+  public Instances getHeader() {
+    return m_Header;
+  }
+
+  /**
+   * Returns the number of rows.
+   *
+   * @return		the number of rows
+   */
+  public int numInstances() {
+    return m_NumRows;
+  }
+
+  /**
+   * Returns the number of attributes.
+   *
+   * @return		the number of attributes
+   */
+  public int numAttributes() {
+    return m_Columns.length;
+  }
+
+  /**
+   * Checks whether the value is missing.
+   *
+   * @param row		the row
+   * @param col		the attribute
+   * @return		true if missing
+   */
+  public boolean isMissing(int row, int col) {
+    return (m_Missing[col] != null) && ((m_Missing[col][row >> 6] & (1L << row)) != 0);
+  }
+
+  /**
+   * Returns the value, as stored by <code>Instance</code>.
+   *
+   * @param row		the row
+   * @param col		the attribute
+   * @return		the value, NaN if missing
+   */
+  public double value(int row, int col) {
+    Object	column;
+
+    if (isMissing(row, col))
+      return Utils.missingValue();
+
+    column = m_Columns[col];
+    if (column instanceof float[])
+      return ((float[]) column)[row];
+    else if (column instanceof double[])
+      return ((double[]) column)[row];
+    else if (column instanceof byte[])
+      return ((byte[]) column)[row] & 0xff;
+    else if (column instanceof short[])
+      return ((short[]) column)[row] & 0xffff;
+    else
+      return ((int[]) column)[row];
+  }
+
+  /**
+   * Returns the weight of the row.
+   *
+   * @param row		the row
+   * @return		the weight
+   */
+  public double weight(int row) {
+    if (m_Weights == null)
+      return 1.0;
+    return m_Weights[row];
+  }
+
+  /**
+   * Returns the values of the attribute.
+   *
+   * @param col		the attribute
+   * @return		the values, NaN if missing
+   */
+  public double[] attributeToDoubleArray(int col) {
+    double[]	result;
+    int		i;
+
+    result = new double[m_NumRows];
+    for (i = 0; i < m_NumRows; i++)
+      result[i] = value(i, col);
+
+    return result;
+  }
+
+  /**
+   * Returns the row.
+   *
+   * @param row		the row
+   * @return		the row, with the header as dataset
+   */
+  public Instance instance(int row) {
+    Instance	result;
+    double[]	values;
+    int		i;
+
+    values = new double[m_Columns.length];
+    for (i = 0; i < values.length; i++)
+      values[i] = value(row, i);
+    result = new DenseInstance(weight(row), values);
+    result.setDataset(m_Header);
+
+    return result;
+  }
+
+  /**
+   * Converts the dataset back.
+   *
+   * @return		the dataset
+   */
+  public Instances toInstances() {
+    Instances	result;
+    double[]	values;
+    int		i;
+    int		n;
+
+    result = new Instances(m_Header, m_NumRows);
+    for (i = 0; i < m_NumRows; i++) {
+      values = new double[m_Columns.length];
+      for (n = 0; n < values.length; n++)
+	values[n] = value(i, n);
+      result.add(new DenseInstance(weight(i), values));
+    }
+
+    return result;
+  }
+
+  /**
+   * Estimates the heap size occupied by the dataset.
+   *
+   * @return		the estimated size in bytes
+   */
+  public long sizeInBytes() {
+    long	result;
+    Object	column;
+    int		i;
+
+    // header
+    result = 1024 + 256 * m_Columns.length;
+    for (i = 0; i < m_Columns.length; i++) {
+      column = m_Columns[i];
+      result += 16;
+      if (column instanceof float[])
+	result += 4L * m_NumRows;
+      else if (column instanceof double[])
+	result += 8L * m_NumRows;
+      else if (column instanceof byte[])
+	result += m_NumRows;
+      else if (column instanceof short[])
+	result += 2L * m_NumRows;
+      else
+	result += 4L * m_NumRows;
+      if (m_Missing[i] != null)
+	result += 16 + 8L * m_Missing[i].length;
+    }
+    if (m_Weights != null)
+      result += 16 + 8L * m_Weights.length;
+
+    return result;
+  }
+}
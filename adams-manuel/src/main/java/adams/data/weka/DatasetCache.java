@@ -0,0 +1,451 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * DatasetCache.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.weka;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+import weka.core.converters.ConverterUtils.DataSource;
+
+/**
+ * JVM-wide, reference-counted cache of parsed datasets. Every file is parsed
+ * only once and all the actors that request it share the same
+ * <code>Instances</code> object, which must therefore be treated as
+ * read-only. Once the heap budget is exceeded, datasets that are no longer
+ * referenced are first turned into their {@link CompactDataset} form (if
+ * enabled and smaller) and then evicted, in least-recently-used order.
+ * Acquiring a compacted dataset again restores it without parsing the file.
+ * Datasets with sparse rows don't get compacted, as the restored rows would
+ * lose their sparse type and therefore use more memory.
+ * <p/>
+ * Whether a dataset can be compacted gets determined once when loading it,
+ * the compacting itself happens outside the cache lock, other datasets can
+ * be served meanwhile.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class DatasetCache {
+
+  /**
+   * Container for a cached dataset.
+   */
+  protected static class Entry {
+
+    /** the cache key. */
+    protected String key;
+
+    /** the file the dataset was loaded from. */
+    protected File file;
+
+    /** the dataset, null if not loaded yet or compacted. */
+    protected Instances data;
+
+    /** the compacted dataset, null if not compacted. */
+    protected CompactDataset compact;
+
+    /** the estimated heap size in bytes. */
+    protected long size;
+
+    /** the number of current references. */
+    protected int references;
+
+    /** whether the dataset is currently getting compacted. */
+    protected boolean compacting;
+
+    /** whether the dataset can be compacted (and gets smaller). */
+    protected boolean compactable;
+
+    /** whether the entry got removed from the cache. */
+    protected boolean removed;
+  }
+
+  /** the default heap budget in bytes (512MB). */
+  public final static long DEFAULT_MAX_HEAP = 512L * 1024L * 1024L;
+
+  /** the singleton. */
+  protected static DatasetCache m_Singleton;
+
+  /** the cached entries, in access order (least recently used first). */
+  protected LinkedHashMap<String, Entry> m_Entries;
+
+  /** the heap budget in bytes (0 = unlimited). */
+  protected long m_MaxHeap;
+
+  /** the estimated heap size of all loaded datasets. */
+  protected long m_CurrentHeap;
+
+  /** the number of cache hits. */
+  protected long m_Hits;
+
+  /** the number of cache misses. */
+  protected long m_Misses;
+
+  /** whether to compact unreferenced datasets before evicting them. */
+  protected boolean m_Compact;
+
+  /**
+   * Initializes the cache.
+   */
+  protected DatasetCache() {
+    m_Entries     = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    m_MaxHeap     = DEFAULT_MAX_HEAP;
+    m_CurrentHeap = 0;
+    m_Compact     = true;
+  }
+
+  /**
+   * Sets the heap budget.
+   *
+   * @param value	the budget in bytes, 0 for unlimited
+   */
+  public void setMaxHeap(long value) {
+    synchronized(this) {
+      m_MaxHeap = value;
+    }
+    evict();
+  }
+
+  /**
+   * Returns the heap budget.
+   *
+   * @return		the budget in bytes, 0 for unlimited
+   */
+  public synchronized long getMaxHeap() {
+    return m_MaxHeap;
+  }
+
+  /**
+   * Sets whether to compact unreferenced datasets before evicting them.
+   *
+   * @param value	true if to compact
+   */
+  public synchronized void setCompact(boolean value) {
+    m_Compact = value;
+  }
+
+  /**
+   * Returns whether to compact unreferenced datasets before evicting them.
+   *
+   * @return		true if to compact
+   */
+  public synchronized boolean getCompact() {
+    return m_Compact;
+  }
+
+  /**
+   * Returns the estimated heap size of all the cached datasets.
+   *
+   * @return		the size in bytes
+   */
+  public synchronized long getCurrentHeap() {
+    return m_CurrentHeap;
+  }
+
+  /**
+   * Returns the number of cached datasets.
+   *
+   * @return		the number of datasets
+   */
+  public synchronized int size() {
+    return m_Entries.size();
+  }
+
+  /**
+   * Returns the number of cache hits so far.
+   *
+   * @return		the hits
+   */
+  public synchronized long getHits() {
+    return m_Hits;
+  }
+
+  /**
+   * Returns the number of cache misses so far.
+   *
+   * @return		the misses
+   */
+  public synchronized long getMisses() {
+    return m_Misses;
+  }
+
+  /**
+   * Generates the key for the file. Includes the timestamp, in order to pick
+   * up modified files.
+   *
+   * @param file	the file to generate the key for
+   * @return		the key
+   */
+  protected String createKey(File file) {
+    return file.getAbsolutePath() + "@" + file.lastModified();
+  }
+
+  /**
+   * Returns the dataset for the specified file, loading it if necessary.
+   * Increments the reference count, each call must be followed by a call to
+   * {@link #release(Instances)} once the dataset is no longer needed.
+   * The returned dataset is shared and must not be modified.
+   *
+   * @param file	the file to load
+   * @return		the (shared) dataset
+   * @throws Exception	if loading fails
+   */
+  public Instances acquire(File file) throws Exception {
+    Entry	entry;
+
+    synchronized(this) {
+      entry = m_Entries.get(createKey(file));
+      if (entry == null) {
+	entry      = new Entry();
+	entry.key  = createKey(file);
+	entry.file = file.getAbsoluteFile();
+	m_Entries.put(entry.key, entry);
+      }
+      entry.references++;
+    }
+
+    // load outside the cache lock, other datasets can be served meanwhile
+    synchronized(entry) {
+      // the entry may have been dropped while waiting (failed load, clear);
+      // not looked up, as that would change the LRU order
+      synchronized(this) {
+	if (entry.removed) {
+	  entry.references--;
+	  entry = null;
+	}
+      }
+      if (entry == null)
+	return acquire(file);
+
+      if ((entry.data == null) && (entry.compact != null)) {
+	entry.data    = entry.compact.toInstances();
+	entry.compact = null;
+	synchronized(this) {
+	  m_Hits++;
+	  m_CurrentHeap -= entry.size;
+	  entry.size     = estimateSize(entry.data);
+	  m_CurrentHeap += entry.size;
+	}
+	evict();
+      }
+      else if (entry.data == null) {
+	try {
+	  entry.data = DataSource.read(entry.file.getAbsolutePath());
+	}
+	catch (Exception e) {
+	  synchronized(this) {
+	    entry.references--;
+	    if ((entry.references == 0) && !entry.removed) {
+	      entry.removed = true;
+	      m_Entries.remove(entry.key);
+	    }
+	  }
+	  throw e;
+	}
+	entry.size        = estimateSize(entry.data);
+	entry.compactable = CompactDataset.isSupported(entry.data) && !isSparse(entry.data);
+	synchronized(this) {
+	  m_Misses++;
+	  m_CurrentHeap += entry.size;
+	}
+	evict();
+      }
+      else {
+	synchronized(this) {
+	  m_Hits++;
+	}
+      }
+      return entry.data;
+    }
+  }
+
+  /**
+   * Decrements the reference count of the dataset, making it a candidate for
+   * eviction once nobody references it anymore.
+   *
+   * @param data	the dataset obtained via {@link #acquire(File)}
+   */
+  public void release(Instances data) {
+    synchronized(this) {
+      for (Entry entry: m_Entries.values()) {
+	if (entry.data == data) {
+	  if (entry.references > 0)
+	    entry.references--;
+	  break;
+	}
+      }
+    }
+    evict();
+  }
+
+  /**
+   * Checks whether the dataset contains sparse rows.
+   *
+   * @param data	the dataset to check
+   * @return		true if at least one sparse row
+   */
+  protected static boolean isSparse(Instances data) {
+    int		i;
+
+    for (i = 0; i < data.numInstances(); i++) {
+      if (data.instance(i) instanceof SparseInstance)
+	return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Returns the least recently used dataset to compact, if the heap budget
+   * is exceeded.
+   *
+   * @return		the entry, null if none
+   */
+  protected synchronized Entry nextToCompact() {
+    if (!m_Compact || (m_MaxHeap <= 0) || (m_CurrentHeap <= m_MaxHeap))
+      return null;
+
+    for (Entry entry: m_Entries.values()) {
+      if ((entry.references > 0) || (entry.data == null) || entry.compacting || !entry.compactable)
+	continue;
+      entry.compacting = true;
+      return entry;
+    }
+
+    return null;
+  }
+
+  /**
+   * Replaces the dataset with its compact form, if the entry is still
+   * unreferenced and the compact form is smaller. Otherwise the dataset
+   * doesn't get compacted again.
+   *
+   * @param entry	the entry
+   * @param data	the dataset that got compacted
+   * @param compact	the compact form
+   */
+  protected synchronized void finishCompact(Entry entry, Instances data, CompactDataset compact) {
+    entry.compacting = false;
+    if ((entry.references > 0) || (entry.data != data) || entry.removed)
+      return;
+    if (compact.sizeInBytes() >= entry.size) {
+      entry.compactable = false;
+      return;
+    }
+
+    entry.compact  = compact;
+    entry.data     = null;
+    m_CurrentHeap -= entry.size;
+    entry.size     = compact.sizeInBytes();
+    m_CurrentHeap += entry.size;
+  }
+
+  /**
+   * Compacts and then evicts unreferenced datasets in LRU order until the
+   * heap budget is met. Must not be called while holding the cache lock, as
+   * compacting happens outside of it.
+   */
+  protected void evict() {
+    Iterator<Entry>	iter;
+    Entry		entry;
+    Instances		data;
+
+    while ((entry = nextToCompact()) != null) {
+      synchronized(this) {
+	data = entry.data;
+      }
+      finishCompact(entry, data, CompactDataset.compress(data));
+    }
+
+    synchronized(this) {
+      if (m_MaxHeap <= 0)
+	return;
+      iter = m_Entries.values().iterator();
+      while ((m_CurrentHeap > m_MaxHeap) && iter.hasNext()) {
+	entry = iter.next();
+	if ((entry.references == 0) && ((entry.data != null) || (entry.compact != null))) {
+	  m_CurrentHeap -= entry.size;
+	  entry.removed  = true;
+	  iter.remove();
+	}
+      }
+    }
+  }
+
+  /**
+   * Removes all unreferenced datasets.
+   */
+  public synchronized void clear() {
+    Iterator<Entry>	iter;
+    Entry		entry;
+
+    iter = m_Entries.values().iterator();
+    while (iter.hasNext()) {
+      entry = iter.next();
+      if (entry.references == 0) {
+	m_CurrentHeap -= entry.size;
+	entry.removed  = true;
+	iter.remove();
+      }
+    }
+  }
+
+  /**
+   * Estimates the heap size occupied by the dataset.
+   *
+   * @param data	the dataset to estimate the size for
+   * @return		the estimated size in bytes
+   */
+  public static long estimateSize(Instances data) {
+    long	result;
+    int		i;
+    Instance	inst;
+
+    // header
+    result = 1024 + 256 * data.numAttributes();
+    for (i = 0; i < data.numInstances(); i++) {
+      inst = data.instance(i);
+      // list slot, instance object and value array; sparse instances store
+      // an additional index array
+      if (inst.numValues() == inst.numAttributes())
+	result += 48 + 8 * inst.numValues();
+      else
+	result += 64 + 12 * inst.numValues();
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the singleton.
+   *
+   * @return		the cache
+   */
+  public static synchronized DatasetCache getSingleton() {
+    if (m_Singleton == null)
+      m_Singleton = new DatasetCache();
+    return m_Singleton;
+  }
+}
@@ -0,0 +1,757 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * ParallelCsvInstancesReader.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.weka;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Reads CSV files into <code>Instances</code> using multiple threads.
+ * <p/>
+ * The file gets split into segments at line boundaries (outside of quoted
+ * cells, determined via the parity of the quotes preceding each segment),
+ * the memory-mapped segments are parsed on a fork-join pool into primitive
+ * column buffers, which are finally stitched together. Columns that only
+ * contain numbers become numeric attributes, all others nominal ones with the
+ * labels in order of appearance. Empty cells and the missing value string
+ * ("?" by default) are treated as missing values. Only double quotes are
+ * supported for quoting cells.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class ParallelCsvInstancesReader {
+
+  /** the minimum size of a segment. */
+  public final static int MIN_SEGMENT_SIZE = 1024 * 1024;
+
+  /** the maximum size of a segment. */
+  public final static int MAX_SEGMENT_SIZE = 256 * 1024 * 1024;
+
+  /** the character set. */
+  protected final static Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * The parsed content of a segment, stored by column.
+   */
+  protected static class Segment {
+
+    /** the mapped segment. */
+    protected MappedByteBuffer buffer;
+
+    /** the number of rows. */
+    protected int rows;
+
+    /** the numeric values per column (NaN if missing or not numeric). */
+    protected double[][] values;
+
+    /** the start of the cells per column (-1 if missing). */
+    protected int[][] starts;
+
+    /** the end of the cells per column (exclusive). */
+    protected int[][] ends;
+
+    /** whether a column contained non-numeric cells. */
+    protected boolean[] nominal;
+
+    /**
+     * Returns the text of the cell.
+     *
+     * @param col	the column
+     * @param row	the row within the segment
+     * @return		the text, null if missing
+     */
+    protected String getText(int col, int row) {
+      byte[]	bytes;
+      int	i;
+      String	result;
+
+      if (starts[col][row] == -1)
+	return null;
+      bytes = new byte[ends[col][row] - starts[col][row]];
+      for (i = 0; i < bytes.length; i++)
+	bytes[i] = buffer.get(starts[col][row] + i);
+      result = new String(bytes, UTF8);
+      if (result.indexOf('"') > -1)
+	result = result.replace("\"\"", "\"");
+
+      return result;
+    }
+  }
+
+  /** the separator. */
+  protected char m_Separator;
+
+  /** the string representing missing values. */
+  protected String m_MissingValue;
+
+  /** the minimum size of a segment. */
+  protected int m_MinSegmentSize;
+
+  /** whether the file has a header row. */
+  protected boolean m_HasHeader;
+
+  /** the number of threads to use (0 = number of processors). */
+  protected int m_NumThreads;
+
+  /**
+   * Initializes the reader with comma as separator, "?" as missing value,
+   * header row and one thread per processor.
+   */
+  public ParallelCsvInstancesReader() {
+    m_Separator      = ',';
+    m_MissingValue   = "?";
+    m_HasHeader      = true;
+    m_NumThreads     = 0;
+    m_MinSegmentSize = MIN_SEGMENT_SIZE;
+  }
+
+  /**
+   * Sets the separator.
+   *
+   * @param value	the separator
+   */
+  public void setSeparator(char value) {
+    m_Separator = value;
+  }
+
+  /**
+   * Returns the separator.
+   *
+   * @return		the separator
+   */
+  public char getSeparator() {
+    return m_Separator;
+  }
+
+  /**
+   * Sets the string representing missing values. Empty cells are always
+   * treated as missing.
+   *
+   * @param value	the missing value, null or empty for empty cells only
+   */
+  public void setMissingValue(String value) {
+    m_MissingValue = value;
+  }
+
+  /**
+   * Returns the string representing missing values.
+   *
+   * @return		the missing value
+   */
+  public String getMissingValue() {
+    return m_MissingValue;
+  }
+
+  /**
+   * Sets the minimum size of a segment, i.e., files smaller than that get
+   * parsed by a single thread.
+   *
+   * @param value	the minimum size in bytes
+   */
+  public void setMinSegmentSize(int value) {
+    if (value < 1)
+      throw new IllegalArgumentException("Minimum segment size must be at least 1: " + value);
+    m_MinSegmentSize = value;
+  }
+
+  /**
+   * Returns the minimum size of a segment.
+   *
+   * @return		the minimum size in bytes
+   */
+  public int getMinSegmentSize() {
+    return m_MinSegmentSize;
+  }
+
+  /**
+   * Sets whether the first row contains the column names.
+   *
+   * @param value	true if header row present
+   */
+  public void setHasHeader(boolean value) {
+    m_HasHeader = value;
+  }
+
+  /**
+   * Returns whether the first row contains the column names.
+   *
+   * @return		true if header row present
+   */
+  public boolean getHasHeader() {
+    return m_HasHeader;
+  }
+
+  /**
+   * Sets the number of threads to use.
+   *
+   * @param value	the number of threads, 0 for one per processor
+   */
+  public void setNumThreads(int value) {
+    m_NumThreads = value;
+  }
+
+  /**
+   * Returns the number of threads to use.
+   *
+   * @return		the number of threads, 0 for one per processor
+   */
+  public int getNumThreads() {
+    return m_NumThreads;
+  }
+
+  /**
+   * Returns the number of threads to actually use.
+   *
+   * @return		the number of threads
+   */
+  protected int getActualNumThreads() {
+    if (m_NumThreads <= 0)
+      return Runtime.getRuntime().availableProcessors();
+    else
+      return m_NumThreads;
+  }
+
+  /**
+   * Counts the quotes in the specified region.
+   *
+   * @param channel	the channel to map
+   * @param start	the start of the region
+   * @param end		the end of the region (exclusive)
+   * @return		the number of quotes
+   * @throws IOException	if mapping fails
+   */
+  protected static long countQuotes(FileChannel channel, long start, long end) throws IOException {
+    MappedByteBuffer	buffer;
+    long		result;
+    int			i;
+    int			len;
+
+    len    = (int) (end - start);
+    buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, len);
+    result = 0;
+    for (i = 0; i < len; i++) {
+      if (buffer.get(i) == '"')
+	result++;
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the position after the first line break at or after the
+   * specified position that is not within a quoted cell.
+   *
+   * @param channel	the channel to map
+   * @param pos		the position to start from
+   * @param size	the size of the file
+   * @param inQuote	whether the position is within a quoted cell
+   * @return		the position after the line break, the size of the
+   * 			file if none found
+   * @throws IOException	if mapping fails
+   */
+  protected static long nextLine(FileChannel channel, long pos, long size, boolean inQuote) throws IOException {
+    MappedByteBuffer	buffer;
+    int			len;
+    int			i;
+    byte		b;
+
+    while (pos < size) {
+      len    = (int) Math.min(64 * 1024, size - pos);
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+      for (i = 0; i < len; i++) {
+	b = buffer.get(i);
+	if (b == '"')
+	  inQuote = !inQuote;
+	else if ((b == '\n') && !inQuote)
+	  return pos + i + 1;
+      }
+      pos += len;
+    }
+
+    return size;
+  }
+
+  /**
+   * Splits the cells of a single line.
+   *
+   * @param buffer	the buffer containing the line
+   * @param len		the length of the line
+   * @param separator	the separator
+   * @param missing	the missing value, null if only empty cells
+   * @return		the cells (quotes removed)
+   */
+  protected static List<String> splitLine(MappedByteBuffer buffer, int len, char separator, byte[] missing) {
+    List<String>	result;
+    Segment		segment;
+    boolean		inQuote;
+    int			numCols;
+    int			i;
+    byte		b;
+
+    inQuote = false;
+    numCols = 1;
+    for (i = 0; i < len; i++) {
+      b = buffer.get(i);
+      if (b == '"')
+	inQuote = !inQuote;
+      else if ((b == separator) && !inQuote)
+	numCols++;
+    }
+
+    segment        = new Segment();
+    segment.buffer = buffer;
+    parse(segment, len, separator, missing, numCols);
+    result = new ArrayList<String>();
+    if (segment.rows > 0) {
+      for (i = 0; i < numCols; i++)
+	result.add(segment.getText(i, 0));
+    }
+
+    return result;
+  }
+
+  /**
+   * Ensures the capacity of the column buffers of the segment.
+   *
+   * @param segment	the segment to update
+   * @param numCols	the number of columns
+   * @param capacity	the required number of rows
+   */
+  protected static void ensureCapacity(Segment segment, int numCols, int capacity) {
+    int		i;
+    int		len;
+
+    if (segment.values == null) {
+      segment.values  = new double[numCols][];
+      segment.starts  = new int[numCols][];
+      segment.ends    = new int[numCols][];
+      segment.nominal = new boolean[numCols];
+      for (i = 0; i < numCols; i++) {
+	segment.values[i] = new double[capacity];
+	segment.starts[i] = new int[capacity];
+	segment.ends[i]   = new int[capacity];
+      }
+    }
+    else if (segment.values[0].length < capacity) {
+      len = Math.max(capacity, segment.values[0].length * 3 / 2);
+      for (i = 0; i < numCols; i++) {
+	segment.values[i] = Arrays.copyOf(segment.values[i], len);
+	segment.starts[i] = Arrays.copyOf(segment.starts[i], len);
+	segment.ends[i]   = Arrays.copyOf(segment.ends[i], len);
+      }
+    }
+  }
+
+  /**
+   * Parses a number, without creating any objects for plain decimal numbers.
+   *
+   * @param buffer	the buffer
+   * @param start	the start of the cell
+   * @param end		the end of the cell (exclusive)
+   * @return		the number, NaN if not a number
+   */
+  protected static double parseNumber(MappedByteBuffer buffer, int start, int end) {
+    boolean	negative;
+    long	mantissa;
+    int		scale;
+    int		digits;
+    boolean	point;
+    boolean	slow;
+    byte	b;
+    int		i;
+    byte[]	bytes;
+
+    i        = start;
+    negative = false;
+    b        = buffer.get(i);
+    if ((b == '-') || (b == '+')) {
+      negative = (b == '-');
+      i++;
+    }
+    mantissa = 0;
+    scale    = 0;
+    digits   = 0;
+    point    = false;
+    slow     = false;
+    for (; i < end; i++) {
+      b = buffer.get(i);
+      if ((b >= '0') && (b <= '9')) {
+	// exact only while the mantissa fits into the double's mantissa
+	if (digits == 15) {
+	  slow = true;
+	  break;
+	}
+	mantissa = mantissa * 10 + (b - '0');
+	digits++;
+	if (point)
+	  scale++;
+      }
+      else if ((b == '.') && !point) {
+	point = true;
+      }
+      else {
+	break;
+      }
+    }
+    if (!slow && (i == end) && (digits > 0))
+      return (negative ? -mantissa : mantissa) / Math.pow(10, scale);
+
+    // exponents, very long numbers, etc.
+    if (!slow && (b != 'e') && (b != 'E'))
+      return Double.NaN;
+    bytes = new byte[end - start];
+    for (i = 0; i < bytes.length; i++)
+      bytes[i] = buffer.get(start + i);
+    try {
+      return Double.parseDouble(new String(bytes, UTF8));
+    }
+    catch (NumberFormatException e) {
+      return Double.NaN;
+    }
+  }
+
+  /**
+   * Checks whether the cell represents the missing value.
+   *
+   * @param buffer	the buffer
+   * @param start	the start of the cell
+   * @param end		the end of the cell (exclusive)
+   * @param missing	the missing value, null if only empty cells
+   * @return		true if missing value
+   */
+  protected static boolean isMissing(MappedByteBuffer buffer, int start, int end, byte[] missing) {
+    int		i;
+
+    if ((missing == null) || (missing.length != end - start))
+      return false;
+    for (i = 0; i < missing.length; i++) {
+      if (buffer.get(start + i) != missing[i])
+	return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Parses the segment into column buffers.
+   *
+   * @param segment	the segment with the buffer to parse
+   * @param len		the length of the buffer
+   * @param separator	the separator
+   * @param missing	the missing value, null if only empty cells
+   * @param numCols	the number of columns
+   */
+  protected static void parse(Segment segment, int len, char separator, byte[] missing, int numCols) {
+    MappedByteBuffer	buffer;
+    boolean		inQuote;
+    int			col;
+    int			start;
+    int			end;
+    int			pos;
+    byte		b;
+    double		value;
+
+    buffer = segment.buffer;
+    ensureCapacity(segment, numCols, 1024);
+    inQuote = false;
+    col     = 0;
+    start   = 0;
+    for (pos = 0; pos <= len; pos++) {
+      b = (pos < len) ? buffer.get(pos) : (byte) '\n';
+      if (b == '"') {
+	inQuote = !inQuote;
+	continue;
+      }
+      if (inQuote || ((b != separator) && (b != '\n')))
+	continue;
+
+      // skip empty lines
+      if ((b == '\n') && (col == 0) && ((pos - start == 0) || ((pos - start == 1) && (buffer.get(start) == '\r')))) {
+	start = pos + 1;
+	continue;
+      }
+
+      if (col < numCols) {
+	ensureCapacity(segment, numCols, segment.rows + 1);
+	// trim whitespace and quotes
+	end = pos;
+	while ((end > start) && (buffer.get(end - 1) <= ' '))
+	  end--;
+	while ((start < end) && (buffer.get(start) == ' '))
+	  start++;
+	if ((end - start >= 2) && (buffer.get(start) == '"') && (buffer.get(end - 1) == '"')) {
+	  start++;
+	  end--;
+	}
+	if ((end == start) || isMissing(buffer, start, end, missing)) {
+	  segment.starts[col][segment.rows] = -1;
+	  segment.values[col][segment.rows] = Double.NaN;
+	}
+	else {
+	  segment.starts[col][segment.rows] = start;
+	  segment.ends[col][segment.rows]   = end;
+	  if (!segment.nominal[col]) {
+	    value = parseNumber(buffer, start, end);
+	    if (Double.isNaN(value))
+	      segment.nominal[col] = true;
+	    segment.values[col][segment.rows] = value;
+	  }
+	}
+      }
+      col++;
+      start = pos + 1;
+
+      if (b == '\n') {
+	// missing cells at the end of the row
+	for (; col < numCols; col++) {
+	  segment.starts[col][segment.rows] = -1;
+	  segment.values[col][segment.rows] = Double.NaN;
+	}
+	segment.rows++;
+	col = 0;
+      }
+    }
+  }
+
+  /**
+   * Returns the length of the first line (outside quotes), including the
+   * line break.
+   *
+   * @param buffer	the buffer
+   * @param len		the length of the buffer
+   * @return		the length of the line
+   */
+  protected static int lineLength(MappedByteBuffer buffer, int len) {
+    boolean	inQuote;
+    int		i;
+    byte	b;
+
+    inQuote = false;
+    for (i = 0; i < len; i++) {
+      b = buffer.get(i);
+      if (b == '"')
+	inQuote = !inQuote;
+      else if ((b == '\n') && !inQuote)
+	return i + 1;
+    }
+
+    return len;
+  }
+
+  /**
+   * Reads the file.
+   *
+   * @param file	the CSV file to read
+   * @return		the dataset
+   * @throws Exception	if reading or parsing fails
+   */
+  public Instances read(File file) throws Exception {
+    RandomAccessFile			raf;
+    final FileChannel			channel;
+    final long				size;
+    long				headerEnd;
+    int					numThreads;
+    long				segmentSize;
+    int					numSegments;
+    final long[]			bounds;
+    long[]				quotes;
+    boolean[]				inQuote;
+    ForkJoinPool			pool;
+    List<Callable<Long>>		counters;
+    List<Callable<Segment>>		parsers;
+    List<Future<Long>>			counted;
+    List<Future<Segment>>		parsed;
+    List<Segment>			segments;
+    List<String>			names;
+    final int				numCols;
+    MappedByteBuffer			buffer;
+    final byte[]			missing;
+    boolean[]				nominal;
+    List<Map<String,Integer>>		labels;
+    ArrayList<Attribute>		atts;
+    int					numRows;
+    Instances				result;
+    double[]				values;
+    String				text;
+    Integer				index;
+    int					i;
+    int					n;
+    int					c;
+    int					r;
+
+    if ((m_MissingValue == null) || m_MissingValue.isEmpty())
+      missing = null;
+    else
+      missing = m_MissingValue.getBytes(UTF8);
+
+    raf = new RandomAccessFile(file, "r");
+    try {
+      channel = raf.getChannel();
+      size    = channel.size();
+
+      // header
+      buffer    = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, MIN_SEGMENT_SIZE));
+      headerEnd = lineLength(buffer, buffer.capacity());
+      names     = splitLine((MappedByteBuffer) channel.map(FileChannel.MapMode.READ_ONLY, 0, headerEnd), (int) headerEnd, m_Separator, missing);
+      numCols   = names.size();
+      for (i = 0; i < numCols; i++) {
+	if (!m_HasHeader || (names.get(i) == null))
+	  names.set(i, "att" + (i + 1));
+      }
+      if (!m_HasHeader)
+	headerEnd = 0;
+      if (numCols == 0)
+	throw new IOException("No columns found in '" + file + "'!");
+
+      // segments
+      numThreads  = getActualNumThreads();
+      segmentSize = Math.max(m_MinSegmentSize, (size - headerEnd) / (numThreads * 4) + 1);
+      segmentSize = Math.min(MAX_SEGMENT_SIZE, segmentSize);
+      numSegments = (int) Math.max(1, (size - headerEnd + segmentSize - 1) / segmentSize);
+      pool        = new ForkJoinPool(numThreads);
+      try {
+	// 1. quote parity of the raw segments
+	counters = new ArrayList<Callable<Long>>();
+	for (i = 0; i < numSegments; i++) {
+	  final long start = headerEnd + i * segmentSize;
+	  final long end   = Math.min(size, start + segmentSize);
+	  counters.add(new Callable<Long>() {
+	    @Override
+	    public Long call() throws Exception {
+	      return countQuotes(channel, start, end);
+	    }
+	  });
+	}
+	counted = pool.invokeAll(counters);
+	quotes  = new long[numSegments];
+	inQuote = new boolean[numSegments];
+	for (i = 0; i < numSegments; i++) {
+	  quotes[i] = counted.get(i).get();
+	  if (i > 0)
+	    inQuote[i] = (inQuote[i - 1] ^ (quotes[i - 1] % 2 == 1));
+	}
+
+	// 2. move segment boundaries to the next line outside quotes
+	bounds    = new long[numSegments + 1];
+	bounds[0] = headerEnd;
+	for (i = 1; i < numSegments; i++)
+	  bounds[i] = Math.max(bounds[i - 1], nextLine(channel, headerEnd + i * segmentSize, size, inQuote[i]));
+	bounds[numSegments] = size;
+
+	// 3. parse segments
+	parsers = new ArrayList<Callable<Segment>>();
+	for (i = 0; i < numSegments; i++) {
+	  final int segIndex = i;
+	  parsers.add(new Callable<Segment>() {
+	    @Override
+	    public Segment call() throws Exception {
+	      Segment segment = new Segment();
+	      int len = (int) (bounds[segIndex + 1] - bounds[segIndex]);
+	      segment.buffer = channel.map(FileChannel.MapMode.READ_ONLY, bounds[segIndex], len);
+	      parse(segment, len, m_Separator, missing, numCols);
+	      return segment;
+	    }
+	  });
+	}
+	parsed   = pool.invokeAll(parsers);
+	segments = new ArrayList<Segment>();
+	for (Future<Segment> future: parsed)
+	  segments.add(future.get());
+      }
+      finally {
+	pool.shutdown();
+      }
+    }
+    finally {
+      raf.close();
+    }
+
+    // 4. stitch
+    nominal = new boolean[numCols];
+    numRows = 0;
+    for (Segment segment: segments) {
+      numRows += segment.rows;
+      for (c = 0; c < numCols; c++)
+	nominal[c] |= segment.nominal[c];
+    }
+    labels = new ArrayList<Map<String,Integer>>();
+    atts   = new ArrayList<Attribute>();
+    for (c = 0; c < numCols; c++) {
+      if (nominal[c]) {
+	labels.add(new LinkedHashMap<String,Integer>());
+	for (Segment segment: segments) {
+	  for (r = 0; r < segment.rows; r++) {
+	    text = segment.getText(c, r);
+	    if ((text != null) && !labels.get(c).containsKey(text))
+	      labels.get(c).put(text, labels.get(c).size());
+	  }
+	}
+	atts.add(new Attribute(names.get(c), new ArrayList<String>(labels.get(c).keySet())));
+      }
+      else {
+	labels.add(null);
+	atts.add(new Attribute(names.get(c)));
+      }
+    }
+    result = new Instances(file.getName(), atts, numRows);
+    for (n = 0; n < segments.size(); n++) {
+      Segment segment = segments.get(n);
+      for (r = 0; r < segment.rows; r++) {
+	values = new double[numCols];
+	for (c = 0; c < numCols; c++) {
+	  if (segment.starts[c][r] == -1) {
+	    values[c] = Utils.missingValue();
+	  }
+	  else if (nominal[c]) {
+	    index     = labels.get(c).get(segment.getText(c, r));
+	    values[c] = index;
+	  }
+	  else {
+	    values[c] = segment.values[c][r];
+	  }
+	}
+	result.add(new DenseInstance(1.0, values));
+      }
+      // release the column buffers early
+      segments.set(n, null);
+    }
+
+    return result;
+  }
+}
@@ -0,0 +1,417 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * PushdownArffReader.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.weka;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ConverterUtils.DataSource;
+import weka.filters.Filter;
+
+/**
+ * Reads a dataset and applies leading filters that only drop attributes
+ * (Remove) or rows (unsupervised Resample), without parsing the values that
+ * get dropped. The output is identical to loading the full dataset and
+ * applying the filters:
+ * <ul>
+ *   <li>the output format is the one of the filters, applied to the header</li>
+ *   <li>the selected rows are determined by applying the Resample filters to
+ *   a dataset containing just the row numbers, i.e., Weka's own sampling</li>
+ * </ul>
+ * Only dense ARFF files without instance weights, string or relational
+ * attributes get read this way, everything else gets loaded in full and
+ * filtered. Like Weka's tokenizer, values are separated by commas and/or
+ * whitespace, with consecutive separators counting as one; rows that don't
+ * yield one value per attribute are left to Weka, by loading the file in
+ * full.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class PushdownArffReader {
+
+  /** Remove. */
+  public final static String REMOVE = "weka.filters.unsupervised.attribute.Remove";
+
+  /** Resample. */
+  public final static String RESAMPLE = "weka.filters.unsupervised.instance.Resample";
+
+  /** the filters to push down. */
+  protected Filter[] m_Filters;
+
+  /** whether the last file was read in full. */
+  protected boolean m_FullyLoaded;
+
+  /**
+   * Initializes the reader without filters.
+   */
+  public PushdownArffReader() {
+    m_Filters = new Filter[0];
+  }
+
+  /**
+   * Checks whether the filter can be pushed down into the reader.
+   *
+   * @param classname	the classname of the filter
+   * @return		true if the filter only drops attributes or rows
+   */
+  public static boolean canPushDown(String classname) {
+    return classname.equals(REMOVE) || classname.equals(RESAMPLE);
+  }
+
+  /**
+   * Sets the filters to apply while reading, all must be Remove or Resample.
+   *
+   * @param value	the filters (not fitted), in order
+   * @throws IllegalArgumentException	if a filter cannot be pushed down
+   */
+  public void setFilters(Filter[] value) {
+    for (Filter filter: value) {
+      if (!canPushDown(filter.getClass().getName()))
+	throw new IllegalArgumentException("Cannot push down filter: " + filter.getClass().getName());
+    }
+    m_Filters = value;
+  }
+
+  /**
+   * Returns the filters to apply while reading.
+   *
+   * @return		the filters, in order
+   */
+  public Filter[] getFilters() {
+    return m_Filters;
+  }
+
+  /**
+   * Returns whether the last file was loaded in full, rather than with the
+   * filters pushed down.
+   *
+   * @return		true if loaded in full
+   */
+  public boolean isFullyLoaded() {
+    return m_FullyLoaded;
+  }
+
+  /**
+   * Checks whether the line is a data line.
+   *
+   * @param line	the line
+   * @return		true if neither empty nor a comment
+   */
+  protected static boolean isData(String line) {
+    String	trimmed;
+
+    trimmed = line.trim();
+    return (trimmed.length() > 0) && (trimmed.charAt(0) != '%');
+  }
+
+  /**
+   * Loads the file in full and applies the filters.
+   *
+   * @param file	the file to read
+   * @return		the filtered dataset
+   * @throws Exception	if reading or filtering fails
+   */
+  protected Instances readFully(File file) throws Exception {
+    Instances	result;
+    Filter	filter;
+
+    m_FullyLoaded = true;
+    result        = DataSource.read(file.getAbsolutePath());
+    for (Filter f: m_Filters) {
+      filter = Filter.makeCopy(f);
+      filter.setInputFormat(result);
+      result = Filter.useFilter(result, filter);
+    }
+
+    return result;
+  }
+
+  /**
+   * Splits the line into the values of the columns to keep. Commas and
+   * whitespace separate the values, consecutive separators count as one (as
+   * with Weka's tokenizer).
+   *
+   * @param line	the data line
+   * @param keep	whether to keep the column
+   * @param values	for storing the values of the kept columns (unquoted,
+   * 			null for missing values)
+   * @return		the number of columns, -1 if the line has a format
+   * 			that isn't supported (sparse or weighted) or a quote
+   * 			is not closed
+   */
+  protected static int split(String line, boolean[] keep, String[] values) {
+    StringBuilder	value;
+    int			col;
+    int			out;
+    int			i;
+    char		c;
+    char		quote;
+    boolean		quoted;
+    boolean		token;
+
+    value  = new StringBuilder();
+    col    = 0;
+    out    = 0;
+    quote  = 0;
+    quoted = false;
+    token  = false;
+    for (i = 0; i <= line.length(); i++) {
+      // the end of the line terminates the last value
+      c = (i < line.length()) ? line.charAt(i) : ' ';
+      if (quote != 0) {
+	if (i == line.length())
+	  return -1;
+	if (c == quote) {
+	  quote = 0;
+	}
+	else if ((c == '\\') && (i + 1 < line.length())) {
+	  i++;
+	  if ((col < keep.length) && keep[col]) {
+	    c = line.charAt(i);
+	    switch (c) {
+	      case 'n': value.append('\n'); break;
+	      case 'r': value.append('\r'); break;
+	      case 't': value.append('\t'); break;
+	      default:  value.append(c);
+	    }
+	  }
+	}
+	else if ((col < keep.length) && keep[col]) {
+	  value.append(c);
+	}
+      }
+      else if ((c == '\'') || (c == '"')) {
+	quote  = c;
+	quoted = true;
+	token  = true;
+	value.setLength(0);
+      }
+      else if ((c == '{') || (c == '}')) {
+	return -1;
+      }
+      else if ((c == ',') || (c <= ' ') || (c == '%')) {
+	if (token) {
+	  if ((col < keep.length) && keep[col]) {
+	    if (!quoted && value.toString().equals("?"))
+	      values[out] = null;
+	    else
+	      values[out] = value.toString();
+	    out++;
+	  }
+	  col++;
+	  value.setLength(0);
+	  quoted = false;
+	  token  = false;
+	}
+	if (c == '%')
+	  break;
+      }
+      else if (!quoted) {
+	token = true;
+	if ((col < keep.length) && keep[col])
+	  value.append(c);
+      }
+    }
+
+    return col;
+  }
+
+  /**
+   * Converts the value.
+   *
+   * @param att		the attribute
+   * @param value	the value, null if missing
+   * @return		the internal value
+   * @throws Exception	if the value cannot be converted
+   */
+  protected static double convert(Attribute att, String value) throws Exception {
+    int		index;
+
+    if (value == null)
+      return Utils.missingValue();
+    if (att.isNumeric())
+      return Double.parseDouble(value);
+    if (att.isDate())
+      return att.parseDate(value);
+
+    index = att.indexOfValue(value);
+    if (index == -1)
+      throw new IOException("Nominal value not declared in header: " + value + " (" + att.name() + ")");
+
+    return index;
+  }
+
+  /**
+   * Opens the file and skips the header.
+   *
+   * @param file	the file to open
+   * @param header	for storing the header, can be null
+   * @return		the reader, positioned at the first data line
+   * @throws IOException	if reading fails
+   */
+  protected static BufferedReader open(File file, StringBuilder header) throws IOException {
+    BufferedReader	result;
+    String		line;
+
+    result = new BufferedReader(new InputStreamReader(new FileInputStream(file.getAbsoluteFile()), "UTF-8"));
+    while ((line = result.readLine()) != null) {
+      if (header != null)
+	header.append(line).append("\n");
+      if (line.trim().toLowerCase().startsWith("@data"))
+	break;
+    }
+
+    return result;
+  }
+
+  /**
+   * Reads the file and applies the filters.
+   *
+   * @param file	the file to read
+   * @return		the filtered dataset
+   * @throws Exception	if reading or filtering fails
+   */
+  public Instances read(File file) throws Exception {
+    BufferedReader	reader;
+    StringBuilder	header;
+    String		line;
+    Instances		input;
+    Instances		output;
+    Instances		rows;
+    Filter		filter;
+    boolean[]		keep;
+    int[]		attIndex;
+    String[]		values;
+    int[]		selected;
+    int[]		count;
+    double[][]		parsed;
+    double[]		row;
+    int			numRows;
+    int			numCols;
+    int			i;
+    int			n;
+
+    if (!file.getName().toLowerCase().endsWith(".arff"))
+      return readFully(file);
+
+    m_FullyLoaded = false;
+    header        = new StringBuilder();
+    reader        = open(file, header);
+    try {
+      input = new Instances(new StringReader(header.toString()));
+      for (i = 0; i < input.numAttributes(); i++) {
+	if (input.attribute(i).isString() || input.attribute(i).isRelational())
+	  return readFully(file);
+      }
+
+      // output format and columns to keep
+      output = input;
+      for (Filter f: m_Filters) {
+	filter = Filter.makeCopy(f);
+	filter.setInputFormat(output);
+	output = filter.getOutputFormat();
+      }
+      keep     = new boolean[input.numAttributes()];
+      attIndex = new int[output.numAttributes()];
+      for (i = 0; i < output.numAttributes(); i++) {
+	attIndex[i]       = input.attribute(output.attribute(i).name()).index();
+	keep[attIndex[i]] = true;
+      }
+      for (i = 1; i < attIndex.length; i++) {
+	if (attIndex[i] <= attIndex[i - 1])
+	  return readFully(file);
+      }
+
+      // number of rows, without parsing
+      numRows = 0;
+      while ((line = reader.readLine()) != null) {
+	if (isData(line))
+	  numRows++;
+      }
+      reader.close();
+      reader = open(file, null);
+
+      // rows to keep, as sampled by the filters
+      rows = new Instances("rows", new ArrayList<Attribute>(Arrays.asList(new Attribute("row"))), numRows);
+      for (i = 0; i < numRows; i++)
+	rows.add(new DenseInstance(1.0, new double[]{i}));
+      for (Filter f: m_Filters) {
+	if (!f.getClass().getName().equals(RESAMPLE))
+	  continue;
+	filter = Filter.makeCopy(f);
+	filter.setInputFormat(rows);
+	rows = Filter.useFilter(rows, filter);
+      }
+      selected = new int[rows.numInstances()];
+      count    = new int[numRows];
+      for (i = 0; i < selected.length; i++) {
+	selected[i] = (int) rows.instance(i).value(0);
+	count[selected[i]]++;
+      }
+
+      // parse the kept values of the selected rows
+      parsed = new double[numRows][];
+      values = new String[output.numAttributes()];
+      n      = 0;
+      while ((line = reader.readLine()) != null) {
+	if (!isData(line))
+	  continue;
+	if (count[n] > 0) {
+	  // unsupported or malformed rows are left to Weka
+	  numCols = split(line, keep, values);
+	  if (numCols != input.numAttributes())
+	    return readFully(file);
+	  row = new double[values.length];
+	  for (i = 0; i < values.length; i++)
+	    row[i] = convert(output.attribute(i), values[i]);
+	  parsed[n] = row;
+	}
+	n++;
+      }
+    }
+    finally {
+      reader.close();
+    }
+
+    // assemble in the order of the sample
+    output = new Instances(output, selected.length);
+    for (i = 0; i < selected.length; i++) {
+      count[selected[i]]--;
+      if (count[selected[i]] > 0)
+	output.add(new DenseInstance(1.0, parsed[selected[i]].clone()));
+      else
+	output.add(new DenseInstance(1.0, parsed[selected[i]]));
+    }
+
+    return output;
+  }
+}
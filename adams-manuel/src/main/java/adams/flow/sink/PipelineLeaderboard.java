@@ -0,0 +1,505 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * PipelineLeaderboard.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.flow.sink;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import adams.core.io.PlaceholderFile;
+import adams.data.preprocessing.Leaderboard;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Aggregates the result lines of a pipeline search (classifier, filters,
+ * dataset, accuracy, RMSE; CSV with the filters in double quotes) in memory:
+ * mean and variance of accuracy and RMSE per pipeline and per dataset, as
+ * well as the best results.
+ * <p/>
+ * A snapshot of the leaderboard gets written to the output file periodically
+ * and at the end of the flow. If a port is specified, the current leaderboard
+ * is also available via HTTP on the loopback interface.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class PipelineLeaderboard
+  extends AbstractSink {
+
+  /** for serialization. */
+  private static final long serialVersionUID = -3581286641405522619L;
+
+  /** the number of best results to list. */
+  protected int m_TopK;
+
+  /** the maximum number of pipelines/datasets to keep statistics for. */
+  protected int m_MaxEntries;
+
+  /** the file to write the snapshots to. */
+  protected PlaceholderFile m_OutputFile;
+
+  /** the number of results between snapshots. */
+  protected int m_SnapshotInterval;
+
+  /** the port for the HTTP endpoint. */
+  protected int m_Port;
+
+  /** the leaderboard. */
+  protected transient Leaderboard m_Leaderboard;
+
+  /** the HTTP endpoint. */
+  protected transient HttpServer m_Server;
+
+  /**
+   * Returns a string describing the object.
+   *
+   * @return a description suitable for displaying in the gui
+   */
+  @Override
+  public String globalInfo() {
+    return
+	"Aggregates the result lines of a pipeline search (classifier, filters, "
+	+ "dataset, accuracy, RMSE): mean and variance of accuracy and RMSE per "
+	+ "pipeline and per dataset, as well as the best results.\n"
+	+ "Snapshots get written to the output file periodically; the current "
+	+ "leaderboard is also available via HTTP on the loopback interface, "
+	+ "if a port is specified.";
+  }
+
+  /**
+   * Adds options to the internal list of options.
+   */
+  @Override
+  public void defineOptions() {
+    super.defineOptions();
+
+    m_OptionManager.add(
+	"top-k", "topK",
+	10, 1, null);
+
+    m_OptionManager.add(
+	"max-entries", "maxEntries",
+	Leaderboard.DEFAULT_MAX_ENTRIES, 0, null);
+
+    m_OptionManager.add(
+	"output", "outputFile",
+	new PlaceholderFile("."));
+
+    m_OptionManager.add(
+	"snapshot-interval", "snapshotInterval",
+	100, 1, null);
+
+    m_OptionManager.add(
+	"port", "port",
+	0, 0, 65535);
+  }
+
+  /**
+   * Sets the number of best results to list.
+   *
+   * @param value	the number of results
+   */
+  public void setTopK(int value) {
+    m_TopK = value;
+    reset();
+  }
+
+  /**
+   * Returns the number of best results to list.
+   *
+   * @return		the number of results
+   */
+  public int getTopK() {
+    return m_TopK;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String topKTipText() {
+    return "The number of best individual results to list.";
+  }
+
+  /**
+   * Sets the maximum number of pipelines and of datasets to keep statistics
+   * for.
+   *
+   * @param value	the maximum, 0 for unlimited
+   */
+  public void setMaxEntries(int value) {
+    m_MaxEntries = value;
+    reset();
+  }
+
+  /**
+   * Returns the maximum number of pipelines and of datasets to keep
+   * statistics for.
+   *
+   * @return		the maximum, 0 for unlimited
+   */
+  public int getMaxEntries() {
+    return m_MaxEntries;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String maxEntriesTipText() {
+    return "The maximum number of pipelines and of datasets to list, the lowest "
+	+ "ranked ones get dropped; the statistics of as many dropped ones are "
+	+ "kept in case they get results again; 0 for unlimited.";
+  }
+
+  /**
+   * Sets the file to write the snapshots to.
+   *
+   * @param value	the file, a directory to disable
+   */
+  public void setOutputFile(PlaceholderFile value) {
+    m_OutputFile = value;
+    reset();
+  }
+
+  /**
+   * Returns the file to write the snapshots to.
+   *
+   * @return		the file, a directory to disable
+   */
+  public PlaceholderFile getOutputFile() {
+    return m_OutputFile;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String outputFileTipText() {
+    return "The file to write the snapshots to (gets replaced); a directory disables the snapshots.";
+  }
+
+  /**
+   * Sets the number of results between snapshots.
+   *
+   * @param value	the number of results
+   */
+  public void setSnapshotInterval(int value) {
+    m_SnapshotInterval = value;
+    reset();
+  }
+
+  /**
+   * Returns the number of results between snapshots.
+   *
+   * @return		the number of results
+   */
+  public int getSnapshotInterval() {
+    return m_SnapshotInterval;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String snapshotIntervalTipText() {
+    return "The number of results after which to write a snapshot.";
+  }
+
+  /**
+   * Sets the port for the HTTP endpoint.
+   *
+   * @param value	the port, 0 to disable
+   */
+  public void setPort(int value) {
+    m_Port = value;
+    reset();
+  }
+
+  /**
+   * Returns the port for the HTTP endpoint.
+   *
+   * @return		the port, 0 to disable
+   */
+  public int getPort() {
+    return m_Port;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String portTipText() {
+    return "The port on the loopback interface to serve the current leaderboard on; 0 disables the HTTP endpoint.";
+  }
+
+  /**
+   * Returns a quick info about the actor, which will be displayed in the GUI.
+   *
+   * @return null if no info available, otherwise short string
+   */
+  @Override
+  public String getQuickInfo() {
+    return "top " + m_TopK + ", output: " + m_OutputFile + (m_Port > 0 ? ", port: " + m_Port : "");
+  }
+
+  /**
+   * Returns the class that the consumer accepts.
+   *
+   * @return the Class of objects that can be processed
+   */
+  @Override
+  public Class[] accepts() {
+    return new Class[]{String.class};
+  }
+
+  /**
+   * Returns the leaderboard.
+   *
+   * @return		the leaderboard, null if not set up
+   */
+  public Leaderboard getLeaderboard() {
+    return m_Leaderboard;
+  }
+
+  /**
+   * Initializes the item for flow execution.
+   *
+   * @return		null if everything is fine, otherwise error message
+   */
+  @Override
+  public String setUp() {
+    String	result;
+
+    result = super.setUp();
+
+    if (result == null) {
+      m_Leaderboard = new Leaderboard(m_TopK, m_MaxEntries);
+      if (m_Port > 0) {
+	try {
+	  m_Server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), m_Port), 0);
+	  m_Server.createContext("/", new HttpHandler() {
+	    public void handle(HttpExchange exchange) throws IOException {
+	      byte[]		response;
+	      OutputStream	out;
+
+	      response = m_Leaderboard.toSnapshot().getBytes("UTF-8");
+	      exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+	      exchange.sendResponseHeaders(200, response.length);
+	      out = exchange.getResponseBody();
+	      out.write(response);
+	      out.close();
+	    }
+	  });
+	  m_Server.start();
+	}
+	catch (Exception e) {
+	  m_Server = null;
+	  result   = handleException("Failed to start HTTP endpoint on port " + m_Port, e);
+	}
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Quotes the field for a CSV result line: enclosed in double quotes, with
+   * double quotes inside doubled.
+   *
+   * @param field	the field to quote
+   * @return		the quoted field
+   */
+  public static String quote(String field) {
+    return "\"" + field.replace("\"", "\"\"") + "\"";
+  }
+
+  /**
+   * Splits the CSV line into its (trimmed) fields, removing the quotes of
+   * quoted fields.
+   *
+   * @param line	the line to split
+   * @return		the fields, null if a quote is not closed
+   */
+  protected static List<String> split(String line) {
+    List<String>	result;
+    StringBuilder	field;
+    boolean		quoted;
+    int			i;
+    char		c;
+
+    result = new ArrayList<String>();
+    field  = new StringBuilder();
+    quoted = false;
+    for (i = 0; i < line.length(); i++) {
+      c = line.charAt(i);
+      if (quoted) {
+	if ((c == '"') && (i + 1 < line.length()) && (line.charAt(i + 1) == '"')) {
+	  field.append(c);
+	  i++;
+	}
+	else if (c == '"') {
+	  quoted = false;
+	}
+	else {
+	  field.append(c);
+	}
+      }
+      else if ((c == '"') && (field.toString().trim().length() == 0)) {
+	quoted = true;
+	field.setLength(0);
+      }
+      else if (c == ',') {
+	result.add(field.toString().trim());
+	field.setLength(0);
+      }
+      else {
+	field.append(c);
+      }
+    }
+    if (quoted)
+      return null;
+    result.add(field.toString().trim());
+
+    return result;
+  }
+
+  /**
+   * Parses a result line: classifier, filters (quoted), dataset, accuracy,
+   * RMSE.
+   *
+   * @param line	the line to parse
+   * @return		the result, null if the line cannot be parsed
+   * @see		#quote(String)
+   */
+  public static Leaderboard.Result parse(String line) {
+    List<String>	fields;
+
+    fields = split(line);
+    if ((fields == null) || (fields.size() != 5))
+      return null;
+
+    try {
+      return new Leaderboard.Result(
+	  fields.get(0) + ", " + fields.get(1),
+	  fields.get(2),
+	  Double.parseDouble(fields.get(3)),
+	  Double.parseDouble(fields.get(4)));
+    }
+    catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Writes the snapshot to the output file, if enabled. The snapshot gets
+   * written to a temporary file first, to avoid readers seeing partial
+   * snapshots.
+   *
+   * @throws IOException	if writing fails
+   */
+  protected void writeSnapshot() throws IOException {
+    File	tmp;
+
+    if (m_OutputFile.isDirectory())
+      return;
+
+    tmp = new File(m_OutputFile.getAbsolutePath() + ".tmp");
+    Files.write(tmp.toPath(), m_Leaderboard.toSnapshot().getBytes("UTF-8"));
+    try {
+      Files.move(tmp.toPath(), m_OutputFile.getAbsoluteFile().toPath(),
+	  StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (AtomicMoveNotSupportedException e) {
+      Files.move(tmp.toPath(), m_OutputFile.getAbsoluteFile().toPath(),
+	  StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * Executes the flow item.
+   *
+   * @return		null if everything is fine, otherwise error message
+   */
+  @Override
+  protected String doExecute() {
+    String		result;
+    String		line;
+    Leaderboard.Result	res;
+
+    result = null;
+    line   = (String) m_InputToken.getPayload();
+    res    = parse(line);
+    if (res == null) {
+      getLogger().warning("Ignoring malformed result: " + line);
+      return result;
+    }
+
+    m_Leaderboard.add(res);
+    if (m_Leaderboard.getCount() % m_SnapshotInterval == 0) {
+      try {
+	writeSnapshot();
+      }
+      catch (Exception e) {
+	result = handleException("Failed to write snapshot to: " + m_OutputFile, e);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Writes the final snapshot and stops the HTTP endpoint.
+   */
+  @Override
+  public void wrapUp() {
+    if (m_Leaderboard != null) {
+      try {
+	writeSnapshot();
+      }
+      catch (Exception e) {
+	getLogger().warning("Failed to write snapshot to " + m_OutputFile + ": " + e);
+      }
+    }
+
+    if (m_Server != null) {
+      m_Server.stop(0);
+      m_Server = null;
+    }
+
+    super.wrapUp();
+  }
+}
@@ -20,35 +20,35 @@
 
 package adams.flow.template;
 
-import java.io.IOException;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Modifier;
-import java.net.URLDecoder;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Enumeration;
 import java.util.List;
 import java.util.Random;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
 
 import weka.core.Instances;
-import weka.filters.Filter;
+import weka.core.Utils;
 import adams.core.ClassLister;
 import adams.core.base.BaseRegExp;
 import adams.core.base.BaseString;
 import adams.core.io.PlaceholderFile;
+import adams.core.option.OptionUtils;
 import adams.data.conversion.SpreadSheetToWekaInstances;
 import adams.data.io.input.CsvSpreadSheetReader;
+import adams.data.preprocessing.DataProfile;
+import adams.data.preprocessing.FilterCatalog;
+import adams.data.preprocessing.FilterPool;
+import adams.data.preprocessing.MetaKnowledgeBase;
+import adams.data.preprocessing.MissingValueIndex;
+import adams.data.preprocessing.PipelineDescriptor;
 import adams.data.spreadsheet.SpreadSheet;
+import adams.data.weka.ParallelCsvInstancesReader;
 import adams.env.Environment;
 import adams.flow.control.SubProcess;
 import adams.flow.core.AbstractActor;
 import adams.flow.source.StringConstants;
-import adams.flow.transformer.WekaFilter;
 
 public class MyTransformer
-  extends AbstractActorTemplate {
+  extends AbstractActorTemplate
+  implements PipelineDescriptorGenerator {
 
   /** for serialization. */
   private static final long serialVersionUID = -4844596229285379292L;
@@ -59,6 +59,33 @@ public class MyTransformer
   /** options for the csv reader */
   protected CsvSpreadSheetReader m_CsvReader;
 
+  /** the number of rows to sample for profiling (0 = full scan). */
+  protected int m_SampleSize;
+
+  /** the maximum half-width of the confidence intervals when sampling. */
+  protected double m_MaxHalfWidth;
+
+  /** the seed for choosing the blocks to sample. */
+  protected long m_Seed;
+
+  /** the number of threads for parsing the training file. */
+  protected int m_NumThreads;
+
+  /** the number of threads for transforming large datasets. */
+  protected int m_FilterThreads;
+
+  /** the fraction of missing values above which columns get removed (-1 = off). */
+  protected double m_MaxMissingFraction;
+
+  /** the meta-knowledge base to recommend pipelines from. */
+  protected PlaceholderFile m_KnowledgeBase;
+
+  /** the number of similar datasets to consider. */
+  protected int m_NumNeighbours;
+
+  /** the loaded knowledge base. */
+  protected transient MetaKnowledgeBase m_Knowledge;
+
   /**
    * Returns a string describing the object.
    * 
@@ -78,6 +105,24 @@ public class MyTransformer
     m_OptionManager.add("trainingFile", "trainingFile",
 	new PlaceholderFile("."));
     m_OptionManager.add("csvReader", "csvReader", new CsvSpreadSheetReader());
+    m_OptionManager.add("sampleSize", "sampleSize", 0, 0, null);
+    m_OptionManager.add("maxHalfWidth", "maxHalfWidth", 0.05, 0.0, 1.0);
+    m_OptionManager.add("seed", "seed", 1L);
+    m_OptionManager.add("numThreads", "numThreads", 1, 0, null);
+    m_OptionManager.add("filterThreads", "filterThreads", 1, 0, null);
+    m_OptionManager.add("maxMissingFraction", "maxMissingFraction", -1.0, -1.0, 1.0);
+    m_OptionManager.add("knowledgeBase", "knowledgeBase", new PlaceholderFile("."));
+    m_OptionManager.add("numNeighbours", "numNeighbours", 5, 1, null);
+  }
+
+  /**
+   * Resets the template.
+   */
+  @Override
+  protected void reset() {
+    super.reset();
+
+    m_Knowledge = null;
   }
 
   /**
@@ -138,6 +183,310 @@ public class MyTransformer
     return "Options of the CSV reader.";
   }
 
+  /**
+   * Sets the number of rows to sample for profiling the training file.
+   * 
+   * @param value
+   *          the number of rows, 0 for a full scan
+   */
+  public void setSampleSize(int value) {
+    if (value >= 0) {
+      m_SampleSize = value;
+      reset();
+    }
+    else {
+      getLogger().warning("Sample size must be at least 0, provided: " + value);
+    }
+  }
+
+  /**
+   * Returns the number of rows to sample for profiling the training file.
+   * 
+   * @return the number of rows, 0 for a full scan
+   */
+  public int getSampleSize() {
+    return m_SampleSize;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   * 
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String sampleSizeTipText() {
+    return "The number of rows to sample from the training file for profiling, "
+	+ "using block sampling; 0 profiles the complete file.";
+  }
+
+  /**
+   * Sets the maximum half-width of the confidence intervals of the sampled
+   * characteristics.
+   * 
+   * @param value
+   *          the half-width (0-1)
+   */
+  public void setMaxHalfWidth(double value) {
+    if ((value >= 0) && (value <= 1)) {
+      m_MaxHalfWidth = value;
+      reset();
+    }
+    else {
+      getLogger().warning("Half-width must be between 0 and 1, provided: " + value);
+    }
+  }
+
+  /**
+   * Returns the maximum half-width of the confidence intervals of the sampled
+   * characteristics.
+   * 
+   * @return the half-width (0-1)
+   */
+  public double getMaxHalfWidth() {
+    return m_MaxHalfWidth;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   * 
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String maxHalfWidthTipText() {
+    return "The maximum half-width of the 95% confidence intervals of the "
+	+ "missing value fractions when sampling; wider intervals result in a "
+	+ "full scan of the training file.";
+  }
+
+  /**
+   * Sets the seed for choosing the blocks to sample.
+   * 
+   * @param value
+   *          the seed
+   */
+  public void setSeed(long value) {
+    m_Seed = value;
+    reset();
+  }
+
+  /**
+   * Returns the seed for choosing the blocks to sample.
+   * 
+   * @return the seed
+   */
+  public long getSeed() {
+    return m_Seed;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   * 
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String seedTipText() {
+    return "The seed for choosing the blocks of the training file to sample.";
+  }
+
+  /**
+   * Sets the number of threads for parsing the training file.
+   * 
+   * @param value
+   *          the number of threads, 0 for one per processor
+   */
+  public void setNumThreads(int value) {
+    if (value >= 0) {
+      m_NumThreads = value;
+      reset();
+    }
+    else {
+      getLogger().warning("Number of threads must be at least 0, provided: " + value);
+    }
+  }
+
+  /**
+   * Returns the number of threads for parsing the training file.
+   * 
+   * @return the number of threads, 0 for one per processor
+   */
+  public int getNumThreads() {
+    return m_NumThreads;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   * 
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String numThreadsTipText() {
+    return "The number of threads for parsing the training file; 1 uses the "
+	+ "CSV reader, otherwise the file gets parsed in parallel chunks (0 = "
+	+ "one thread per processor); the CSV reader is always used for quote "
+	+ "characters other than double quotes.";
+  }
+
+  /**
+   * Sets the number of threads for transforming large datasets.
+   * 
+   * @param value
+   *          the number of threads, 0 for one per processor
+   */
+  public void setFilterThreads(int value) {
+    if (value >= 0) {
+      m_FilterThreads = value;
+      reset();
+    }
+    else {
+      getLogger().warning("Number of filter threads must be at least 0, provided: " + value);
+    }
+  }
+
+  /**
+   * Returns the number of threads for transforming large datasets.
+   * 
+   * @return the number of threads, 0 for one per processor
+   */
+  public int getFilterThreads() {
+    return m_FilterThreads;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   * 
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String filterThreadsTipText() {
+    return "The number of threads for transforming large datasets with the "
+	+ "generated filters, if they transform rows independently; 1 filters "
+	+ "on a single thread (0 = one thread per processor).";
+  }
+
+  /**
+   * Sets the fraction of missing values above which columns get removed.
+   * 
+   * @param value
+   *          the fraction (0-1), -1 to not add any filters for missing values
+   */
+  public void setMaxMissingFraction(double value) {
+    if ((value == -1) || ((value >= 0) && (value <= 1))) {
+      m_MaxMissingFraction = value;
+      reset();
+    }
+    else {
+      getLogger().warning("Fraction must be between 0 and 1 (or -1 for off), provided: " + value);
+    }
+  }
+
+  /**
+   * Returns the fraction of missing values above which columns get removed.
+   * 
+   * @return the fraction (0-1), -1 if off
+   */
+  public double getMaxMissingFraction() {
+    return m_MaxMissingFraction;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   * 
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String maxMissingFractionTipText() {
+    return "Columns with a higher fraction of missing values get removed, "
+	+ "remaining missing values get replaced; -1 turns this off.";
+  }
+
+  /**
+   * Sets the meta-knowledge base to recommend pipelines from.
+   * 
+   * @param value
+   *          the file, a directory to disable
+   */
+  public void setKnowledgeBase(PlaceholderFile value) {
+    m_KnowledgeBase = value;
+    reset();
+  }
+
+  /**
+   * Returns the meta-knowledge base to recommend pipelines from.
+   * 
+   * @return the file, a directory to disable
+   */
+  public PlaceholderFile getKnowledgeBase() {
+    return m_KnowledgeBase;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   * 
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String knowledgeBaseTipText() {
+    return "The meta-knowledge base with the best pipelines of past "
+	+ "evaluations; the best pipeline of the most similar datasets gets "
+	+ "used instead of a random one; a directory disables recommendations.";
+  }
+
+  /**
+   * Sets the number of similar datasets to consider.
+   * 
+   * @param value
+   *          the number of datasets
+   */
+  public void setNumNeighbours(int value) {
+    if (value >= 1) {
+      m_NumNeighbours = value;
+      reset();
+    }
+    else {
+      getLogger().warning("Number of neighbours must be at least 1, provided: " + value);
+    }
+  }
+
+  /**
+   * Returns the number of similar datasets to consider.
+   * 
+   * @return the number of datasets
+   */
+  public int getNumNeighbours() {
+    return m_NumNeighbours;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   * 
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String numNeighboursTipText() {
+    return "The number of most similar datasets in the knowledge base to pick "
+	+ "the best pipeline from.";
+  }
+
+  /**
+   * Returns the pipeline recommended by the knowledge base.
+   * 
+   * @param profile
+   *          the characteristics of the data
+   * @return the pipeline, null if no knowledge base or empty
+   */
+  protected PipelineDescriptor recommend(DataProfile profile) {
+    if (m_KnowledgeBase.isDirectory() || !m_KnowledgeBase.exists())
+      return null;
+
+    MetaKnowledgeBase knowledge;
+    try {
+      // loaded only once, even if generating concurrently
+      synchronized(this) {
+	if (m_Knowledge == null)
+	  m_Knowledge = MetaKnowledgeBase.load(m_KnowledgeBase.getAbsoluteFile());
+	knowledge = m_Knowledge;
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return null;
+    }
+
+    return knowledge.recommend(MetaKnowledgeBase.getFeatures(profile), m_NumNeighbours);
+  }
+
   /**
    * Hook before generating the actor.
    * <p/>
@@ -163,135 +512,236 @@ public class MyTransformer
    */
   @Override
   protected AbstractActor doGenerate() {
-    System.out.println("Generating filter flow automatically...");
-    // 1. Read file
-    // TODO Extend to other types of files
-    SpreadSheet sheet = m_CsvReader.read(m_TrainingFile);
+    PipelineDescriptor descriptor = generateDescriptor();
+    if (descriptor == null)
+      return null;
 
-    // Converting to Weka format to use Weka methods
-    SpreadSheetToWekaInstances m_Conversion = new SpreadSheetToWekaInstances();
-    m_Conversion.setInput(sheet);
     try {
-      String out = m_Conversion.convert();
+      SubProcess seq = descriptor.materialize(null, false,
+	  FilterPool.getSingleton(), m_FilterThreads);
+      System.out.println("Flow generated succesfully");
+      return seq;
     }
     catch (Exception e) {
-      e.printStackTrace();
-      return null;
+      throw new IllegalStateException("Failed to materialize pipeline: "
+	  + descriptor, e);
     }
+  }
+
+  /**
+   * Turns the (possibly backquoted) string of the CSV reader into a single
+   * character.
+   * 
+   * @param value the string, e.g., "\t"
+   * @return the character, 0 if empty
+   */
+  protected static char toChar(String value) {
+    value = Utils.unbackQuoteChars(value);
+    if (value.isEmpty())
+      return 0;
+    return value.charAt(0);
+  }
 
-    Instances m_Data = (Instances) m_Conversion.getOutput();
-    m_Conversion.cleanUp();
-    System.out.println("Weka conversion complete");
+  /**
+   * Generates the description of the pipeline, based on the characteristics
+   * of the training file, without instantiating any filters or actors.
+   * 
+   * @return the descriptor, null if the training file could not be converted
+   */
+  public PipelineDescriptor generateDescriptor() {
+    System.out.println("Generating filter flow automatically...");
+    // 1. Extract data characteristics
+    DataProfile profile = null;
+    if (m_SampleSize > 0) {
+      try {
+	// CsvSpreadSheetReader expects a header row
+	profile = DataProfile.sample(m_TrainingFile.getAbsoluteFile(),
+	    toChar(m_CsvReader.getSeparator()),
+	    toChar(m_CsvReader.getQuoteCharacter()),
+	    m_CsvReader.getMissingValue(), true, m_SampleSize, m_MaxHalfWidth,
+	    m_Seed);
+	if (profile == null)
+	  System.out.println("Sample not conclusive, profiling complete file");
+      }
+      catch (Exception e) {
+	e.printStackTrace();
+      }
+    }
+    if (profile == null) {
+      Instances m_Data;
+      // the parallel reader only supports double quotes
+      if ((m_NumThreads != 1) && (toChar(m_CsvReader.getQuoteCharacter()) == '"')) {
+	ParallelCsvInstancesReader reader = new ParallelCsvInstancesReader();
+	reader.setSeparator(toChar(m_CsvReader.getSeparator()));
+	reader.setMissingValue(m_CsvReader.getMissingValue());
+	reader.setNumThreads(m_NumThreads);
+	try {
+	  m_Data = reader.read(m_TrainingFile.getAbsoluteFile());
+	}
+	catch (Exception e) {
+	  e.printStackTrace();
+	  return null;
+	}
+      }
+      else {
+	// TODO Extend to other types of files
+	// the reader keeps state while reading, use a copy per call
+	CsvSpreadSheetReader csvReader = (CsvSpreadSheetReader) OptionUtils.shallowCopy(m_CsvReader);
+	SpreadSheet sheet = csvReader.read(m_TrainingFile);
+
+	// Converting to Weka format to use Weka methods
+	SpreadSheetToWekaInstances m_Conversion = new SpreadSheetToWekaInstances();
+	m_Conversion.setInput(sheet);
+	try {
+	  String out = m_Conversion.convert();
+	}
+	catch (Exception e) {
+	  e.printStackTrace();
+	  return null;
+	}
 
-    // 2. Extract data characteristics
-    int numRows = sheet.getRowCount();
-    int numColumns = sheet.getColumnCount();
-    int[] numMissingValuesByRow = getMissingValuesByRow(m_Data);
-    int[] numMissingValuesByColumn = getMissingValuesByColumn(m_Data);
+	m_Data = (Instances) m_Conversion.getOutput();
+	m_Conversion.cleanUp();
+      }
+      System.out.println("Weka conversion complete");
+      profile = DataProfile.compute(m_Data);
+    }
 
+    String[] lines = profile.toStrings();
+    BaseString[] strings = new BaseString[lines.length];
+    for (int i = 0; i < lines.length; i++)
+      strings[i] = new BaseString(lines[i]);
     StringConstants characteristics = new StringConstants();
-    characteristics.setStrings(new BaseString[] {
-	new BaseString("rows = " + numRows),
-	new BaseString("columns = " + numColumns),
-	new BaseString("missingValuesByRow = "
-	    + Arrays.toString(numMissingValuesByRow)),
-	new BaseString("missingValuesByColumn = "
-	    + Arrays.toString(numMissingValuesByColumn))});
+    characteristics.setStrings(strings);
     // Console report = new Console();
 
     // listClasses();
     // listFilters();
 
-    List<Class<?>> classes = null;
-    try {
-      classes = findWekaClasses();
+    // 2. Generate workflow based on data characteristics
+    PipelineDescriptor recommended = recommend(profile);
+    if (recommended != null) {
+      System.out.println("Recommended pipeline: " + recommended);
+      return recommended;
     }
-    catch (Exception e) {
-      e.printStackTrace();
-    }
-
-    // 3. Generate workflow based on data characteristics
+    FilterCatalog catalog = FilterCatalog.getSingleton();
+    List<Integer> filters = new ArrayList<Integer>();
+    List<String[]> options = new ArrayList<String[]>();
+    if (m_MaxMissingFraction >= 0)
+      addMissingValueFilters(catalog, profile, filters, options);
     // TODO currently it generates a random sequence of filters
     int numOfFilters = 2;
-    WekaFilter[] filterList = getRandomFilters(classes, numOfFilters);
-    SubProcess seq = new SubProcess();
-
-    for (int i = 0; i < numOfFilters; i++) {
-      seq.add(i, filterList[i]);
+    for (int index: getRandomFilters(catalog, numOfFilters)) {
+      filters.add(index);
+      options.add(new String[0]);
     }
 
-    System.out.println("Flow generated succesfully");
-
-    return seq;
+    int[] indices = new int[filters.size()];
+    for (int i = 0; i < indices.length; i++)
+      indices[i] = filters.get(i);
+    return new PipelineDescriptor(indices,
+	options.toArray(new String[options.size()][]));
   }
 
   /**
-   * Generates a random list of Weka filters
+   * Returns the catalog index of the filter.
    * 
-   * @param classes
-   *          List of all available weka filters
-   * @param numOfFilters
-   *          Size of the list to generate
-   * @return random list of Weka filters
+   * @param catalog
+   *          the available weka filters
+   * @param classname
+   *          the filter to look up
+   * @return the index
+   * @throws IllegalStateException
+   *           if the filter is not in the catalog
    */
-  private WekaFilter[] getRandomFilters(List<Class<?>> classes, int numOfFilters) {
-    WekaFilter[] filterList = new WekaFilter[numOfFilters];
-
-    for (int i = 0; i < numOfFilters; i++) {
-      int randomNumber = randInt(0, classes.size());
-      try {
-	Filter randomFilter = (Filter) classes.get(randomNumber).newInstance();
-	System.out.println(randomFilter.toString());
-	filterList[i] = new WekaFilter();
-	filterList[i].setFilter(randomFilter);
-      }
-      catch (InstantiationException e) {
-	// TODO Auto-generated catch block
-	e.printStackTrace();
-      }
-      catch (IllegalAccessException e) {
-	// TODO Auto-generated catch block
-	e.printStackTrace();
-      }
-    }
-
-    return filterList;
+  protected static int indexOf(FilterCatalog catalog, String classname) {
+    int result = catalog.indexOf(classname);
+    if (result == -1)
+      throw new IllegalStateException("Filter not available in catalog: "
+	  + classname);
+    return result;
   }
 
   /**
-   * Counts the number of missing values in each row
+   * Adds the filters for dealing with missing values: columns with too many
+   * missing values get removed (never the last column, which is assumed to
+   * be the class), the remaining missing values get replaced.
    * 
-   * @return array with the number of missing values in each row
+   * @param catalog
+   *          the available weka filters
+   * @param profile
+   *          the characteristics of the data
+   * @param filters
+   *          for adding the catalog indices of the filters
+   * @param options
+   *          for adding the options of the filters
    */
-  private int[] getMissingValuesByRow(Instances data) {
-    int numRows = data.size();
-    int numColumns = data.numAttributes();
-
-    int[] missingValues = new int[numRows];
-    for (int i = 0; i < numRows; i++)
-      for (int j = 0; j < numColumns; j++)
-	if (data.get(i).isMissing(j))
-	  missingValues[i]++;
+  protected void addMissingValueFilters(FilterCatalog catalog,
+      DataProfile profile, List<Integer> filters, List<String[]> options) {
+    MissingValueIndex index = profile.getMissingIndex();
+    int lastCol = profile.getNumColumns() - 1;
+
+    // columns to remove
+    int[] remove;
+    if (index != null) {
+      remove = index.getColumnsAbove(m_MaxMissingFraction);
+    }
+    else {
+      List<Integer> cols = new ArrayList<Integer>();
+      for (int c = 0; c < profile.getNumColumns(); c++)
+	if (profile.getMissingFraction()[c] > m_MaxMissingFraction)
+	  cols.add(c);
+      remove = new int[cols.size()];
+      for (int i = 0; i < remove.length; i++)
+	remove[i] = cols.get(i);
+    }
+    StringBuilder range = new StringBuilder();
+    boolean[] removed = new boolean[profile.getNumColumns()];
+    for (int c: remove) {
+      if (c == lastCol)
+	continue;
+      removed[c] = true;
+      if (range.length() > 0)
+	range.append(",");
+      range.append(c + 1);
+    }
+    if (range.length() > 0) {
+      filters.add(indexOf(catalog, "weka.filters.unsupervised.attribute.Remove"));
+      options.add(new String[] {"-R", range.toString()});
+    }
 
-    return missingValues;
+    // remaining missing values
+    boolean replace = false;
+    for (int c = 0; c < profile.getNumColumns(); c++) {
+      if (!removed[c] && (profile.getMissingFraction()[c] > 0)) {
+	replace = true;
+	break;
+      }
+    }
+    if (replace) {
+      filters.add(indexOf(catalog, "weka.filters.unsupervised.attribute.ReplaceMissingValues"));
+      options.add(new String[0]);
+    }
   }
 
   /**
-   * Counts the number of missing values in each column
+   * Generates a random list of Weka filters
    * 
-   * @return array with the number of missing values in each column
+   * @param catalog
+   *          the available weka filters
+   * @param numOfFilters
+   *          Size of the list to generate
+   * @return the catalog indices of the random filters
    */
-  private int[] getMissingValuesByColumn(Instances data) {
-    int numRows = data.size();
-    int numColumns = data.numAttributes();
+  private int[] getRandomFilters(FilterCatalog catalog, int numOfFilters) {
+    int[] filterList = new int[numOfFilters];
 
-    int[] missingValues = new int[numColumns];
-    for (int i = 0; i < numRows; i++)
-      for (int j = 0; j < numColumns; j++)
-	if (data.get(i).isMissing(j))
-	  missingValues[j]++;
+    for (int i = 0; i < numOfFilters; i++) {
+      filterList[i] = randInt(0, catalog.size() - 1);
+      System.out.println(catalog.getClassname(filterList[i]));
+    }
 
-    return missingValues;
+    return filterList;
   }
 
   private void listClasses() {
@@ -349,14 +799,7 @@ public class MyTransformer
   }
 
   private void listFilters() {
-    List<Class<?>> classes;
-    try {
-      classes = findWekaClasses();
-    }
-    catch (Exception e) {
-      e.printStackTrace();
-      return;
-    }
+    List<Class<?>> classes = FilterCatalog.getSingleton().getClasses();
     for (Class<?> cl: classes) {
       try {
 	System.out.println(cl.getName());
@@ -368,52 +811,6 @@ public class MyTransformer
     }
   }
 
-  /**
-   * Find the available Weka filters in the jar file
-   * 
-   * @return list wit the available Weka filters
-   * @throws IOException
-   * @throws ClassNotFoundException
-   */
-  private List<Class<?>> findWekaClasses() throws IOException,
-      ClassNotFoundException {
-    String wekaJarPath = weka.filters.Filter.class.getProtectionDomain()
-	.getCodeSource().getLocation().toString();
-    wekaJarPath = URLDecoder.decode(wekaJarPath, "UTF-8").replace("file:", "");
-    JarFile wekaJar = new JarFile(wekaJarPath);
-    Enumeration<JarEntry> contents = wekaJar.entries();
-    List<Class<?>> wekaClasses = new ArrayList<Class<?>>(50);
-    int badModifiers = Modifier.ABSTRACT | Modifier.INTERFACE
-	| Modifier.PRIVATE | Modifier.PROTECTED;
-    while (contents.hasMoreElements()) {
-      JarEntry entry = contents.nextElement();
-      String name = entry.getName();
-      if (validClassFile(name)) {
-	String className = name.substring(0, name.length() - 6).replaceAll("/",
-	    ".");
-	Class<?> wekaClass = Class.forName(className);
-	if (((wekaClass.getModifiers() & badModifiers) == 0)
-	    && weka.filters.Filter.class.isAssignableFrom(wekaClass)
-	    && hasDefaultConstructor(wekaClass))
-	  wekaClasses.add(wekaClass);
-      }
-    }
-    wekaJar.close();
-    return wekaClasses;
-  }
-
-  private boolean hasDefaultConstructor(Class<?> wekaClass) {
-    for (Constructor<?> c: wekaClass.getConstructors())
-      if (c.getParameterTypes().length == 0)
-	return true;
-    return false;
-  }
-
-  private boolean validClassFile(String name) {
-    return name.startsWith("weka/filters/") && name.endsWith(".class")
-	&& !name.contains("$");
-  }
-
   /**
    * Returns a pseudo-random number between min and max, inclusive. The
    * difference between min and max can be at most
@@ -0,0 +1,40 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * PipelineDescriptorGenerator.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.flow.template;
+
+import adams.data.preprocessing.PipelineDescriptor;
+
+/**
+ * Interface for templates that can generate just the description of a
+ * preprocessing pipeline, without instantiating any filters or actors.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public interface PipelineDescriptorGenerator {
+
+  /**
+   * Generates the description of a pipeline.
+   *
+   * @return		the descriptor
+   */
+  public PipelineDescriptor generateDescriptor();
+}
@@ -0,0 +1,382 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * PrefetchingTemplate.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.flow.template;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import adams.core.option.AbstractOption;
+import adams.core.option.OptionManager;
+import adams.data.preprocessing.FilterPool;
+import adams.flow.core.AbstractActor;
+
+/**
+ * Wraps a template and generates the next actors on a background thread,
+ * while the previously generated one gets executed. The generated actors are
+ * kept in a bounded queue, i.e., generation blocks once the specified number
+ * of actors is waiting to be used.
+ * <p/>
+ * The wrapped template is only used by the background thread. Resetting the
+ * template (e.g., by changing an option) or calling {@link #stop()} discards
+ * any actors that haven't been used yet and returns their filters to the
+ * {@link FilterPool}.
+ * <p/>
+ * Prefetched actors reflect the options of the wrapped template at the time
+ * they were generated. Options of the wrapped template that are attached to
+ * variables (e.g., the training file of {@link MyTransformer}) can change in
+ * between, therefore no prefetching takes place for such templates: the
+ * actors get generated on the calling thread, with the current values.
+ * Changing options of the wrapped template directly, rather than via
+ * {@link #setTemplate(AbstractActorTemplate)}, does not discard any
+ * prefetched actors either.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class PrefetchingTemplate
+  extends AbstractActorTemplate {
+
+  /** for serialization. */
+  private static final long serialVersionUID = 3315208270431146590L;
+
+  /** the template to generate the actors with. */
+  protected AbstractActorTemplate m_Template;
+
+  /** the number of actors to generate in advance. */
+  protected int m_NumPrefetch;
+
+  /** the generated actors or the exception that stopped generation. */
+  protected transient ArrayBlockingQueue<Object> m_Queue;
+
+  /** the background thread. */
+  protected transient Thread m_Worker;
+
+  /** the previous background thread, if it didn't finish in time. */
+  protected transient Thread m_Previous;
+
+  /** the time in msec to wait for the background thread when stopping. */
+  public final static int STOP_TIMEOUT = 1000;
+
+  /**
+   * Returns a string describing the object.
+   *
+   * @return a description suitable for displaying in the gui
+   */
+  @Override
+  public String globalInfo() {
+    return
+	"Generates the next actors with the specified template on a background "
+	+ "thread, while the current one is in use.";
+  }
+
+  /**
+   * Adds options to the internal list of options.
+   */
+  @Override
+  public void defineOptions() {
+    super.defineOptions();
+
+    m_OptionManager.add("template", "template", new RandomPreprocessingFlowGenerator());
+    m_OptionManager.add("num-prefetch", "numPrefetch", 2, 1, null);
+  }
+
+  /**
+   * Resets the template, discarding any prefetched actors.
+   */
+  @Override
+  protected void reset() {
+    super.reset();
+
+    stop();
+  }
+
+  /**
+   * Sets the template to generate the actors with.
+   *
+   * @param value	the template
+   */
+  public void setTemplate(AbstractActorTemplate value) {
+    m_Template = value;
+    reset();
+  }
+
+  /**
+   * Returns the template to generate the actors with.
+   *
+   * @return		the template
+   */
+  public AbstractActorTemplate getTemplate() {
+    return m_Template;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return 		tip text for this property suitable for
+   * 			displaying in the GUI or for listing the options.
+   */
+  public String templateTipText() {
+    return "The template to generate the actors with on the background thread.";
+  }
+
+  /**
+   * Sets the number of actors to generate in advance.
+   *
+   * @param value	the number of actors
+   */
+  public void setNumPrefetch(int value) {
+    if (value >= 1) {
+      m_NumPrefetch = value;
+      reset();
+    }
+    else {
+      getLogger().warning("Number of actors to prefetch must be at least 1, provided: " + value);
+    }
+  }
+
+  /**
+   * Returns the number of actors to generate in advance.
+   *
+   * @return		the number of actors
+   */
+  public int getNumPrefetch() {
+    return m_NumPrefetch;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return 		tip text for this property suitable for
+   * 			displaying in the GUI or for listing the options.
+   */
+  public String numPrefetchTipText() {
+    return "The number of actors to generate in advance.";
+  }
+
+  /**
+   * Returns a quick info about the object, which can be displayed in the GUI.
+   *
+   * @return		null if no info available, otherwise short string
+   */
+  @Override
+  public String getQuickInfo() {
+    return m_Template.getClass().getSimpleName() + ", prefetch: " + m_NumPrefetch;
+  }
+
+  /**
+   * Checks whether any options of the wrapped template are attached to
+   * variables.
+   *
+   * @return		true if variables are used
+   */
+  protected boolean usesVariables() {
+    OptionManager	manager;
+
+    manager = m_Template.getOptionManager();
+    for (AbstractOption option: manager.getOptionsList()) {
+      if (manager.getVariableForProperty(option.getProperty()) != null)
+	return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Checks whether the queue is no longer in use, i.e., the background thread
+   * generating into it got stopped.
+   *
+   * @param queue	the queue to check
+   * @return		true if stopped
+   */
+  protected synchronized boolean isStopped(ArrayBlockingQueue<Object> queue) {
+    return (m_Queue != queue);
+  }
+
+  /**
+   * Removes all actors from the queue and returns their filters to the
+   * {@link FilterPool}.
+   *
+   * @param queue	the queue to empty
+   */
+  protected static void discard(ArrayBlockingQueue<Object> queue) {
+    List<Object>	pending;
+
+    pending = new ArrayList<Object>();
+    queue.drainTo(pending);
+    for (Object item: pending) {
+      if (item instanceof AbstractActor)
+	FilterPool.getSingleton().release((AbstractActor) item);
+    }
+  }
+
+  /**
+   * Starts the background thread, if not already running.
+   */
+  protected synchronized void start() {
+    final ArrayBlockingQueue<Object>	queue;
+    final AbstractActorTemplate		template;
+    final Thread			previous;
+
+    if (m_Worker != null)
+      return;
+
+    queue    = new ArrayBlockingQueue<Object>(m_NumPrefetch);
+    template = m_Template;
+    previous = m_Previous;
+    m_Queue  = queue;
+    m_Worker = new Thread(new Runnable() {
+      public void run() {
+	AbstractActor	actor;
+
+	try {
+	  // the template must not be used by two threads at the same time
+	  if (previous != null)
+	    previous.join();
+	  while (!isStopped(queue)) {
+	    try {
+	      actor = template.generate();
+	    }
+	    catch (Throwable t) {
+	      // hand the error to the consumer (after the prefetched actors)
+	      // and stop generating
+	      try {
+		queue.put(t);
+	      }
+	      catch (InterruptedException e) {
+		// stopped meanwhile
+	      }
+	      break;
+	    }
+	    if (isStopped(queue)) {
+	      FilterPool.getSingleton().release(actor);
+	      break;
+	    }
+	    try {
+	      queue.put(actor);
+	    }
+	    catch (InterruptedException e) {
+	      FilterPool.getSingleton().release(actor);
+	      break;
+	    }
+	  }
+	}
+	catch (InterruptedException e) {
+	  // stopped before generating anything
+	}
+	finally {
+	  if (isStopped(queue))
+	    discard(queue);
+	}
+      }
+    }, getClass().getSimpleName() + "-" + template.getClass().getSimpleName());
+    m_Worker.setDaemon(true);
+    m_Worker.start();
+  }
+
+  /**
+   * Stops the background thread and returns the filters of the actors that
+   * haven't been used to the {@link FilterPool}. Waits at most
+   * {@link #STOP_TIMEOUT} msec for the thread, if it is still generating an
+   * actor after that, the thread discards that actor itself once done.
+   */
+  public void stop() {
+    Thread			worker;
+    ArrayBlockingQueue<Object>	queue;
+
+    synchronized(this) {
+      worker   = m_Worker;
+      queue    = m_Queue;
+      m_Worker = null;
+      m_Queue  = null;
+    }
+    if (worker == null)
+      return;
+
+    worker.interrupt();
+    try {
+      worker.join(STOP_TIMEOUT);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (worker.isAlive()) {
+      synchronized(this) {
+	m_Previous = worker;
+      }
+    }
+
+    discard(queue);
+  }
+
+  /**
+   * Returns the next prefetched actor, waiting for the background thread if
+   * none is available yet.
+   *
+   * @return		the generated actor
+   */
+  @Override
+  protected AbstractActor doGenerate() {
+    ArrayBlockingQueue<Object>	queue;
+    Object			item;
+    Thread			previous;
+
+    // variables may have changed since the actors were prefetched
+    if (usesVariables()) {
+      stop();
+      synchronized(this) {
+	previous = m_Previous;
+      }
+      if (previous != null) {
+	try {
+	  previous.join();
+	}
+	catch (InterruptedException e) {
+	  Thread.currentThread().interrupt();
+	  throw new IllegalStateException("Interrupted while waiting for the background thread", e);
+	}
+      }
+      return m_Template.generate();
+    }
+
+    start();
+    synchronized(this) {
+      queue = m_Queue;
+    }
+
+    try {
+      item = queue.take();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the next actor", e);
+    }
+
+    if (item instanceof Throwable) {
+      // allow a new attempt with the next call
+      stop();
+      throw new IllegalStateException("Failed to generate actor with "
+	  + m_Template.getClass().getName(), (Throwable) item);
+    }
+
+    return (AbstractActor) item;
+  }
+}
@@ -20,31 +20,21 @@
 
 package adams.flow.template;
 
-import java.io.IOException;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Modifier;
-import java.net.URLDecoder;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Random;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-
-import weka.core.Option;
-import weka.core.OptionHandler;
-import weka.filters.Filter;
-import adams.core.VariableName;
-import adams.core.base.BaseText;
+
+import adams.data.preprocessing.FilterCatalog;
+import adams.data.preprocessing.FilterOptionSchema;
+import adams.data.preprocessing.FilterPool;
+import adams.data.preprocessing.PipelineDescriptor;
+import adams.data.preprocessing.PipelineOptimizer;
 import adams.flow.control.SubProcess;
 import adams.flow.core.AbstractActor;
-import adams.flow.transformer.SetVariable;
-import adams.flow.transformer.WekaFilter;
 
 public class RandomPreprocessingFlowGenerator
-  extends AbstractActorTemplate {
+  extends AbstractActorTemplate
+  implements PipelineDescriptorGenerator {
 
   /** for serialization. */
   private static final long serialVersionUID = -9068093590151626425L;
@@ -55,7 +45,14 @@ public class RandomPreprocessingFlowGenerator
   /** maximum number of occurrences for any operator **/
   protected int maxNumOccurrences;
 
-  private HashMap<String, Integer> counter = new HashMap<String, Integer>();
+  /** whether to sample the options of the filters **/
+  protected boolean sampleOptions;
+
+  /** whether to simplify the generated pipelines **/
+  protected boolean optimize;
+
+  /** number of threads for transforming large datasets **/
+  protected int filterThreads;
 
   /**
    * Returns a string describing the object.
@@ -123,6 +120,90 @@ public class RandomPreprocessingFlowGenerator
     return "The maximum number of occurrences for any operator (must be positive).";
   }
 
+  /**
+   * Get whether to sample the options of the filters
+   * 
+   * @return sampleOptions
+   */
+  public boolean getSampleOptions() {
+    return sampleOptions;
+  }
+
+  /**
+   * Set whether to sample the options of the filters
+   * 
+   * @param sampleOptions
+   */
+  public void setSampleOptions(boolean sampleOptions) {
+    this.sampleOptions = sampleOptions;
+    reset();
+  }
+
+  /**
+   * Returns the tip text for this property.
+   * 
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String sampleOptionsTipText() {
+    return "If enabled, the options of the filters are sampled randomly instead of using the defaults.";
+  }
+
+  /**
+   * Get whether to simplify the generated pipelines
+   * 
+   * @return optimize
+   */
+  public boolean getOptimize() {
+    return optimize;
+  }
+
+  /**
+   * Set whether to simplify the generated pipelines
+   * 
+   * @param optimize
+   */
+  public void setOptimize(boolean optimize) {
+    this.optimize = optimize;
+    reset();
+  }
+
+  /**
+   * Returns the tip text for this property.
+   * 
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String optimizeTipText() {
+    return "If enabled, redundant filters get removed and the filters get reordered where it doesn't change the output (see PipelineOptimizer).";
+  }
+
+  /**
+   * Get the number of threads for transforming large datasets
+   * 
+   * @return filterThreads
+   */
+  public int getFilterThreads() {
+    return filterThreads;
+  }
+
+  /**
+   * Set the number of threads for transforming large datasets
+   * 
+   * @param filterThreads
+   */
+  public void setFilterThreads(int filterThreads) {
+    this.filterThreads = filterThreads;
+    reset();
+  }
+
+  /**
+   * Returns the tip text for this property.
+   * 
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String filterThreadsTipText() {
+    return "The number of threads for transforming large datasets, if the filters transform rows independently; 1 filters on a single thread, 0 uses one thread per processor.";
+  }
+
   /**
    * Adds options to the internal list of options.
    */
@@ -131,6 +212,9 @@ public class RandomPreprocessingFlowGenerator
 
     m_OptionManager.add("num-filters", "numOfFilters", 0);
     m_OptionManager.add("max-num-occurrences", "maxNumOccurrences", 0);
+    m_OptionManager.add("sample-options", "sampleOptions", false);
+    m_OptionManager.add("optimize", "optimize", false);
+    m_OptionManager.add("filter-threads", "filterThreads", 1, 0, null);
 
   }
 
@@ -149,262 +233,124 @@ public class RandomPreprocessingFlowGenerator
    */
   @Override
   protected AbstractActor doGenerate() {
-    System.out.println("Generating filter flow automatically (filters = "
-	+ numOfFilters + ")...");
-
-    if (numOfFilters <= 0) {
-      throw new IllegalStateException("The number of filters must be positive");
-    }
-
-    if (maxNumOccurrences < 0) {
-      throw new IllegalStateException(
-	  "The maximum number of occurrences must be positive");
-    }
-    else if(maxNumOccurrences == 0){ //if default value
-      maxNumOccurrences = numOfFilters;
-    }
+    PipelineDescriptor descriptor = generateDescriptor();
 
-    List<Class<?>> classes = null;
     try {
-      classes = findWekaClasses();
+      SubProcess seq = descriptor.materialize(
+	  PipelineDescriptor.VARIABLE_FILTERS, true, FilterPool.getSingleton(),
+	  filterThreads);
+      System.out.println("Flow generated succesfully");
+      return seq;
     }
     catch (Exception e) {
-      e.printStackTrace();
+      throw new IllegalStateException("Failed to materialize pipeline: "
+	  + descriptor, e);
     }
-
-    //listFilters(false);
-    listFilters();
-
-    // Generates a random sequence of filters
-    WekaFilter[] filterList = getRandomFilters(classes, numOfFilters);
-    SubProcess seq = new SubProcess();
-
-    String filterNamesString = "";
-
-    // Create sequence of filters
-    for (int i = 0; i < numOfFilters; i++) {
-      seq.add(i, filterList[i]);
-      filterNamesString += filterList[i].getFilter().toString() + ",";
-    }
-    // Remove last comma from the list
-    if (filterNamesString.endsWith(",")) {
-      filterNamesString = filterNamesString.substring(0,
-	  filterNamesString.length() - 1);
-    }
-
-    // Create variable with the name of filters for log purposes
-    SetVariable filterNames = new SetVariable();
-    filterNames.setVariableName(new VariableName("filters"));
-    BaseText temp = new BaseText();
-    temp.setValue(filterNamesString);
-//    filterNames.setVariableValue(temp);
-
-    seq.add(0, filterNames);
-
-    System.out.println("Flow generated succesfully");
-
-    return seq;
   }
 
   /**
-   * Generates a random list of Weka filters
+   * Generates the description of a random sequence of filters, without
+   * instantiating any filters or actors.
+   * <p/>
+   * Reentrant: the options are only read and all state is local to the call,
+   * i.e., the same template can be used by several threads at once.
    * 
-   * @param classes
-   *          List of all available weka filters
-   * @param numOfFilters
-   *          Size of the list to generate
-   * @return random list of Weka filters
+   * @return the descriptor
    */
-  private WekaFilter[] getRandomFilters(List<Class<?>> classes, int numOfFilters) {
-    WekaFilter[] filterList = new WekaFilter[numOfFilters];
-
-    for (int i = 0; i < numOfFilters; i++) {
+  public PipelineDescriptor generateDescriptor() {
+    System.out.println("Generating filter flow automatically (filters = "
+	+ numOfFilters + ")...");
 
-      try {
-	Filter randomFilter;
-	Integer filterOccurrence;
-	String filterName;
-	
-	int[] discard = new int[classes.size()];
-
-	do {
-	  int randomNumber = randInt(0, classes.size() - 1);
-	  randomFilter = (Filter) classes.get(randomNumber).newInstance();
-	  filterName = randomFilter.toString();
-
-	  // Increment counter of occurrences for the current filter
-	  filterOccurrence = counter.get(filterName);
-	  if (filterOccurrence == null) {
-	    filterOccurrence = 0;
-	  }
-	  
-	  // Control if the max number of occurrences have been reached by all the filters 
-	  discard[randomNumber] = 1;
-	  if(sum(discard)==discard.length){
-	    throw new Exception("All filters have been already used and it is not possible to add more");
-	  }
-	}
-	while (filterOccurrence > maxNumOccurrences);
-
-	counter.put(filterName, ++filterOccurrence);
-
-	System.out.println(filterName);
-	filterList[i] = new WekaFilter();
-	filterList[i].setFilter(randomFilter);
-	// Initialize only with the initial batch
-	filterList[i].setInitializeOnce(true); 
-	// filterList[i].setStopFlowOnError(false);
-      }
-      catch (InstantiationException e) {
-	// TODO Auto-generated catch block
-	e.printStackTrace();
-      }
-      catch (IllegalAccessException e) {
-	// TODO Auto-generated catch block
-	e.printStackTrace();
-      }
-      catch (Exception e){
-	e.printStackTrace();
-      }
+    if (numOfFilters <= 0) {
+      throw new IllegalStateException("The number of filters must be positive");
     }
 
-    return filterList;
-  }
-
-  private void listFilters() {
-    listFilters(true);
-  }
-
-  private void listFilters(boolean listOptions) {
-    List<Class<?>> classes;
-    try {
-      classes = findWekaClasses();
-    }
-    catch (Exception e) {
-      e.printStackTrace();
-      return;
+    int maxOccurrences = maxNumOccurrences;
+    if (maxOccurrences < 0) {
+      throw new IllegalStateException(
+	  "The maximum number of occurrences must be positive");
     }
-    int countParameters = 0;
-    for (Class<?> cl: classes) {
-      try {
-	System.out.println(cl.getName());
-	
-	if (listOptions)
-	  countParameters += listParameters(cl);
-      }
-      catch (Throwable t) { // ignore problematic methods and continue
-	t.printStackTrace();
-	break;
-      }
+    else if(maxOccurrences == 0){ //if default value
+      maxOccurrences = numOfFilters;
     }
-    System.out.println("Number of filters: " + classes.size());
-    if (listOptions)
-      System.out.println("Number of parameters: " + countParameters);
-  }
-
-  private int listParameters(Class<?> filter) {
-    if (OptionHandler.class.isAssignableFrom(filter)) {
 
+    // Generates a random sequence of filters
+    FilterCatalog catalog = FilterCatalog.getSingleton();
+    Random random = new Random();
+    int[] filters = getRandomFilters(catalog, numOfFilters, maxOccurrences, random);
+    if (!sampleOptions)
+      return optimize(new PipelineDescriptor(filters));
+
+    // Sample options using the (cached) option schemas of the filters,
+    // falling back to the defaults if no schema is available
+    String[][] options = new String[filters.length][];
+    for (int i = 0; i < filters.length; i++) {
       try {
-	int counter = 0;
-	Enumeration<Option> options = ((OptionHandler) filter.newInstance())
-	    .listOptions();
-	for (Option o = options.nextElement(); options.hasMoreElements(); o = options
-	    .nextElement()) {
-	  System.out.println(o.name() + " (" + o.numArguments() + ") "
-	      + o.description());
-	  counter++;
-	}
-	return counter;
+	options[i] = FilterOptionSchema.forClass(catalog.getClass(filters[i]))
+	    .sample(random);
       }
-      catch (InstantiationException e) {
-	e.printStackTrace();
+      catch (Exception e) {
+	System.out.println("Failed to obtain option schema for "
+	    + catalog.getClassname(filters[i]) + ", using defaults: " + e);
+	options[i] = new String[0];
       }
-      catch (IllegalAccessException e) {
-	e.printStackTrace();
-      }
-
     }
-    return 0;
-
+    return optimize(new PipelineDescriptor(filters, options));
   }
 
   /**
-   * Find the available Weka filters in the jar file
+   * Simplifies the pipeline, if enabled.
    * 
-   * @return list wit the available Weka filters
-   * @throws IOException
-   * @throws ClassNotFoundException
+   * @param descriptor
+   *          the generated pipeline
+   * @return the (simplified) pipeline
    */
-  private List<Class<?>> findWekaClasses() throws IOException,
-      ClassNotFoundException {
-    String wekaJarPath = weka.filters.Filter.class.getProtectionDomain()
-	.getCodeSource().getLocation().toString();
-    wekaJarPath = URLDecoder.decode(wekaJarPath, "UTF-8").replace("file:", "");
-    JarFile wekaJar = new JarFile(wekaJarPath);
-    Enumeration<JarEntry> contents = wekaJar.entries();
-    List<Class<?>> wekaClasses = new ArrayList<Class<?>>(50);
-    int badModifiers = Modifier.ABSTRACT | Modifier.INTERFACE
-	| Modifier.PRIVATE | Modifier.PROTECTED;
-    while (contents.hasMoreElements()) {
-      JarEntry entry = contents.nextElement();
-      String name = entry.getName();
-      if (validClassFile(name)) {
-	String className = name.substring(0, name.length() - 6).replaceAll("/",
-	    ".");
-	Class<?> wekaClass = Class.forName(className);
-	if (((wekaClass.getModifiers() & badModifiers) == 0)
-	    && weka.filters.Filter.class.isAssignableFrom(wekaClass)
-	    && hasDefaultConstructor(wekaClass))
-	  wekaClasses.add(wekaClass);
-      }
-    }
-    wekaJar.close();
-    return wekaClasses;
-  }
-
-  private boolean hasDefaultConstructor(Class<?> wekaClass) {
-    for (Constructor<?> c: wekaClass.getConstructors())
-      if (c.getParameterTypes().length == 0)
-	return true;
-    return false;
-  }
-
-  private boolean validClassFile(String name) {
-    return name.startsWith("weka/filters/") && name.endsWith(".class")
-	&& !name.contains("$");
+  protected PipelineDescriptor optimize(PipelineDescriptor descriptor) {
+    if (!optimize)
+      return descriptor;
+    return PipelineOptimizer.optimize(descriptor, null);
   }
 
   /**
-   * Returns a pseudo-random number between min and max, inclusive. The
-   * difference between min and max can be at most
-   * <code>Integer.MAX_VALUE - 1</code>.
+   * Generates a random list of Weka filters
    * 
-   * @param min
-   *          Minimum value
-   * @param max
-   *          Maximum value. Must be greater than min.
-   * @return Integer between min and max, inclusive.
-   * @see java.util.Random#nextInt(int)
+   * @param catalog
+   *          the available weka filters
+   * @param numOfFilters
+   *          Size of the list to generate
+   * @param maxOccurrences
+   *          the maximum number of occurrences for any filter
+   * @param random
+   *          the random number generator to use
+   * @return the catalog indices of the random filters
    */
-  public static int randInt(int min, int max) {
+  private int[] getRandomFilters(FilterCatalog catalog, int numOfFilters,
+      int maxOccurrences, Random random) {
+    int[] filterList = new int[numOfFilters];
+    // occurrences per catalog index
+    int[] counter = new int[catalog.size()];
 
-    // Usually this can be a field rather than a method variable
-    Random rand = new Random();
+    for (int i = 0; i < numOfFilters; i++) {
+      // Only filters that haven't reached the max number of occurrences
+      List<Integer> candidates = new ArrayList<Integer>(catalog.size());
+      for (int n = 0; n < catalog.size(); n++) {
+	if (counter[n] < maxOccurrences)
+	  candidates.add(n);
+      }
+      if (candidates.size() == 0) {
+	throw new IllegalStateException(
+	    "All filters have been already used and it is not possible to add more");
+      }
 
-    // nextInt is normally exclusive of the top value,
-    // so add 1 to make it inclusive
-    int randomNum = rand.nextInt((max - min) + 1) + min;
+      int randomNumber = candidates.get(random.nextInt(candidates.size()));
 
-    return randomNum;
-  }
-  
-  private int sum(int[] array){
-    int total = 0;
-    for(int i : array){
-      total += i;
+      // Increment counter of occurrences for the current filter
+      counter[randomNumber]++;
+
+      System.out.println(catalog.getClassname(randomNumber));
+      filterList[i] = randomNumber;
     }
-    return total;
-  }
 
+    return filterList;
+  }
 }
@@ -20,8 +20,23 @@
 
 package adams.flow.transformer;
 
+import java.util.ArrayList;
 import java.util.Hashtable;
-
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.bayes.NaiveBayesUpdateable;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import adams.data.preprocessing.FilterPool;
+import adams.flow.core.AbstractActor;
 import adams.flow.core.AbstractTemplate;
 import adams.flow.core.ActorUtils;
 import adams.flow.core.InputConsumer;
@@ -44,6 +59,139 @@ public class AutomaticPreprocessing
   /** the token that is to be fed into the global transformer. */
   protected transient Token m_InputToken;
 
+  /** the number of shards (0 = single pipeline). */
+  protected int m_NumShards;
+
+  /** the attribute with the key (empty = relation name). */
+  protected String m_Key;
+
+  /** the maximum number of pipelines per shard. */
+  protected int m_MaxKeys;
+
+  /** the number of shadow pipelines (0 = none). */
+  protected int m_NumShadows;
+
+  /** the classifier for evaluating the output of the pipelines. */
+  protected Classifier m_ShadowClassifier;
+
+  /** the maximum number of tokens waiting per shadow pipeline. */
+  protected int m_MaxPending;
+
+  /** the minimum number of scored predictions before promoting. */
+  protected int m_MinScored;
+
+  /** the quality difference required for promoting a shadow pipeline. */
+  protected double m_PromotionMargin;
+
+  /** the shards. */
+  protected transient Shard[] m_Shards;
+
+  /** the primary and shadow pipelines. */
+  protected transient List<PipelineBranch> m_Branches;
+
+  /** the index of the primary pipeline. */
+  protected transient volatile int m_Primary;
+
+  /** the output of the shards. */
+  protected transient List<Token> m_Outputs;
+
+  /**
+   * A worker thread with the pipelines for the keys routed to it. The
+   * pipelines are only accessed by the worker thread; tokens of the same key
+   * get processed in the order they were submitted.
+   */
+  protected class Shard {
+
+    /** the worker thread. */
+    protected ExecutorService m_Executor;
+
+    /** the pipelines per key, least recently used first. */
+    protected LinkedHashMap<String, AbstractActor> m_Pipelines;
+
+    /**
+     * Initializes the shard.
+     */
+    public Shard() {
+      m_Executor  = PipelineBranch.newExecutor("AutomaticPreprocessing-shard");
+      m_Pipelines = new LinkedHashMap<String, AbstractActor>(16, 0.75f, true) {
+	private static final long serialVersionUID = 2467713395312553848L;
+	@Override
+	protected boolean removeEldestEntry(Map.Entry<String, AbstractActor> eldest) {
+	  if (size() <= m_MaxKeys)
+	    return false;
+	  release(eldest.getValue());
+	  return true;
+	}
+      };
+    }
+
+    /**
+     * Returns the pipeline for the key, generating it if necessary.
+     *
+     * @param key	the key
+     * @return		the pipeline
+     */
+    protected AbstractActor getPipeline(String key) {
+      AbstractActor	result;
+
+      result = m_Pipelines.get(key);
+      if (result == null) {
+	result = generatePipeline();
+	m_Pipelines.put(key, result);
+      }
+
+      return result;
+    }
+
+    /**
+     * Queues the token for processing by the pipeline of the key.
+     *
+     * @param key	the key
+     * @param token	the token to process
+     * @return		the output of the pipeline
+     */
+    public Future<List<Token>> submit(final String key, final Token token) {
+      return m_Executor.submit(new Callable<List<Token>>() {
+	public List<Token> call() throws Exception {
+	  List<Token>	result;
+	  AbstractActor	actor;
+	  String	msg;
+
+	  actor = getPipeline(key);
+	  ((InputConsumer) actor).input(token);
+	  msg = actor.execute();
+	  if (msg != null) {
+	    // start over with a new pipeline for the next token
+	    m_Pipelines.remove(key);
+	    release(actor);
+	    throw new IllegalStateException(msg);
+	  }
+	  result = new ArrayList<Token>();
+	  while (((OutputProducer) actor).hasPendingOutput())
+	    result.add(((OutputProducer) actor).output());
+
+	  return result;
+	}
+      });
+    }
+
+    /**
+     * Stops the worker thread and releases all pipelines.
+     */
+    public void shutdown() {
+      m_Executor.shutdown();
+      try {
+	m_Executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      }
+      catch (InterruptedException e) {
+	Thread.currentThread().interrupt();
+      }
+      for (AbstractActor actor: m_Pipelines.values())
+	release(actor);
+      m_Pipelines.clear();
+    }
+  }
+
   /**
    * Returns a string describing the object.
    * 
@@ -64,6 +212,140 @@ public class AutomaticPreprocessing
     return new MyTransformer();
   }
 
+  /**
+   * Adds options to the internal list of options.
+   */
+  @Override
+  public void defineOptions() {
+    super.defineOptions();
+
+    m_OptionManager.add(
+	"num-shards", "numShards",
+	0, 0, null);
+
+    m_OptionManager.add(
+	"key", "key",
+	"");
+
+    m_OptionManager.add(
+	"max-keys", "maxKeys",
+	100, 1, null);
+
+    m_OptionManager.add(
+	"num-shadows", "numShadows",
+	0, 0, null);
+
+    m_OptionManager.add(
+	"shadow-classifier", "shadowClassifier",
+	new NaiveBayesUpdateable());
+
+    m_OptionManager.add(
+	"max-pending", "maxPending",
+	100, 1, null);
+
+    m_OptionManager.add(
+	"min-scored", "minScored",
+	100, 1, null);
+
+    m_OptionManager.add(
+	"promotion-margin", "promotionMargin",
+	0.01, 0.0, null);
+  }
+
+  /**
+   * Sets the number of shards.
+   * 
+   * @param value
+   *          the number of shards, 0 for a single pipeline
+   */
+  public void setNumShards(int value) {
+    m_NumShards = value;
+    reset();
+  }
+
+  /**
+   * Returns the number of shards.
+   * 
+   * @return the number of shards, 0 for a single pipeline
+   */
+  public int getNumShards() {
+    return m_NumShards;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   * 
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String numShardsTipText() {
+    return
+	"The number of worker threads that the keys get distributed across; "
+	+ "each key gets its own pipeline. 0 uses a single pipeline for all "
+	+ "tokens.";
+  }
+
+  /**
+   * Sets the attribute that contains the key.
+   * 
+   * @param value
+   *          the attribute name, empty for the relation name
+   */
+  public void setKey(String value) {
+    m_Key = value;
+    reset();
+  }
+
+  /**
+   * Returns the attribute that contains the key.
+   * 
+   * @return the attribute name, empty for the relation name
+   */
+  public String getKey() {
+    return m_Key;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   * 
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String keyTipText() {
+    return
+	"The name of the attribute with the key (e.g., sensor or tenant) that "
+	+ "the rows get routed by; if empty, the relation name is used.";
+  }
+
+  /**
+   * Sets the maximum number of pipelines per shard.
+   * 
+   * @param value
+   *          the maximum number
+   */
+  public void setMaxKeys(int value) {
+    m_MaxKeys = value;
+    reset();
+  }
+
+  /**
+   * Returns the maximum number of pipelines per shard.
+   * 
+   * @return the maximum number
+   */
+  public int getMaxKeys() {
+    return m_MaxKeys;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   * 
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String maxKeysTipText() {
+    return
+	"The maximum number of pipelines per shard; the pipeline of the least "
+	+ "recently used key gets discarded if exceeded.";
+  }
+
   /**
    * Initializes the template for flow execution.
    * 
@@ -114,13 +396,174 @@ public class AutomaticPreprocessing
     super.restoreState(state);
   }
 
+  /**
+   * Sets the number of shadow pipelines.
+   * 
+   * @param value
+   *          the number of pipelines, 0 for none
+   */
+  public void setNumShadows(int value) {
+    m_NumShadows = value;
+    reset();
+  }
+
+  /**
+   * Returns the number of shadow pipelines.
+   * 
+   * @return the number of pipelines, 0 for none
+   */
+  public int getNumShadows() {
+    return m_NumShadows;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   * 
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String numShadowsTipText() {
+    return
+	"The number of alternative pipelines that process every token in the "
+	+ "background without emitting output; a shadow pipeline with better "
+	+ "quality replaces the primary one.";
+  }
+
+  /**
+   * Sets the classifier for evaluating the output of the pipelines.
+   * 
+   * @param value
+   *          the classifier
+   */
+  public void setShadowClassifier(Classifier value) {
+    m_ShadowClassifier = value;
+    reset();
+  }
+
+  /**
+   * Returns the classifier for evaluating the output of the pipelines.
+   * 
+   * @return the classifier
+   */
+  public Classifier getShadowClassifier() {
+    return m_ShadowClassifier;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   * 
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String shadowClassifierTipText() {
+    return
+	"The classifier that gets evaluated prequentially on the output of "
+	+ "each pipeline to determine its quality; must be updateable for "
+	+ "streams of single rows.";
+  }
+
+  /**
+   * Sets the maximum number of tokens waiting per shadow pipeline.
+   * 
+   * @param value
+   *          the number of tokens
+   */
+  public void setMaxPending(int value) {
+    m_MaxPending = value;
+    reset();
+  }
+
+  /**
+   * Returns the maximum number of tokens waiting per shadow pipeline.
+   * 
+   * @return the number of tokens
+   */
+  public int getMaxPending() {
+    return m_MaxPending;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   * 
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String maxPendingTipText() {
+    return
+	"The maximum number of tokens waiting to be processed or scored by a "
+	+ "pipeline; further tokens skip shadow pipelines until they catch up, "
+	+ "the primary pipeline waits.";
+  }
+
+  /**
+   * Sets the minimum number of scored predictions before promoting.
+   * 
+   * @param value
+   *          the number of predictions
+   */
+  public void setMinScored(int value) {
+    m_MinScored = value;
+    reset();
+  }
+
+  /**
+   * Returns the minimum number of scored predictions before promoting.
+   * 
+   * @return the number of predictions
+   */
+  public int getMinScored() {
+    return m_MinScored;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   * 
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String minScoredTipText() {
+    return
+	"The minimum number of predictions that the quality of the primary "
+	+ "and a shadow pipeline must be based on before comparing them.";
+  }
+
+  /**
+   * Sets the quality difference required for promoting a shadow pipeline.
+   * 
+   * @param value
+   *          the difference
+   */
+  public void setPromotionMargin(double value) {
+    m_PromotionMargin = value;
+    reset();
+  }
+
+  /**
+   * Returns the quality difference required for promoting a shadow pipeline.
+   * 
+   * @return the difference
+   */
+  public double getPromotionMargin() {
+    return m_PromotionMargin;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   * 
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String promotionMarginTipText() {
+    return
+	"The amount by which the quality (accuracy or negative RMSE) of a "
+	+ "shadow pipeline must exceed the one of the primary pipeline to "
+	+ "replace it.";
+  }
+
   /**
    * Resets the scheme.
    */
   protected void reset() {
     super.reset();
 
+    stopPipelines();
     m_InputToken = null;
+    m_Outputs    = new ArrayList<Token>();
   }
 
   /**
@@ -130,7 +573,9 @@ public class AutomaticPreprocessing
    */
   @Override
   public Class[] accepts() {
-    if (m_Actor != null)
+    if (m_NumShards > 0)
+      return new Class[] {Instance.class, Instances.class};
+    else if (m_Actor != null)
       return ((InputConsumer) m_Actor).accepts();
     else
       return new Class[] {Unknown.class};
@@ -154,12 +599,305 @@ public class AutomaticPreprocessing
    */
   @Override
   public Class[] generates() {
-    if (m_Actor != null)
+    if (m_NumShards > 0)
+      return new Class[] {Unknown.class};
+    else if (m_Actor != null)
       return ((OutputProducer) m_Actor).generates();
     else
       return new Class[] {Unknown.class};
   }
 
+  /**
+   * Generates and sets up a new pipeline. The template is shared by all
+   * shards, hence only one pipeline gets generated at a time.
+   * 
+   * @return the pipeline
+   */
+  protected AbstractActor generatePipeline() {
+    AbstractActor result;
+    String msg;
+
+    synchronized (m_Template) {
+      result = m_Template.generate();
+      if (!ActorUtils.isTransformer(result))
+	throw new IllegalStateException("Template '" + m_Template
+	    + "' does not generate a transformer actor: "
+	    + result.getClass().getName());
+      result.setParent(this);
+      msg = result.setUp();
+    }
+    if (msg != null) {
+      release(result);
+      throw new IllegalStateException("Failed to set up pipeline: " + msg);
+    }
+
+    return result;
+  }
+
+  /**
+   * Wraps up the pipeline and returns its filters to the pool.
+   * 
+   * @param actor
+   *          the pipeline that is no longer used
+   */
+  protected void release(AbstractActor actor) {
+    actor.wrapUp();
+    FilterPool.getSingleton().release(actor);
+    actor.cleanUp();
+  }
+
+  /**
+   * Returns the key of the row.
+   * 
+   * @param data
+   *          the dataset of the row
+   * @param att
+   *          the attribute with the key, null for the relation name
+   * @param row
+   *          the row
+   * @return the key
+   */
+  protected String getKey(Instances data, Attribute att, Instance row) {
+    if (att == null)
+      return data.relationName();
+    else if (row.isMissing(att.index()))
+      return "?";
+    else if (att.isNominal() || att.isString())
+      return row.stringValue(att.index());
+    else
+      return Double.toString(row.value(att.index()));
+  }
+
+  /**
+   * Returns the attribute with the key.
+   * 
+   * @param data
+   *          the dataset
+   * @return the attribute, null if the relation name is used
+   */
+  protected Attribute getKeyAttribute(Instances data) {
+    Attribute result;
+
+    if ((m_Key == null) || (m_Key.length() == 0))
+      return null;
+    result = data.attribute(m_Key);
+    if (result == null)
+      throw new IllegalStateException("Key attribute not found: " + m_Key);
+
+    return result;
+  }
+
+  /**
+   * Splits the token into tokens per key, in order of first occurrence. The
+   * rows of a dataset keep their order within a key.
+   * 
+   * @param token
+   *          the token to split
+   * @return the tokens per key
+   */
+  protected LinkedHashMap<String, Token> split(Token token) {
+    LinkedHashMap<String, Token> result;
+    LinkedHashMap<String, Instances> groups;
+    Instances data;
+    Instances group;
+    Instance row;
+    Attribute att;
+    String key;
+    int i;
+
+    result = new LinkedHashMap<String, Token>();
+    if (token.getPayload() instanceof Instance) {
+      row = (Instance) token.getPayload();
+      result.put(getKey(row.dataset(), getKeyAttribute(row.dataset()), row), token);
+    }
+    else if (token.getPayload() instanceof Instances) {
+      data = (Instances) token.getPayload();
+      att  = getKeyAttribute(data);
+      if (att == null) {
+	result.put(data.relationName(), token);
+      }
+      else {
+	groups = new LinkedHashMap<String, Instances>();
+	for (i = 0; i < data.numInstances(); i++) {
+	  row   = data.instance(i);
+	  key   = getKey(data, att, row);
+	  group = groups.get(key);
+	  if (group == null) {
+	    group = new Instances(data, 0);
+	    groups.put(key, group);
+	  }
+	  group.add(row);
+	}
+	for (String k: groups.keySet())
+	  result.put(k, new Token(groups.get(k)));
+      }
+    }
+    else {
+      throw new IllegalStateException("Sharding requires Instance or Instances, received: "
+	  + token.getPayload().getClass().getName());
+    }
+
+    return result;
+  }
+
+  /**
+   * Routes the token to the shards of its keys and collects the output of the
+   * pipelines, key by key. If a pipeline fails, the keys that haven't been
+   * processed yet get cancelled and no output is generated.
+   * 
+   * @return null if everything is fine, otherwise error message
+   */
+  protected String executeSharded() {
+    String result;
+    LinkedHashMap<String, Token> tokens;
+    List<Future<List<Token>>> futures;
+    List<Token> outputs;
+    int i;
+
+    result  = null;
+    futures = new ArrayList<Future<List<Token>>>();
+
+    if (m_Shards == null) {
+      m_Shards = new Shard[m_NumShards];
+      for (i = 0; i < m_Shards.length; i++)
+	m_Shards[i] = new Shard();
+    }
+
+    try {
+      tokens = split(m_InputToken);
+      for (String key: tokens.keySet())
+	futures.add(m_Shards[(key.hashCode() & 0x7fffffff) % m_Shards.length].submit(key, tokens.get(key)));
+      outputs = new ArrayList<Token>();
+      for (Future<List<Token>> future: futures)
+	outputs.addAll(future.get());
+      m_Outputs.addAll(outputs);
+    }
+    catch (Exception e) {
+      // pipelines that are already running get finished, to keep them intact
+      for (Future<List<Token>> future: futures)
+	future.cancel(false);
+      m_Outputs.clear();
+      result = handleException("Failed to process token in shards", e);
+    }
+
+    return result;
+  }
+
+  /**
+   * Makes the shadow pipeline the primary one.
+   * 
+   * @param index
+   *          the index of the pipeline
+   */
+  public synchronized void promote(int index) {
+    if ((m_Branches == null) || (index < 0) || (index >= m_Branches.size()))
+      throw new IllegalArgumentException("Invalid pipeline index: " + index);
+
+    getLogger().info("Promoting pipeline " + index + " (" + m_Branches.get(index)
+	+ ") over " + m_Primary + " (" + m_Branches.get(m_Primary) + ")");
+    m_Primary = index;
+  }
+
+  /**
+   * Returns the index of the primary pipeline.
+   * 
+   * @return the index, -1 if not running in shadow mode
+   */
+  public synchronized int getPrimary() {
+    if (m_Branches == null)
+      return -1;
+    return m_Primary;
+  }
+
+  /**
+   * Promotes the shadow pipeline with the best quality, if it is better than
+   * the primary pipeline by the margin.
+   */
+  protected void checkPromotion() {
+    PipelineBranch primary;
+    PipelineBranch branch;
+    double best;
+    int current;
+    int index;
+    int i;
+
+    current = m_Primary;
+    primary = m_Branches.get(current);
+    if (primary.getScored() < m_MinScored)
+      return;
+
+    index = -1;
+    best  = primary.getQuality() + m_PromotionMargin;
+    for (i = 0; i < m_Branches.size(); i++) {
+      branch = m_Branches.get(i);
+      if ((i == current) || (branch.getScored() < m_MinScored) || (branch.getErrors() > 0))
+	continue;
+      if (branch.getQuality() > best) {
+	best  = branch.getQuality();
+	index = i;
+      }
+    }
+
+    if (index > -1)
+      promote(index);
+  }
+
+  /**
+   * Returns a copy of the token for a shadow pipeline, as the pipelines
+   * process the token concurrently and filters may modify their input. Rows
+   * keep referencing the (shared) header of their dataset.
+   * 
+   * @param token
+   *          the token to copy
+   * @return the copy
+   */
+  protected Token copy(Token token) {
+    if (token.getPayload() instanceof Instances)
+      return new Token(new Instances((Instances) token.getPayload()));
+    else if (token.getPayload() instanceof Instance)
+      return new Token((Instance) ((Instance) token.getPayload()).copy());
+    else
+      return token.getClone();
+  }
+
+  /**
+   * Feeds the token to all pipelines: the shadow pipelines process a copy of
+   * it in the background, the output of the primary pipeline gets emitted.
+   * 
+   * @return null if everything is fine, otherwise error message
+   */
+  protected String executeShadowed() {
+    String result;
+    int primary;
+    int i;
+
+    result = null;
+
+    try {
+      if (m_Branches == null) {
+	m_Branches = new ArrayList<PipelineBranch>();
+	for (i = 0; i <= m_NumShadows; i++)
+	  m_Branches.add(new PipelineBranch(generatePipeline(), m_ShadowClassifier));
+	m_Primary = 0;
+      }
+
+      // may get promoted by other threads
+      primary = m_Primary;
+      for (i = 0; i < m_Branches.size(); i++) {
+	if (i != primary)
+	  m_Branches.get(i).offer(copy(m_InputToken), m_MaxPending);
+      }
+      m_Outputs.addAll(m_Branches.get(primary).process(m_InputToken, m_MaxPending).get());
+
+      checkPromotion();
+    }
+    catch (Exception e) {
+      result = handleException("Failed to process token", e);
+    }
+
+    return result;
+  }
+
   /**
    * Executes the flow item.
    * 
@@ -171,6 +909,13 @@ public class AutomaticPreprocessing
 
     result = null;
 
+    if ((m_NumShards > 0) && (m_NumShadows > 0))
+      return "Sharding and shadow pipelines cannot be combined!";
+    if (m_NumShards > 0)
+      return executeSharded();
+    if (m_NumShadows > 0)
+      return executeShadowed();
+
     if (m_Actor == null)
       result = setUpTemplate();
 
@@ -190,6 +935,8 @@ public class AutomaticPreprocessing
   @Override
   public Token output() {
     m_InputToken = null;
+    if ((m_NumShards > 0) || (m_NumShadows > 0))
+      return m_Outputs.remove(0);
     return ((OutputProducer) m_Actor).output();
   }
 
@@ -201,7 +948,49 @@ public class AutomaticPreprocessing
    */
   @Override
   public boolean hasPendingOutput() {
+    if ((m_NumShards > 0) || (m_NumShadows > 0))
+      return (m_Outputs.size() > 0);
     return (m_Actor != null) && ((OutputProducer) m_Actor).hasPendingOutput();
   }
 
+  /**
+   * Stops the shards and the shadow pipelines and releases their pipelines.
+   */
+  protected void stopPipelines() {
+    if (m_Shards != null) {
+      for (Shard shard: m_Shards)
+	shard.shutdown();
+      m_Shards = null;
+    }
+
+    if (m_Branches != null) {
+      for (int i = 0; i < m_Branches.size(); i++) {
+	m_Branches.get(i).shutdown();
+	getLogger().info("Pipeline " + i + (i == m_Primary ? " (primary)" : "") + ": " + m_Branches.get(i));
+      }
+      m_Branches = null;
+    }
+  }
+
+  /**
+   * Stops the shards and the shadow pipelines and releases their pipelines.
+   */
+  @Override
+  public void wrapUp() {
+    stopPipelines();
+
+    super.wrapUp();
+  }
+
+  /**
+   * Cleans up after the execution has finished, stopping any pipelines that
+   * are still running.
+   */
+  @Override
+  public void cleanUp() {
+    stopPipelines();
+
+    super.cleanUp();
+  }
+
 }
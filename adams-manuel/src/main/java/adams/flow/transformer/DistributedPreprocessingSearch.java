@@ -0,0 +1,791 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * DistributedPreprocessingSearch.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.flow.transformer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.J48;
+import weka.core.Instances;
+import weka.core.Utils;
+import adams.core.base.BasePassword;
+import adams.core.io.PlaceholderFile;
+import adams.core.option.OptionUtils;
+import adams.data.preprocessing.DataProfile;
+import adams.data.preprocessing.MetaKnowledgeBase;
+import adams.data.preprocessing.PipelineCoordinator;
+import adams.data.preprocessing.PipelineDescriptor;
+import adams.data.preprocessing.PipelineResult;
+import adams.data.preprocessing.PipelineTask;
+import adams.data.weka.DatasetCache;
+import adams.flow.core.Token;
+import adams.flow.sink.PipelineLeaderboard;
+import adams.flow.template.AbstractActorTemplate;
+import adams.flow.template.RandomPreprocessingFlowGenerator;
+
+/**
+ * Evaluates candidate preprocessing pipelines on worker JVMs. For every
+ * dataset file that passes through, the specified number of candidates get
+ * generated and cross-validated by the workers, which are forked on the local
+ * machine. Additional workers on other nodes can connect if a bind address
+ * and a secret are specified (adams.data.preprocessing.PipelineWorker
+ * &lt;host&gt; &lt;port&gt;, with the secret in the ADAMS_PIPELINE_SECRET
+ * environment variable).
+ * <p/>
+ * Outputs one CSV line per candidate: classifier, filters (quoted), dataset,
+ * accuracy, RMSE. The best candidate is the one with the highest accuracy, or with the
+ * lowest RMSE for numeric classes.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class DistributedPreprocessingSearch
+  extends AbstractTransformer {
+
+  /** for serialization. */
+  private static final long serialVersionUID = -1640853437839414395L;
+
+  /** the template generating the pipelines. */
+  protected AbstractActorTemplate m_Template;
+
+  /** the classifier to evaluate the pipelines with. */
+  protected Classifier m_Classifier;
+
+  /** the number of candidates per dataset. */
+  protected int m_NumCandidates;
+
+  /** the number of local workers. */
+  protected int m_NumWorkers;
+
+  /** the number of cross-validation folds. */
+  protected int m_Folds;
+
+  /** the seed for the cross-validation. */
+  protected long m_Seed;
+
+  /** the port to listen on for workers. */
+  protected int m_Port;
+
+  /** the address to bind to. */
+  protected String m_BindAddress;
+
+  /** the secret shared with the workers. */
+  protected BasePassword m_Secret;
+
+  /** the timeout in seconds for evaluating a candidate. */
+  protected int m_Timeout;
+
+  /** the maximum number of attempts per candidate. */
+  protected int m_MaxAttempts;
+
+  /** the knowledge base to record the best pipeline in. */
+  protected PlaceholderFile m_KnowledgeBase;
+
+  /** the coordinator. */
+  protected transient PipelineCoordinator m_Coordinator;
+
+  /** the pending output. */
+  protected List<String> m_Queue;
+
+  /** the ID of the next task. */
+  protected int m_NextID;
+
+  /**
+   * Returns a string describing the object.
+   *
+   * @return a description suitable for displaying in the gui
+   */
+  @Override
+  public String globalInfo() {
+    return
+	"Evaluates candidate preprocessing pipelines in parallel on worker "
+	+ "JVMs, which get forked on the local machine. Workers on other nodes "
+	+ "can connect if a bind address and a secret are specified "
+	+ "(adams.data.preprocessing.PipelineWorker <host> <port>, with the "
+	+ "secret in the ADAMS_PIPELINE_SECRET environment variable).\n"
+	+ "If a worker dies or times out, its candidate gets re-queued and a "
+	+ "replacement worker is forked.\n"
+	+ "Outputs one line per candidate: classifier, filters, dataset, accuracy, RMSE\n"
+	+ "The best pipeline is the one with the highest accuracy, or with the "
+	+ "lowest RMSE for numeric classes.\n"
+	+ "The best pipeline per dataset can be recorded in a meta-knowledge "
+	+ "base, for recommending pipelines for similar datasets.";
+  }
+
+  /**
+   * Adds options to the internal list of options.
+   */
+  @Override
+  public void defineOptions() {
+    super.defineOptions();
+
+    m_OptionManager.add(
+	"template", "template",
+	getDefaultTemplate());
+
+    m_OptionManager.add(
+	"classifier", "classifier",
+	new J48());
+
+    m_OptionManager.add(
+	"num-candidates", "numCandidates",
+	10, 1, null);
+
+    m_OptionManager.add(
+	"num-workers", "numWorkers",
+	2, 0, null);
+
+    m_OptionManager.add(
+	"folds", "folds",
+	10, 2, null);
+
+    m_OptionManager.add(
+	"seed", "seed",
+	1L);
+
+    m_OptionManager.add(
+	"port", "port",
+	0, 0, 65535);
+
+    m_OptionManager.add(
+	"bind-address", "bindAddress",
+	"");
+
+    m_OptionManager.add(
+	"secret", "secret",
+	new BasePassword());
+
+    m_OptionManager.add(
+	"timeout", "timeout",
+	3600, 0, null);
+
+    m_OptionManager.add(
+	"max-attempts", "maxAttempts",
+	3, 1, null);
+
+    m_OptionManager.add(
+	"knowledge-base", "knowledgeBase",
+	new PlaceholderFile("."));
+  }
+
+  /**
+   * Returns the default template to use.
+   *
+   * @return		the template
+   */
+  protected AbstractActorTemplate getDefaultTemplate() {
+    RandomPreprocessingFlowGenerator	result;
+
+    result = new RandomPreprocessingFlowGenerator();
+    result.setNumOfFilters(2);
+
+    return result;
+  }
+
+  /**
+   * Resets the scheme.
+   */
+  @Override
+  protected void reset() {
+    super.reset();
+
+    m_Queue  = new ArrayList<String>();
+    m_NextID = 0;
+  }
+
+  /**
+   * Sets the template generating the pipelines.
+   *
+   * @param value	the template
+   */
+  public void setTemplate(AbstractActorTemplate value) {
+    m_Template = value;
+    reset();
+  }
+
+  /**
+   * Returns the template generating the pipelines.
+   *
+   * @return		the template
+   */
+  public AbstractActorTemplate getTemplate() {
+    return m_Template;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String templateTipText() {
+    return "The template that generates the candidate pipelines.";
+  }
+
+  /**
+   * Sets the classifier to evaluate the pipelines with.
+   *
+   * @param value	the classifier
+   */
+  public void setClassifier(Classifier value) {
+    m_Classifier = value;
+    reset();
+  }
+
+  /**
+   * Returns the classifier to evaluate the pipelines with.
+   *
+   * @return		the classifier
+   */
+  public Classifier getClassifier() {
+    return m_Classifier;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String classifierTipText() {
+    return "The classifier to cross-validate on the preprocessed data.";
+  }
+
+  /**
+   * Sets the number of candidates per dataset.
+   *
+   * @param value	the number of candidates
+   */
+  public void setNumCandidates(int value) {
+    m_NumCandidates = value;
+    reset();
+  }
+
+  /**
+   * Returns the number of candidates per dataset.
+   *
+   * @return		the number of candidates
+   */
+  public int getNumCandidates() {
+    return m_NumCandidates;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String numCandidatesTipText() {
+    return "The number of candidate pipelines to evaluate per dataset.";
+  }
+
+  /**
+   * Sets the number of local workers.
+   *
+   * @param value	the number of workers
+   */
+  public void setNumWorkers(int value) {
+    m_NumWorkers = value;
+    reset();
+  }
+
+  /**
+   * Returns the number of local workers.
+   *
+   * @return		the number of workers
+   */
+  public int getNumWorkers() {
+    return m_NumWorkers;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String numWorkersTipText() {
+    return
+	"The number of worker JVMs to fork on the local machine; use 0 if "
+	+ "only remote workers are to be used.";
+  }
+
+  /**
+   * Sets the number of cross-validation folds.
+   *
+   * @param value	the folds
+   */
+  public void setFolds(int value) {
+    m_Folds = value;
+    reset();
+  }
+
+  /**
+   * Returns the number of cross-validation folds.
+   *
+   * @return		the folds
+   */
+  public int getFolds() {
+    return m_Folds;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String foldsTipText() {
+    return "The number of cross-validation folds.";
+  }
+
+  /**
+   * Sets the seed for the cross-validation.
+   *
+   * @param value	the seed
+   */
+  public void setSeed(long value) {
+    m_Seed = value;
+    reset();
+  }
+
+  /**
+   * Returns the seed for the cross-validation.
+   *
+   * @return		the seed
+   */
+  public long getSeed() {
+    return m_Seed;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String seedTipText() {
+    return "The seed value for the cross-validation.";
+  }
+
+  /**
+   * Sets the port to listen on for workers.
+   *
+   * @param value	the port, 0 for any free port (local workers only)
+   */
+  public void setPort(int value) {
+    m_Port = value;
+    reset();
+  }
+
+  /**
+   * Returns the port to listen on for workers.
+   *
+   * @return		the port, 0 for any free port (local workers only)
+   */
+  public int getPort() {
+    return m_Port;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String portTipText() {
+    return "The port to listen on for workers; 0 picks a free port.";
+  }
+
+  /**
+   * Sets the address to bind to.
+   *
+   * @param value	the address, empty for loopback (local workers only)
+   */
+  public void setBindAddress(String value) {
+    m_BindAddress = value;
+    reset();
+  }
+
+  /**
+   * Returns the address to bind to.
+   *
+   * @return		the address, empty for loopback (local workers only)
+   */
+  public String getBindAddress() {
+    return m_BindAddress;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String bindAddressTipText() {
+    return
+	"The address to listen on for workers; empty binds to the loopback "
+	+ "interface, i.e., only local workers can connect.";
+  }
+
+  /**
+   * Sets the secret shared with the workers.
+   *
+   * @param value	the secret, empty for a random one (local workers only)
+   */
+  public void setSecret(BasePassword value) {
+    m_Secret = value;
+    reset();
+  }
+
+  /**
+   * Returns the secret shared with the workers.
+   *
+   * @return		the secret, empty for a random one (local workers only)
+   */
+  public BasePassword getSecret() {
+    return m_Secret;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String secretTipText() {
+    return
+	"The secret that workers must know in order to connect; remote "
+	+ "workers obtain it from the ADAMS_PIPELINE_SECRET environment "
+	+ "variable; empty generates a random secret, i.e., only forked "
+	+ "workers can connect.";
+  }
+
+  /**
+   * Sets the maximum time for evaluating a candidate.
+   *
+   * @param value	the timeout in seconds, 0 for none
+   */
+  public void setTimeout(int value) {
+    m_Timeout = value;
+    reset();
+  }
+
+  /**
+   * Returns the maximum time for evaluating a candidate.
+   *
+   * @return		the timeout in seconds, 0 for none
+   */
+  public int getTimeout() {
+    return m_Timeout;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String timeoutTipText() {
+    return
+	"The maximum time in seconds a worker may take for evaluating a "
+	+ "candidate before it is considered hung and the candidate gets "
+	+ "re-queued; 0 for no limit.";
+  }
+
+  /**
+   * Sets the maximum number of attempts per candidate.
+   *
+   * @param value	the attempts
+   */
+  public void setMaxAttempts(int value) {
+    m_MaxAttempts = value;
+    reset();
+  }
+
+  /**
+   * Returns the maximum number of attempts per candidate.
+   *
+   * @return		the attempts
+   */
+  public int getMaxAttempts() {
+    return m_MaxAttempts;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String maxAttemptsTipText() {
+    return "The maximum number of attempts for evaluating a candidate, in case workers die.";
+  }
+
+  /**
+   * Sets the knowledge base to record the best pipeline per dataset in.
+   *
+   * @param value	the file, a directory to disable
+   */
+  public void setKnowledgeBase(PlaceholderFile value) {
+    m_KnowledgeBase = value;
+    reset();
+  }
+
+  /**
+   * Returns the knowledge base to record the best pipeline per dataset in.
+   *
+   * @return		the file, a directory to disable
+   */
+  public PlaceholderFile getKnowledgeBase() {
+    return m_KnowledgeBase;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String knowledgeBaseTipText() {
+    return
+	"The meta-knowledge base to add the best pipeline per dataset to, "
+	+ "along with the meta-features of the dataset; gets created if "
+	+ "necessary, a directory disables recording.";
+  }
+
+  /**
+   * Returns the score of the result, higher is better.
+   *
+   * @param res		the result
+   * @return		the accuracy, or the negative RMSE for numeric classes
+   */
+  protected double score(PipelineResult res) {
+    if (Double.isNaN(res.getAccuracy()))
+      return -res.getRMSE();
+    else
+      return res.getAccuracy();
+  }
+
+  /**
+   * Returns the name of the dataset for the output.
+   *
+   * @param file	the dataset
+   * @return		the name, without extension
+   */
+  protected String getName(File file) {
+    String	result;
+
+    result = file.getName();
+    if (result.indexOf('.') > -1)
+      result = result.substring(0, result.lastIndexOf('.'));
+
+    return result;
+  }
+
+  /**
+   * Adds the best pipeline to the knowledge base, if enabled.
+   *
+   * @param file	the dataset
+   * @param best	the best result, null if none
+   * @throws Exception	if updating the knowledge base fails
+   */
+  protected void record(File file, PipelineResult best) throws Exception {
+    MetaKnowledgeBase	kb;
+    PipelineDescriptor	pipeline;
+    DatasetCache	cache;
+    Instances		data;
+    double[]		features;
+
+    if ((best == null) || m_KnowledgeBase.isDirectory())
+      return;
+
+    try {
+      pipeline = PipelineDescriptor.parse(best.getFilters());
+    }
+    catch (Exception e) {
+      getLogger().warning("Cannot record pipeline: " + best.getFilters());
+      return;
+    }
+
+    cache = DatasetCache.getSingleton();
+    data  = cache.acquire(file);
+    try {
+      features = MetaKnowledgeBase.getFeatures(DataProfile.compute(data));
+    }
+    finally {
+      cache.release(data);
+    }
+
+    synchronized(MetaKnowledgeBase.class) {
+      if (m_KnowledgeBase.exists())
+	kb = MetaKnowledgeBase.load(m_KnowledgeBase.getAbsoluteFile());
+      else
+	kb = new MetaKnowledgeBase();
+      kb.add(features, score(best), pipeline);
+      kb.save(m_KnowledgeBase.getAbsoluteFile());
+    }
+  }
+
+  /**
+   * Returns a quick info about the actor, which will be displayed in the GUI.
+   *
+   * @return null if no info available, otherwise short string
+   */
+  @Override
+  public String getQuickInfo() {
+    return m_NumCandidates + " candidates, " + m_NumWorkers + " workers";
+  }
+
+  /**
+   * Returns the class that the consumer accepts.
+   *
+   * @return the Class of objects that can be processed
+   */
+  @Override
+  public Class[] accepts() {
+    return new Class[]{String.class, File.class};
+  }
+
+  /**
+   * Returns the class of objects that it generates.
+   *
+   * @return the Class of the generated tokens
+   */
+  @Override
+  public Class[] generates() {
+    return new Class[]{String.class};
+  }
+
+  /**
+   * Executes the flow item.
+   *
+   * @return null if everything is fine, otherwise error message
+   */
+  @Override
+  protected String doExecute() {
+    String		result;
+    File		file;
+    String		generator;
+    String		classifier;
+    PipelineResult	res;
+    PipelineResult	best;
+    int			first;
+    int			collected;
+    boolean		current;
+    int			i;
+
+    result = null;
+
+    if (m_InputToken.getPayload() instanceof File)
+      file = (File) m_InputToken.getPayload();
+    else
+      file = new File((String) m_InputToken.getPayload());
+
+    try {
+      if (m_Coordinator == null) {
+	m_Coordinator = new PipelineCoordinator(m_NumWorkers, m_Port, m_MaxAttempts);
+	m_Coordinator.setBindAddress(m_BindAddress);
+	m_Coordinator.setSecret(m_Secret.getValue());
+	m_Coordinator.setTimeout(m_Timeout * 1000);
+	m_Coordinator.start();
+      }
+
+      generator  = OptionUtils.getCommandLine(m_Template);
+      classifier = Utils.toCommandLine(m_Classifier);
+      first      = m_NextID;
+      for (i = 0; i < m_NumCandidates; i++)
+	m_Coordinator.submit(new PipelineTask(m_NextID++, generator, file.getAbsolutePath(), classifier, m_Folds, m_Seed));
+
+      // results of previous datasets (after a stop or an error) can still
+      // arrive, they are labelled with their own dataset but don't count
+      best      = null;
+      collected = 0;
+      while (collected < m_NumCandidates) {
+	if (isStopped())
+	  break;
+	res = m_Coordinator.take();
+	// shut down by stopExecution()
+	if (res == null)
+	  break;
+	current = (res.getTask().getID() >= first);
+	if (current)
+	  collected++;
+	if (res.hasError()) {
+	  getLogger().warning("Candidate failed: " + res);
+	}
+	else {
+	  m_Queue.add(
+	      m_Classifier.getClass().getSimpleName() + ", " + PipelineLeaderboard.quote(res.getFilters()) + ", "
+	      + getName(new File(res.getDataset())) + ", " + res.getAccuracy() + ", " + res.getRMSE());
+	  if (current && !Double.isNaN(score(res)) && ((best == null) || (score(res) > score(best))))
+	    best = res;
+	}
+      }
+      if (!isStopped())
+	record(file, best);
+    }
+    catch (Exception e) {
+      result = handleException("Failed to evaluate candidates on: " + file, e);
+    }
+
+    return result;
+  }
+
+  /**
+   * Checks whether there is pending output to be collected after
+   * executing the flow item.
+   *
+   * @return		true if there is pending output
+   */
+  @Override
+  public boolean hasPendingOutput() {
+    return (m_Queue.size() > 0);
+  }
+
+  /**
+   * Returns the generated token.
+   *
+   * @return		the generated token
+   */
+  @Override
+  public Token output() {
+    return new Token(m_Queue.remove(0));
+  }
+
+  /**
+   * Stops the execution, shutting down the coordinator so that waiting for
+   * results returns immediately.
+   */
+  @Override
+  public void stopExecution() {
+    PipelineCoordinator	coordinator;
+
+    super.stopExecution();
+    coordinator = m_Coordinator;
+    if (coordinator != null)
+      coordinator.shutdown();
+  }
+
+  /**
+   * Stops the workers.
+   */
+  @Override
+  public void wrapUp() {
+    if (m_Coordinator != null) {
+      m_Coordinator.shutdown();
+      m_Coordinator = null;
+    }
+
+    super.wrapUp();
+  }
+}
@@ -0,0 +1,223 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * FittedPipelineExport.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.flow.transformer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+
+import weka.core.Instances;
+import weka.filters.Filter;
+import adams.core.io.PlaceholderFile;
+import adams.data.preprocessing.FittedPipeline;
+import adams.data.preprocessing.PipelineDescriptor;
+import adams.flow.core.Token;
+
+/**
+ * Fits a preprocessing pipeline on the incoming dataset and writes it as
+ * snapshot (see {@link FittedPipeline}), which {@link FittedPipelineImport}
+ * restores without refitting. Forwards the preprocessed dataset.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class FittedPipelineExport
+  extends AbstractTransformer {
+
+  /** for serialization. */
+  private static final long serialVersionUID = -2736457823184620915L;
+
+  /** the text encoding of the pipeline. */
+  protected String m_Pipeline;
+
+  /** the file to write the snapshot to. */
+  protected PlaceholderFile m_OutputFile;
+
+  /**
+   * Returns a string describing the object.
+   *
+   * @return a description suitable for displaying in the gui
+   */
+  @Override
+  public String globalInfo() {
+    return
+	"Fits the preprocessing pipeline on the incoming dataset and writes "
+	+ "the fitted pipeline as binary snapshot, to be restored by "
+	+ FittedPipelineImport.class.getName() + " without refitting.\n"
+	+ "The pipeline is in the format of the '" + PipelineDescriptor.VARIABLE_FILTERS
+	+ "' variable, i.e., the variable can be attached to the option.\n"
+	+ "Forwards the preprocessed dataset.";
+  }
+
+  /**
+   * Adds options to the internal list of options.
+   */
+  @Override
+  public void defineOptions() {
+    super.defineOptions();
+
+    m_OptionManager.add(
+	"pipeline", "pipeline",
+	"");
+
+    m_OptionManager.add(
+	"output", "outputFile",
+	new PlaceholderFile("."));
+  }
+
+  /**
+   * Sets the pipeline to fit.
+   *
+   * @param value	the text encoding of the pipeline
+   */
+  public void setPipeline(String value) {
+    m_Pipeline = value;
+    reset();
+  }
+
+  /**
+   * Returns the pipeline to fit.
+   *
+   * @return		the text encoding of the pipeline
+   */
+  public String getPipeline() {
+    return m_Pipeline;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String pipelineTipText() {
+    return
+	"The pipeline to fit: one quoted command-line per filter, as stored "
+	+ "in the '" + PipelineDescriptor.VARIABLE_FILTERS + "' variable.";
+  }
+
+  /**
+   * Sets the file to write the snapshot to.
+   *
+   * @param value	the file
+   */
+  public void setOutputFile(PlaceholderFile value) {
+    m_OutputFile = value;
+    reset();
+  }
+
+  /**
+   * Returns the file to write the snapshot to.
+   *
+   * @return		the file
+   */
+  public PlaceholderFile getOutputFile() {
+    return m_OutputFile;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String outputFileTipText() {
+    return "The file to write the snapshot of the fitted pipeline to.";
+  }
+
+  /**
+   * Returns a quick info about the actor, which will be displayed in the GUI.
+   *
+   * @return null if no info available, otherwise short string
+   */
+  @Override
+  public String getQuickInfo() {
+    return m_OutputFile.toString();
+  }
+
+  /**
+   * Returns the class that the consumer accepts.
+   *
+   * @return the Class of objects that can be processed
+   */
+  @Override
+  public Class[] accepts() {
+    return new Class[]{Instances.class};
+  }
+
+  /**
+   * Returns the class of objects that it generates.
+   *
+   * @return the Class of the generated tokens
+   */
+  @Override
+  public Class[] generates() {
+    return new Class[]{Instances.class};
+  }
+
+  /**
+   * Executes the flow item.
+   *
+   * @return null if everything is fine, otherwise error message
+   */
+  @Override
+  protected String doExecute() {
+    String		result;
+    Instances		data;
+    Filter[]		filters;
+    FittedPipeline	kernel;
+    DataOutputStream	out;
+
+    result = null;
+    data   = (Instances) m_InputToken.getPayload();
+    out    = null;
+
+    if (m_OutputFile.isDirectory())
+      return "No output file provided: " + m_OutputFile;
+
+    try {
+      filters = PipelineDescriptor.parse(m_Pipeline).newFilters();
+      for (Filter filter: filters) {
+	filter.setInputFormat(data);
+	data = Filter.useFilter(data, filter);
+      }
+      kernel = FittedPipeline.compile((Instances) m_InputToken.getPayload(), filters);
+      out    = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(m_OutputFile.getAbsoluteFile())));
+      kernel.write(out);
+      if (isLoggingEnabled())
+	getLogger().info("Fitted pipeline: " + kernel + " (" + kernel.getNumFallbacks() + " filters not compiled)");
+      m_OutputToken = new Token(data);
+    }
+    catch (Exception e) {
+      result = handleException("Failed to export fitted pipeline to: " + m_OutputFile, e);
+    }
+    finally {
+      if (out != null) {
+	try {
+	  out.close();
+	}
+	catch (Exception e) {
+	  // ignored
+	}
+      }
+    }
+
+    return result;
+  }
+}
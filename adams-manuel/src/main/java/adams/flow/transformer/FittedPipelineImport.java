@@ -0,0 +1,319 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * FittedPipelineImport.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.flow.transformer;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.util.concurrent.ForkJoinPool;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import adams.core.io.PlaceholderFile;
+import adams.data.preprocessing.FittedPipeline;
+import adams.flow.core.Token;
+
+/**
+ * Applies a fitted preprocessing pipeline restored from a snapshot written
+ * by {@link FittedPipelineExport}. The snapshot gets read once at set up, no
+ * filters get refitted.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class FittedPipelineImport
+  extends AbstractTransformer {
+
+  /** for serialization. */
+  private static final long serialVersionUID = 8134630297841455526L;
+
+  /** the file to read the snapshot from. */
+  protected PlaceholderFile m_InputFile;
+
+  /** the number of threads. */
+  protected int m_NumThreads;
+
+  /** the minimum number of rows for transforming datasets in parallel. */
+  protected int m_MinRows;
+
+  /** the fitted pipeline. */
+  protected transient FittedPipeline m_Kernel;
+
+  /** the pool for transforming datasets in parallel. */
+  protected transient ForkJoinPool m_Pool;
+
+  /**
+   * Returns a string describing the object.
+   *
+   * @return a description suitable for displaying in the gui
+   */
+  @Override
+  public String globalInfo() {
+    return
+	"Applies the fitted preprocessing pipeline from a snapshot written by "
+	+ FittedPipelineExport.class.getName() + " to the incoming rows or "
+	+ "datasets. The pipeline is ready to use after set up, without "
+	+ "refitting on the first batch.\n"
+	+ "Large datasets get split into partitions that are transformed in "
+	+ "parallel, if all filters transform rows independently.";
+  }
+
+  /**
+   * Adds options to the internal list of options.
+   */
+  @Override
+  public void defineOptions() {
+    super.defineOptions();
+
+    m_OptionManager.add(
+	"input", "inputFile",
+	new PlaceholderFile("."));
+
+    m_OptionManager.add(
+	"num-threads", "numThreads",
+	0, 0, null);
+
+    m_OptionManager.add(
+	"min-rows", "minRows",
+	10000, 1, null);
+  }
+
+  /**
+   * Sets the file to read the snapshot from.
+   *
+   * @param value	the file
+   */
+  public void setInputFile(PlaceholderFile value) {
+    m_InputFile = value;
+    reset();
+  }
+
+  /**
+   * Returns the file to read the snapshot from.
+   *
+   * @return		the file
+   */
+  public PlaceholderFile getInputFile() {
+    return m_InputFile;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String inputFileTipText() {
+    return "The file to read the snapshot of the fitted pipeline from.";
+  }
+
+  /**
+   * Sets the number of threads for transforming datasets.
+   *
+   * @param value	the number of threads, 0 for one per processor
+   */
+  public void setNumThreads(int value) {
+    m_NumThreads = value;
+    reset();
+  }
+
+  /**
+   * Returns the number of threads for transforming datasets.
+   *
+   * @return		the number of threads, 0 for one per processor
+   */
+  public int getNumThreads() {
+    return m_NumThreads;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String numThreadsTipText() {
+    return "The number of threads for transforming datasets; 0 uses one thread per processor, 1 disables the partitioning.";
+  }
+
+  /**
+   * Sets the minimum number of rows for transforming datasets in parallel.
+   *
+   * @param value	the number of rows
+   */
+  public void setMinRows(int value) {
+    m_MinRows = value;
+    reset();
+  }
+
+  /**
+   * Returns the minimum number of rows for transforming datasets in parallel.
+   *
+   * @return		the number of rows
+   */
+  public int getMinRows() {
+    return m_MinRows;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String minRowsTipText() {
+    return "Datasets with fewer rows get transformed on a single thread.";
+  }
+
+  /**
+   * Returns a quick info about the actor, which will be displayed in the GUI.
+   *
+   * @return null if no info available, otherwise short string
+   */
+  @Override
+  public String getQuickInfo() {
+    return m_InputFile.toString();
+  }
+
+  /**
+   * Returns the class that the consumer accepts.
+   *
+   * @return the Class of objects that can be processed
+   */
+  @Override
+  public Class[] accepts() {
+    return new Class[]{Instance.class, Instances.class};
+  }
+
+  /**
+   * Returns the class of objects that it generates.
+   *
+   * @return the Class of the generated tokens
+   */
+  @Override
+  public Class[] generates() {
+    return new Class[]{Instance.class, Instances.class};
+  }
+
+  /**
+   * Returns the fitted pipeline.
+   *
+   * @return		the pipeline, null if not set up
+   */
+  public FittedPipeline getKernel() {
+    return m_Kernel;
+  }
+
+  /**
+   * Initializes the item for flow execution.
+   *
+   * @return		null if everything is fine, otherwise error message
+   */
+  @Override
+  public String setUp() {
+    String		result;
+    DataInputStream	in;
+    long		start;
+    int			numThreads;
+
+    result = super.setUp();
+
+    if (result == null) {
+      in = null;
+      try {
+	start    = System.currentTimeMillis();
+	in       = new DataInputStream(new BufferedInputStream(new FileInputStream(m_InputFile.getAbsoluteFile())));
+	m_Kernel = FittedPipeline.read(in);
+	numThreads = m_NumThreads;
+	if (numThreads == 0)
+	  numThreads = Runtime.getRuntime().availableProcessors();
+	if (numThreads > 1)
+	  m_Pool = new ForkJoinPool(numThreads);
+	if (isLoggingEnabled())
+	  getLogger().info("Restored pipeline in " + (System.currentTimeMillis() - start) + "ms: " + m_Kernel);
+      }
+      catch (Exception e) {
+	result = handleException("Failed to import fitted pipeline from: " + m_InputFile, e);
+      }
+      finally {
+	if (in != null) {
+	  try {
+	    in.close();
+	  }
+	  catch (Exception e) {
+	    // ignored
+	  }
+	}
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Executes the flow item.
+   *
+   * @return null if everything is fine, otherwise error message
+   */
+  @Override
+  protected String doExecute() {
+    String	result;
+    Object	payload;
+    Instances	header;
+    Instance	inst;
+
+    result  = null;
+    payload = m_InputToken.getPayload();
+    if (payload instanceof Instance)
+      header = ((Instance) payload).dataset();
+    else
+      header = (Instances) payload;
+    if ((header != null) && !header.equalHeaders(m_Kernel.getInputFormat()))
+      return "Data incompatible with fitted pipeline: " + header.equalHeadersMsg(m_Kernel.getInputFormat());
+
+    try {
+      if (payload instanceof Instance) {
+	// no output if a filter removed the row
+	inst = m_Kernel.apply((Instance) payload);
+	if (inst != null)
+	  m_OutputToken = new Token(inst);
+      }
+      else
+	m_OutputToken = new Token(m_Kernel.apply((Instances) payload, m_Pool, m_MinRows));
+    }
+    catch (Exception e) {
+      result = handleException("Failed to apply fitted pipeline:", e);
+    }
+
+    return result;
+  }
+
+  /**
+   * Cleans up after the execution has finished.
+   */
+  @Override
+  public void wrapUp() {
+    m_Kernel = null;
+    if (m_Pool != null) {
+      m_Pool.shutdown();
+      m_Pool = null;
+    }
+
+    super.wrapUp();
+  }
+}
@@ -0,0 +1,300 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * ParallelWekaFilter.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.flow.transformer;
+
+import java.util.concurrent.ForkJoinPool;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.filters.Filter;
+import weka.filters.StreamableFilter;
+import adams.data.preprocessing.FittedPipeline;
+import adams.flow.core.Token;
+
+/**
+ * Filters the data like {@link WekaFilter}, but transforms large datasets in
+ * partitions of rows in parallel (see
+ * {@link FittedPipeline#apply(Instances, ForkJoinPool, int)}).
+ * <p/>
+ * Batch filters still get fitted on the complete first dataset, only their
+ * application to the following datasets is split up; stream filters are
+ * split up from the first dataset on. Filters that don't transform rows
+ * independently, datasets with fewer rows than the threshold and single
+ * rows are processed as by {@link WekaFilter}.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class ParallelWekaFilter
+  extends WekaFilter {
+
+  /** for serialization. */
+  private static final long serialVersionUID = 3524168779460181364L;
+
+  /** the number of threads. */
+  protected int m_NumThreads;
+
+  /** the minimum number of rows for transforming datasets in parallel. */
+  protected int m_MinRows;
+
+  /** the fitted filter. */
+  protected transient Filter m_Fitted;
+
+  /** the compiled fitted filter, null if not supported. */
+  protected transient FittedPipeline m_Kernel;
+
+  /** the pool for transforming datasets in parallel. */
+  protected transient ForkJoinPool m_Pool;
+
+  /**
+   * Returns a string describing the object.
+   *
+   * @return a description suitable for displaying in the gui
+   */
+  @Override
+  public String globalInfo() {
+    return
+	super.globalInfo() + "\n"
+	+ "Large datasets get split into partitions that are transformed in "
+	+ "parallel, if the filter transforms rows independently. Batch filters "
+	+ "get fitted on the complete first dataset.";
+  }
+
+  /**
+   * Adds options to the internal list of options.
+   */
+  @Override
+  public void defineOptions() {
+    super.defineOptions();
+
+    m_OptionManager.add(
+	"num-threads", "numThreads",
+	1, 0, null);
+
+    m_OptionManager.add(
+	"min-rows", "minRows",
+	10000, 1, null);
+  }
+
+  /**
+   * Resets the scheme.
+   */
+  @Override
+  protected void reset() {
+    super.reset();
+
+    m_Fitted = null;
+    m_Kernel = null;
+  }
+
+  /**
+   * Sets the number of threads for transforming datasets.
+   *
+   * @param value	the number of threads, 0 for one per processor
+   */
+  public void setNumThreads(int value) {
+    m_NumThreads = value;
+    reset();
+  }
+
+  /**
+   * Returns the number of threads for transforming datasets.
+   *
+   * @return		the number of threads, 0 for one per processor
+   */
+  public int getNumThreads() {
+    return m_NumThreads;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String numThreadsTipText() {
+    return "The number of threads for transforming datasets; 0 uses one thread per processor, 1 disables the partitioning.";
+  }
+
+  /**
+   * Sets the minimum number of rows for transforming datasets in parallel.
+   *
+   * @param value	the number of rows
+   */
+  public void setMinRows(int value) {
+    m_MinRows = value;
+    reset();
+  }
+
+  /**
+   * Returns the minimum number of rows for transforming datasets in parallel.
+   *
+   * @return		the number of rows
+   */
+  public int getMinRows() {
+    return m_MinRows;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String minRowsTipText() {
+    return "Datasets with fewer rows get transformed on a single thread.";
+  }
+
+  /**
+   * Initializes the item for flow execution.
+   *
+   * @return		null if everything is fine, otherwise error message
+   */
+  @Override
+  public String setUp() {
+    String	result;
+    int		numThreads;
+
+    result = super.setUp();
+
+    if (result == null) {
+      numThreads = m_NumThreads;
+      if (numThreads == 0)
+	numThreads = Runtime.getRuntime().availableProcessors();
+      if (numThreads > 1)
+	m_Pool = new ForkJoinPool(numThreads);
+    }
+
+    return result;
+  }
+
+  /**
+   * Compiles the fitted filter.
+   *
+   * @param data	the data the filter processes
+   * @param filter	the fitted filter
+   * @return		the compiled filter, null if not supported
+   */
+  protected FittedPipeline compile(Instances data, Filter filter) {
+    try {
+      return FittedPipeline.compile(data, new Filter[]{filter});
+    }
+    catch (Exception e) {
+      // e.g., string attributes
+      if (isLoggingEnabled())
+	getLogger().info("Not transforming in parallel: " + e);
+      return null;
+    }
+  }
+
+  /**
+   * Filters the dataset, fitting the filter if necessary.
+   *
+   * @param data	the dataset to filter
+   * @return		the filtered dataset
+   * @throws Exception	if filtering fails
+   */
+  protected Instances filter(Instances data) throws Exception {
+    Instances	result;
+    Filter	filter;
+
+    if ((m_Fitted == null) || !getInitializeOnce()) {
+      filter = Filter.makeCopy(getFilter());
+      filter.setInputFormat(data);
+      // batch filters need to see the complete first dataset
+      result = null;
+      if (!(filter instanceof StreamableFilter))
+	result = Filter.useFilter(data, filter);
+      m_Fitted = filter;
+      m_Kernel = compile(data, filter);
+      if (result != null)
+	return result;
+    }
+
+    if (m_Kernel != null)
+      return m_Kernel.apply(data, m_Pool, m_MinRows);
+    else
+      return Filter.useFilter(data, m_Fitted);
+  }
+
+  /**
+   * Executes the flow item.
+   *
+   * @return		null if everything is fine, otherwise error message
+   */
+  @Override
+  protected String doExecute() {
+    String	result;
+    Object	payload;
+    Instance	inst;
+
+    payload = m_InputToken.getPayload();
+
+    // not fitted here and nothing to gain from partitioning
+    if (m_Fitted == null) {
+      if ((m_Pool == null) || !(payload instanceof Instances))
+	return super.doExecute();
+      if (!getInitializeOnce() && (((Instances) payload).numInstances() < m_MinRows))
+	return super.doExecute();
+    }
+
+    result = null;
+    try {
+      if (payload instanceof Instances) {
+	m_OutputToken = new Token(filter((Instances) payload));
+      }
+      else if (payload instanceof Instance) {
+	if (m_Kernel != null) {
+	  // no output if the filter removed the row
+	  inst = m_Kernel.apply((Instance) payload);
+	  if (inst != null)
+	    m_OutputToken = new Token(inst);
+	}
+	else {
+	  m_Fitted.input((Instance) payload);
+	  if (m_Fitted.numPendingOutput() > 0)
+	    m_OutputToken = new Token(m_Fitted.output());
+	}
+      }
+      else {
+	result = "Unsupported input after transforming datasets in parallel: " + payload.getClass().getName();
+      }
+    }
+    catch (Exception e) {
+      result = handleException("Failed to filter data:", e);
+    }
+
+    return result;
+  }
+
+  /**
+   * Cleans up after the execution has finished.
+   */
+  @Override
+  public void wrapUp() {
+    m_Fitted = null;
+    m_Kernel = null;
+    if (m_Pool != null) {
+      m_Pool.shutdown();
+      m_Pool = null;
+    }
+
+    super.wrapUp();
+  }
+}
@@ -0,0 +1,457 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * PipelineBranch.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.flow.transformer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.UpdateableClassifier;
+import weka.core.Instance;
+import weka.core.Instances;
+import adams.data.preprocessing.FilterPool;
+import adams.flow.core.AbstractActor;
+import adams.flow.core.InputConsumer;
+import adams.flow.core.OutputProducer;
+import adams.flow.core.Token;
+
+/**
+ * A generated pipeline that processes tokens on its own thread, in the order
+ * they were submitted. Besides the latency, the quality of the output gets
+ * tracked by evaluating a classifier prequentially on it: each dataset (or
+ * row) is used for testing the model built from the previous output first and
+ * for training afterwards. Rows require an updateable classifier.
+ * <p/>
+ * The scoring happens on a separate thread, in the order the tokens were
+ * submitted, hence it never delays the processing of the next token. The
+ * model is only accessed by that thread. The number of tokens waiting to be
+ * processed or scored is limited: shadow tokens get dropped, primary ones
+ * wait until the scoring catches up.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class PipelineBranch {
+
+  /** the pipeline, only accessed by the worker thread. */
+  protected AbstractActor m_Actor;
+
+  /** the worker thread. */
+  protected ExecutorService m_Executor;
+
+  /** the thread scoring the output. */
+  protected ExecutorService m_Scorer;
+
+  /** the classifier to evaluate the output with. */
+  protected Classifier m_Classifier;
+
+  /** the current model, only accessed by the scoring thread. */
+  protected Classifier m_Model;
+
+  /** the header of the data the model was built with. */
+  protected Instances m_Header;
+
+  /** the number of rows the model was trained with. */
+  protected long m_Trained;
+
+  /** the number of tokens waiting to be processed or scored. */
+  protected AtomicInteger m_Pending;
+
+  /** the number of processed tokens. */
+  protected long m_Processed;
+
+  /** the number of dropped tokens. */
+  protected long m_Dropped;
+
+  /** the number of failed tokens. */
+  protected long m_Errors;
+
+  /** the total processing time in nano-seconds. */
+  protected long m_Nanos;
+
+  /** the number of scored predictions. */
+  protected long m_Scored;
+
+  /** the number of correct predictions (nominal class). */
+  protected long m_Correct;
+
+  /** the sum of squared errors (numeric class). */
+  protected double m_SquaredError;
+
+  /** whether the class is nominal. */
+  protected boolean m_Nominal;
+
+  /**
+   * Initializes the branch.
+   *
+   * @param actor	the pipeline, must be set up already
+   * @param classifier	the classifier to evaluate the output with
+   */
+  public PipelineBranch(AbstractActor actor, Classifier classifier) {
+    m_Actor      = actor;
+    m_Classifier = classifier;
+    m_Executor   = newExecutor("PipelineBranch-worker");
+    m_Scorer     = newExecutor("PipelineBranch-scorer");
+    m_Pending    = new AtomicInteger();
+    m_Nominal    = true;
+  }
+
+  /**
+   * Returns a single thread executor that doesn't keep the JVM alive.
+   *
+   * @param name	the name of the thread
+   * @return		the executor
+   */
+  public static ExecutorService newExecutor(final String name) {
+    return Executors.newSingleThreadExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+	Thread result = new Thread(r, name);
+	result.setDaemon(true);
+	return result;
+      }
+    });
+  }
+
+  /**
+   * Returns the pipeline.
+   *
+   * @return		the pipeline
+   */
+  public AbstractActor getActor() {
+    return m_Actor;
+  }
+
+  /**
+   * Processes the token with the pipeline.
+   *
+   * @param token	the token to process
+   * @return		the output
+   * @throws Exception	if the pipeline fails
+   */
+  protected List<Token> execute(Token token) throws Exception {
+    List<Token>	result;
+    String	msg;
+    long	start;
+
+    start = System.nanoTime();
+    try {
+      ((InputConsumer) m_Actor).input(token);
+      msg = m_Actor.execute();
+      if (msg != null)
+	throw new IllegalStateException(msg);
+      result = new ArrayList<Token>();
+      while (((OutputProducer) m_Actor).hasPendingOutput())
+	result.add(((OutputProducer) m_Actor).output());
+    }
+    catch (Exception e) {
+      synchronized(this) {
+	m_Errors++;
+      }
+      throw e;
+    }
+    finally {
+      synchronized(this) {
+	m_Processed++;
+	m_Nanos += System.nanoTime() - start;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Queues the token for processing on the worker thread and its output for
+   * scoring on the scoring thread.
+   *
+   * @param token	the token to process
+   * @param pending	whether to decrement the number of waiting tokens once
+   * 			scored
+   * @return		the output
+   */
+  protected Future<List<Token>> submit(final Token token, final boolean pending) {
+    final Future<List<Token>>	result;
+
+    result = m_Executor.submit(new Callable<List<Token>>() {
+      public List<Token> call() throws Exception {
+	return execute(token);
+      }
+    });
+    m_Scorer.submit(new Runnable() {
+      public void run() {
+	try {
+	  score(result.get());
+	}
+	catch (Exception e) {
+	  // failure already counted
+	}
+	finally {
+	  if (pending) {
+	    synchronized(m_Pending) {
+	      m_Pending.decrementAndGet();
+	      m_Pending.notifyAll();
+	    }
+	  }
+	}
+      }
+    });
+
+    return result;
+  }
+
+  /**
+   * Processes the token and returns the output. The output gets scored
+   * afterwards, without delaying the result. Waits first if too many tokens
+   * are waiting (or being scored) already.
+   *
+   * @param token	the token to process
+   * @param maxPending	the maximum number of waiting tokens
+   * @return		the output
+   * @throws InterruptedException	if interrupted while waiting
+   */
+  public Future<List<Token>> process(Token token, int maxPending) throws InterruptedException {
+    synchronized(m_Pending) {
+      while (m_Pending.get() >= maxPending)
+	m_Pending.wait();
+      m_Pending.incrementAndGet();
+    }
+
+    return submit(token, true);
+  }
+
+  /**
+   * Processes and scores the token in the background, discarding the output.
+   * The token gets dropped if too many tokens are waiting (or being scored)
+   * already.
+   *
+   * @param token	the token to process
+   * @param maxPending	the maximum number of waiting tokens
+   * @return		false if dropped
+   */
+  public boolean offer(Token token, int maxPending) {
+    if (m_Pending.get() >= maxPending) {
+      synchronized(this) {
+	m_Dropped++;
+      }
+      return false;
+    }
+
+    m_Pending.incrementAndGet();
+    submit(token, true);
+
+    return true;
+  }
+
+  /**
+   * Records the prediction for the row.
+   *
+   * @param row		the row
+   * @param predicted	the predicted value
+   */
+  protected synchronized void record(Instance row, double predicted) {
+    double	actual;
+
+    if (row.classIsMissing())
+      return;
+
+    actual = row.classValue();
+    m_Scored++;
+    if (m_Nominal) {
+      if (actual == predicted)
+	m_Correct++;
+    }
+    else {
+      m_SquaredError += (actual - predicted) * (actual - predicted);
+    }
+  }
+
+  /**
+   * Tests the current model on the dataset and trains a new one with it.
+   *
+   * @param data	the dataset
+   * @throws Exception	if training or testing fails
+   */
+  protected void score(Instances data) throws Exception {
+    int		i;
+
+    if ((m_Model != null) && m_Header.equalHeaders(data)) {
+      for (i = 0; i < data.numInstances(); i++)
+	record(data.instance(i), m_Model.classifyInstance(data.instance(i)));
+    }
+
+    m_Model = AbstractClassifier.makeCopy(m_Classifier);
+    m_Model.buildClassifier(data);
+    m_Header = new Instances(data, 0);
+  }
+
+  /**
+   * Tests the current model on the row and updates it afterwards.
+   *
+   * @param row		the row
+   * @throws Exception	if training or testing fails
+   */
+  protected void score(Instance row) throws Exception {
+    if (!(m_Classifier instanceof UpdateableClassifier))
+      return;
+
+    if ((m_Model == null) || !m_Header.equalHeaders(row.dataset())) {
+      m_Model   = AbstractClassifier.makeCopy(m_Classifier);
+      m_Header  = new Instances(row.dataset(), 0);
+      m_Model.buildClassifier(m_Header);
+      m_Trained = 0;
+    }
+    else if (m_Trained > 0) {
+      record(row, m_Model.classifyInstance(row));
+    }
+
+    ((UpdateableClassifier) m_Model).updateClassifier(row);
+    m_Trained++;
+  }
+
+  /**
+   * Scores the output of the pipeline.
+   *
+   * @param output	the output
+   */
+  protected void score(List<Token> output) {
+    Object	payload;
+    Instances	header;
+
+    for (Token token: output) {
+      payload = token.getPayload();
+      if (payload instanceof Instances)
+	header = (Instances) payload;
+      else if (payload instanceof Instance)
+	header = ((Instance) payload).dataset();
+      else
+	continue;
+      if ((header == null) || (header.classIndex() == -1))
+	continue;
+
+      synchronized(this) {
+	m_Nominal = header.classAttribute().isNominal();
+      }
+      try {
+	if (payload instanceof Instances)
+	  score((Instances) payload);
+	else
+	  score((Instance) payload);
+      }
+      catch (Exception e) {
+	// output not suitable for the classifier, start over
+	m_Model = null;
+      }
+    }
+  }
+
+  /**
+   * Returns the quality of the output so far: the accuracy for a nominal
+   * class, the negative RMSE for a numeric one.
+   *
+   * @return		the quality, NaN if nothing scored yet
+   */
+  public synchronized double getQuality() {
+    if (m_Scored == 0)
+      return Double.NaN;
+    else if (m_Nominal)
+      return (double) m_Correct / m_Scored;
+    else
+      return -Math.sqrt(m_SquaredError / m_Scored);
+  }
+
+  /**
+   * Returns the number of scored predictions.
+   *
+   * @return		the number of predictions
+   */
+  public synchronized long getScored() {
+    return m_Scored;
+  }
+
+  /**
+   * Returns the number of dropped tokens.
+   *
+   * @return		the number of tokens
+   */
+  public synchronized long getDropped() {
+    return m_Dropped;
+  }
+
+  /**
+   * Returns the number of tokens that failed.
+   *
+   * @return		the number of tokens
+   */
+  public synchronized long getErrors() {
+    return m_Errors;
+  }
+
+  /**
+   * Returns the mean processing time per token.
+   *
+   * @return		the time in milli-seconds, NaN if nothing processed
+   */
+  public synchronized double getMeanLatency() {
+    if (m_Processed == 0)
+      return Double.NaN;
+    return m_Nanos / 1000000.0 / m_Processed;
+  }
+
+  /**
+   * Stops the worker and scoring threads after the waiting tokens have been
+   * processed and returns the filters of the pipeline to the pool.
+   */
+  public void shutdown() {
+    m_Executor.shutdown();
+    m_Scorer.shutdown();
+    try {
+      m_Executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      m_Scorer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    m_Actor.wrapUp();
+    FilterPool.getSingleton().release(m_Actor);
+    m_Actor.cleanUp();
+  }
+
+  /**
+   * Returns the statistics of the branch.
+   *
+   * @return		the statistics
+   */
+  @Override
+  public synchronized String toString() {
+    return
+	"processed=" + m_Processed + ", dropped=" + m_Dropped + ", errors=" + m_Errors
+	+ ", latency=" + getMeanLatency() + "ms"
+	+ ", scored=" + m_Scored + ", quality=" + getQuality();
+  }
+}
@@ -0,0 +1,726 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * PipelineCrossValidationEvaluator.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.flow.transformer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.classifiers.trees.J48;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.filters.Filter;
+import adams.data.preprocessing.FittedPipeline;
+import adams.data.preprocessing.PipelineDescriptor;
+import adams.data.preprocessing.PipelineOptimizer;
+import adams.data.preprocessing.PipelineWorker;
+import adams.flow.container.WekaEvaluationContainer;
+import adams.flow.core.Token;
+import adams.flow.template.AbstractActorTemplate;
+import adams.flow.template.PipelineDescriptorGenerator;
+import adams.flow.template.RandomPreprocessingFlowGenerator;
+
+/**
+ * Cross-validates a classifier together with a generated preprocessing
+ * pipeline: the filters get fitted on the training set of each fold only and
+ * then applied to the test set, i.e., no information of the test set leaks
+ * into the preprocessing. The folds get evaluated in parallel.
+ * <p/>
+ * The folds are represented by row indices into the incoming dataset, which
+ * are shared by all threads. The training and test sets only get assembled
+ * by the thread evaluating the fold; since <code>Instances.add</code> copies
+ * the rows, each fold holds its own copies of the rows, i.e., the memory of
+ * the dataset is required once per fold that is evaluated concurrently.
+ * Sharing the rows instead is not an option: filters and classifiers may
+ * modify the rows they get passed (e.g., their dataset reference), which
+ * would interfere with the other folds.
+ * <p/>
+ * Folds that haven't started yet get skipped once the flow is stopped.
+ * <p/>
+ * The evaluation uses the header and class priors of the filtered training
+ * sets, i.e., the data the classifier actually gets built on.
+ * <p/>
+ * The text encoding of the evaluated pipeline is stored in the
+ * <code>filters</code> variable, if available.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class PipelineCrossValidationEvaluator
+  extends AbstractTransformer {
+
+  /** for serialization. */
+  private static final long serialVersionUID = 5207390164931738302L;
+
+  /**
+   * The outcome of a single fold.
+   */
+  protected static class Fold {
+
+    /** the filtered training set. */
+    public Instances train;
+
+    /** the filtered test set. */
+    public Instances test;
+
+    /** the class distributions for the filtered test set. */
+    public double[][] distributions;
+  }
+
+  /** the template generating the pipeline. */
+  protected AbstractActorTemplate m_Template;
+
+  /** the classifier to evaluate. */
+  protected Classifier m_Classifier;
+
+  /** the number of cross-validation folds. */
+  protected int m_Folds;
+
+  /** the seed for the cross-validation. */
+  protected long m_Seed;
+
+  /** the number of threads. */
+  protected int m_NumThreads;
+
+  /** whether to simplify the pipeline for the dataset. */
+  protected boolean m_Optimize;
+
+  /** whether to apply the fitted pipeline to the test set as compiled kernel. */
+  protected boolean m_Compile;
+
+  /**
+   * Returns a string describing the object.
+   *
+   * @return a description suitable for displaying in the gui
+   */
+  @Override
+  public String globalInfo() {
+    return
+	"Cross-validates a classifier together with the preprocessing pipeline "
+	+ "generated by the template: the filters get fitted on the training "
+	+ "set of each fold and applied to its test set. The folds get "
+	+ "evaluated in parallel.\n"
+	+ "The pipeline gets stored in the '" + PipelineDescriptor.VARIABLE_FILTERS
+	+ "' variable.";
+  }
+
+  /**
+   * Adds options to the internal list of options.
+   */
+  @Override
+  public void defineOptions() {
+    super.defineOptions();
+
+    m_OptionManager.add(
+	"template", "template",
+	getDefaultTemplate());
+
+    m_OptionManager.add(
+	"classifier", "classifier",
+	new J48());
+
+    m_OptionManager.add(
+	"folds", "folds",
+	10, 2, null);
+
+    m_OptionManager.add(
+	"seed", "seed",
+	1L);
+
+    m_OptionManager.add(
+	"num-threads", "numThreads",
+	0, 0, null);
+
+    m_OptionManager.add(
+	"optimize", "optimize",
+	false);
+
+    m_OptionManager.add(
+	"compile", "compile",
+	false);
+  }
+
+  /**
+   * Returns the default template to use.
+   *
+   * @return		the template
+   */
+  protected AbstractActorTemplate getDefaultTemplate() {
+    RandomPreprocessingFlowGenerator	result;
+
+    result = new RandomPreprocessingFlowGenerator();
+    result.setNumOfFilters(2);
+
+    return result;
+  }
+
+  /**
+   * Sets the template generating the pipeline.
+   *
+   * @param value	the template
+   */
+  public void setTemplate(AbstractActorTemplate value) {
+    m_Template = value;
+    reset();
+  }
+
+  /**
+   * Returns the template generating the pipeline.
+   *
+   * @return		the template
+   */
+  public AbstractActorTemplate getTemplate() {
+    return m_Template;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String templateTipText() {
+    return "The template that generates the preprocessing pipeline for each dataset.";
+  }
+
+  /**
+   * Sets the classifier to evaluate.
+   *
+   * @param value	the classifier
+   */
+  public void setClassifier(Classifier value) {
+    m_Classifier = value;
+    reset();
+  }
+
+  /**
+   * Returns the classifier to evaluate.
+   *
+   * @return		the classifier
+   */
+  public Classifier getClassifier() {
+    return m_Classifier;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String classifierTipText() {
+    return "The classifier to cross-validate on the preprocessed folds.";
+  }
+
+  /**
+   * Sets the number of cross-validation folds.
+   *
+   * @param value	the folds
+   */
+  public void setFolds(int value) {
+    m_Folds = value;
+    reset();
+  }
+
+  /**
+   * Returns the number of cross-validation folds.
+   *
+   * @return		the folds
+   */
+  public int getFolds() {
+    return m_Folds;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String foldsTipText() {
+    return "The number of cross-validation folds.";
+  }
+
+  /**
+   * Sets the seed for the cross-validation.
+   *
+   * @param value	the seed
+   */
+  public void setSeed(long value) {
+    m_Seed = value;
+    reset();
+  }
+
+  /**
+   * Returns the seed for the cross-validation.
+   *
+   * @return		the seed
+   */
+  public long getSeed() {
+    return m_Seed;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String seedTipText() {
+    return "The seed value for randomizing the folds.";
+  }
+
+  /**
+   * Sets the number of threads for evaluating the folds.
+   *
+   * @param value	the number of threads, 0 for one per processor
+   */
+  public void setNumThreads(int value) {
+    m_NumThreads = value;
+    reset();
+  }
+
+  /**
+   * Returns the number of threads for evaluating the folds.
+   *
+   * @return		the number of threads, 0 for one per processor
+   */
+  public int getNumThreads() {
+    return m_NumThreads;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String numThreadsTipText() {
+    return "The number of threads for evaluating the folds; 0 uses one thread per processor.";
+  }
+
+  /**
+   * Sets whether to simplify the pipeline for the dataset.
+   *
+   * @param value	true if to simplify
+   */
+  public void setOptimize(boolean value) {
+    m_Optimize = value;
+    reset();
+  }
+
+  /**
+   * Returns whether to simplify the pipeline for the dataset.
+   *
+   * @return		true if to simplify
+   */
+  public boolean getOptimize() {
+    return m_Optimize;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String optimizeTipText() {
+    return
+	"If enabled, filters that are redundant or have nothing to work on in "
+	+ "the dataset get removed and the filters get reordered where it "
+	+ "doesn't change the output (only for templates that describe their "
+	+ "pipelines).";
+  }
+
+  /**
+   * Sets whether to apply the fitted pipeline to the test set as compiled
+   * kernel.
+   *
+   * @param value	true if to compile
+   */
+  public void setCompile(boolean value) {
+    m_Compile = value;
+    reset();
+  }
+
+  /**
+   * Returns whether to apply the fitted pipeline to the test set as compiled
+   * kernel.
+   *
+   * @return		true if to compile
+   */
+  public boolean getCompile() {
+    return m_Compile;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String compileTipText() {
+    return
+	"If enabled, the pipeline fitted on the training set gets applied to "
+	+ "the test set as compiled kernel (see FittedPipeline), as it would "
+	+ "be when scoring new data.";
+  }
+
+  /**
+   * Returns a quick info about the actor, which will be displayed in the GUI.
+   *
+   * @return null if no info available, otherwise short string
+   */
+  @Override
+  public String getQuickInfo() {
+    return m_Classifier.getClass().getSimpleName() + ", " + m_Folds + " folds";
+  }
+
+  /**
+   * Returns the class that the consumer accepts.
+   *
+   * @return the Class of objects that can be processed
+   */
+  @Override
+  public Class[] accepts() {
+    return new Class[]{Instances.class};
+  }
+
+  /**
+   * Returns the class of objects that it generates.
+   *
+   * @return the Class of the generated tokens
+   */
+  @Override
+  public Class[] generates() {
+    return new Class[]{WekaEvaluationContainer.class};
+  }
+
+  /**
+   * Assigns the rows of the dataset to the folds: the rows get shuffled and,
+   * for a nominal class, grouped by class label before being dealt out to the
+   * folds in turn (stratification).
+   *
+   * @param data	the dataset
+   * @param folds	the number of folds
+   * @param seed	the seed for shuffling
+   * @return		the row indices of the test set per fold
+   */
+  public static int[][] getTestIndices(Instances data, int folds, long seed) {
+    int[][]	result;
+    int[]	order;
+    int[]	sorted;
+    int[]	counts;
+    int[]	offsets;
+    int[]	pos;
+    Random	rand;
+    int		numClasses;
+    int		label;
+    int		tmp;
+    int		i;
+    int		j;
+
+    order = new int[data.numInstances()];
+    for (i = 0; i < order.length; i++)
+      order[i] = i;
+    rand = new Random(seed);
+    for (i = order.length - 1; i > 0; i--) {
+      j        = rand.nextInt(i + 1);
+      tmp      = order[i];
+      order[i] = order[j];
+      order[j] = tmp;
+    }
+
+    // stable grouping by class label, rows with missing class last
+    if (data.classAttribute().isNominal()) {
+      numClasses = data.numClasses();
+      counts     = new int[numClasses + 1];
+      for (i = 0; i < order.length; i++)
+	counts[getLabel(data, order[i], numClasses)]++;
+      offsets = new int[numClasses + 1];
+      for (i = 1; i <= numClasses; i++)
+	offsets[i] = offsets[i - 1] + counts[i - 1];
+      sorted = new int[order.length];
+      for (i = 0; i < order.length; i++) {
+	label = getLabel(data, order[i], numClasses);
+	sorted[offsets[label]++] = order[i];
+      }
+      order = sorted;
+    }
+
+    result = new int[folds][];
+    pos    = new int[folds];
+    for (i = 0; i < folds; i++)
+      result[i] = new int[order.length / folds + ((i < order.length % folds) ? 1 : 0)];
+    for (i = 0; i < order.length; i++)
+      result[i % folds][pos[i % folds]++] = order[i];
+
+    return result;
+  }
+
+  /**
+   * Returns the class label index of the row, with missing values mapped to
+   * the number of classes.
+   *
+   * @param data	the dataset
+   * @param row		the row
+   * @param numClasses	the number of class labels
+   * @return		the label index
+   */
+  protected static int getLabel(Instances data, int row, int numClasses) {
+    if (data.instance(row).classIsMissing())
+      return numClasses;
+    else
+      return (int) data.instance(row).classValue();
+  }
+
+  /**
+   * Returns the rows of all other folds, in ascending order.
+   *
+   * @param test	the test indices of all folds
+   * @param fold	the fold to get the training set for
+   * @param numRows	the number of rows in the dataset
+   * @return		the row indices of the training set
+   */
+  public static int[] getTrainIndices(int[][] test, int fold, int numRows) {
+    int[]	result;
+    boolean[]	excluded;
+    int		i;
+    int		n;
+
+    excluded = new boolean[numRows];
+    for (i = 0; i < test[fold].length; i++)
+      excluded[test[fold][i]] = true;
+    result = new int[numRows - test[fold].length];
+    n      = 0;
+    for (i = 0; i < numRows; i++) {
+      if (!excluded[i])
+	result[n++] = i;
+    }
+
+    return result;
+  }
+
+  /**
+   * Creates a dataset with (copies of) the specified rows.
+   *
+   * @param data	the full dataset
+   * @param rows	the row indices
+   * @return		the subset
+   */
+  protected static Instances subset(Instances data, int[] rows) {
+    Instances	result;
+    int		i;
+
+    result = new Instances(data, rows.length);
+    for (i = 0; i < rows.length; i++)
+      result.add(data.instance(rows[i]));
+
+    return result;
+  }
+
+  /**
+   * Fits the pipeline on the training set of the fold, applies it to the test
+   * set and obtains the predictions of the classifier.
+   *
+   * @param data	the full dataset
+   * @param train	the row indices of the training set
+   * @param test	the row indices of the test set
+   * @param filters	the unused filters of the pipeline, in order
+   * @param classifier	the unused classifier
+   * @param compile	whether to apply the pipeline to the test set as
+   * 			compiled kernel
+   * @return		the outcome of the fold
+   * @throws Exception	if filtering or classification fails
+   */
+  protected static Fold evaluateFold(Instances data, int[] train, int[] test, Filter[] filters, Classifier classifier, boolean compile) throws Exception {
+    Fold		result;
+    Instances		trainSet;
+    Instances		testSet;
+    FittedPipeline	kernel;
+    int			i;
+
+    result   = new Fold();
+    trainSet = subset(data, train);
+    testSet  = subset(data, test);
+    for (Filter filter: filters) {
+      filter.setInputFormat(trainSet);
+      trainSet = Filter.useFilter(trainSet, filter);
+    }
+    kernel = null;
+    if (compile) {
+      try {
+	kernel = FittedPipeline.compile(testSet, filters);
+      }
+      catch (IllegalArgumentException e) {
+	// string or relational attributes, no kernel possible
+      }
+    }
+    if (kernel != null) {
+      testSet = kernel.apply(testSet);
+    }
+    else {
+      for (Filter filter: filters)
+	testSet = Filter.useFilter(testSet, filter);
+    }
+    if (trainSet.classIndex() == -1)
+      throw new IllegalStateException("Pipeline removed the class attribute");
+    if ((trainSet.classAttribute().isNominal() != data.classAttribute().isNominal())
+	|| (trainSet.numClasses() != data.numClasses()))
+      throw new IllegalStateException("Pipeline changed the class attribute");
+
+    classifier.buildClassifier(trainSet);
+    result.train         = trainSet;
+    result.test          = testSet;
+    result.distributions = new double[testSet.numInstances()][];
+    for (i = 0; i < testSet.numInstances(); i++)
+      result.distributions[i] = classifier.distributionForInstance(testSet.instance(i));
+
+    return result;
+  }
+
+  /**
+   * Returns fresh filters of the pipeline to generate, for each fold.
+   *
+   * @param data	the dataset
+   * @param folds	the number of folds
+   * @param text	for storing the text encoding of the pipeline
+   * @return		the filters per fold
+   * @throws Exception	if instantiating the filters fails
+   */
+  protected Filter[][] generateFilters(Instances data, int folds, StringBuilder text) throws Exception {
+    Filter[][]		result;
+    PipelineDescriptor	descriptor;
+    List<Filter>	filters;
+    String[]		cmds;
+    int			i;
+    int			n;
+
+    result = new Filter[folds][];
+    if (m_Template instanceof PipelineDescriptorGenerator) {
+      descriptor = ((PipelineDescriptorGenerator) m_Template).generateDescriptor();
+      if (m_Optimize)
+	descriptor = PipelineOptimizer.optimize(descriptor, data);
+      for (i = 0; i < folds; i++)
+	result[i] = descriptor.newFilters();
+      text.append(descriptor.toText());
+    }
+    else {
+      filters = PipelineWorker.getFilters(m_Template.generate());
+      for (i = 0; i < folds; i++) {
+	result[i] = new Filter[filters.size()];
+	for (n = 0; n < filters.size(); n++)
+	  result[i][n] = Filter.makeCopy(filters.get(n));
+      }
+      // same format as the text encoding of descriptors
+      cmds = new String[filters.size()];
+      for (n = 0; n < cmds.length; n++)
+	cmds[n] = Utils.toCommandLine(filters.get(n));
+      text.append(Utils.joinOptions(cmds));
+    }
+
+    return result;
+  }
+
+  /**
+   * Executes the flow item.
+   *
+   * @return null if everything is fine, otherwise error message
+   */
+  @Override
+  protected String doExecute() {
+    String				result;
+    final Instances			data;
+    final int[][]			test;
+    final Filter[][]			filters;
+    final Classifier[]			classifiers;
+    final int				numRows;
+    StringBuilder			text;
+    List<Callable<Fold>>		jobs;
+    List<Future<Fold>>			folds;
+    ForkJoinPool			pool;
+    Evaluation				eval;
+    Fold				fold;
+    int					numThreads;
+    int					i;
+    int					n;
+
+    result = null;
+    data   = (Instances) m_InputToken.getPayload();
+    if (data.classIndex() == -1)
+      return "No class attribute set!";
+    if (data.numInstances() < m_Folds)
+      return "Fewer instances than folds: " + data.numInstances() + " < " + m_Folds;
+
+    pool = null;
+    try {
+      text        = new StringBuilder();
+      filters     = generateFilters(data, m_Folds, text);
+      classifiers = new Classifier[m_Folds];
+      for (i = 0; i < m_Folds; i++)
+	classifiers[i] = AbstractClassifier.makeCopy(m_Classifier);
+      if (getVariables() != null)
+	getVariables().set(PipelineDescriptor.VARIABLE_FILTERS, text.toString());
+
+      numRows = data.numInstances();
+      test    = getTestIndices(data, m_Folds, m_Seed);
+      jobs    = new ArrayList<Callable<Fold>>();
+      for (i = 0; i < m_Folds; i++) {
+	final int index = i;
+	jobs.add(new Callable<Fold>() {
+	  public Fold call() throws Exception {
+	    if (isStopped())
+	      return null;
+	    return evaluateFold(data, getTrainIndices(test, index, numRows), test[index], filters[index], classifiers[index], m_Compile);
+	  }
+	});
+      }
+
+      numThreads = m_NumThreads;
+      if (numThreads == 0)
+	numThreads = Runtime.getRuntime().availableProcessors();
+      pool  = new ForkJoinPool(Math.min(numThreads, m_Folds));
+      folds = pool.invokeAll(jobs);
+      if (isStopped())
+	return result;
+
+      // Evaluation is not thread-safe, collect the predictions in fold order;
+      // the predictions refer to the filtered data
+      eval = new Evaluation(folds.get(0).get().train);
+      for (i = 0; i < folds.size(); i++) {
+	fold = folds.get(i).get();
+	eval.setPriors(fold.train);
+	for (n = 0; n < fold.test.numInstances(); n++)
+	  eval.evaluateModelOnceAndRecordPrediction(fold.distributions[n], fold.test.instance(n));
+      }
+
+      m_OutputToken = new Token(new WekaEvaluationContainer(eval));
+    }
+    catch (Exception e) {
+      result = handleException("Failed to cross-validate pipeline:", e);
+    }
+    finally {
+      if (pool != null)
+	pool.shutdown();
+    }
+
+    return result;
+  }
+}
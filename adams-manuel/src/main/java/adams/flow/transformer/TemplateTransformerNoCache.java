@@ -1,7 +1,9 @@
 
 package adams.flow.transformer;
 
+import adams.data.preprocessing.FilterPool;
 import adams.flow.core.InputConsumer;
+import adams.flow.template.PrefetchingTemplate;
 
 public class TemplateTransformerNoCache
   extends TemplateTransformer {
@@ -12,6 +14,14 @@ public class TemplateTransformerNoCache
   protected String doExecute() {
     String result;
 
+    // return filters and filter actors of the previous pipeline to the pool
+    if (m_Actor != null) {
+      m_Actor.wrapUp();
+      FilterPool.getSingleton().release(m_Actor);
+      m_Actor.cleanUp();
+      m_Actor = null;
+    }
+
     result = setUpTemplate();
 
     if (result == null) {
@@ -19,10 +29,15 @@ public class TemplateTransformerNoCache
       result = m_Actor.execute();
     }
 
-    if (result != null) {
-      System.out.println("WTF");
-    }
-
     return result;
   }
+
+  @Override
+  public void wrapUp() {
+    // no more pipelines required, discard any prefetched ones
+    if (m_Template instanceof PrefetchingTemplate)
+      ((PrefetchingTemplate) m_Template).stop();
+
+    super.wrapUp();
+  }
 }
@@ -0,0 +1,296 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * WekaCachedFileReader.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.flow.transformer;
+
+import java.io.File;
+
+import weka.core.Instances;
+import adams.data.weka.DatasetCache;
+import adams.flow.core.Token;
+
+/**
+ * Reads datasets through the JVM-wide {@link DatasetCache}, i.e., every file
+ * gets parsed only once, no matter how many times it is requested (e.g., once
+ * per classifier setup). The output is shared with all other readers and must
+ * not be modified downstream, unless the <code>copy</code> option is set.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class WekaCachedFileReader
+  extends AbstractTransformer {
+
+  /** for serialization. */
+  private static final long serialVersionUID = 2405390718374127823L;
+
+  /** the heap budget of the cache in MB. */
+  protected int m_MaxHeap;
+
+  /** whether to output a private copy of the dataset. */
+  protected boolean m_Copy;
+
+  /** whether to compact unreferenced datasets before evicting them. */
+  protected boolean m_Compact;
+
+  /** the dataset currently referenced. */
+  protected transient Instances m_Current;
+
+  /**
+   * Returns a string describing the object.
+   *
+   * @return a description suitable for displaying in the gui
+   */
+  @Override
+  public String globalInfo() {
+    return
+	"Reads datasets via a shared, reference-counted cache. Every file is "
+	+ "parsed only once and the same dataset is output to all readers, "
+	+ "hence it must be treated as read-only.\n"
+	+ "Unreferenced datasets are compacted (if enabled) and then evicted in "
+	+ "least-recently-used order once the heap budget is exceeded.";
+  }
+
+  /**
+   * Adds options to the internal list of options.
+   */
+  @Override
+  public void defineOptions() {
+    super.defineOptions();
+
+    m_OptionManager.add(
+	"max-heap", "maxHeap",
+	(int) (DatasetCache.DEFAULT_MAX_HEAP / 1024 / 1024), 0, null);
+
+    m_OptionManager.add(
+	"copy", "copy",
+	false);
+
+    m_OptionManager.add(
+	"compact", "compact",
+	true);
+  }
+
+  /**
+   * Sets the heap budget of the cache. Since the cache is shared, the budget
+   * of the last reader that gets set up is used.
+   *
+   * @param value	the budget in MB, 0 for unlimited
+   */
+  public void setMaxHeap(int value) {
+    if (value >= 0) {
+      m_MaxHeap = value;
+      reset();
+    }
+    else {
+      getLogger().severe("Heap budget must be at least 0, provided: " + value);
+    }
+  }
+
+  /**
+   * Returns the heap budget of the cache.
+   *
+   * @return		the budget in MB, 0 for unlimited
+   */
+  public int getMaxHeap() {
+    return m_MaxHeap;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String maxHeapTipText() {
+    return "The heap budget in MB for the shared dataset cache (0 = unlimited).";
+  }
+
+  /**
+   * Sets whether to output a private copy of the dataset.
+   *
+   * @param value	true if to copy
+   */
+  public void setCopy(boolean value) {
+    m_Copy = value;
+    reset();
+  }
+
+  /**
+   * Returns whether to output a private copy of the dataset.
+   *
+   * @return		true if to copy
+   */
+  public boolean getCopy() {
+    return m_Copy;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String copyTipText() {
+    return
+	"If enabled, a private copy of the cached dataset is output, which "
+	+ "can be modified safely by downstream actors.";
+  }
+
+  /**
+   * Sets whether to compact unreferenced datasets before evicting them.
+   *
+   * @param value	true if to compact
+   */
+  public void setCompact(boolean value) {
+    m_Compact = value;
+    reset();
+  }
+
+  /**
+   * Returns whether to compact unreferenced datasets before evicting them.
+   *
+   * @return		true if to compact
+   */
+  public boolean getCompact() {
+    return m_Compact;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String compactTipText() {
+    return
+	"If enabled, unreferenced datasets are kept in a compact, lossless "
+	+ "form (float/byte columns, missing value bitsets) before getting "
+	+ "evicted; they are restored without re-parsing the file.";
+  }
+
+  /**
+   * Returns a quick info about the actor, which will be displayed in the GUI.
+   *
+   * @return null if no info available, otherwise short string
+   */
+  @Override
+  public String getQuickInfo() {
+    return m_MaxHeap + "MB" + (m_Copy ? ", copy" : "");
+  }
+
+  /**
+   * Returns the class that the consumer accepts.
+   *
+   * @return the Class of objects that can be processed
+   */
+  @Override
+  public Class[] accepts() {
+    return new Class[]{String.class, File.class};
+  }
+
+  /**
+   * Returns the class of objects that it generates.
+   *
+   * @return the Class of the generated tokens
+   */
+  @Override
+  public Class[] generates() {
+    return new Class[]{Instances.class};
+  }
+
+  /**
+   * Releases the currently referenced dataset, if any.
+   */
+  protected void releaseCurrent() {
+    if (m_Current != null) {
+      DatasetCache.getSingleton().release(m_Current);
+      m_Current = null;
+    }
+  }
+
+  /**
+   * Initializes the item for flow execution. Configures the shared cache,
+   * which affects all readers in the JVM.
+   *
+   * @return		null if everything is fine, otherwise error message
+   */
+  @Override
+  public String setUp() {
+    String		result;
+    DatasetCache	cache;
+
+    result = super.setUp();
+
+    if (result == null) {
+      cache = DatasetCache.getSingleton();
+      cache.setCompact(m_Compact);
+      cache.setMaxHeap((long) m_MaxHeap * 1024L * 1024L);
+    }
+
+    return result;
+  }
+
+  /**
+   * Executes the flow item.
+   *
+   * @return null if everything is fine, otherwise error message
+   */
+  @Override
+  protected String doExecute() {
+    String	result;
+    File	file;
+    DatasetCache	cache;
+
+    result = null;
+
+    if (m_InputToken.getPayload() instanceof File)
+      file = (File) m_InputToken.getPayload();
+    else
+      file = new File((String) m_InputToken.getPayload());
+
+    cache = DatasetCache.getSingleton();
+    releaseCurrent();
+    try {
+      m_Current = cache.acquire(file);
+      if (m_Copy)
+	m_OutputToken = new Token(new Instances(m_Current));
+      else
+	m_OutputToken = new Token(m_Current);
+      if (isLoggingEnabled())
+	getLogger().info(
+	    "Cache: " + cache.size() + " datasets, "
+	    + (cache.getCurrentHeap() / 1024 / 1024) + "MB, "
+	    + cache.getHits() + " hits, " + cache.getMisses() + " misses");
+    }
+    catch (Exception e) {
+      result = handleException("Failed to read dataset: " + file, e);
+    }
+
+    return result;
+  }
+
+  /**
+   * Cleans up after the execution has finished.
+   */
+  @Override
+  public void wrapUp() {
+    releaseCurrent();
+
+    super.wrapUp();
+  }
+}
@@ -0,0 +1,235 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * WekaPipelineFileReader.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.flow.transformer;
+
+import java.io.File;
+
+import weka.core.Instances;
+import weka.filters.Filter;
+import adams.data.preprocessing.PipelineDescriptor;
+import adams.data.weka.PushdownArffReader;
+import adams.flow.core.Token;
+
+/**
+ * Reads a dataset for a preprocessing pipeline: leading Remove and Resample
+ * filters of the pipeline get applied while reading, i.e., the dropped
+ * attributes and rows don't get parsed (see {@link PushdownArffReader}). The
+ * output is the same as loading the file and applying these filters.
+ * <p/>
+ * The rest of the pipeline can be stored in a variable, to be applied
+ * downstream.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class WekaPipelineFileReader
+  extends AbstractTransformer {
+
+  /** for serialization. */
+  private static final long serialVersionUID = 6021437318224937714L;
+
+  /** the text encoding of the pipeline. */
+  protected String m_Pipeline;
+
+  /** the variable to store the rest of the pipeline in. */
+  protected String m_RemainingVariable;
+
+  /**
+   * Returns a string describing the object.
+   *
+   * @return a description suitable for displaying in the gui
+   */
+  @Override
+  public String globalInfo() {
+    return
+	"Reads a dataset for a preprocessing pipeline: leading Remove and "
+	+ "Resample filters get applied while reading ARFF files, without "
+	+ "parsing the dropped attributes and rows. The output is the same as "
+	+ "loading the file and applying these filters.\n"
+	+ "The pipeline is in the format of the '" + PipelineDescriptor.VARIABLE_FILTERS
+	+ "' variable; the filters that weren't applied can be stored in a "
+	+ "variable.";
+  }
+
+  /**
+   * Adds options to the internal list of options.
+   */
+  @Override
+  public void defineOptions() {
+    super.defineOptions();
+
+    m_OptionManager.add(
+	"pipeline", "pipeline",
+	"");
+
+    m_OptionManager.add(
+	"remaining-variable", "remainingVariable",
+	"");
+  }
+
+  /**
+   * Sets the pipeline to read the dataset for.
+   *
+   * @param value	the text encoding of the pipeline
+   */
+  public void setPipeline(String value) {
+    m_Pipeline = value;
+    reset();
+  }
+
+  /**
+   * Returns the pipeline to read the dataset for.
+   *
+   * @return		the text encoding of the pipeline
+   */
+  public String getPipeline() {
+    return m_Pipeline;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String pipelineTipText() {
+    return
+	"The pipeline to read the dataset for: one quoted command-line per "
+	+ "filter, as stored in the '" + PipelineDescriptor.VARIABLE_FILTERS + "' variable.";
+  }
+
+  /**
+   * Sets the variable to store the filters in that weren't applied.
+   *
+   * @param value	the name of the variable, empty to skip
+   */
+  public void setRemainingVariable(String value) {
+    m_RemainingVariable = value;
+    reset();
+  }
+
+  /**
+   * Returns the variable to store the filters in that weren't applied.
+   *
+   * @return		the name of the variable, empty to skip
+   */
+  public String getRemainingVariable() {
+    return m_RemainingVariable;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the gui
+   */
+  public String remainingVariableTipText() {
+    return "The variable to store the rest of the pipeline in, i.e., the filters that weren't applied while reading; empty to skip.";
+  }
+
+  /**
+   * Returns a quick info about the actor, which will be displayed in the GUI.
+   *
+   * @return null if no info available, otherwise short string
+   */
+  @Override
+  public String getQuickInfo() {
+    return m_RemainingVariable.isEmpty() ? null : "remaining: " + m_RemainingVariable;
+  }
+
+  /**
+   * Returns the class that the consumer accepts.
+   *
+   * @return the Class of objects that can be processed
+   */
+  @Override
+  public Class[] accepts() {
+    return new Class[]{String.class, File.class};
+  }
+
+  /**
+   * Returns the class of objects that it generates.
+   *
+   * @return the Class of the generated tokens
+   */
+  @Override
+  public Class[] generates() {
+    return new Class[]{Instances.class};
+  }
+
+  /**
+   * Executes the flow item.
+   *
+   * @return null if everything is fine, otherwise error message
+   */
+  @Override
+  protected String doExecute() {
+    String		result;
+    File		file;
+    PipelineDescriptor	pipeline;
+    PipelineDescriptor	remaining;
+    PushdownArffReader	reader;
+    Filter[]		filters;
+    int[]		indices;
+    String[][]		options;
+    int			num;
+    int			i;
+
+    result = null;
+
+    if (m_InputToken.getPayload() instanceof File)
+      file = (File) m_InputToken.getPayload();
+    else
+      file = new File((String) m_InputToken.getPayload());
+
+    try {
+      pipeline = PipelineDescriptor.parse(m_Pipeline);
+      num      = 0;
+      while ((num < pipeline.size()) && PushdownArffReader.canPushDown(pipeline.getClassname(num)))
+	num++;
+      filters = new Filter[num];
+      for (i = 0; i < num; i++)
+	filters[i] = pipeline.newFilter(i);
+
+      reader = new PushdownArffReader();
+      reader.setFilters(filters);
+      m_OutputToken = new Token(reader.read(file));
+      if (isLoggingEnabled())
+	getLogger().info(
+	    "Read " + file + (reader.isFullyLoaded() ? " in full" : "")
+	    + ", " + num + " filter(s) applied while reading");
+
+      if (!m_RemainingVariable.isEmpty() && (getVariables() != null)) {
+	indices = new int[pipeline.size() - num];
+	options = new String[indices.length][];
+	for (i = 0; i < indices.length; i++) {
+	  indices[i] = pipeline.getFilterIndex(num + i);
+	  options[i] = pipeline.getOptions(num + i);
+	}
+	remaining = new PipelineDescriptor(indices, options);
+	getVariables().set(m_RemainingVariable, remaining.toText());
+      }
+    }
+    catch (Exception e) {
+      result = handleException("Failed to read dataset: " + file, e);
+    }
+
+    return result;
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * DataProfileTest.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.preprocessing;
+
+import java.io.FileWriter;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import adams.env.Environment;
+import adams.test.AbstractTestHelper;
+import adams.test.AdamsTestCase;
+import adams.test.TestHelper;
+import adams.test.TmpFile;
+
+/**
+ * Tests the sampled profiles of the DataProfile class.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class DataProfileTest
+  extends AdamsTestCase {
+
+  final private String inputFile = "RandomRBF-1k-copy.csv";
+
+  /**
+   * Initializes the test.
+   *
+   * @param name
+   *          the name of the test
+   */
+  public DataProfileTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Returns the test helper class to use.
+   *
+   * @return the helper class instance
+   */
+  @Override
+  protected AbstractTestHelper newTestHelper() {
+    return new TestHelper(this, "adams/flow/data");
+  }
+
+  /**
+   * Called by JUnit before each test method.
+   *
+   * @throws Exception
+   *           if an error occurs
+   */
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    m_TestHelper.copyResourceToTmp(inputFile);
+  }
+
+  /**
+   * Called by JUnit after each test method.
+   *
+   * @throws Exception
+   *           if tear-down fails
+   */
+  @Override
+  protected void tearDown() throws Exception {
+    m_TestHelper.deleteFileFromTmp(inputFile);
+
+    super.tearDown();
+  }
+
+  /**
+   * Tests a sample that covers the complete file.
+   *
+   * @throws Exception	if reading fails
+   */
+  public void testCompleteSample() throws Exception {
+    DataProfile profile = DataProfile.sample(new TmpFile(inputFile), ',', '"', "?", false, 10000, 0.05, 1);
+    assertNotNull("no profile", profile);
+    assertFalse("not sampled", profile.isExact());
+    assertEquals("rows", 1000, profile.getNumRows());
+    assertEquals("columns", 11, profile.getNumColumns());
+    assertEquals("missing values", 0.0, profile.getMissingFraction()[0]);
+  }
+
+  /**
+   * Tests the fall back when the intervals are too wide.
+   *
+   * @throws Exception	if reading fails
+   */
+  public void testInconclusiveSample() throws Exception {
+    DataProfile profile = DataProfile.sample(new TmpFile(inputFile), ',', '"', "?", false, 10, 0.01, 1);
+    assertNull("sample should be inconclusive", profile);
+  }
+
+  /**
+   * Tests a file with header row, tab separator and custom missing values.
+   *
+   * @throws Exception	if reading fails
+   */
+  public void testHeader() throws Exception {
+    TmpFile	file;
+    FileWriter	writer;
+    int		i;
+
+    file   = new TmpFile("DataProfileTest-header.csv");
+    writer = new FileWriter(file);
+    // all lines have the same length, hence the row estimate is exact
+    writer.write("a\tbb\n");
+    for (i = 0; i < 200; i++)
+      writer.write((i % 2 == 0) ? "1\tNA\n" : "1\t22\n");
+    writer.close();
+
+    try {
+      DataProfile profile = DataProfile.sample(file, '\t', '"', "NA", true, 10000, 0.1, 1);
+      assertNotNull("no profile", profile);
+      assertEquals("rows", 200, profile.getNumRows());
+      assertEquals("columns", 2, profile.getNumColumns());
+      assertEquals("missing values", 0.0, profile.getMissingFraction()[0]);
+      assertEquals("missing values", 0.5, profile.getMissingFraction()[1]);
+    }
+    finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * Returns a test suite.
+   *
+   * @return the test suite
+   */
+  public static Test suite() {
+    return new TestSuite(DataProfileTest.class);
+  }
+
+  /**
+   * Runs the test from commandline.
+   *
+   * @param args
+   *          ignored
+   */
+  public static void main(String[] args) {
+    Environment.setEnvironmentClass(Environment.class);
+    runTest(suite());
+  }
+}
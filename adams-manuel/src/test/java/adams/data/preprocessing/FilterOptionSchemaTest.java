@@ -0,0 +1,159 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * FilterOptionSchemaTest.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.preprocessing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import weka.core.Option;
+import weka.filters.unsupervised.attribute.Normalize;
+import adams.env.Environment;
+import adams.test.AdamsTestCase;
+
+/**
+ * Tests the FilterOptionSchema class.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class FilterOptionSchemaTest
+  extends AdamsTestCase {
+
+  /**
+   * Initializes the test.
+   *
+   * @param name
+   *          the name of the test
+   */
+  public FilterOptionSchemaTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Tests the types derived from the options.
+   */
+  public void testTypes() {
+    String[] defaults = new String[]{"-F", "-N", "10", "-S", "1.0", "-T", "-2.0", "-C", "abc"};
+
+    FilterOptionSchema.OptionSpec flag = FilterOptionSchema.createSpec(new Option("\tSets the flag.", "F", 0, "-F"), defaults);
+    assertEquals("flag", FilterOptionSchema.OptionType.FLAG, flag.getType());
+    assertEquals("flag default", "true", flag.getDefault());
+
+    FilterOptionSchema.OptionSpec choice = FilterOptionSchema.createSpec(new Option("\tThe mode.", "M", 1, "-M <0|1|2>"), defaults);
+    assertEquals("choice", FilterOptionSchema.OptionType.CHOICE, choice.getType());
+    assertEquals("choices", Arrays.asList("0", "1", "2"), Arrays.asList(choice.choices));
+
+    FilterOptionSchema.OptionSpec integer = FilterOptionSchema.createSpec(new Option("\tThe number.", "N", 1, "-N <num>"), defaults);
+    assertEquals("integer", FilterOptionSchema.OptionType.INTEGER, integer.getType());
+    assertEquals("integer min", 5.0, integer.min);
+    assertEquals("integer max", 20.0, integer.max);
+
+    FilterOptionSchema.OptionSpec positive = FilterOptionSchema.createSpec(new Option("\tThe scale.", "S", 1, "-S <num>"), defaults);
+    assertEquals("double", FilterOptionSchema.OptionType.DOUBLE, positive.getType());
+    assertEquals("double min", 0.5, positive.min);
+    assertEquals("double max", 2.0, positive.max);
+
+    FilterOptionSchema.OptionSpec negative = FilterOptionSchema.createSpec(new Option("\tThe translation.", "T", 1, "-T <num>"), defaults);
+    assertEquals("negative min", -4.0, negative.min);
+    assertEquals("negative max", -1.0, negative.max);
+
+    FilterOptionSchema.OptionSpec fixed = FilterOptionSchema.createSpec(new Option("\tThe class.", "C", 1, "-C <name>"), defaults);
+    assertEquals("fixed", FilterOptionSchema.OptionType.FIXED, fixed.getType());
+    assertEquals("fixed default", "abc", fixed.getDefault());
+
+    assertNull("debug", FilterOptionSchema.createSpec(new Option("\tIf set, turns on debug mode.", "D", 0, "-D"), defaults));
+  }
+
+  /**
+   * Tests that sampled values stay within the ranges and choices.
+   */
+  public void testSample() {
+    String[] defaults = new String[]{"-N", "10", "-S", "1.0"};
+    List<FilterOptionSchema.OptionSpec> specs = new ArrayList<FilterOptionSchema.OptionSpec>();
+    specs.add(FilterOptionSchema.createSpec(new Option("\tSets the flag.", "F", 0, "-F"), defaults));
+    specs.add(FilterOptionSchema.createSpec(new Option("\tThe mode.", "M", 1, "-M <0|1|2>"), defaults));
+    specs.add(FilterOptionSchema.createSpec(new Option("\tThe number.", "N", 1, "-N <num>"), defaults));
+    specs.add(FilterOptionSchema.createSpec(new Option("\tThe scale.", "S", 1, "-S <num>"), defaults));
+    FilterOptionSchema schema = new FilterOptionSchema(Normalize.class, specs);
+
+    Random random = new Random(1);
+    boolean flagSet = false;
+    boolean flagUnset = false;
+    for (int n = 0; n < 100; n++) {
+      List<String> options = Arrays.asList(schema.sample(random));
+      if (options.contains("-F"))
+	flagSet = true;
+      else
+	flagUnset = true;
+      String mode = options.get(options.indexOf("-M") + 1);
+      assertTrue("choice " + mode, Arrays.asList("0", "1", "2").contains(mode));
+      int num = Integer.parseInt(options.get(options.indexOf("-N") + 1));
+      assertTrue("integer " + num, (num >= 5) && (num <= 20));
+      double scale = Double.parseDouble(options.get(options.indexOf("-S") + 1));
+      assertTrue("double " + scale, (scale >= 0.5) && (scale <= 2.0));
+    }
+    assertTrue("flag toggled", flagSet && flagUnset);
+  }
+
+  /**
+   * Tests that only configurations accepted by the filter get returned.
+   *
+   * @throws Exception	if extracting the schema fails
+   */
+  public void testValid() throws Exception {
+    FilterOptionSchema schema = FilterOptionSchema.forClass(Normalize.class);
+    Random random = new Random(1);
+    for (int n = 0; n < 20; n++)
+      assertTrue("not accepted", schema.isValid(schema.sample(random)));
+
+    // "-S" requires a number, the choices get dropped when building the schema
+    List<FilterOptionSchema.OptionSpec> specs = new ArrayList<FilterOptionSchema.OptionSpec>();
+    specs.add(FilterOptionSchema.createSpec(new Option("\tThe scale.", "S", 1, "-S <a|1>"), new String[0]));
+    schema = new FilterOptionSchema(Normalize.class, FilterOptionSchema.check(Normalize.class, specs));
+    assertEquals("choices", Arrays.asList("1"), Arrays.asList(schema.getOptions().get(0).choices));
+    for (int n = 0; n < 20; n++)
+      assertTrue("not accepted", schema.isValid(schema.sample(random)));
+  }
+
+  /**
+   * Returns a test suite.
+   *
+   * @return the test suite
+   */
+  public static Test suite() {
+    return new TestSuite(FilterOptionSchemaTest.class);
+  }
+
+  /**
+   * Runs the test from commandline.
+   *
+   * @param args
+   *          ignored
+   */
+  public static void main(String[] args) {
+    Environment.setEnvironmentClass(Environment.class);
+    runTest(suite());
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * FilterPoolTest.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.preprocessing;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import weka.core.OptionHandler;
+import weka.core.Utils;
+import weka.filters.Filter;
+import adams.env.Environment;
+import adams.test.AdamsTestCase;
+
+/**
+ * Tests the FilterPool class.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class FilterPoolTest
+  extends AdamsTestCase {
+
+  /**
+   * Initializes the test.
+   *
+   * @param name
+   *          the name of the test
+   */
+  public FilterPoolTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Tests reusing released filters.
+   *
+   * @throws Exception	if instantiation fails
+   */
+  public void testReuse() throws Exception {
+    FilterPool pool = new FilterPool();
+    int index = FilterCatalog.getSingleton().indexOf("weka.filters.unsupervised.attribute.Remove");
+    Filter filter = pool.acquire(index, new String[]{"-R", "1,2"});
+    pool.release(filter);
+    Filter reused = pool.acquire(index, new String[0]);
+    assertSame("not reused", filter, reused);
+    assertEquals("options not reset",
+	Utils.joinOptions(((OptionHandler) FilterCatalog.getSingleton().newFilter(index)).getOptions()),
+	Utils.joinOptions(((OptionHandler) reused).getOptions()));
+    assertNotSame("reused twice", reused, pool.acquire(index, new String[0]));
+    assertEquals("reused", 1, pool.getReused());
+    assertEquals("created", 2, pool.getCreated());
+  }
+
+  /**
+   * Returns a test suite.
+   *
+   * @return the test suite
+   */
+  public static Test suite() {
+    return new TestSuite(FilterPoolTest.class);
+  }
+
+  /**
+   * Runs the test from commandline.
+   *
+   * @param args
+   *          ignored
+   */
+  public static void main(String[] args) {
+    Environment.setEnvironmentClass(Environment.class);
+    runTest(suite());
+  }
+}
@@ -0,0 +1,322 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * FittedPipelineTest.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.preprocessing;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.InvalidClassException;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import weka.core.Instances;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.Normalize;
+import weka.filters.unsupervised.attribute.NumericTransform;
+import weka.filters.unsupervised.attribute.Remove;
+import weka.filters.unsupervised.attribute.ReplaceMissingValues;
+import weka.filters.unsupervised.attribute.Standardize;
+import weka.filters.unsupervised.instance.RemoveWithValues;
+import adams.env.Environment;
+import adams.test.AbstractTestHelper;
+import adams.test.AdamsTestCase;
+import adams.test.TestHelper;
+import adams.test.TmpFile;
+
+/**
+ * Tests the FittedPipeline class.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class FittedPipelineTest
+  extends AdamsTestCase {
+
+  final private String inputFile = "RandomRBF-1k.arff";
+
+  /**
+   * Initializes the test.
+   *
+   * @param name
+   *          the name of the test
+   */
+  public FittedPipelineTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Returns the test helper class to use.
+   *
+   * @return the helper class instance
+   */
+  @Override
+  protected AbstractTestHelper newTestHelper() {
+    return new TestHelper(this, "adams/flow/data");
+  }
+
+  /**
+   * Called by JUnit before each test method.
+   *
+   * @throws Exception
+   *           if an error occurs
+   */
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    m_TestHelper.copyResourceToTmp(inputFile);
+  }
+
+  /**
+   * Called by JUnit after each test method.
+   *
+   * @throws Exception
+   *           if tear-down fails
+   */
+  @Override
+  protected void tearDown() throws Exception {
+    m_TestHelper.deleteFileFromTmp(inputFile);
+
+    super.tearDown();
+  }
+
+  /**
+   * Returns the test data, with some missing values.
+   *
+   * @return		the data
+   * @throws Exception	if loading fails
+   */
+  protected Instances getData() throws Exception {
+    FileReader reader = new FileReader(new TmpFile(inputFile));
+    Instances data = new Instances(reader);
+    reader.close();
+    data.setClassIndex(data.numAttributes() - 1);
+    for (int i = 0; i < data.numInstances(); i += 7)
+      data.instance(i).setMissing(i % (data.numAttributes() - 1));
+    return data;
+  }
+
+  /**
+   * Returns the filters, fitted on the data.
+   *
+   * @param data	the data to fit the filters on
+   * @return		the filters
+   * @throws Exception	if fitting fails
+   */
+  protected Filter[] getFilters(Instances data) throws Exception {
+    NumericTransform transform = new NumericTransform();
+    transform.setClassName(Math.class.getName());
+    transform.setMethodName("abs");
+    transform.setAttributeIndices("1-3");
+    Remove remove = new Remove();
+    remove.setAttributeIndices("2,5");
+    Filter[] filters = new Filter[]{
+	new ReplaceMissingValues(), new Standardize(), remove, transform, new Normalize()};
+    for (Filter filter: filters) {
+      filter.setInputFormat(data);
+      data = Filter.useFilter(data, filter);
+    }
+    return filters;
+  }
+
+  /**
+   * Tests that the compiled kernel produces the same output as the filters,
+   * bit for bit.
+   *
+   * @throws Exception	if loading or filtering fails
+   */
+  public void testSameOutput() throws Exception {
+    Instances data = getData();
+    Filter[] filters = getFilters(data);
+    Instances expected = data;
+    for (Filter filter: filters)
+      expected = Filter.useFilter(expected, filter);
+
+    FittedPipeline kernel = FittedPipeline.compile(data, filters);
+    assertEquals("fallbacks: " + kernel, 0, kernel.getNumFallbacks());
+    assertEquals("output format", expected.numAttributes(), kernel.getOutputFormat().numAttributes());
+    for (int i = 0; i < data.numInstances(); i++) {
+      double[] actual = kernel.apply(data.instance(i).toDoubleArray());
+      for (int n = 0; n < expected.numAttributes(); n++)
+	assertEquals("row " + i + ", attribute " + n, expected.instance(i).value(n), actual[n], 0.0);
+    }
+  }
+
+  /**
+   * Tests that the columnar path produces the same output as the row path.
+   *
+   * @throws Exception	if loading or filtering fails
+   */
+  public void testColumnar() throws Exception {
+    Instances data = getData();
+    FittedPipeline kernel = FittedPipeline.compile(data, getFilters(data));
+    assertTrue("columnar", kernel.isColumnar(data));
+
+    Instances actual = kernel.apply(data);
+    assertEquals("rows", data.numInstances(), actual.numInstances());
+    for (int i = 0; i < data.numInstances(); i++) {
+      double[] expected = kernel.apply(data.instance(i).toDoubleArray());
+      for (int n = 0; n < actual.numAttributes(); n++)
+	assertEquals("row " + i + ", attribute " + n, expected[n], actual.instance(i).value(n), 0.0);
+    }
+  }
+
+  /**
+   * Tests that transforming partitions in parallel keeps the rows in order.
+   *
+   * @throws Exception	if loading or filtering fails
+   */
+  public void testPartitioned() throws Exception {
+    Instances data = getData();
+    FittedPipeline kernel = FittedPipeline.compile(data, getFilters(data));
+    assertTrue("row-local", kernel.isRowLocal());
+
+    ForkJoinPool pool = new ForkJoinPool(3);
+    Instances expected = kernel.apply(data);
+    Instances actual = kernel.apply(data, pool, 1);
+    pool.shutdown();
+    assertEquals("rows", expected.numInstances(), actual.numInstances());
+    for (int i = 0; i < expected.numInstances(); i++) {
+      for (int n = 0; n < expected.numAttributes(); n++)
+	assertEquals("row " + i + ", attribute " + n, expected.instance(i).value(n), actual.instance(i).value(n), 0.0);
+    }
+  }
+
+  /**
+   * Tests that a restored snapshot produces the same output.
+   *
+   * @throws Exception	if loading, filtering or the snapshot fails
+   */
+  public void testSnapshot() throws Exception {
+    Instances data = getData();
+    FittedPipeline kernel = FittedPipeline.compile(data, getFilters(data));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    kernel.write(new DataOutputStream(bytes));
+    FittedPipeline restored = FittedPipeline.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    assertEquals("stages", kernel.toString(), restored.toString());
+    assertTrue("output format", kernel.getOutputFormat().equalHeaders(restored.getOutputFormat()));
+    for (int i = 0; i < data.numInstances(); i++) {
+      double[] expected = kernel.apply(data.instance(i).toDoubleArray()).clone();
+      double[] actual = restored.apply(data.instance(i).toDoubleArray());
+      for (int n = 0; n < kernel.getOutputFormat().numAttributes(); n++)
+	assertEquals("row " + i + ", attribute " + n, expected[n], actual[n], 0.0);
+    }
+  }
+
+  /**
+   * Serializes the object.
+   *
+   * @param obj		the object to serialize
+   * @return		the serialized object
+   * @throws Exception	if serialization fails
+   */
+  protected byte[] serialize(Object obj) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(obj);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Tests that only filters get deserialized from snapshots.
+   *
+   * @throws Exception	if serialization fails
+   */
+  public void testRestrictedFilter() throws Exception {
+    Instances data = getData();
+    Standardize filter = new Standardize();
+    filter.setInputFormat(data);
+    Filter.useFilter(data, filter);
+    Object restored = new FittedPipeline.FilterObjectInputStream(new ByteArrayInputStream(serialize(filter))).readObject();
+    assertTrue("filter", restored instanceof Standardize);
+
+    try {
+      new FittedPipeline.FilterObjectInputStream(new ByteArrayInputStream(serialize(new File("x")))).readObject();
+      fail("Deserialized class outside the allowed packages");
+    }
+    catch (InvalidClassException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Tests that rows removed by filters that aren't compiled don't show up
+   * in the output.
+   *
+   * @throws Exception	if loading or filtering fails
+   */
+  public void testRemovedRows() throws Exception {
+    Instances data = getData();
+    RemoveWithValues remove = new RemoveWithValues();
+    remove.setAttributeIndex("last");
+    remove.setNominalIndices("1");
+    Filter[] filters = new Filter[]{new Standardize(), remove};
+    Instances expected = data;
+    for (Filter filter: filters) {
+      filter.setInputFormat(expected);
+      expected = Filter.useFilter(expected, filter);
+    }
+
+    FittedPipeline kernel = FittedPipeline.compile(data, filters);
+    assertEquals("fallbacks: " + kernel, 1, kernel.getNumFallbacks());
+    Instances actual = kernel.apply(data);
+    assertTrue("rows removed", expected.numInstances() < data.numInstances());
+    assertEquals("rows", expected.numInstances(), actual.numInstances());
+    for (int i = 0; i < expected.numInstances(); i++) {
+      for (int n = 0; n < expected.numAttributes(); n++)
+	assertEquals("row " + i + ", attribute " + n, expected.instance(i).value(n), actual.instance(i).value(n), 0.0);
+    }
+
+    int rows = 0;
+    for (int i = 0; i < data.numInstances(); i++) {
+      if (kernel.apply(data.instance(i)) != null)
+	rows++;
+    }
+    assertEquals("single rows", expected.numInstances(), rows);
+  }
+
+  /**
+   * Returns a test suite.
+   *
+   * @return the test suite
+   */
+  public static Test suite() {
+    return new TestSuite(FittedPipelineTest.class);
+  }
+
+  /**
+   * Runs the test from commandline.
+   *
+   * @param args
+   *          ignored
+   */
+  public static void main(String[] args) {
+    Environment.setEnvironmentClass(Environment.class);
+    runTest(suite());
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * LeaderboardTest.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.preprocessing;
+
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import adams.env.Environment;
+import adams.flow.sink.PipelineLeaderboard;
+import adams.test.AdamsTestCase;
+
+/**
+ * Tests the Leaderboard class.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class LeaderboardTest
+  extends AdamsTestCase {
+
+  /**
+   * Initializes the test.
+   *
+   * @param name
+   *          the name of the test
+   */
+  public LeaderboardTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Compares the running statistics with the statistics of all values.
+   */
+  public void testStatistics() {
+    Leaderboard board = new Leaderboard(5);
+    Random random = new Random(1);
+    double[] values = new double[1000];
+    double sum = 0;
+    for (int i = 0; i < values.length; i++) {
+      values[i] = 70 + random.nextGaussian() * 5;
+      sum += values[i];
+      board.add(new Leaderboard.Result("A", "data" + (i % 2), values[i], Double.NaN));
+    }
+    double mean = sum / values.length;
+    double variance = 0;
+    for (int i = 0; i < values.length; i++)
+      variance += (values[i] - mean) * (values[i] - mean);
+    variance /= values.length - 1;
+
+    Leaderboard.Statistics stats = board.getPipeline("A");
+    assertEquals("count", values.length, stats.getAccuracy().getCount());
+    assertEquals("mean", mean, stats.getAccuracy().getMean(), 1e-9);
+    assertEquals("variance", variance, stats.getAccuracy().getVariance(), 1e-9);
+    assertEquals("missing values", 0, stats.getRMSE().getCount());
+    assertEquals("per dataset", values.length / 2, board.getDataset("data0").getAccuracy().getCount());
+
+    List<Leaderboard.Result> top = board.getTop();
+    assertEquals("top k", 5, top.size());
+    for (int i = 1; i < top.size(); i++)
+      assertTrue("order", top.get(i - 1).getAccuracy() >= top.get(i).getAccuracy());
+  }
+
+  /**
+   * Tests dropping the lowest ranked pipelines.
+   */
+  public void testMaxEntries() {
+    Leaderboard board = new Leaderboard(5, 3);
+    for (int i = 0; i < 10; i++)
+      board.add(new Leaderboard.Result("P" + i, "data", 50 + i, Double.NaN));
+    // updated pipelines move up in the ranking
+    board.add(new Leaderboard.Result("P7", "data", 90, Double.NaN));
+    assertNull("dropped", board.getPipeline("P6"));
+    assertNotNull("kept", board.getPipeline("P9"));
+    assertEquals("updated", 2, board.getPipeline("P7").getAccuracy().getCount());
+    assertEquals("dataset", 11, board.getDataset("data").getAccuracy().getCount());
+
+    String snapshot = board.toSnapshot();
+    snapshot = snapshot.substring(snapshot.indexOf("# pipelines"), snapshot.indexOf("# datasets"));
+    assertEquals("lines", 5, snapshot.split("\n").length);
+    assertTrue("ranked", snapshot.indexOf("\tP7\n") < snapshot.indexOf("\tP9\n"));
+    assertTrue("ranked", snapshot.indexOf("\tP9\n") < snapshot.indexOf("\tP8\n"));
+
+    // dropped pipelines continue with their statistics
+    board.add(new Leaderboard.Result("P6", "data", 95, Double.NaN));
+    assertEquals("restored", 2, board.getPipeline("P6").getAccuracy().getCount());
+    assertEquals("restored", 75.5, board.getPipeline("P6").getAccuracy().getMean(), 1e-9);
+    // only the most recently dropped ones are retained
+    for (int i = 0; i < 5; i++)
+      board.add(new Leaderboard.Result("Q" + i, "data", 99, Double.NaN));
+    board.add(new Leaderboard.Result("P0", "data", 10, Double.NaN));
+    assertEquals("forgotten", 1, board.getPipeline("P0").getAccuracy().getCount());
+  }
+
+  /**
+   * Tests parsing result lines with commas and quotes in the filters.
+   */
+  public void testParse() {
+    String filters = "\"weka.filters.unsupervised.attribute.Remove -R 1,2\" weka.filters.unsupervised.attribute.Normalize";
+    Leaderboard.Result result = PipelineLeaderboard.parse(
+	"J48, " + PipelineLeaderboard.quote(filters) + ", iris, 94.0, 0.2");
+    assertNotNull("not parsed", result);
+    assertEquals("pipeline", "J48, " + filters, result.getPipeline());
+    assertEquals("dataset", "iris", result.getDataset());
+    assertEquals("accuracy", 94.0, result.getAccuracy());
+    assertEquals("rmse", 0.2, result.getRMSE());
+    assertNull("malformed", PipelineLeaderboard.parse("J48, iris, 94.0"));
+    assertNull("unquoted", PipelineLeaderboard.parse("J48, weka.filters.unsupervised.attribute.Remove -R 1,2, iris, 94.0, 0.2"));
+  }
+
+  /**
+   * Returns a test suite.
+   *
+   * @return the test suite
+   */
+  public static Test suite() {
+    return new TestSuite(LeaderboardTest.class);
+  }
+
+  /**
+   * Runs the test from commandline.
+   *
+   * @param args
+   *          ignored
+   */
+  public static void main(String[] args) {
+    Environment.setEnvironmentClass(Environment.class);
+    runTest(suite());
+  }
+}
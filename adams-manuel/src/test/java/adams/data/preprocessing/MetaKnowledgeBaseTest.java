@@ -0,0 +1,145 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * MetaKnowledgeBaseTest.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.preprocessing;
+
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import adams.env.Environment;
+import adams.test.AdamsTestCase;
+import adams.test.TmpFile;
+
+/**
+ * Tests the MetaKnowledgeBase class.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class MetaKnowledgeBaseTest
+  extends AdamsTestCase {
+
+  final private String kbFile = "kb.txt";
+
+  /**
+   * Initializes the test.
+   *
+   * @param name
+   *          the name of the test
+   */
+  public MetaKnowledgeBaseTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Called by JUnit after each test method.
+   *
+   * @throws Exception
+   *           if tear-down fails
+   */
+  @Override
+  protected void tearDown() throws Exception {
+    m_TestHelper.deleteFileFromTmp(kbFile);
+
+    super.tearDown();
+  }
+
+  /**
+   * Returns a knowledge base with random entries.
+   *
+   * @param random	the random number generator to use
+   * @return		the knowledge base
+   */
+  protected MetaKnowledgeBase getKnowledgeBase(Random random) {
+    MetaKnowledgeBase kb = new MetaKnowledgeBase();
+    int numFilters = FilterCatalog.getSingleton().size();
+    for (int i = 0; i < 200; i++) {
+      double[] features = new double[MetaKnowledgeBase.NUM_FEATURES];
+      for (int d = 0; d < features.length; d++)
+	features[d] = random.nextDouble() * (d + 1);
+      kb.add(features, random.nextDouble(), new PipelineDescriptor(new int[]{i % numFilters}));
+    }
+    return kb;
+  }
+
+  /**
+   * Compares the KD-tree lookup with a linear scan.
+   */
+  public void testNeighbours() {
+    Random random = new Random(1);
+    MetaKnowledgeBase kb = getKnowledgeBase(random);
+    for (int n = 0; n < 20; n++) {
+      double[] query = new double[MetaKnowledgeBase.NUM_FEATURES];
+      for (int d = 0; d < query.length; d++)
+	query[d] = random.nextDouble() * (d + 1);
+      List<MetaKnowledgeBase.Entry> neighbours = kb.getNeighbours(query, 5);
+      assertEquals("number of neighbours", 5, neighbours.size());
+
+      // the nearest entry, using a linear scan
+      MetaKnowledgeBase.Entry nearest = null;
+      double min = Double.POSITIVE_INFINITY;
+      double[] normQuery = kb.normalize(query);
+      for (int i = 0; i < kb.size(); i++) {
+	double dist = MetaKnowledgeBase.distance(normQuery, kb.normalize(kb.get(i).getFeatures()));
+	if (dist < min) {
+	  min = dist;
+	  nearest = kb.get(i);
+	}
+      }
+      assertSame("nearest neighbour", nearest, neighbours.get(0));
+    }
+  }
+
+  /**
+   * Tests saving and loading.
+   *
+   * @throws Exception	if saving or loading fails
+   */
+  public void testPersistence() throws Exception {
+    MetaKnowledgeBase kb = getKnowledgeBase(new Random(2));
+    kb.save(new TmpFile(kbFile));
+    MetaKnowledgeBase loaded = MetaKnowledgeBase.load(new TmpFile(kbFile));
+    assertEquals("size", kb.size(), loaded.size());
+    double[] query = kb.get(10).getFeatures();
+    assertEquals("recommendation", kb.recommend(query, 3), loaded.recommend(query, 3));
+  }
+
+  /**
+   * Returns a test suite.
+   *
+   * @return the test suite
+   */
+  public static Test suite() {
+    return new TestSuite(MetaKnowledgeBaseTest.class);
+  }
+
+  /**
+   * Runs the test from commandline.
+   *
+   * @param args
+   *          ignored
+   */
+  public static void main(String[] args) {
+    Environment.setEnvironmentClass(Environment.class);
+    runTest(suite());
+  }
+}
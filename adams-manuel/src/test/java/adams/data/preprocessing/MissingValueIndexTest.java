@@ -0,0 +1,126 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * MissingValueIndexTest.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.preprocessing;
+
+import java.util.ArrayList;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.core.Utils;
+import adams.env.Environment;
+import adams.test.AdamsTestCase;
+
+/**
+ * Tests the MissingValueIndex class.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class MissingValueIndexTest
+  extends AdamsTestCase {
+
+  /**
+   * Initializes the test.
+   *
+   * @param name
+   *          the name of the test
+   */
+  public MissingValueIndexTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Returns a dataset with 100 rows: the first column is missing in the
+   * first half, the second in rows 3 and 7, the third column is complete.
+   *
+   * @return		the dataset
+   */
+  protected Instances getData() {
+    ArrayList<Attribute> atts = new ArrayList<Attribute>();
+    atts.add(new Attribute("a"));
+    atts.add(new Attribute("b"));
+    atts.add(new Attribute("c"));
+    Instances result = new Instances("test", atts, 100);
+    for (int i = 0; i < 100; i++) {
+      double[] values = new double[]{i, i, i};
+      if (i < 50)
+	values[0] = Utils.missingValue();
+      if ((i == 3) || (i == 7))
+	values[1] = Utils.missingValue();
+      result.add(new DenseInstance(1.0, values));
+    }
+    return result;
+  }
+
+  /**
+   * Tests the queries.
+   */
+  public void testQueries() {
+    MissingValueIndex index = new MissingValueIndex(getData());
+    assertTrue("missing values", index.hasMissing());
+    assertEquals("count", 50, index.getCount(0));
+    assertEquals("count", 2, index.getCount(1));
+    assertEquals("count", 0, index.getCount(2));
+    assertTrue("missing", index.isMissing(7, 1));
+    assertFalse("not missing", index.isMissing(8, 1));
+    assertEquals("rows with missing", 50, index.getRowsWithMissing().length);
+    assertEquals("columns above", 1, index.getColumnsAbove(0.4).length);
+    assertEquals("co-missing", 2, index.getCoMissingCount(0, 1));
+    assertEquals("co-missing pairs", 0, index.getCoMissingPairs(0.5).size());
+    assertEquals("counts by row", 2, index.getCountsByRow()[3]);
+  }
+
+  /**
+   * Tests an empty dataset.
+   */
+  public void testEmpty() {
+    MissingValueIndex index = new MissingValueIndex(new Instances(getData(), 0));
+    assertFalse("missing values", index.hasMissing());
+    assertEquals("fraction", 0.0, index.getFraction(0));
+    assertEquals("rows with missing", 0, index.getRowsWithMissing().length);
+    assertEquals("columns above", 0, index.getColumnsAbove(0.0).length);
+    assertEquals("counts by row", 0, index.getCountsByRow().length);
+    assertEquals("co-missing pairs", 0, index.getCoMissingPairs(0.0).size());
+  }
+
+  /**
+   * Returns a test suite.
+   *
+   * @return the test suite
+   */
+  public static Test suite() {
+    return new TestSuite(MissingValueIndexTest.class);
+  }
+
+  /**
+   * Runs the test from commandline.
+   *
+   * @param args
+   *          ignored
+   */
+  public static void main(String[] args) {
+    Environment.setEnvironmentClass(Environment.class);
+    runTest(suite());
+  }
+}
@@ -0,0 +1,344 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * PipelineCoordinatorTest.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.preprocessing;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import adams.env.Environment;
+import adams.test.AdamsTestCase;
+
+/**
+ * Tests the PipelineCoordinator class, using in-process workers.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class PipelineCoordinatorTest
+  extends AdamsTestCase {
+
+  /** the shared secret. */
+  public final static String SECRET = "secret";
+
+  /**
+   * Coordinator that counts instead of forking workers.
+   */
+  public static class CountingCoordinator
+    extends PipelineCoordinator {
+
+    /** the number of forked workers. */
+    protected int m_Forked;
+
+    /**
+     * Initializes the coordinator.
+     *
+     * @param numWorkers	the number of local workers to "fork"
+     * @param maxAttempts	the maximum number of attempts per task
+     */
+    public CountingCoordinator(int numWorkers, int maxAttempts) {
+      super(numWorkers, 0, maxAttempts);
+    }
+
+    /**
+     * Only counts the worker.
+     */
+    @Override
+    protected synchronized void forkWorker() {
+      m_Forked++;
+    }
+
+    /**
+     * Returns the number of forked workers.
+     *
+     * @return		the number
+     */
+    public synchronized int getForked() {
+      return m_Forked;
+    }
+  }
+
+  /** the coordinator to test. */
+  protected PipelineCoordinator m_Coordinator;
+
+  /**
+   * Initializes the test.
+   *
+   * @param name
+   *          the name of the test
+   */
+  public PipelineCoordinatorTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Stops the coordinator.
+   *
+   * @throws Exception if tear-down fails
+   */
+  @Override
+  protected void tearDown() throws Exception {
+    if (m_Coordinator != null)
+      m_Coordinator.shutdown();
+    m_Coordinator = null;
+    super.tearDown();
+  }
+
+  /**
+   * Starts a coordinator.
+   *
+   * @param coordinator	the coordinator to start
+   * @return		the started coordinator
+   * @throws IOException	if starting fails
+   */
+  protected PipelineCoordinator start(PipelineCoordinator coordinator) throws IOException {
+    m_Coordinator = coordinator;
+    m_Coordinator.setSecret(SECRET);
+    m_Coordinator.start();
+    return m_Coordinator;
+  }
+
+  /**
+   * Returns a new task.
+   *
+   * @param id		the ID of the task
+   * @return		the task
+   */
+  protected PipelineTask newTask(int id) {
+    return new PipelineTask(id, "generator", "dataset.arff", "classifier", 10, 1);
+  }
+
+  /**
+   * Connects a remote worker to the coordinator.
+   *
+   * @param secret	the secret to authenticate with
+   * @return		the connection
+   * @throws IOException	if connecting or authenticating fails
+   */
+  protected Socket connect(String secret) throws IOException {
+    Socket		result;
+    DataOutputStream	data;
+
+    result = new Socket(InetAddress.getByName(null), m_Coordinator.getPort());
+    result.setSoTimeout(10000);
+    try {
+      PipelineCoordinator.authenticate(result, secret, false);
+      data = new DataOutputStream(result.getOutputStream());
+      data.writeInt(-1);
+      data.flush();
+    }
+    catch (IOException e) {
+      result.close();
+      throw e;
+    }
+    return result;
+  }
+
+  /**
+   * Connects a worker that receives a task and then drops the connection.
+   *
+   * @return		the received task
+   * @throws Exception	if communication fails
+   */
+  protected PipelineTask drop() throws Exception {
+    Socket		socket;
+    ObjectInputStream	in;
+
+    socket = connect(SECRET);
+    try {
+      new ObjectOutputStream(socket.getOutputStream()).flush();
+      in = new ObjectInputStream(socket.getInputStream());
+      return (PipelineTask) in.readObject();
+    }
+    finally {
+      socket.close();
+    }
+  }
+
+  /**
+   * Connects a worker that evaluates a single task.
+   *
+   * @return		the evaluated task
+   * @throws Exception	if communication fails
+   */
+  protected PipelineTask evaluate() throws Exception {
+    Socket		socket;
+    ObjectOutputStream	out;
+    ObjectInputStream	in;
+    PipelineTask	result;
+
+    socket = connect(SECRET);
+    try {
+      out = new ObjectOutputStream(socket.getOutputStream());
+      out.flush();
+      in = new ObjectInputStream(socket.getInputStream());
+      result = (PipelineTask) in.readObject();
+      out.writeObject(new PipelineResult(result, "filters", 0.9, 0.1));
+      out.flush();
+      return result;
+    }
+    finally {
+      socket.close();
+    }
+  }
+
+  /**
+   * Waits till the coordinator has re-queued the number of tasks.
+   *
+   * @param count	the number of queued tasks to wait for
+   * @throws InterruptedException	if interrupted
+   */
+  protected void waitForQueued(int count) throws InterruptedException {
+    int		i;
+
+    for (i = 0; i < 100; i++) {
+      if (m_Coordinator.m_Tasks.size() == count)
+	return;
+      Thread.sleep(100);
+    }
+    fail("Task not re-queued");
+  }
+
+  /**
+   * Tests re-queuing the task of a worker that died.
+   *
+   * @throws Exception	if test fails
+   */
+  public void testRequeue() throws Exception {
+    PipelineTask	task;
+    PipelineResult	result;
+
+    start(new PipelineCoordinator(0, 0, 3));
+    m_Coordinator.submit(newTask(1));
+    task = drop();
+    assertEquals("first attempt", 0, task.getAttempts());
+    waitForQueued(1);
+    task = evaluate();
+    assertEquals("second attempt", 1, task.getAttempts());
+    result = m_Coordinator.take();
+    assertFalse("no error", result.hasError());
+    assertEquals("same task", 1, result.getTask().getID());
+    assertEquals("accuracy", 0.9, result.getAccuracy(), 0.0);
+  }
+
+  /**
+   * Tests giving up on a task after the maximum number of attempts.
+   *
+   * @throws Exception	if test fails
+   */
+  public void testMaxAttempts() throws Exception {
+    PipelineResult	result;
+
+    start(new PipelineCoordinator(0, 0, 2));
+    m_Coordinator.submit(newTask(1));
+    drop();
+    waitForQueued(1);
+    drop();
+    result = m_Coordinator.take();
+    assertTrue("error", result.hasError());
+    assertTrue("gave up: " + result.getError(), result.getError().startsWith("Giving up after 2 attempts"));
+    assertEquals("not re-queued", 0, m_Coordinator.m_Tasks.size());
+  }
+
+  /**
+   * Tests that remote workers that die don't get replaced by local ones.
+   *
+   * @throws Exception	if test fails
+   */
+  public void testRemoteNotReplaced() throws Exception {
+    CountingCoordinator	coordinator;
+
+    coordinator = new CountingCoordinator(1, 3);
+    start(coordinator);
+    assertEquals("initial workers", 1, coordinator.getForked());
+    m_Coordinator.submit(newTask(1));
+    drop();
+    waitForQueued(1);
+    assertEquals("no replacement", 1, coordinator.getForked());
+  }
+
+  /**
+   * Tests rejecting workers that use the wrong secret.
+   *
+   * @throws Exception	if test fails
+   */
+  public void testWrongSecret() throws Exception {
+    start(new PipelineCoordinator(0, 0, 3));
+    m_Coordinator.submit(newTask(1));
+    try {
+      connect("wrong").close();
+      fail("Authenticated with wrong secret");
+    }
+    catch (IOException e) {
+      // expected
+    }
+    assertEquals("task not handed out", 1, m_Coordinator.m_Tasks.size());
+    assertEquals("no connections", 0, m_Coordinator.m_Connections.get());
+  }
+
+  /**
+   * Tests that waiting for results ends when shutting down.
+   *
+   * @throws Exception	if test fails
+   */
+  public void testShutdown() throws Exception {
+    start(new PipelineCoordinator(0, 0, 3));
+    m_Coordinator.submit(newTask(1));
+    new Thread() {
+      @Override
+      public void run() {
+	try {
+	  Thread.sleep(500);
+	}
+	catch (InterruptedException e) {
+	  // ignored
+	}
+	m_Coordinator.shutdown();
+      }
+    }.start();
+    assertNull("no result", m_Coordinator.take());
+  }
+
+  /**
+   * Returns a test suite.
+   *
+   * @return the test suite
+   */
+  public static Test suite() {
+    return new TestSuite(PipelineCoordinatorTest.class);
+  }
+
+  /**
+   * Runs the test from commandline.
+   *
+   * @param args
+   *          ignored
+   */
+  public static void main(String[] args) {
+    Environment.setEnvironmentClass(Environment.class);
+    runTest(suite());
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * PipelineDescriptorTest.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.preprocessing;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import adams.env.Environment;
+import adams.flow.control.SubProcess;
+import adams.test.AdamsTestCase;
+
+/**
+ * Tests the encodings of the PipelineDescriptor class.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class PipelineDescriptorTest
+  extends AdamsTestCase {
+
+  /**
+   * Initializes the test.
+   *
+   * @param name
+   *          the name of the test
+   */
+  public PipelineDescriptorTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Returns a descriptor with options that need quoting.
+   *
+   * @return		the descriptor
+   */
+  protected PipelineDescriptor getDescriptor() {
+    FilterCatalog catalog = FilterCatalog.getSingleton();
+    return new PipelineDescriptor(
+	new int[]{
+	    catalog.indexOf("weka.filters.unsupervised.attribute.Normalize"),
+	    catalog.indexOf("weka.filters.unsupervised.attribute.Remove")},
+	new String[][]{
+	    {"-S", "2.0", "-T", "-1.0"},
+	    {"-R", "1, 3"}});
+  }
+
+  /**
+   * Tests the text encoding.
+   *
+   * @throws Exception	if parsing fails
+   */
+  public void testText() throws Exception {
+    PipelineDescriptor desc = getDescriptor();
+    PipelineDescriptor parsed = PipelineDescriptor.parse(desc.toText());
+    assertEquals("text differs", desc.toText(), parsed.toText());
+    assertEquals("descriptors differ", desc, parsed);
+    assertEquals("hashes differ", desc.hash64(), parsed.hash64());
+  }
+
+  /**
+   * Tests the binary encoding.
+   *
+   * @throws Exception	if decoding fails
+   */
+  public void testBytes() throws Exception {
+    PipelineDescriptor desc = getDescriptor();
+    PipelineDescriptor decoded = PipelineDescriptor.decode(desc.toBytes());
+    assertEquals("descriptors differ", desc, decoded);
+    assertEquals("hashes differ", desc.hash64(), decoded.hash64());
+    assertFalse("hash ignores options",
+	desc.hash64() == new PipelineDescriptor(new int[]{desc.getFilterIndex(0), desc.getFilterIndex(1)}).hash64());
+  }
+
+  /**
+   * Tests that serialization uses the classnames.
+   *
+   * @throws Exception	if serialization fails
+   */
+  public void testSerialization() throws Exception {
+    PipelineDescriptor desc = getDescriptor();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(desc);
+    out.close();
+    assertTrue("classname not serialized", bytes.toString("ISO-8859-1").contains("weka.filters.unsupervised.attribute.Normalize"));
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    PipelineDescriptor read = (PipelineDescriptor) in.readObject();
+    in.close();
+    assertEquals("descriptors differ", desc, read);
+  }
+
+  /**
+   * Tests decoding into actors.
+   *
+   * @throws Exception	if materializing fails
+   */
+  public void testMaterialize() throws Exception {
+    SubProcess seq = PipelineDescriptor.parse(getDescriptor().toText()).materialize();
+    assertEquals("number of actors", 3, seq.size());
+  }
+
+  /**
+   * Returns a test suite.
+   *
+   * @return the test suite
+   */
+  public static Test suite() {
+    return new TestSuite(PipelineDescriptorTest.class);
+  }
+
+  /**
+   * Runs the test from commandline.
+   *
+   * @param args
+   *          ignored
+   */
+  public static void main(String[] args) {
+    Environment.setEnvironmentClass(Environment.class);
+    runTest(suite());
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * PipelineOptimizerTest.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.preprocessing;
+
+import java.util.ArrayList;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import adams.env.Environment;
+import adams.test.AdamsTestCase;
+
+/**
+ * Tests the PipelineOptimizer class.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class PipelineOptimizerTest
+  extends AdamsTestCase {
+
+  /**
+   * Initializes the test.
+   *
+   * @param name
+   *          the name of the test
+   */
+  public PipelineOptimizerTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Returns the catalog index of the filter.
+   *
+   * @param classname	the filter
+   * @return		the index
+   */
+  protected int indexOf(String classname) {
+    int result = FilterCatalog.getSingleton().indexOf(classname);
+    assertTrue("not in catalog: " + classname, result > -1);
+    return result;
+  }
+
+  /**
+   * Returns a pipeline with the filters, using their default options.
+   *
+   * @param classnames	the filters
+   * @return		the pipeline
+   */
+  protected PipelineDescriptor newPipeline(String... classnames) {
+    int[] filters = new int[classnames.length];
+    for (int i = 0; i < classnames.length; i++)
+      filters[i] = indexOf(classnames[i]);
+    return new PipelineDescriptor(filters);
+  }
+
+  /**
+   * Returns a dataset with numeric attributes only, no missing values.
+   *
+   * @return		the dataset
+   */
+  protected Instances getData() {
+    ArrayList<Attribute> atts = new ArrayList<Attribute>();
+    atts.add(new Attribute("a"));
+    atts.add(new Attribute("b"));
+    Instances result = new Instances("test", atts, 10);
+    for (int i = 0; i < 10; i++)
+      result.add(new DenseInstance(1.0, new double[]{i, 2 * i}));
+    return result;
+  }
+
+  /**
+   * Tests removing filters whose output gets overwritten.
+   */
+  public void testRedundant() {
+    assertEquals("scaler overwritten",
+	newPipeline(PipelineOptimizer.NORMALIZE),
+	PipelineOptimizer.optimize(newPipeline(PipelineOptimizer.STANDARDIZE, PipelineOptimizer.NORMALIZE), null));
+    assertEquals("idempotent",
+	newPipeline(PipelineOptimizer.REPLACE_MISSING),
+	PipelineOptimizer.optimize(newPipeline(PipelineOptimizer.REPLACE_MISSING, PipelineOptimizer.REPLACE_MISSING), null));
+  }
+
+  /**
+   * Tests moving filters that reduce the data to the front.
+   */
+  public void testReorder() {
+    assertEquals("remove first",
+	newPipeline(PipelineOptimizer.REMOVE, PipelineOptimizer.NORMALIZE),
+	PipelineOptimizer.optimize(newPipeline(PipelineOptimizer.NORMALIZE, PipelineOptimizer.REMOVE), null));
+  }
+
+  /**
+   * Tests that commuting filters end up in the same order.
+   */
+  public void testCanonical() {
+    PipelineDescriptor p1 = PipelineOptimizer.optimize(newPipeline(PipelineOptimizer.REPLACE_MISSING, PipelineOptimizer.NORMALIZE), null);
+    PipelineDescriptor p2 = PipelineOptimizer.optimize(newPipeline(PipelineOptimizer.NORMALIZE, PipelineOptimizer.REPLACE_MISSING), null);
+    assertEquals("same pipeline", p1, p2);
+    assertEquals("same hash", p1.hash64(), p2.hash64());
+  }
+
+  /**
+   * Tests removing filters that have nothing to work on in the dataset.
+   */
+  public void testNoOps() {
+    PipelineDescriptor pipeline = newPipeline(PipelineOptimizer.REPLACE_MISSING, PipelineOptimizer.NOMINAL_TO_BINARY, PipelineOptimizer.NORMALIZE);
+    assertEquals("without data", 3, PipelineOptimizer.optimize(pipeline, null).size());
+    assertEquals("with data",
+	newPipeline(PipelineOptimizer.REPLACE_MISSING, PipelineOptimizer.NORMALIZE),
+	PipelineOptimizer.optimize(pipeline, getData()));
+    assertEquals("with rows",
+	newPipeline(PipelineOptimizer.NORMALIZE),
+	PipelineOptimizer.optimize(pipeline, getData(), true));
+  }
+
+  /**
+   * Tests that filters with non-default options are left alone.
+   */
+  public void testOptions() {
+    PipelineDescriptor pipeline = new PipelineDescriptor(
+	new int[]{indexOf(PipelineOptimizer.STANDARDIZE), indexOf(PipelineOptimizer.NORMALIZE)},
+	new String[][]{new String[]{"-unset-class-temporarily"}, null});
+    assertEquals("scaler kept", pipeline, PipelineOptimizer.optimize(pipeline, null));
+    pipeline = new PipelineDescriptor(
+	new int[]{indexOf(PipelineOptimizer.NOMINAL_TO_BINARY)},
+	new String[][]{new String[]{"-N"}});
+    assertEquals("no-op kept", pipeline, PipelineOptimizer.optimize(pipeline, getData()));
+  }
+
+  /**
+   * Returns a test suite.
+   *
+   * @return the test suite
+   */
+  public static Test suite() {
+    return new TestSuite(PipelineOptimizerTest.class);
+  }
+
+  /**
+   * Runs the test from commandline.
+   *
+   * @param args
+   *          ignored
+   */
+  public static void main(String[] args) {
+    Environment.setEnvironmentClass(Environment.class);
+    runTest(suite());
+  }
+}
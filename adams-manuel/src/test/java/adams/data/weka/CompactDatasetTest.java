@@ -0,0 +1,157 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * CompactDatasetTest.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.weka;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ConverterUtils.DataSource;
+import adams.env.Environment;
+import adams.test.AbstractTestHelper;
+import adams.test.AdamsTestCase;
+import adams.test.TestHelper;
+import adams.test.TmpFile;
+
+/**
+ * Tests the CompactDataset class.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class CompactDatasetTest
+  extends AdamsTestCase {
+
+  final private String inputFile = "RandomRBF-1k.arff";
+
+  /**
+   * Initializes the test.
+   *
+   * @param name
+   *          the name of the test
+   */
+  public CompactDatasetTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Returns the test helper class to use.
+   *
+   * @return the helper class instance
+   */
+  @Override
+  protected AbstractTestHelper newTestHelper() {
+    return new TestHelper(this, "adams/flow/data");
+  }
+
+  /**
+   * Called by JUnit before each test method.
+   *
+   * @throws Exception
+   *           if an error occurs
+   */
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    m_TestHelper.copyResourceToTmp(inputFile);
+  }
+
+  /**
+   * Called by JUnit after each test method.
+   *
+   * @throws Exception
+   *           if tear-down fails
+   */
+  @Override
+  protected void tearDown() throws Exception {
+    m_TestHelper.deleteFileFromTmp(inputFile);
+
+    super.tearDown();
+  }
+
+  /**
+   * Tests that converting back gives the same values, missing values and
+   * weights, and that less memory is used.
+   *
+   * @throws Exception	if loading fails
+   */
+  public void testRoundTrip() throws Exception {
+    Instances data = DataSource.read(new TmpFile(inputFile).getAbsolutePath());
+    data.setClassIndex(data.numAttributes() - 1);
+    for (int i = 0; i < data.numInstances(); i += 7)
+      data.instance(i).setMissing(i % data.numAttributes());
+    data.instance(3).setWeight(2.5);
+
+    CompactDataset compact = CompactDataset.compress(data);
+    assertTrue("smaller", compact.sizeInBytes() < DatasetCache.estimateSize(data));
+
+    Instances restored = compact.toInstances();
+    assertTrue("header: " + data.equalHeadersMsg(restored), data.equalHeaders(restored));
+    assertEquals("class index", data.classIndex(), restored.classIndex());
+    assertEquals("rows", data.numInstances(), restored.numInstances());
+    for (int i = 0; i < data.numInstances(); i++) {
+      assertEquals("weight of row " + i, data.instance(i).weight(), restored.instance(i).weight(), 0.0);
+      for (int n = 0; n < data.numAttributes(); n++) {
+	assertEquals("missing in row " + i + ", attribute " + n, data.instance(i).isMissing(n), restored.instance(i).isMissing(n));
+	if (!data.instance(i).isMissing(n))
+	  assertEquals("row " + i + ", attribute " + n, data.instance(i).value(n), restored.instance(i).value(n), 0.0);
+      }
+    }
+  }
+
+  /**
+   * Tests that values which cannot be stored as floats are not rounded.
+   *
+   * @throws Exception	if loading fails
+   */
+  public void testDoublePrecision() throws Exception {
+    Instances data = DataSource.read(new TmpFile(inputFile).getAbsolutePath());
+    data.instance(0).setValue(0, 0.1);
+    data.instance(1).setValue(1, 0.5);
+    data.instance(2).setValue(1, Utils.missingValue());
+
+    CompactDataset compact = CompactDataset.compress(data);
+    assertEquals("double", 0.1, compact.value(0, 0), 0.0);
+    assertEquals("float", 0.5, compact.value(1, 1), 0.0);
+    assertTrue("missing", compact.isMissing(2, 1));
+  }
+
+  /**
+   * Returns a test suite.
+   *
+   * @return the test suite
+   */
+  public static Test suite() {
+    return new TestSuite(CompactDatasetTest.class);
+  }
+
+  /**
+   * Runs the test from commandline.
+   *
+   * @param args
+   *          ignored
+   */
+  public static void main(String[] args) {
+    Environment.setEnvironmentClass(Environment.class);
+    runTest(suite());
+  }
+}
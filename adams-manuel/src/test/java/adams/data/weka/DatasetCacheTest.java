@@ -0,0 +1,217 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * DatasetCacheTest.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.weka;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import weka.core.Instances;
+import adams.env.Environment;
+import adams.test.AbstractTestHelper;
+import adams.test.AdamsTestCase;
+import adams.test.TestHelper;
+import adams.test.TmpFile;
+
+/**
+ * Tests the DatasetCache class.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class DatasetCacheTest
+  extends AdamsTestCase {
+
+  final private String arffFile = "RandomRBF-1k.arff";
+
+  final private String csvFile = "RandomRBF-1k-copy.csv";
+
+  /**
+   * Initializes the test.
+   *
+   * @param name
+   *          the name of the test
+   */
+  public DatasetCacheTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Returns the test helper class to use.
+   *
+   * @return the helper class instance
+   */
+  @Override
+  protected AbstractTestHelper newTestHelper() {
+    return new TestHelper(this, "adams/flow/data");
+  }
+
+  /**
+   * Called by JUnit before each test method.
+   *
+   * @throws Exception
+   *           if an error occurs
+   */
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    m_TestHelper.copyResourceToTmp(arffFile);
+    m_TestHelper.copyResourceToTmp(csvFile);
+  }
+
+  /**
+   * Called by JUnit after each test method.
+   *
+   * @throws Exception
+   *           if tear-down fails
+   */
+  @Override
+  protected void tearDown() throws Exception {
+    m_TestHelper.deleteFileFromTmp(arffFile);
+    m_TestHelper.deleteFileFromTmp(csvFile);
+
+    super.tearDown();
+  }
+
+  /**
+   * Returns a new, unlimited cache.
+   *
+   * @param compact	whether to compact datasets
+   * @return		the cache
+   */
+  protected DatasetCache newCache(boolean compact) {
+    DatasetCache result = new DatasetCache();
+    result.setMaxHeap(0);
+    result.setCompact(compact);
+    return result;
+  }
+
+  /**
+   * Tests that datasets get shared and released.
+   *
+   * @throws Exception	if loading fails
+   */
+  public void testAcquireRelease() throws Exception {
+    DatasetCache cache = newCache(false);
+    Instances first = cache.acquire(new TmpFile(arffFile));
+    Instances second = cache.acquire(new TmpFile(arffFile));
+    assertSame("shared", first, second);
+    assertEquals("misses", 1, cache.getMisses());
+    assertEquals("hits", 1, cache.getHits());
+    assertEquals("heap", DatasetCache.estimateSize(first), cache.getCurrentHeap());
+
+    // still referenced once
+    cache.release(first);
+    cache.setMaxHeap(1);
+    assertEquals("referenced", 1, cache.size());
+
+    cache.release(second);
+    assertEquals("evicted", 0, cache.size());
+    assertEquals("no heap", 0, cache.getCurrentHeap());
+  }
+
+  /**
+   * Tests that the least recently used datasets get evicted first.
+   *
+   * @throws Exception	if loading fails
+   */
+  public void testEviction() throws Exception {
+    DatasetCache cache = newCache(false);
+    Instances arff = cache.acquire(new TmpFile(arffFile));
+    Instances csv = cache.acquire(new TmpFile(csvFile));
+    cache.release(arff);
+    cache.release(csv);
+    assertEquals("both cached", 2, cache.size());
+
+    // arff becomes the most recently used
+    cache.release(cache.acquire(new TmpFile(arffFile)));
+    cache.setMaxHeap(DatasetCache.estimateSize(arff));
+    assertEquals("one evicted", 1, cache.size());
+    assertSame("arff kept", arff, cache.acquire(new TmpFile(arffFile)));
+    assertEquals("misses", 2, cache.getMisses());
+  }
+
+  /**
+   * Tests compacting unreferenced datasets and restoring them on acquire.
+   *
+   * @throws Exception	if loading fails
+   */
+  public void testCompaction() throws Exception {
+    DatasetCache cache = newCache(true);
+    Instances data = cache.acquire(new TmpFile(arffFile));
+    Instances expected = new Instances(data);
+    long size = cache.getCurrentHeap();
+
+    // referenced datasets don't get compacted
+    cache.setMaxHeap(size - 1);
+    assertEquals("not compacted", size, cache.getCurrentHeap());
+
+    cache.release(data);
+    assertEquals("still cached", 1, cache.size());
+    assertTrue("compacted", cache.getCurrentHeap() < size);
+
+    Instances restored = cache.acquire(new TmpFile(arffFile));
+    assertNotSame("restored", data, restored);
+    assertEquals("no parsing", 1, cache.getMisses());
+    assertEquals("rows", expected.numInstances(), restored.numInstances());
+    for (int i = 0; i < expected.numInstances(); i++) {
+      for (int n = 0; n < expected.numAttributes(); n++)
+	assertEquals("row " + i + ", attribute " + n, expected.instance(i).value(n), restored.instance(i).value(n), 0.0);
+    }
+    assertEquals("heap", DatasetCache.estimateSize(restored), cache.getCurrentHeap());
+    cache.release(restored);
+  }
+
+  /**
+   * Tests that clearing only removes unreferenced datasets.
+   *
+   * @throws Exception	if loading fails
+   */
+  public void testClear() throws Exception {
+    DatasetCache cache = newCache(false);
+    Instances arff = cache.acquire(new TmpFile(arffFile));
+    cache.release(cache.acquire(new TmpFile(csvFile)));
+    cache.clear();
+    assertEquals("referenced kept", 1, cache.size());
+    assertSame("shared", arff, cache.acquire(new TmpFile(arffFile)));
+    cache.release(cache.acquire(new TmpFile(csvFile)));
+    assertEquals("reloaded", 3, cache.getMisses());
+  }
+
+  /**
+   * Returns a test suite.
+   *
+   * @return the test suite
+   */
+  public static Test suite() {
+    return new TestSuite(DatasetCacheTest.class);
+  }
+
+  /**
+   * Runs the test from commandline.
+   *
+   * @param args
+   *          ignored
+   */
+  public static void main(String[] args) {
+    Environment.setEnvironmentClass(Environment.class);
+    runTest(suite());
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * ParallelCsvInstancesReaderTest.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.weka;
+
+import java.io.FileWriter;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import weka.core.Instances;
+import weka.core.converters.CSVLoader;
+import adams.env.Environment;
+import adams.test.AbstractTestHelper;
+import adams.test.AdamsTestCase;
+import adams.test.TestHelper;
+import adams.test.TmpFile;
+
+/**
+ * Tests the ParallelCsvInstancesReader class.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class ParallelCsvInstancesReaderTest
+  extends AdamsTestCase {
+
+  final private String inputFile = "RandomRBF-1k-copy.csv";
+
+  final private String quotedFile = "quoted.csv";
+
+  /**
+   * Initializes the test.
+   *
+   * @param name
+   *          the name of the test
+   */
+  public ParallelCsvInstancesReaderTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Returns the test helper class to use.
+   *
+   * @return the helper class instance
+   */
+  @Override
+  protected AbstractTestHelper newTestHelper() {
+    return new TestHelper(this, "adams/flow/data");
+  }
+
+  /**
+   * Called by JUnit before each test method.
+   *
+   * @throws Exception
+   *           if an error occurs
+   */
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    m_TestHelper.copyResourceToTmp(inputFile);
+  }
+
+  /**
+   * Called by JUnit after each test method.
+   *
+   * @throws Exception
+   *           if tear-down fails
+   */
+  @Override
+  protected void tearDown() throws Exception {
+    m_TestHelper.deleteFileFromTmp(inputFile);
+    m_TestHelper.deleteFileFromTmp(quotedFile);
+
+    super.tearDown();
+  }
+
+  /**
+   * Tests reading the file with several threads.
+   *
+   * @throws Exception	if reading fails
+   */
+  public void testRead() throws Exception {
+    ParallelCsvInstancesReader reader = new ParallelCsvInstancesReader();
+    reader.setHasHeader(false);
+    reader.setNumThreads(4);
+    Instances data = reader.read(new TmpFile(inputFile));
+    assertEquals("rows", 1000, data.numInstances());
+    assertEquals("columns", 11, data.numAttributes());
+    assertTrue("numeric", data.attribute(0).isNumeric());
+    assertTrue("nominal", data.attribute(10).isNominal());
+    assertEquals("labels", 2, data.attribute(10).numValues());
+    assertEquals("first value", 0.210372, data.instance(0).value(0), 1e-9);
+  }
+
+  /**
+   * Compares the datasets cell by cell.
+   *
+   * @param msg		the message prefix
+   * @param expected	the expected data
+   * @param actual	the actual data
+   */
+  protected void assertEqualData(String msg, Instances expected, Instances actual) {
+    assertEquals(msg + ": rows", expected.numInstances(), actual.numInstances());
+    assertEquals(msg + ": columns", expected.numAttributes(), actual.numAttributes());
+    for (int c = 0; c < expected.numAttributes(); c++) {
+      assertEquals(msg + ": type of " + c, expected.attribute(c).type(), actual.attribute(c).type());
+      for (int r = 0; r < expected.numInstances(); r++) {
+	assertEquals(msg + ": missing " + r + "/" + c, expected.instance(r).isMissing(c), actual.instance(r).isMissing(c));
+	if (expected.instance(r).isMissing(c))
+	  continue;
+	if (expected.attribute(c).isNominal())
+	  assertEquals(msg + ": label " + r + "/" + c, expected.instance(r).stringValue(c), actual.instance(r).stringValue(c));
+	else
+	  assertEquals(msg + ": value " + r + "/" + c, expected.instance(r).value(c), actual.instance(r).value(c), 1e-12);
+      }
+    }
+  }
+
+  /**
+   * Tests reading the file in many segments against the CSVLoader.
+   *
+   * @throws Exception	if reading fails
+   */
+  public void testSegments() throws Exception {
+    CSVLoader loader = new CSVLoader();
+    loader.setNoHeaderRowPresent(true);
+    loader.setSource(new TmpFile(inputFile));
+    Instances expected = loader.getDataSet();
+
+    ParallelCsvInstancesReader reader = new ParallelCsvInstancesReader();
+    reader.setHasHeader(false);
+    reader.setNumThreads(4);
+    reader.setMinSegmentSize(1024);
+    assertEqualData("1KB segments", expected, reader.read(new TmpFile(inputFile)));
+    reader.setMinSegmentSize(777);
+    assertEqualData("odd segments", expected, reader.read(new TmpFile(inputFile)));
+  }
+
+  /**
+   * Tests quoted cells with separators and line breaks, with segment
+   * boundaries falling into them.
+   *
+   * @throws Exception	if reading fails
+   */
+  public void testQuotedNewline() throws Exception {
+    FileWriter writer = new FileWriter(new TmpFile(quotedFile).getAbsolutePath());
+    writer.write("id,text,value\n");
+    for (int i = 0; i < 50; i++)
+      writer.write(i + ",\"line " + i + ",\nnext \"\"" + i + "\"\"\"," + (i % 5 == 0 ? "?" : "" + (i * 0.5)) + "\n");
+    writer.close();
+
+    ParallelCsvInstancesReader reader = new ParallelCsvInstancesReader();
+    reader.setNumThreads(4);
+    Instances expected = reader.read(new TmpFile(quotedFile));
+    assertEquals("rows", 50, expected.numInstances());
+    assertEquals("columns", 3, expected.numAttributes());
+    assertEquals("name", "text", expected.attribute(1).name());
+    assertEquals("quoted", "line 7,\nnext \"7\"", expected.instance(7).stringValue(1));
+    assertTrue("missing", expected.instance(5).isMissing(2));
+    assertEquals("value", 3.5, expected.instance(7).value(2), 0.0);
+
+    // rows are about 30 bytes, the file about 1.5KB: segment boundaries at
+    // every possible offset within a row
+    for (int size = 100; size < 140; size++) {
+      reader.setMinSegmentSize(size);
+      assertEqualData("segment size " + size, expected, reader.read(new TmpFile(quotedFile)));
+    }
+  }
+
+  /**
+   * Returns a test suite.
+   *
+   * @return the test suite
+   */
+  public static Test suite() {
+    return new TestSuite(ParallelCsvInstancesReaderTest.class);
+  }
+
+  /**
+   * Runs the test from commandline.
+   *
+   * @param args
+   *          ignored
+   */
+  public static void main(String[] args) {
+    Environment.setEnvironmentClass(Environment.class);
+    runTest(suite());
+  }
+}
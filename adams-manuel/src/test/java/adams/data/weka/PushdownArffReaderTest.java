@@ -0,0 +1,200 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * PushdownArffReaderTest.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.data.weka;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import weka.core.Instances;
+import weka.core.converters.ConverterUtils.DataSource;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.Remove;
+import weka.filters.unsupervised.instance.Resample;
+import adams.env.Environment;
+import adams.test.AbstractTestHelper;
+import adams.test.AdamsTestCase;
+import adams.test.TestHelper;
+import adams.test.TmpFile;
+
+/**
+ * Tests the PushdownArffReader class.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class PushdownArffReaderTest
+  extends AdamsTestCase {
+
+  final private String inputFile = "RandomRBF-1k.arff";
+
+  final private String separatorsFile = "separators.arff";
+
+  /**
+   * Initializes the test.
+   *
+   * @param name
+   *          the name of the test
+   */
+  public PushdownArffReaderTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Returns the test helper class to use.
+   *
+   * @return the helper class instance
+   */
+  @Override
+  protected AbstractTestHelper newTestHelper() {
+    return new TestHelper(this, "adams/flow/data");
+  }
+
+  /**
+   * Called by JUnit before each test method.
+   *
+   * @throws Exception
+   *           if an error occurs
+   */
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    m_TestHelper.copyResourceToTmp(inputFile);
+  }
+
+  /**
+   * Called by JUnit after each test method.
+   *
+   * @throws Exception
+   *           if tear-down fails
+   */
+  @Override
+  protected void tearDown() throws Exception {
+    m_TestHelper.deleteFileFromTmp(inputFile);
+    m_TestHelper.deleteFileFromTmp(separatorsFile);
+
+    super.tearDown();
+  }
+
+  /**
+   * Tests that pushing the filters down gives the same dataset as loading
+   * the file and filtering it.
+   *
+   * @throws Exception	if reading or filtering fails
+   */
+  public void testSameOutput() throws Exception {
+    Remove remove = new Remove();
+    remove.setAttributeIndices("2,4-6");
+    Resample resample = new Resample();
+    resample.setSampleSizePercent(30);
+    resample.setRandomSeed(3);
+
+    assertSameOutput(new TmpFile(inputFile), new Filter[]{remove, resample});
+  }
+
+  /**
+   * Tests values separated by whitespace and by consecutive separators, as
+   * accepted by Weka's tokenizer.
+   *
+   * @throws Exception	if reading or filtering fails
+   */
+  public void testSeparators() throws Exception {
+    File file = new TmpFile(separatorsFile);
+    String header =
+	"@relation separators\n"
+	+ "@attribute a numeric\n"
+	+ "@attribute b numeric\n"
+	+ "@attribute c {x,y}\n"
+	+ "@data\n";
+    Files.write(file.toPath(), (header
+	+ "1,2,x\n"
+	+ "1 2 y\n"
+	+ "3,, 4 ,x\n"
+	+ "5\t6\t'y' % comment\n"
+	+ "7,\t? , y\n").getBytes("UTF-8"));
+    Remove remove = new Remove();
+    remove.setAttributeIndices("2");
+    assertSameOutput(file, new Filter[]{remove});
+
+    // wrong number of values, left to Weka
+    Files.write(file.toPath(), (header + "1,2,x\n7,8\n").getBytes("UTF-8"));
+    PushdownArffReader reader = new PushdownArffReader();
+    reader.setFilters(new Filter[]{remove});
+    try {
+      reader.read(file);
+      fail("malformed row accepted");
+    }
+    catch (Exception e) {
+      assertTrue("not left to Weka", reader.isFullyLoaded());
+    }
+  }
+
+  /**
+   * Checks that pushing the filters down gives the same dataset as loading
+   * the file and filtering it.
+   *
+   * @param file	the file to read
+   * @param filters	the filters to push down
+   * @throws Exception	if reading or filtering fails
+   */
+  protected void assertSameOutput(File file, Filter[] filters) throws Exception {
+    Instances expected = DataSource.read(file.getAbsolutePath());
+    for (Filter filter: filters) {
+      Filter copy = Filter.makeCopy(filter);
+      copy.setInputFormat(expected);
+      expected = Filter.useFilter(expected, copy);
+    }
+
+    PushdownArffReader reader = new PushdownArffReader();
+    reader.setFilters(filters);
+    Instances actual = reader.read(file);
+    assertFalse("fully loaded", reader.isFullyLoaded());
+    assertTrue("header: " + expected.equalHeadersMsg(actual), expected.equalHeaders(actual));
+    assertEquals("relation", expected.relationName(), actual.relationName());
+    assertEquals("rows", expected.numInstances(), actual.numInstances());
+    for (int i = 0; i < expected.numInstances(); i++) {
+      for (int n = 0; n < expected.numAttributes(); n++)
+	assertEquals("row " + i + ", attribute " + n, expected.instance(i).value(n), actual.instance(i).value(n), 0.0);
+    }
+  }
+
+  /**
+   * Returns a test suite.
+   *
+   * @return the test suite
+   */
+  public static Test suite() {
+    return new TestSuite(PushdownArffReaderTest.class);
+  }
+
+  /**
+   * Runs the test from commandline.
+   *
+   * @param args
+   *          ignored
+   */
+  public static void main(String[] args) {
+    Environment.setEnvironmentClass(Environment.class);
+    runTest(suite());
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * PrefetchingTemplateTest.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.flow.template;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import adams.env.Environment;
+import adams.flow.control.SubProcess;
+import adams.flow.core.AbstractActor;
+import adams.test.AdamsTestCase;
+
+/**
+ * Tests the PrefetchingTemplate class.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class PrefetchingTemplateTest
+  extends AdamsTestCase {
+
+  /**
+   * Template that fails once the specified number of actors got generated.
+   */
+  public static class FailingTemplate
+    extends AbstractActorTemplate {
+
+    /** for serialization. */
+    private static final long serialVersionUID = 3958114416328934176L;
+
+    /** the number of actors to generate before failing. */
+    protected int m_Limit;
+
+    /** the number of calls so far. */
+    protected volatile int m_Calls;
+
+    /**
+     * Initializes the template.
+     *
+     * @param limit	the number of actors to generate before failing
+     */
+    public FailingTemplate(int limit) {
+      super();
+      m_Limit = limit;
+    }
+
+    /**
+     * Returns a string describing the object.
+     *
+     * @return a description suitable for displaying in the gui
+     */
+    @Override
+    public String globalInfo() {
+      return "Fails once the limit of actors got generated.";
+    }
+
+    /**
+     * Generates the actor.
+     *
+     * @return the generated actor
+     */
+    @Override
+    protected AbstractActor doGenerate() {
+      m_Calls++;
+      if (m_Calls > m_Limit)
+	throw new IllegalStateException("Limit reached: " + m_Limit);
+      return new SubProcess();
+    }
+
+    /**
+     * Returns the number of calls so far.
+     *
+     * @return the number of calls
+     */
+    public int getCalls() {
+      return m_Calls;
+    }
+  }
+
+  /**
+   * Initializes the test.
+   *
+   * @param name
+   *          the name of the test
+   */
+  public PrefetchingTemplateTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Tests generating more actors than get prefetched.
+   */
+  public void testGenerate() {
+    RandomPreprocessingFlowGenerator generator = new RandomPreprocessingFlowGenerator();
+    generator.setNumOfFilters(1);
+    generator.setMaxNumOccurrences(1000);
+    PrefetchingTemplate template = new PrefetchingTemplate();
+    template.setTemplate(generator);
+    template.setNumPrefetch(2);
+
+    AbstractActor previous = null;
+    for (int i = 0; i < 5; i++) {
+      AbstractActor actor = template.generate();
+      assertTrue("not a pipeline", actor instanceof SubProcess);
+      assertEquals("variable and filter", 2, ((SubProcess) actor).size());
+      assertNotSame("same actor", previous, actor);
+      previous = actor;
+    }
+    template.stop();
+  }
+
+  /**
+   * Tests that errors of the wrapped template get passed on.
+   */
+  public void testError() {
+    PrefetchingTemplate template = new PrefetchingTemplate();
+    template.setTemplate(new RandomPreprocessingFlowGenerator());
+    try {
+      template.generate();
+      fail("no filters to generate");
+    }
+    catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Tests that an error gets passed on even if the queue is full of
+   * prefetched actors.
+   *
+   * @throws Exception	if waiting fails
+   */
+  public void testErrorQueueFull() throws Exception {
+    FailingTemplate failing = new FailingTemplate(2);
+    PrefetchingTemplate template = new PrefetchingTemplate();
+    template.setTemplate(failing);
+    template.setNumPrefetch(2);
+    template.start();
+    // wait for the background thread to fill the queue and fail
+    for (int i = 0; (i < 500) && (failing.getCalls() < 3); i++)
+      Thread.sleep(10);
+    assertEquals("calls", 3, failing.getCalls());
+
+    assertNotNull("first", template.generate());
+    assertNotNull("second", template.generate());
+    try {
+      template.generate();
+      fail("limit reached");
+    }
+    catch (IllegalStateException e) {
+      // expected
+    }
+    template.stop();
+  }
+
+  /**
+   * Returns a test suite.
+   *
+   * @return the test suite
+   */
+  public static Test suite() {
+    return new TestSuite(PrefetchingTemplateTest.class);
+  }
+
+  /**
+   * Runs the test from commandline.
+   *
+   * @param args
+   *          ignored
+   */
+  public static void main(String[] args) {
+    Environment.setEnvironmentClass(Environment.class);
+    runTest(suite());
+  }
+}
@@ -20,14 +20,25 @@
 
 package adams.flow.template;
 
-import java.nio.channels.Pipe.SinkChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
+import weka.core.OptionHandler;
+import weka.core.Utils;
+import weka.filters.Filter;
 import adams.core.io.PlaceholderFile;
+import adams.data.preprocessing.FilterPool;
+import adams.data.preprocessing.PipelineDescriptor;
 import adams.env.Environment;
 import adams.flow.AbstractFlowTest;
 import adams.flow.control.Flow;
+import adams.flow.control.SubProcess;
 import adams.flow.core.AbstractActor;
 import adams.flow.core.CallableActorReference;
 import adams.flow.sink.Console;
@@ -37,10 +48,12 @@ import adams.flow.source.WekaClassifierSetup;
 import adams.flow.standalone.CallableActors;
 import adams.flow.transformer.TemplateTransformer;
 import adams.flow.transformer.TemplateTransformerNoCache;
+import adams.flow.transformer.SetVariable;
 import adams.flow.transformer.WekaClassSelector;
 import adams.flow.transformer.WekaCrossValidationEvaluator;
 import adams.flow.transformer.WekaEvaluationSummary;
 import adams.flow.transformer.WekaFileReader;
+import adams.flow.transformer.WekaFilter;
 import adams.flow.transformer.WekaFileReader.OutputType;
 import adams.test.AbstractTestHelper;
 import adams.test.TestHelper;
@@ -145,6 +158,109 @@ public class RandomPreprocessingFlowGeneratorTest
     return flow;
   }
 
+  /**
+   * Generates pipelines with a single template from several threads at once.
+   *
+   * @throws Exception	if generation fails
+   */
+  public void testConcurrentGeneration() throws Exception {
+    final RandomPreprocessingFlowGenerator generator = new RandomPreprocessingFlowGenerator();
+    generator.setNumOfFilters(3);
+    generator.setMaxNumOccurrences(1);
+    generator.setSampleOptions(true);
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Callable<List<PipelineDescriptor>>> jobs = new ArrayList<Callable<List<PipelineDescriptor>>>();
+    for (int i = 0; i < 8; i++) {
+      jobs.add(new Callable<List<PipelineDescriptor>>() {
+	public List<PipelineDescriptor> call() throws Exception {
+	  List<PipelineDescriptor> result = new ArrayList<PipelineDescriptor>();
+	  for (int n = 0; n < 50; n++)
+	    result.add(generator.generateDescriptor());
+	  return result;
+	}
+      });
+    }
+    try {
+      for (Future<List<PipelineDescriptor>> future: executor.invokeAll(jobs)) {
+	for (PipelineDescriptor descriptor: future.get()) {
+	  assertEquals("number of filters", 3, descriptor.size());
+	  for (int i = 0; i < descriptor.size(); i++) {
+	    for (int n = i + 1; n < descriptor.size(); n++)
+	      assertTrue("maximum occurrences exceeded", descriptor.getFilterIndex(i) != descriptor.getFilterIndex(n));
+	  }
+	}
+      }
+    }
+    finally {
+      executor.shutdown();
+    }
+    assertEquals("configuration changed", 1, generator.getMaxNumOccurrences());
+
+    // the default maximum must not get fixed by the first call
+    generator.setMaxNumOccurrences(0);
+    generator.generateDescriptor();
+    assertEquals("configuration changed", 0, generator.getMaxNumOccurrences());
+  }
+
+  /**
+   * Returns the command-line of the filter.
+   *
+   * @param filter	the filter
+   * @return		the command-line
+   */
+  protected String toCommandLine(Filter filter) {
+    if (filter instanceof OptionHandler)
+      return filter.getClass().getName() + " " + Utils.joinOptions(((OptionHandler) filter).getOptions());
+    else
+      return filter.getClass().getName();
+  }
+
+  /**
+   * Materializes pipelines with a single template from several threads at
+   * once, returning the actors to the pool, and checks that the filter
+   * actors match the pipeline stored in the variable.
+   *
+   * @throws Exception	if generation fails
+   */
+  public void testConcurrentMaterialization() throws Exception {
+    final RandomPreprocessingFlowGenerator generator = new RandomPreprocessingFlowGenerator();
+    generator.setNumOfFilters(3);
+    generator.setMaxNumOccurrences(1);
+    generator.setSampleOptions(true);
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Callable<Integer>> jobs = new ArrayList<Callable<Integer>>();
+    for (int i = 0; i < 8; i++) {
+      jobs.add(new Callable<Integer>() {
+	public Integer call() throws Exception {
+	  int checked = 0;
+	  for (int n = 0; n < 25; n++) {
+	    SubProcess seq = (SubProcess) generator.generate();
+	    assertEquals("number of actors", 4, seq.size());
+	    PipelineDescriptor descriptor = PipelineDescriptor.parse(
+		((SetVariable) seq.get(0)).getVariableValue().getValue());
+	    assertEquals("number of filters", 3, descriptor.size());
+	    for (int m = 0; m < descriptor.size(); m++) {
+	      WekaFilter actor = (WekaFilter) seq.get(m + 1);
+	      assertEquals("filter " + m, toCommandLine(descriptor.newFilter(m)), toCommandLine(actor.getFilter()));
+	      checked++;
+	    }
+	    FilterPool.getSingleton().release(seq);
+	  }
+	  return checked;
+	}
+      });
+    }
+    try {
+      for (Future<Integer> future: executor.invokeAll(jobs))
+	assertEquals("filters checked", 75, future.get().intValue());
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
   /**
    * Returns a test suite.
    * 
@@ -0,0 +1,424 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * AutomaticPreprocessingTest.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.flow.transformer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import weka.classifiers.bayes.NaiveBayesUpdateable;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.filters.AllFilter;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.Remove;
+import adams.data.preprocessing.FilterPool;
+import adams.env.Environment;
+import adams.flow.core.AbstractActor;
+import adams.flow.core.Token;
+import adams.flow.template.AbstractActorTemplate;
+import adams.test.AdamsTestCase;
+
+/**
+ * Tests the sharded and the shadow mode of the AutomaticPreprocessing actor.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class AutomaticPreprocessingTest
+  extends AdamsTestCase {
+
+  /**
+   * Template that generates filter actors with the queued filters (or ones
+   * that pass the data through, if none queued), counting the generated
+   * actors.
+   */
+  public static class CountingTemplate
+    extends AbstractActorTemplate {
+
+    /** for serialization. */
+    private static final long serialVersionUID = -2385015553311227392L;
+
+    /** the number of generated actors. */
+    protected int m_Generated;
+
+    /** the filters for the next actors. */
+    protected List<Filter> m_Filters = new ArrayList<Filter>();
+
+    /**
+     * Returns a string describing the object.
+     *
+     * @return a description suitable for displaying in the gui
+     */
+    @Override
+    public String globalInfo() {
+      return "Generates filter actors with the queued filters, otherwise ones that pass the data through.";
+    }
+
+    /**
+     * Generates the actor.
+     *
+     * @return the generated actor
+     */
+    @Override
+    protected AbstractActor doGenerate() {
+      WekaFilter result = FilterPool.getSingleton().acquireActor();
+      if (m_Filters.isEmpty())
+	result.setFilter(new AllFilter());
+      else
+	result.setFilter(m_Filters.remove(0));
+      m_Generated++;
+      return result;
+    }
+
+    /**
+     * Queues the filter for the next actor to generate.
+     *
+     * @param filter the filter
+     */
+    public void addFilter(Filter filter) {
+      m_Filters.add(filter);
+    }
+
+    /**
+     * Returns the number of generated actors.
+     *
+     * @return the number of actors
+     */
+    public int getGenerated() {
+      return m_Generated;
+    }
+  }
+
+  /** the released pipelines. */
+  protected List<AbstractActor> m_Released;
+
+  /**
+   * Initializes the test.
+   *
+   * @param name
+   *          the name of the test
+   */
+  public AutomaticPreprocessingTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Called by JUnit before each test method.
+   *
+   * @throws Exception
+   *           if an error occurs
+   */
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    m_Released = new ArrayList<AbstractActor>();
+  }
+
+  /**
+   * Returns a set up actor in sharded mode, keeping track of the released
+   * pipelines.
+   *
+   * @param template	the template to use
+   * @param numShards	the number of shards
+   * @param maxKeys	the maximum number of pipelines per shard
+   * @return		the actor
+   */
+  protected AutomaticPreprocessing newActor(CountingTemplate template, int numShards, int maxKeys) {
+    AutomaticPreprocessing result = new AutomaticPreprocessing() {
+      private static final long serialVersionUID = 6018725237045934473L;
+      @Override
+      protected void release(AbstractActor actor) {
+	synchronized(m_Released) {
+	  m_Released.add(actor);
+	}
+	super.release(actor);
+      }
+    };
+    result.setTemplate(template);
+    result.setNumShards(numShards);
+    result.setKey("key");
+    result.setMaxKeys(maxKeys);
+    assertNull("set up", result.setUp());
+
+    return result;
+  }
+
+  /**
+   * Returns a dataset with a nominal key and the row index as second
+   * attribute.
+   *
+   * @param keys	the key per row, one character each
+   * @return		the dataset
+   */
+  protected Instances getData(String keys) {
+    ArrayList<String> labels = new ArrayList<String>();
+    labels.add("a");
+    labels.add("b");
+    labels.add("c");
+    ArrayList<Attribute> atts = new ArrayList<Attribute>();
+    atts.add(new Attribute("key", labels));
+    atts.add(new Attribute("id"));
+    Instances result = new Instances("test", atts, keys.length());
+    for (int i = 0; i < keys.length(); i++)
+      result.add(new DenseInstance(1.0, new double[]{labels.indexOf(keys.substring(i, i + 1)), i}));
+    return result;
+  }
+
+  /**
+   * Returns a dataset with a numeric attribute (uniformly distributed) and a
+   * nominal class that depends on it.
+   *
+   * @param random	for generating the values
+   * @param numRows	the number of rows
+   * @return		the dataset
+   */
+  protected Instances getLabelledData(Random random, int numRows) {
+    ArrayList<String> labels = new ArrayList<String>();
+    labels.add("no");
+    labels.add("yes");
+    ArrayList<Attribute> atts = new ArrayList<Attribute>();
+    atts.add(new Attribute("x"));
+    atts.add(new Attribute("class", labels));
+    Instances result = new Instances("labelled", atts, numRows);
+    result.setClassIndex(1);
+    for (int i = 0; i < numRows; i++) {
+      double x = random.nextDouble();
+      result.add(new DenseInstance(1.0, new double[]{x, (x > 0.5) ? 1 : 0}));
+    }
+    return result;
+  }
+
+  /**
+   * Processes the payload and returns the generated tokens.
+   *
+   * @param actor	the actor to use
+   * @param payload	the data to process
+   * @return		the output
+   */
+  protected List<Token> process(AutomaticPreprocessing actor, Object payload) {
+    List<Token> result = new ArrayList<Token>();
+    actor.input(new Token(payload));
+    assertNull("execute", actor.execute());
+    while (actor.hasPendingOutput())
+      result.add(actor.output());
+    return result;
+  }
+
+  /**
+   * Tests that the rows get routed to one pipeline per key, keeping their
+   * order.
+   */
+  public void testRouting() {
+    CountingTemplate template = new CountingTemplate();
+    AutomaticPreprocessing actor = newActor(template, 2, 10);
+    int initial = template.getGenerated();
+    Instances data = getData("abcabcabc");
+
+    List<Token> output = process(actor, data);
+    assertEquals("one token per key", 3, output.size());
+    assertEquals("one pipeline per key", initial + 3, template.getGenerated());
+    for (int i = 0; i < output.size(); i++) {
+      Instances group = (Instances) output.get(i).getPayload();
+      assertEquals("rows", 3, group.numInstances());
+      for (int n = 0; n < group.numInstances(); n++) {
+	assertEquals("key", "abc".substring(i, i + 1), group.instance(n).stringValue(0));
+	assertEquals("order", (double) (i + n * 3), group.instance(n).value(1));
+      }
+    }
+
+    // single rows end up in the existing pipelines
+    for (int i = 0; i < data.numInstances(); i++) {
+      output = process(actor, data.instance(i));
+      assertEquals("one token", 1, output.size());
+      assertEquals("order", (double) i, ((Instance) output.get(0).getPayload()).value(1));
+    }
+    assertEquals("pipelines reused", initial + 3, template.getGenerated());
+
+    actor.wrapUp();
+    assertEquals("released", 3, m_Released.size());
+  }
+
+  /**
+   * Tests that the least recently used pipelines get evicted and returned
+   * to the pool.
+   */
+  public void testEviction() {
+    CountingTemplate template = new CountingTemplate();
+    AutomaticPreprocessing actor = newActor(template, 1, 1);
+    int initial = template.getGenerated();
+    Instances data = getData("aba");
+
+    for (int i = 0; i < data.numInstances(); i++)
+      assertEquals("one token", 1, process(actor, data.instance(i)).size());
+    assertEquals("regenerated after eviction", initial + 3, template.getGenerated());
+    assertEquals("evicted", 2, m_Released.size());
+    assertSame("returned to pool", m_Released.get(1), FilterPool.getSingleton().acquireActor());
+
+    actor.wrapUp();
+    assertEquals("released", 3, m_Released.size());
+  }
+
+  /**
+   * Tests that the output of the primary pipeline gets emitted and that a
+   * better shadow pipeline gets promoted.
+   *
+   * @throws Exception	if waiting fails
+   */
+  public void testPromotion() throws Exception {
+    CountingTemplate template = new CountingTemplate();
+    AutomaticPreprocessing actor = new AutomaticPreprocessing();
+    actor.setTemplate(template);
+    actor.setNumShadows(1);
+    actor.setMinScored(20);
+    assertNull("set up", actor.setUp());
+
+    // the primary removes the attribute the class depends on
+    Remove remove = new Remove();
+    remove.setAttributeIndices("1");
+    template.addFilter(remove);
+    template.addFilter(new AllFilter());
+
+    Random random = new Random(1);
+    List<Token> output = process(actor, getLabelledData(random, 20));
+    assertEquals("primary", 0, actor.getPrimary());
+    assertEquals("one token", 1, output.size());
+    assertEquals("output of primary", 1, ((Instances) output.get(0).getPayload()).numAttributes());
+
+    // scoring happens in the background
+    for (int i = 0; (i < 100) && (actor.getPrimary() == 0); i++) {
+      process(actor, getLabelledData(random, 20));
+      Thread.sleep(10);
+    }
+    assertEquals("promoted", 1, actor.getPrimary());
+    output = process(actor, getLabelledData(random, 20));
+    assertEquals("output of promoted", 2, ((Instances) output.get(0).getPayload()).numAttributes());
+
+    actor.wrapUp();
+  }
+
+  /**
+   * Tests that shadow pipelines drop tokens if too many are waiting.
+   */
+  public void testDropping() {
+    WekaFilter filter = new WekaFilter();
+    filter.setFilter(new AllFilter());
+    assertNull("set up", filter.setUp());
+    PipelineBranch branch = new PipelineBranch(filter, new NaiveBayesUpdateable());
+
+    // keep the worker thread busy
+    final CountDownLatch latch = new CountDownLatch(1);
+    branch.m_Executor.submit(new Runnable() {
+      public void run() {
+	try {
+	  latch.await();
+	}
+	catch (InterruptedException e) {
+	  // ignored
+	}
+      }
+    });
+
+    Random random = new Random(1);
+    assertTrue("queued", branch.offer(new Token(getLabelledData(random, 20)), 2));
+    assertTrue("queued", branch.offer(new Token(getLabelledData(random, 20)), 2));
+    assertFalse("dropped", branch.offer(new Token(getLabelledData(random, 20)), 2));
+    latch.countDown();
+    branch.shutdown();
+    assertEquals("dropped", 1, branch.getDropped());
+    assertEquals("errors", 0, branch.getErrors());
+    assertEquals("scored", 20, branch.getScored());
+  }
+
+  /**
+   * Tests that the primary pipeline waits if too many tokens are waiting.
+   *
+   * @throws Exception	if test fails
+   */
+  public void testBackPressure() throws Exception {
+    WekaFilter filter = new WekaFilter();
+    filter.setFilter(new AllFilter());
+    assertNull("set up", filter.setUp());
+    final PipelineBranch branch = new PipelineBranch(filter, new NaiveBayesUpdateable());
+
+    // keep the scoring thread busy
+    final CountDownLatch latch = new CountDownLatch(1);
+    branch.m_Scorer.submit(new Runnable() {
+      public void run() {
+	try {
+	  latch.await();
+	}
+	catch (InterruptedException e) {
+	  // ignored
+	}
+      }
+    });
+
+    final Random random = new Random(1);
+    assertEquals("processed", 1, branch.process(new Token(getLabelledData(random, 20)), 1).get().size());
+    final CountDownLatch done = new CountDownLatch(1);
+    new Thread() {
+      @Override
+      public void run() {
+	try {
+	  branch.process(new Token(getLabelledData(random, 20)), 1).get();
+	  done.countDown();
+	}
+	catch (Exception e) {
+	  // fails the test below
+	}
+      }
+    }.start();
+    assertFalse("waiting", done.await(200, TimeUnit.MILLISECONDS));
+    latch.countDown();
+    assertTrue("processed", done.await(10, TimeUnit.SECONDS));
+    branch.shutdown();
+    assertEquals("dropped", 0, branch.getDropped());
+    assertEquals("scored", 20, branch.getScored());
+  }
+
+  /**
+   * Returns a test suite.
+   *
+   * @return the test suite
+   */
+  public static Test suite() {
+    return new TestSuite(AutomaticPreprocessingTest.class);
+  }
+
+  /**
+   * Runs the test from commandline.
+   *
+   * @param args
+   *          ignored
+   */
+  public static void main(String[] args) {
+    Environment.setEnvironmentClass(Environment.class);
+    runTest(suite());
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * DistributedPreprocessingSearchTest.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.flow.transformer;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import adams.env.Environment;
+import adams.flow.AbstractFlowTest;
+import adams.flow.control.Flow;
+import adams.flow.core.AbstractActor;
+import adams.flow.sink.DumpFile;
+import adams.flow.source.FileSupplier;
+import adams.flow.template.RandomPreprocessingFlowGenerator;
+import adams.test.TmpFile;
+
+/**
+ * Tests the DistributedPreprocessingSearch actor, using workers forked on
+ * localhost.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class DistributedPreprocessingSearchTest
+  extends AbstractFlowTest {
+
+  final private String inputFile = "RandomRBF-1k.arff";
+
+  final private String outputFile = "dumpfile.txt";
+
+  /**
+   * Initializes the test.
+   *
+   * @param name
+   *          the name of the test
+   */
+  public DistributedPreprocessingSearchTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Called by JUnit before each test method.
+   *
+   * @throws Exception
+   *           if an error occurs
+   */
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    m_TestHelper.copyResourceToTmp(inputFile);
+    m_TestHelper.deleteFileFromTmp(outputFile);
+  }
+
+  /**
+   * Called by JUnit after each test method.
+   *
+   * @throws Exception
+   *           if tear-down fails
+   */
+  @Override
+  protected void tearDown() throws Exception {
+    m_TestHelper.deleteFileFromTmp(inputFile);
+    m_TestHelper.deleteFileFromTmp(outputFile);
+
+    super.tearDown();
+  }
+
+  /**
+   * Used to create an instance of a specific actor.
+   *
+   * @return a suitably configured <code>AbstractActor</code> value
+   */
+  public AbstractActor getActor() {
+    FileSupplier sfs = new FileSupplier();
+    sfs.setFiles(new adams.core.io.PlaceholderFile[] {new TmpFile(inputFile)});
+
+    RandomPreprocessingFlowGenerator gen = new RandomPreprocessingFlowGenerator();
+    gen.setNumOfFilters(1);
+
+    DistributedPreprocessingSearch search = new DistributedPreprocessingSearch();
+    search.setTemplate(gen);
+    search.setNumWorkers(2);
+    search.setNumCandidates(4);
+    search.setFolds(3);
+
+    DumpFile df = new DumpFile();
+    df.setOutputFile(new TmpFile(outputFile));
+    df.setAppend(true);
+
+    Flow flow = new Flow();
+    flow.setActors(new AbstractActor[] {sfs, search, df});
+
+    return flow;
+  }
+
+  /**
+   * Returns a test suite.
+   *
+   * @return the test suite
+   */
+  public static Test suite() {
+    return new TestSuite(DistributedPreprocessingSearchTest.class);
+  }
+
+  /**
+   * Runs the test from commandline.
+   *
+   * @param args
+   *          ignored
+   */
+  public static void main(String[] args) {
+    Environment.setEnvironmentClass(Environment.class);
+    runTest(suite());
+  }
+}
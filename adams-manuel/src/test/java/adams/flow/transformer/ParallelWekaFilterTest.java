@@ -0,0 +1,162 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * ParallelWekaFilterTest.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.flow.transformer;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.NumericTransform;
+import weka.filters.unsupervised.attribute.Standardize;
+import adams.env.Environment;
+import adams.flow.core.Token;
+import adams.test.AdamsTestCase;
+
+/**
+ * Tests the ParallelWekaFilter actor against the WekaFilter one.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class ParallelWekaFilterTest
+  extends AdamsTestCase {
+
+  /**
+   * Initializes the test.
+   *
+   * @param name
+   *          the name of the test
+   */
+  public ParallelWekaFilterTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Returns a numeric dataset.
+   *
+   * @param random	for generating the values
+   * @param numRows	the number of rows
+   * @return		the dataset
+   */
+  protected Instances getData(Random random, int numRows) {
+    ArrayList<Attribute> atts = new ArrayList<Attribute>();
+    atts.add(new Attribute("a"));
+    atts.add(new Attribute("b"));
+    Instances result = new Instances("test", atts, numRows);
+    for (int i = 0; i < numRows; i++)
+      result.add(new DenseInstance(1.0, new double[]{random.nextGaussian() * 10, random.nextDouble()}));
+    return result;
+  }
+
+  /**
+   * Filters the data.
+   *
+   * @param actor	the actor to use
+   * @param data	the data to filter
+   * @return		the filtered data
+   */
+  protected Instances filter(WekaFilter actor, Instances data) {
+    actor.input(new Token(new Instances(data)));
+    assertNull("execute", actor.execute());
+    return (Instances) actor.output().getPayload();
+  }
+
+  /**
+   * Compares the output of both actors over several batches.
+   *
+   * @param filter		the filter to use
+   * @param initializeOnce	whether to fit only on the first batch
+   */
+  protected void compare(Filter filter, boolean initializeOnce) {
+    WekaFilter serial = new WekaFilter();
+    serial.setFilter(filter);
+    serial.setInitializeOnce(initializeOnce);
+    assertNull("set up", serial.setUp());
+
+    ParallelWekaFilter parallel = new ParallelWekaFilter();
+    parallel.setFilter(filter);
+    parallel.setInitializeOnce(initializeOnce);
+    parallel.setNumThreads(4);
+    parallel.setMinRows(10);
+    assertNull("set up", parallel.setUp());
+
+    Random random = new Random(1);
+    // small batch stays serial
+    int[] sizes = new int[]{100, 5, 1000, 37};
+    for (int size: sizes) {
+      Instances data = getData(random, size);
+      Instances expected = filter(serial, data);
+      Instances actual = filter(parallel, data);
+      assertEquals("rows", expected.numInstances(), actual.numInstances());
+      assertEquals("columns", expected.numAttributes(), actual.numAttributes());
+      for (int i = 0; i < expected.numInstances(); i++) {
+	for (int n = 0; n < expected.numAttributes(); n++)
+	  assertEquals("value " + i + "/" + n, expected.instance(i).value(n), actual.instance(i).value(n), 0.0);
+      }
+    }
+
+    serial.wrapUp();
+    parallel.wrapUp();
+  }
+
+  /**
+   * Tests a batch filter fitted on the first dataset.
+   */
+  public void testBatchFilter() {
+    compare(new Standardize(), true);
+    compare(new Standardize(), false);
+  }
+
+  /**
+   * Tests a stream filter.
+   */
+  public void testStreamFilter() {
+    NumericTransform filter = new NumericTransform();
+    filter.setMethodName("abs");
+    compare(filter, true);
+    compare(filter, false);
+  }
+
+  /**
+   * Returns a test suite.
+   *
+   * @return the test suite
+   */
+  public static Test suite() {
+    return new TestSuite(ParallelWekaFilterTest.class);
+  }
+
+  /**
+   * Runs the test from commandline.
+   *
+   * @param args
+   *          ignored
+   */
+  public static void main(String[] args) {
+    Environment.setEnvironmentClass(Environment.class);
+    runTest(suite());
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * PipelineCrossValidationEvaluatorTest.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.flow.transformer;
+
+import java.io.FileReader;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import weka.core.Instances;
+import adams.env.Environment;
+import adams.test.AbstractTestHelper;
+import adams.test.AdamsTestCase;
+import adams.test.TestHelper;
+import adams.test.TmpFile;
+
+/**
+ * Tests the folds of the PipelineCrossValidationEvaluator.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class PipelineCrossValidationEvaluatorTest
+  extends AdamsTestCase {
+
+  final private String inputFile = "RandomRBF-1k.arff";
+
+  /**
+   * Initializes the test.
+   *
+   * @param name
+   *          the name of the test
+   */
+  public PipelineCrossValidationEvaluatorTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Returns the test helper class to use.
+   *
+   * @return the helper class instance
+   */
+  @Override
+  protected AbstractTestHelper newTestHelper() {
+    return new TestHelper(this, "adams/flow/data");
+  }
+
+  /**
+   * Called by JUnit before each test method.
+   *
+   * @throws Exception
+   *           if an error occurs
+   */
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    m_TestHelper.copyResourceToTmp(inputFile);
+  }
+
+  /**
+   * Called by JUnit after each test method.
+   *
+   * @throws Exception
+   *           if tear-down fails
+   */
+  @Override
+  protected void tearDown() throws Exception {
+    m_TestHelper.deleteFileFromTmp(inputFile);
+
+    super.tearDown();
+  }
+
+  /**
+   * Tests that the folds partition the dataset and are stratified.
+   *
+   * @throws Exception	if loading fails
+   */
+  public void testFolds() throws Exception {
+    FileReader reader = new FileReader(new TmpFile(inputFile));
+    Instances data = new Instances(reader);
+    reader.close();
+    data.setClassIndex(data.numAttributes() - 1);
+
+    int folds = 7;
+    int[][] test = PipelineCrossValidationEvaluator.getTestIndices(data, folds, 1);
+    assertEquals("number of folds", folds, test.length);
+
+    int[] totals = new int[data.numClasses()];
+    for (int i = 0; i < data.numInstances(); i++)
+      totals[(int) data.instance(i).classValue()]++;
+
+    int[] seen = new int[data.numInstances()];
+    for (int f = 0; f < folds; f++) {
+      int[] train = PipelineCrossValidationEvaluator.getTrainIndices(test, f, data.numInstances());
+      assertEquals("train + test", data.numInstances(), train.length + test[f].length);
+      assertTrue("fold size", Math.abs(test[f].length - data.numInstances() / folds) <= 1);
+      int[] counts = new int[data.numClasses()];
+      for (int i = 0; i < test[f].length; i++) {
+	seen[test[f][i]]++;
+	counts[(int) data.instance(test[f][i]).classValue()]++;
+      }
+      for (int c = 0; c < counts.length; c++)
+	assertTrue("not stratified", Math.abs(counts[c] - totals[c] / (double) folds) <= 1.0);
+    }
+    for (int i = 0; i < seen.length; i++)
+      assertEquals("row " + i + " in test sets", 1, seen[i]);
+  }
+
+  /**
+   * Returns a test suite.
+   *
+   * @return the test suite
+   */
+  public static Test suite() {
+    return new TestSuite(PipelineCrossValidationEvaluatorTest.class);
+  }
+
+  /**
+   * Runs the test from commandline.
+   *
+   * @param args
+   *          ignored
+   */
+  public static void main(String[] args) {
+    Environment.setEnvironmentClass(Environment.class);
+    runTest(suite());
+  }
+}
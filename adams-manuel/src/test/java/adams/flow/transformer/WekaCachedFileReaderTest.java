@@ -0,0 +1,158 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * WekaCachedFileReaderTest.java
+ * Copyright (C) 2014 Manuel Martin Salvador <msalvador at bournemouth.ac.uk>
+ */
+
+package adams.flow.transformer;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import adams.data.weka.DatasetCache;
+import adams.env.Environment;
+import adams.flow.AbstractFlowTest;
+import adams.flow.control.Flow;
+import adams.flow.core.AbstractActor;
+import adams.flow.core.CallableActorReference;
+import adams.flow.sink.DumpFile;
+import adams.flow.source.FileSupplier;
+import adams.flow.source.WekaClassifierSetup;
+import adams.flow.standalone.CallableActors;
+import adams.test.TmpFile;
+
+/**
+ * Tests the WekaCachedFileReader actor.
+ *
+ * @author msalvador (msalvador at bournemouth.ac.uk)
+ * @version $Revision$
+ */
+public class WekaCachedFileReaderTest
+  extends AbstractFlowTest {
+
+  final private String inputFile = "RandomRBF-1k.arff";
+
+  final private String outputFile = "dumpfile.txt";
+
+  /**
+   * Initializes the test.
+   *
+   * @param name
+   *          the name of the test
+   */
+  public WekaCachedFileReaderTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Called by JUnit before each test method.
+   *
+   * @throws Exception
+   *           if an error occurs
+   */
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    m_TestHelper.copyResourceToTmp(inputFile);
+    m_TestHelper.deleteFileFromTmp(outputFile);
+  }
+
+  /**
+   * Called by JUnit after each test method.
+   *
+   * @throws Exception
+   *           if tear-down fails
+   */
+  @Override
+  protected void tearDown() throws Exception {
+    m_TestHelper.deleteFileFromTmp(inputFile);
+    m_TestHelper.deleteFileFromTmp(outputFile);
+
+    super.tearDown();
+  }
+
+  /**
+   * Used to create an instance of a specific actor.
+   *
+   * @return a suitably configured <code>AbstractActor</code> value
+   */
+  public AbstractActor getActor() {
+    WekaClassifierSetup cls = new WekaClassifierSetup();
+    cls.setName("cls");
+    cls.setClassifier(new weka.classifiers.trees.J48());
+
+    CallableActors ga = new CallableActors();
+    ga.setActors(new AbstractActor[] {cls});
+
+    // the same file twice, the second one must be served from the cache
+    FileSupplier sfs = new FileSupplier();
+    sfs.setFiles(new adams.core.io.PlaceholderFile[] {new TmpFile(inputFile), new TmpFile(inputFile)});
+
+    WekaCachedFileReader fr = new WekaCachedFileReader();
+
+    WekaClassSelector cs = new WekaClassSelector();
+
+    WekaCrossValidationEvaluator cv = new WekaCrossValidationEvaluator();
+    cv.setClassifier(new CallableActorReference("cls"));
+
+    WekaEvaluationSummary eval = new WekaEvaluationSummary();
+    DumpFile df = new DumpFile();
+    df.setOutputFile(new TmpFile(outputFile));
+
+    Flow flow = new Flow();
+    flow.setActors(new AbstractActor[] {ga, sfs, fr, cs, cv, eval, df});
+
+    return flow;
+  }
+
+  /**
+   * Tests that a file is only parsed once.
+   *
+   * @throws Exception	if loading fails
+   */
+  public void testSharing() throws Exception {
+    DatasetCache cache = DatasetCache.getSingleton();
+    cache.clear();
+    long misses = cache.getMisses();
+    weka.core.Instances first = cache.acquire(new TmpFile(inputFile));
+    weka.core.Instances second = cache.acquire(new TmpFile(inputFile));
+    assertSame("datasets differ", first, second);
+    assertEquals("file parsed more than once", misses + 1, cache.getMisses());
+    cache.release(first);
+    cache.release(second);
+  }
+
+  /**
+   * Returns a test suite.
+   *
+   * @return the test suite
+   */
+  public static Test suite() {
+    return new TestSuite(WekaCachedFileReaderTest.class);
+  }
+
+  /**
+   * Runs the test from commandline.
+   *
+   * @param args
+   *          ignored
+   */
+  public static void main(String[] args) {
+    Environment.setEnvironmentClass(Environment.class);
+    runTest(suite());
+  }
+}